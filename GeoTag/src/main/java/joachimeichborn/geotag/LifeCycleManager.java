@@ -34,6 +34,7 @@ import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.e4.core.contexts.IEclipseContext;
 import org.eclipse.e4.core.di.extensions.Preference;
 import org.eclipse.e4.ui.workbench.lifecycle.PostContextCreate;
 import org.eclipse.e4.ui.workbench.lifecycle.PreSave;
@@ -43,12 +44,15 @@ import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Shell;
 import org.osgi.service.prefs.BackingStoreException;
 
+import joachimeichborn.geotag.handlers.PictureAnnotationJob;
 import joachimeichborn.geotag.io.database.DatabaseAccess;
+import joachimeichborn.geotag.io.jpeg.AnnotationJournal;
 import joachimeichborn.geotag.logging.ConsoleAppender;
 import joachimeichborn.geotag.logging.ConsoleViewAppender;
 import joachimeichborn.geotag.logging.JoachimEichbornFilter;
 import joachimeichborn.geotag.logging.LongLogFormat;
 import joachimeichborn.geotag.logging.ShortLogFormat;
+import joachimeichborn.geotag.misc.ExecutionService;
 import joachimeichborn.geotag.ui.preferences.GeneralPreferences;
 
 public class LifeCycleManager {
@@ -59,10 +63,12 @@ public class LifeCycleManager {
 	private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd_HH_mm_ss");
 
 	private DatabaseAccess dbAccess;
+	private ExecutionService executionService;
 
 	@PostContextCreate
-	void postContextCreate(final IApplicationContext aAppContext, final DatabaseAccess aDatabaseAccess,
-			final Display aDisplay, final ConsoleViewAppender aViewAppender) {
+	void postContextCreate(final IApplicationContext aAppContext, final IEclipseContext aContext,
+			final DatabaseAccess aDatabaseAccess, final ExecutionService aExecutionService, final Display aDisplay,
+			final ConsoleViewAppender aViewAppender) {
 		if (!Files.exists(WORKING_DIR)) {
 			try {
 				Files.createDirectories(WORKING_DIR);
@@ -77,8 +83,11 @@ public class LifeCycleManager {
 		LOGGER.fine("Working directory is " + WORKING_DIR);
 
 		dbAccess = aDatabaseAccess;
+		executionService = aExecutionService;
 
 		forceHookInFileDialogs();
+
+		PictureAnnotationJob.resumeInterrupted(AnnotationJournal.JOURNAL_DIR, executionService, aContext);
 	}
 
 	/**
@@ -139,6 +148,10 @@ public class LifeCycleManager {
 	void preSave(
 			@Preference(nodePath = PREFERENCES_NODE, value = GeneralPreferences.DB_MAX_ENTRIES) final int aMaxEntries,
 			@Preference(nodePath = PREFERENCES_NODE) final IEclipsePreferences aPreferences) {
+		PictureAnnotationJob.interruptAll();
+		Job.getJobManager().cancel(null);
+		executionService.shutdown();
+
 		dbAccess.trim(aMaxEntries);
 		dbAccess.close();
 
@@ -148,8 +161,6 @@ public class LifeCycleManager {
 			LOGGER.log(Level.SEVERE, "Could not save preferences: " + e.getMessage(), e);
 		}
 
-		Job.getJobManager().cancel(null);
-
 		LOGGER.info("Shutdown completed");
 		LogManager.getLogManager().reset();
 	}
@@ -25,30 +25,37 @@ package joachimeichborn.geotag.geocode;
  * @author Joachim von Eichborn
  */
 public enum GeocodingProvider {
-	MAP_QUEST("Map Quest (Open Street Map)") {
-		@Override
-		public Geocoder getGeocoder() {
-			return new MapQuestGeocoder();
-		}
-	},
-	GOOGLE("Google") {
-		@Override
-		public Geocoder getGeocoder() {
-			return new GoogleGeocoder();
-		}
-	};
+	MAP_QUEST("Map Quest (Open Street Map)", new MapQuestGeocoder(), 1000), //
+	GOOGLE("Google", new GoogleGeocoder(), 100);
 
 	private String displayName;
+	private Geocoder geocoder;
 
-	GeocodingProvider(final String aDisplayName) {
+	/**
+	 * @param aDisplayName
+	 * @param aGeocoder
+	 *            the geocoder querying the provider
+	 * @param aIntervalMillis
+	 *            the minimum interval between two queries to the provider, no
+	 *            matter how many of them are submitted in parallel
+	 */
+	GeocodingProvider(final String aDisplayName, final Geocoder aGeocoder, final long aIntervalMillis) {
 		displayName = aDisplayName;
+		geocoder = new RateLimitedGeocoder(aGeocoder, aIntervalMillis);
 	}
 
 	public String getDisplayName() {
 		return displayName;
 	}
 
-	public abstract Geocoder getGeocoder();
+	/**
+	 * @return the geocoder of the provider, it is shared by all callers such
+	 *         that the queries of parallel geocoding jobs are rate limited
+	 *         together
+	 */
+	public Geocoder getGeocoder() {
+		return geocoder;
+	}
 
 	public static GeocodingProvider getByDisplayName(final String aDisplayName) {
 		for (final GeocodingProvider provider : values()) {
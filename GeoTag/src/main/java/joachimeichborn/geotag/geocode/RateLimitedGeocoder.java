@@ -0,0 +1,80 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.geocode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+
+/**
+ * Geocoder that delegates to another geocoder but keeps a minimum interval
+ * between the starts of two queries. The interval is shared by all threads
+ * using the same instance, so parallel queries do not exceed the rate a
+ * geocoding provider accepts
+ * 
+ * @author Joachim von Eichborn
+ */
+class RateLimitedGeocoder implements Geocoder {
+	private static final Logger logger = Logger.getLogger(RateLimitedGeocoder.class.getSimpleName());
+
+	private final Geocoder geocoder;
+	private final long intervalNanos;
+	private long nextQuery;
+
+	/**
+	 * @param aGeocoder
+	 *            the geocoder that executes the queries
+	 * @param aIntervalMillis
+	 *            the minimum interval between two queries in milliseconds
+	 */
+	RateLimitedGeocoder(final Geocoder aGeocoder, final long aIntervalMillis) {
+		geocoder = aGeocoder;
+		intervalNanos = TimeUnit.MILLISECONDS.toNanos(aIntervalMillis);
+		nextQuery = System.nanoTime();
+	}
+
+	@Override
+	public Geocoding queryPosition(final Coordinates aPosition) {
+		try {
+			awaitSlot();
+		} catch (InterruptedException e) {
+			logger.fine("Waiting to query " + aPosition + " was interrupted");
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		return geocoder.queryPosition(aPosition);
+	}
+
+	private void awaitSlot() throws InterruptedException {
+		final long slot;
+		synchronized (this) {
+			slot = Math.max(nextQuery, System.nanoTime());
+			nextQuery = slot + intervalNanos;
+		}
+
+		final long wait = slot - System.nanoTime();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.handlers;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.e4.core.contexts.ContextInjectionFactory;
+import org.eclipse.e4.core.contexts.IEclipseContext;
+import org.eclipse.e4.ui.di.UISynchronize;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+
+/**
+ * Reports the pictures a {@link PictureAnnotationJob} could not write and
+ * reloads all pictures the job touched, such that the pictures repository
+ * reflects the meta data on disk. Nothing is done if the job was canceled,
+ * e.g. because the application is shutting down.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class AnnotationJobListener extends JobChangeAdapter {
+	private static final Logger logger = Logger.getLogger(AnnotationJobListener.class.getSimpleName());
+
+	private final IEclipseContext context;
+
+	/**
+	 * @param aContext
+	 *            the context used to inject the picture loader
+	 */
+	public AnnotationJobListener(final IEclipseContext aContext) {
+		context = aContext;
+	}
+
+	@Override
+	public void done(final IJobChangeEvent aEvent) {
+		final PictureAnnotationJob job = (PictureAnnotationJob) aEvent.getJob();
+		if (aEvent.getResult().matches(IStatus.CANCEL)) {
+			logger.fine("Not reloading the pictures of canceled job '" + job.getName() + "'");
+			return;
+		}
+
+		final List<Path> failedPictures = job.getFailedFiles();
+		if (!failedPictures.isEmpty()) {
+			final String type = job.getType().getDisplayName();
+			context.get(UISynchronize.class).asyncExec(() -> MessageDialog.openError(
+					new Shell(Display.getCurrent()), failedPictures.size() + " pictures failed in " + type + " annotation",
+					failedPictures.size() + " pictures could not be annotated with their " + type
+							+ ". Please check the log, if picture corruption might has happened.\n\nAffected pictures are:\n"
+							+ StringUtils.join(failedPictures, "\n")));
+		}
+
+		final List<Path> reloadPictureFiles = job.getWrittenFiles();
+		reloadPictureFiles.addAll(failedPictures);
+
+		final PictureLoader pictureLoader = new PictureLoader();
+		ContextInjectionFactory.inject(pictureLoader, context);
+		pictureLoader.openPictures(reloadPictureFiles);
+	}
+}
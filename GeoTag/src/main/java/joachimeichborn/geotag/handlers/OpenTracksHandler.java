@@ -25,7 +25,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,25 +35,40 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.e4.core.di.annotations.Execute;
+import org.eclipse.e4.core.di.extensions.Preference;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Shell;
 
+import joachimeichborn.geotag.LifeCycleManager;
 import joachimeichborn.geotag.io.TrackFileFormat;
+import joachimeichborn.geotag.io.parser.TrackCache;
 import joachimeichborn.geotag.io.parser.TrackParser;
+import joachimeichborn.geotag.io.parser.json.TakeoutParser;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.Track;
 import joachimeichborn.geotag.model.TracksRepo;
+import joachimeichborn.geotag.ui.preferences.GeneralPreferences;
 
 public class OpenTracksHandler {
 	private static final class TrackReader implements Runnable {
 		private final IProgressMonitor monitor;
 		private final Path trackFile;
 		private final TracksRepo tracksRepo;
+		private final TrackCache trackCache;
+		private final ExecutionService executionService;
+		private final int locationHistoryWindow;
 
-		private TrackReader(final IProgressMonitor aMonitor, final Path aTrackFile, final TracksRepo aTracksRepo) {
+		private TrackReader(final IProgressMonitor aMonitor, final Path aTrackFile, final TracksRepo aTracksRepo,
+				final TrackCache aTrackCache, final ExecutionService aExecutionService,
+				final int aLocationHistoryWindow) {
 			monitor = aMonitor;
 			trackFile = aTrackFile;
 			tracksRepo = aTracksRepo;
+			trackCache = aTrackCache;
+			executionService = aExecutionService;
+			locationHistoryWindow = aLocationHistoryWindow;
 		}
 
 		@Override
@@ -65,10 +79,16 @@ public class OpenTracksHandler {
 				final String extension = FilenameUtils.getExtension(trackFile.getFileName().toString());
 				final TrackFileFormat format = TrackFileFormat.getByExtension(extension.toLowerCase());
 
-				final TrackParser parser = format.getParser();
+				final TrackParser parser = trackCache.cached(format.getParser(executionService));
 				final Track track = parser.read(trackFile);
 				if (track != null) {
-					tracksRepo.addTrack(track);
+					if (format == TrackFileFormat.JSON) {
+						for (final Track windowTrack : TakeoutParser.splitByTimeWindow(track, locationHistoryWindow)) {
+							tracksRepo.addTrack(windowTrack);
+						}
+					} else {
+						tracksRepo.addTrack(track);
+					}
 				}
 
 				logger.info("Completed reading track " + trackFile.getFileName());
@@ -83,10 +103,14 @@ public class OpenTracksHandler {
 	private static final Logger logger = Logger.getLogger(OpenTracksHandler.class.getSimpleName());
 
 	@Execute
-	public static void execute(final Shell aShell, final TracksRepo aTracksRepo) {
+	public static void execute(final Shell aShell, final TracksRepo aTracksRepo, final TrackCache aTrackCache,
+			final ExecutionService aExecutionService,
+			@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.LOCATION_HISTORY_WINDOW) //
+			final int aLocationHistoryWindow) {
 		final FileDialog openDialog = new FileDialog(aShell, SWT.MULTI | SWT.OPEN);
-		openDialog.setFilterExtensions(new String[] { "*.kml;*.kmz;*.gpx" });
-		openDialog.setFilterNames(new String[] { "Track files (KML, KMZ or GPX)" });
+		openDialog.setFilterExtensions(new String[] { "*.kml;*.kmz;*.gpx;*.fit;*.json;*.nmea;*.csv" });
+		openDialog.setFilterNames(
+				new String[] { "Track files (KML, KMZ, GPX, FIT, NMEA, CSV or location history JSON)" });
 		openDialog.setText("Open Tracks");
 		openDialog.setFilterPath(System.getProperty("user.home"));
 
@@ -95,26 +119,33 @@ public class OpenTracksHandler {
 			final String path = openDialog.getFilterPath();
 
 			logger.fine("Reading " + fileNames.length + " tracks from " + path + " ...");
-			openTracks(path, fileNames, aTracksRepo);
+			openTracks(path, fileNames, aTracksRepo, aTrackCache, aExecutionService, aLocationHistoryWindow);
 		}
 	}
 
-	public static void openTracks(final String aPath, final String[] aFiles, final TracksRepo aTracksRepo) {
+	/**
+	 * @param aLocationHistoryWindow
+	 *            the length in hours of the tracks location history files are
+	 *            split into, the default window is used if it is not positive
+	 */
+	public static void openTracks(final String aPath, final String[] aFiles, final TracksRepo aTracksRepo,
+			final TrackCache aTrackCache, final ExecutionService aExecutionService,
+			final int aLocationHistoryWindow) {
+		final int locationHistoryWindow = aLocationHistoryWindow > 0 ? aLocationHistoryWindow
+				: TakeoutParser.DEFAULT_WINDOW_HOURS;
 		final Job job = new Job("Reading tracks") {
 			@Override
 			protected IStatus run(final IProgressMonitor aMonitor) {
 				aMonitor.beginTask("Reading " + aFiles.length + " tracks", aFiles.length);
 
-				int threads = 2 * Runtime.getRuntime().availableProcessors();
-				logger.fine("Using " + threads + " cores for loading tracks");
-
-				final ExecutorService threadPool =Executors.newFixedThreadPool(threads);
+				final ExecutorService threadPool = aExecutionService.getExecutor(PoolType.IO);
 
 				final List<Future<?>> futures = new LinkedList<>();
 
 				for (final String file : aFiles) {
 					final Path trackFile = Paths.get(aPath, file);
-					futures.add(threadPool.submit(new TrackReader(aMonitor, trackFile, aTracksRepo)));
+					futures.add(threadPool.submit(new TrackReader(aMonitor, trackFile, aTracksRepo, aTrackCache,
+							aExecutionService, locationHistoryWindow)));
 				}
 
 				final IStatus status = waitForAllTracksToBeRead(futures);
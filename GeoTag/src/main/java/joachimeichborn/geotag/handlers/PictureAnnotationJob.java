@@ -0,0 +1,501 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.handlers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.e4.core.contexts.ContextInjectionFactory;
+import org.eclipse.e4.core.contexts.IEclipseContext;
+
+import joachimeichborn.geotag.io.jpeg.AnnotationJournal;
+import joachimeichborn.geotag.io.jpeg.AnnotationType;
+import joachimeichborn.geotag.io.jpeg.PictureAnnotationException;
+import joachimeichborn.geotag.io.jpeg.PictureMetadataWriter;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
+import joachimeichborn.geotag.model.Picture;
+
+/**
+ * Job that writes meta data to a batch of pictures. The pictures are written
+ * in parallel on the I/O pool and the job can be canceled between pictures.
+ * Progress is recorded in an {@link AnnotationJournal}, so that a batch that
+ * is interrupted by a crash or by shutting down the application is resumed on
+ * the next start. If the user cancels the job, the remaining pictures are
+ * discarded. Annotation jobs never run concurrently, as each rewrite replaces
+ * the whole picture file and would discard the changes of another job writing
+ * the same picture.
+ * <p>
+ * Batches submitted with {@link #submit(AnnotationType, List, ExecutionService, IEclipseContext)}
+ * wait shortly before they start. Position and geocoding annotations of the
+ * same picture that are waiting at the same time are combined, such that the
+ * picture is rewritten only once.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class PictureAnnotationJob extends Job {
+	private static final Logger logger = Logger.getLogger(PictureAnnotationJob.class.getSimpleName());
+
+	/**
+	 * Rule shared by all annotation jobs, such that only one of them runs at
+	 * a time
+	 */
+	private static final ISchedulingRule ANNOTATION_RULE = new ISchedulingRule() {
+		@Override
+		public boolean isConflicting(final ISchedulingRule aRule) {
+			return aRule == this;
+		}
+
+		@Override
+		public boolean contains(final ISchedulingRule aRule) {
+			return aRule == this;
+		}
+	};
+
+	/**
+	 * Time a submitted batch waits before it starts, such that batches saved
+	 * together, e.g. by "Save All", can be combined
+	 */
+	private static final long COMBINE_DELAY_MILLIS = 500;
+
+	/**
+	 * Submitted batches that have not started yet, at most one per type. Also
+	 * guards the pictures of these batches
+	 */
+	private static final Map<AnnotationType, PictureAnnotationJob> waitingJobs = new EnumMap<>(AnnotationType.class);
+
+	private static final AtomicLong lastBatchId = new AtomicLong();
+
+	private final AnnotationType type;
+	private final List<Picture> pictures;
+	private final String batchId;
+	private final Path journalDir;
+	private final ExecutionService executionService;
+	private final Function<Picture, PictureMetadataWriter> writerFactory;
+	private final List<Path> writtenFiles = Collections.synchronizedList(new ArrayList<>());
+	private final List<Path> failedFiles = Collections.synchronizedList(new ArrayList<>());
+	private AnnotationJournal journal;
+	private volatile boolean interrupted = false;
+
+	/**
+	 * @param aType
+	 *            the kind of meta data to write
+	 * @param aPictures
+	 *            the pictures containing the meta data to write
+	 * @param aBatchId
+	 *            unique id of the batch, used for the journal and the backups
+	 * @param aJournalDir
+	 *            the directory the journal is stored in
+	 * @param aExecutionService
+	 * @param aWriterFactory
+	 *            creates the writer for a picture
+	 */
+	public PictureAnnotationJob(final AnnotationType aType, final List<Picture> aPictures, final String aBatchId,
+			final Path aJournalDir, final ExecutionService aExecutionService,
+			final Function<Picture, PictureMetadataWriter> aWriterFactory) {
+		this(aType, aPictures, aBatchId, aJournalDir, aExecutionService, aWriterFactory, null);
+	}
+
+	private PictureAnnotationJob(final AnnotationType aType, final List<Picture> aPictures, final String aBatchId,
+			final Path aJournalDir, final ExecutionService aExecutionService,
+			final Function<Picture, PictureMetadataWriter> aWriterFactory, final AnnotationJournal aJournal) {
+		super("Writing " + aType.getDisplayName() + " of pictures");
+		type = aType;
+		pictures = new ArrayList<>(aPictures);
+		batchId = aBatchId;
+		journalDir = aJournalDir;
+		executionService = aExecutionService;
+		writerFactory = aWriterFactory;
+		journal = aJournal;
+		setRule(ANNOTATION_RULE);
+	}
+
+	/**
+	 * Create a job that writes the pictures still pending in the given journal
+	 */
+	public static PictureAnnotationJob resume(final AnnotationJournal aJournal,
+			final ExecutionService aExecutionService, final Function<Picture, PictureMetadataWriter> aWriterFactory) {
+		return new PictureAnnotationJob(aJournal.getType(), aJournal.getPendingPictures(), aJournal.getBatchId(),
+				aJournal.getFile().getParent(), aExecutionService, aWriterFactory, aJournal);
+	}
+
+	/**
+	 * @return a factory for writers that use the given backup id and get their
+	 *         preferences injected from the given context
+	 */
+	public static Function<Picture, PictureMetadataWriter> createWriterFactory(final String aBatchId,
+			final IEclipseContext aContext) {
+		return picture -> {
+			final PictureMetadataWriter writer = new PictureMetadataWriter(picture, aBatchId);
+			ContextInjectionFactory.inject(writer, aContext);
+			return writer;
+		};
+	}
+
+	/**
+	 * Schedule writing the meta data of the given pictures. If a batch of the
+	 * other annotation type is still waiting to start, pictures contained in
+	 * both batches are written by a combined batch instead
+	 * 
+	 * @param aType
+	 *            the kind of meta data to write
+	 * @param aPictures
+	 *            the pictures containing the meta data to write
+	 * @param aExecutionService
+	 * @param aContext
+	 *            the context used to inject the writers
+	 */
+	public static void submit(final AnnotationType aType, final List<Picture> aPictures,
+			final ExecutionService aExecutionService, final IEclipseContext aContext) {
+		final List<PictureAnnotationJob> jobs = submit(aType, aPictures, AnnotationJournal.JOURNAL_DIR,
+				aExecutionService, batchId -> createWriterFactory(batchId, aContext));
+		for (final PictureAnnotationJob job : jobs) {
+			job.addJobChangeListener(new AnnotationJobListener(aContext));
+			job.setUser(true);
+			job.schedule(COMBINE_DELAY_MILLIS);
+		}
+	}
+
+	/**
+	 * Add the given pictures to the waiting batches
+	 * 
+	 * @param aWriterFactories
+	 *            creates the writer factory for a batch id
+	 * @return the batches that have been created and still need to be
+	 *         scheduled
+	 */
+	static List<PictureAnnotationJob> submit(final AnnotationType aType, final List<Picture> aPictures,
+			final Path aJournalDir, final ExecutionService aExecutionService,
+			final Function<String, Function<Picture, PictureMetadataWriter>> aWriterFactories) {
+		final List<PictureAnnotationJob> createdJobs = new ArrayList<>();
+		final AnnotationType otherType = aType == AnnotationType.POSITION ? AnnotationType.GEOCODING
+				: aType == AnnotationType.GEOCODING ? AnnotationType.POSITION : null;
+
+		synchronized (waitingJobs) {
+			for (final Picture picture : aPictures) {
+				final PictureAnnotationJob combinedJob = waitingJobs.get(AnnotationType.POSITION_AND_GEOCODING);
+				final Picture combinedPicture = combinedJob == null ? null : combinedJob.removePicture(picture.getFile());
+				if (combinedPicture != null) {
+					combinedJob.pictures.add(combine(aType, picture, combinedPicture));
+					continue;
+				}
+
+				final PictureAnnotationJob otherJob = otherType == null ? null : waitingJobs.get(otherType);
+				final Picture otherPicture = otherJob == null ? null : otherJob.removePicture(picture.getFile());
+				if (otherPicture != null) {
+					getWaitingJob(AnnotationType.POSITION_AND_GEOCODING, aJournalDir, aExecutionService,
+							aWriterFactories, createdJobs).pictures.add(combine(aType, picture, otherPicture));
+					if (otherJob.pictures.isEmpty()) {
+						logger.fine("All pictures of waiting batch " + otherJob.batchId + " have been combined");
+						waitingJobs.remove(otherType);
+						otherJob.cancel();
+					}
+					continue;
+				}
+
+				final PictureAnnotationJob job = getWaitingJob(aType, aJournalDir, aExecutionService, aWriterFactories,
+						createdJobs);
+				job.removePicture(picture.getFile());
+				job.pictures.add(picture);
+			}
+		}
+
+		return createdJobs;
+	}
+
+	private static PictureAnnotationJob getWaitingJob(final AnnotationType aType, final Path aJournalDir,
+			final ExecutionService aExecutionService,
+			final Function<String, Function<Picture, PictureMetadataWriter>> aWriterFactories,
+			final List<PictureAnnotationJob> aCreatedJobs) {
+		PictureAnnotationJob job = waitingJobs.get(aType);
+		if (job == null) {
+			final String batchId = createBatchId();
+			job = new PictureAnnotationJob(aType, Collections.emptyList(), batchId, aJournalDir, aExecutionService,
+					aWriterFactories.apply(batchId));
+			waitingJobs.put(aType, job);
+			aCreatedJobs.add(job);
+		}
+		return job;
+	}
+
+	/**
+	 * @return a batch id based on the current time that differs from all
+	 *         batch ids created before
+	 */
+	private static String createBatchId() {
+		return String.valueOf(lastBatchId.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis())));
+	}
+
+	/**
+	 * @return a picture with the meta data of the given type from the given
+	 *         picture and the remaining meta data from the other one
+	 */
+	private static Picture combine(final AnnotationType aType, final Picture aPicture, final Picture aOther) {
+		final Picture position = aType == AnnotationType.GEOCODING ? aOther : aPicture;
+		final Picture geocoding = aType == AnnotationType.POSITION ? aOther : aPicture;
+		return new Picture(aPicture.getFile(), aPicture.getTime(), aPicture.getTimeMillis(),
+				aPicture.getCameraModel(), position.getCoordinates(), geocoding.getGeocoding());
+	}
+
+	private Picture removePicture(final Path aFile) {
+		for (final Iterator<Picture> iterator = pictures.iterator(); iterator.hasNext();) {
+			final Picture picture = iterator.next();
+			if (picture.getFile().equals(aFile)) {
+				iterator.remove();
+				return picture;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Schedule jobs for all batches whose journal still contains pending
+	 * pictures and report the pictures that failed in earlier batches. The
+	 * journals of batches without pending pictures are deleted afterwards
+	 * 
+	 * @param aJournalDir
+	 * @param aExecutionService
+	 * @param aContext
+	 *            the context used to inject the writers
+	 */
+	public static void resumeInterrupted(final Path aJournalDir, final ExecutionService aExecutionService,
+			final IEclipseContext aContext) {
+		for (final Path journalFile : AnnotationJournal.findJournals(aJournalDir)) {
+			final AnnotationJournal journal;
+			try {
+				journal = AnnotationJournal.open(journalFile);
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Could not read journal " + journalFile, e);
+				continue;
+			}
+
+			for (final Map.Entry<Path, String> failed : journal.getFailedFiles().entrySet()) {
+				logger.warning("Writing " + journal.getType().getDisplayName() + " to " + failed.getKey()
+						+ " failed (" + failed.getValue() + "), a backup might exist at "
+						+ PictureMetadataWriter.getBackupFile(failed.getKey(), journal.getBatchId()));
+			}
+
+			final int pending = journal.getPendingPictures().size();
+			if (pending == 0) {
+				// the failures have been reported, nothing is left to resume
+				journal.delete();
+			} else {
+				logger.info("Resuming to write " + journal.getType().getDisplayName() + " of " + pending
+						+ " pictures from interrupted batch " + journal.getBatchId());
+				final Job job = resume(journal, aExecutionService, createWriterFactory(journal.getBatchId(), aContext));
+				job.addJobChangeListener(new AnnotationJobListener(aContext));
+				job.setUser(true);
+				job.schedule();
+			}
+		}
+	}
+
+	@Override
+	protected IStatus run(final IProgressMonitor aMonitor) {
+		synchronized (waitingJobs) {
+			// from now on, no more pictures are added to this batch
+			waitingJobs.remove(type, this);
+			createJournal();
+		}
+
+		if (pictures.isEmpty()) {
+			return aMonitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+		}
+
+		aMonitor.beginTask("Writing " + type.getDisplayName() + " of " + pictures.size() + " pictures",
+				pictures.size());
+
+		final ExecutorService threadPool = executionService.getExecutor(PoolType.IO);
+		final List<Future<?>> futures = new LinkedList<>();
+		for (final Picture picture : pictures) {
+			futures.add(threadPool.submit(() -> writePicture(picture, aMonitor)));
+		}
+
+		final IStatus status = waitForAllPicturesToBeWritten(futures);
+
+		if (journal != null) {
+			if (aMonitor.isCanceled() && !interrupted) {
+				logger.info("Writing " + type.getDisplayName() + " was canceled, discarding "
+						+ journal.getPendingPictures().size() + " pending pictures");
+				journal.discardPending();
+			}
+			journal.close();
+		}
+
+		logger.info("Wrote " + type.getDisplayName() + " of " + writtenFiles.size() + " pictures, "
+				+ failedFiles.size() + " failed");
+		aMonitor.done();
+
+		return aMonitor.isCanceled() ? Status.CANCEL_STATUS : status;
+	}
+
+	private void createJournal() {
+		if (journal == null && !pictures.isEmpty()) {
+			try {
+				journal = AnnotationJournal.create(journalDir, batchId, type, pictures);
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Could not create journal for batch " + batchId
+						+ ", an interruption can not be resumed", e);
+			}
+		}
+	}
+
+	private void writePicture(final Picture aPicture, final IProgressMonitor aMonitor) {
+		if (aMonitor.isCanceled()) {
+			return;
+		}
+
+		final Path file = aPicture.getFile();
+		aMonitor.subTask(file.getFileName().toString());
+
+		try {
+			type.write(writerFactory.apply(aPicture));
+			writtenFiles.add(file);
+			if (journal != null) {
+				journal.completed(file);
+			}
+		} catch (PictureAnnotationException | RuntimeException e) {
+			logger.log(Level.SEVERE,
+					"Writing " + type.getDisplayName() + " to " + file + " failed: " + e.getMessage(), e);
+			failedFiles.add(file);
+			if (journal != null) {
+				journal.failed(file, e.getMessage());
+			}
+		}
+
+		aMonitor.worked(1);
+	}
+
+	private IStatus waitForAllPicturesToBeWritten(final List<Future<?>> aFutures) {
+		for (final Future<?> future : aFutures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				logger.log(Level.FINE, "Waiting for pictures to be written was interrupted", e);
+				aFutures.forEach(f -> f.cancel(false));
+				Thread.currentThread().interrupt();
+				return Status.CANCEL_STATUS;
+			} catch (ExecutionException | CancellationException e) {
+				logger.log(Level.FINE, "Writing picture failed", e);
+			}
+		}
+
+		return Status.OK_STATUS;
+	}
+
+	@Override
+	public boolean belongsTo(final Object aFamily) {
+		return aFamily == PictureAnnotationJob.class;
+	}
+
+	/**
+	 * Cancel the job, but keep the remaining pictures pending in the journal
+	 * such that they are written on the next start
+	 */
+	public void interrupt() {
+		interrupted = true;
+		cancel();
+	}
+
+	/**
+	 * Interrupt all running annotation jobs, see {@link #interrupt()}, and
+	 * wait for them to stop writing, such that their journals are closed
+	 * before the application exits. Batches that are still waiting to start
+	 * get their journal, too, such that they are written on the next start
+	 */
+	public static void interruptAll() {
+		synchronized (waitingJobs) {
+			for (final PictureAnnotationJob job : waitingJobs.values()) {
+				job.createJournal();
+				job.interrupted = true;
+				if (job.cancel() && job.journal != null) {
+					// the job will not run, so nobody else closes the journal
+					job.journal.close();
+				}
+			}
+			waitingJobs.clear();
+		}
+
+		for (final Job job : Job.getJobManager().find(PictureAnnotationJob.class)) {
+			((PictureAnnotationJob) job).interrupt();
+		}
+
+		try {
+			Job.getJobManager().join(PictureAnnotationJob.class, null);
+		} catch (InterruptedException e) {
+			logger.log(Level.FINE, "Waiting for annotation jobs to finish was interrupted", e);
+			Thread.currentThread().interrupt();
+		} catch (OperationCanceledException e) {
+			logger.log(Level.FINE, "Waiting for annotation jobs to finish was canceled", e);
+		}
+	}
+
+	public AnnotationType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the pictures of the batch
+	 */
+	List<Picture> getPictures() {
+		synchronized (waitingJobs) {
+			return new ArrayList<>(pictures);
+		}
+	}
+
+	/**
+	 * @return the files that have been written successfully
+	 */
+	public List<Path> getWrittenFiles() {
+		synchronized (writtenFiles) {
+			return new ArrayList<>(writtenFiles);
+		}
+	}
+
+	/**
+	 * @return the files that could not be written
+	 */
+	public List<Path> getFailedFiles() {
+		synchronized (failedFiles) {
+			return new ArrayList<>(failedFiles);
+		}
+	}
+}
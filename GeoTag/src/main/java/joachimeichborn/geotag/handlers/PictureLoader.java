@@ -19,13 +19,15 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.handlers;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 
@@ -36,38 +38,86 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 
+import joachimeichborn.geotag.io.database.CatalogEntry;
 import joachimeichborn.geotag.io.database.DatabaseAccess;
 import joachimeichborn.geotag.io.jpeg.PictureMetadataReader;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.Coordinates;
 import joachimeichborn.geotag.model.Geocoding;
 import joachimeichborn.geotag.model.Picture;
 import joachimeichborn.geotag.model.PicturesRepo;
 import joachimeichborn.geotag.preview.PreviewKey;
 import joachimeichborn.geotag.preview.PreviewRequester;
+import joachimeichborn.geotag.preview.PreviewScheduler;
 
 public class PictureLoader {
+	/**
+	 * Reads a single picture. If the picture catalog contains an entry for the
+	 * file that matches its current size and modification time, the file
+	 * itself is not opened at all
+	 */
 	private static class PicturesReader implements Runnable {
 		private final IProgressMonitor monitor;
 		private final Path pictureFile;
 		private final PicturesRepo picturesRepo;
+		private final PreviewRequester previewRequester;
+		private final DatabaseAccess dbAccess;
 
-		public PicturesReader(final IProgressMonitor aMonitor, final Path aPictureFile, final PicturesRepo aPicturesRepo) {
+		public PicturesReader(final IProgressMonitor aMonitor, final Path aPictureFile, final PicturesRepo aPicturesRepo,
+				final PreviewRequester aPreviewRequester, final DatabaseAccess aDbAccess) {
 			monitor = aMonitor;
 			pictureFile = aPictureFile;
 			picturesRepo = aPicturesRepo;
+			previewRequester = aPreviewRequester;
+			dbAccess = aDbAccess;
 		}
 
 		@Override
 		public void run() {
-			final PictureMetadataReader metadata = new PictureMetadataReader(pictureFile);
-			final String time = metadata.getTime();
-			final Coordinates coordinates = metadata.getCoordinates();
-			final Geocoding geoCoding = metadata.getGeocoding();
-			final Picture picture = new Picture(pictureFile, time, coordinates, geoCoding);
-			picturesRepo.addPicture(picture);
+			final String file = pictureFile.toString();
+			final PreviewKey previewKey = new PreviewKey(file, 160, 120);
+
+			BasicFileAttributes attributes = null;
+			try {
+				attributes = Files.readAttributes(pictureFile, BasicFileAttributes.class);
+			} catch (IOException e) {
+				OpenPicturesHandler.logger.fine("Could not get attributes of " + pictureFile + ": " + e.getMessage());
+			}
+
+			final CatalogEntry cached = attributes == null ? null
+					: dbAccess.getCatalogEntry(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+
+			PictureMetadataReader metadata = null;
+			if (cached != null) {
+				addPicture(cached.getTime(), cached.getCameraModel(), cached.getCoordinates(), cached.getGeocoding());
+			} else {
+				metadata = new PictureMetadataReader(pictureFile);
+				final String time = metadata.getTime();
+				final String cameraModel = metadata.getCameraModel();
+				final Coordinates coordinates = metadata.getCoordinates();
+				final Geocoding geoCoding = metadata.getGeocoding();
+				addPicture(time, cameraModel, coordinates, geoCoding);
+
+				if (attributes != null && metadata.getSource() != null) {
+					dbAccess.saveCatalogEntry(new CatalogEntry(file, attributes.size(),
+							attributes.lastModifiedTime().toMillis(), time, cameraModel, coordinates,
+							metadata.getOrientation(), geoCoding));
+				}
+			}
+
+			// the head of the file is already in memory, its thumbnail is used
+			// for the preview instead of reading the file again
+			previewRequester.triggerPreviewCreation(previewKey, metadata);
 
 			monitor.worked(1);
 		}
+
+		private void addPicture(final String aTime, final String aCameraModel, final Coordinates aCoordinates,
+				final Geocoding aGeocoding) {
+			picturesRepo.addPicture(new Picture(pictureFile, aTime, Picture.parseTime(aTime), aCameraModel,
+					aCoordinates, aGeocoding));
+		}
 	}
 
 	@Inject
@@ -76,6 +126,12 @@ public class PictureLoader {
 	@Inject
 	private PicturesRepo picturesRepo;
 
+	@Inject
+	private ExecutionService executionService;
+
+	@Inject
+	private PreviewScheduler previewScheduler;
+
 	void openPictures(final String aPath, final String[] aFiles) {
 		final List<Path> pictureFiles = new LinkedList<>();
 
@@ -92,29 +148,19 @@ public class PictureLoader {
 			protected IStatus run(final IProgressMonitor aMonitor) {
 				aMonitor.beginTask("Reading " + aFiles.size() + " pictures", aFiles.size());
 
-				int threads = 2 * Runtime.getRuntime().availableProcessors();
-				OpenPicturesHandler.logger.fine("Using " + threads + " cores for loading pictures");
-
-				final ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+				final ExecutorService threadPool = executionService.getExecutor(PoolType.IO);
 
+				final PreviewRequester previewRequester = new PreviewRequester(dbAccess, previewScheduler);
 				final List<Future<?>> futures = new LinkedList<>();
 
 				for (final Path file : aFiles) {
-					futures.add(threadPool.submit(new PicturesReader(aMonitor, file, picturesRepo)));
+					futures.add(threadPool.submit(new PicturesReader(aMonitor, file, picturesRepo, previewRequester, dbAccess)));
 				}
 
 				final IStatus status = waitForAllPicturesToBeRead(futures);
 
 				aMonitor.done();
 
-				final PreviewRequester previewRepo = new PreviewRequester(dbAccess);
-				for (final Path file : aFiles) {
-					final PreviewKey key = new PreviewKey(file.toString(), 160, 120);
-					previewRepo.triggerPreviewCreation(key);
-				}
-
-				OpenPicturesHandler.logger.fine("Triggering preview creation for " + aFiles.size() + " pictures done");
-
 				return status;
 			}
 
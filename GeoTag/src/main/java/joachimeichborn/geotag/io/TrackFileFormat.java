@@ -20,12 +20,17 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package joachimeichborn.geotag.io;
 
 import joachimeichborn.geotag.io.parser.TrackParser;
+import joachimeichborn.geotag.io.parser.csv.CsvParser;
+import joachimeichborn.geotag.io.parser.fit.FitParser;
 import joachimeichborn.geotag.io.parser.gpx.GpxParser;
+import joachimeichborn.geotag.io.parser.json.TakeoutParser;
 import joachimeichborn.geotag.io.parser.kml.KmlParser;
 import joachimeichborn.geotag.io.parser.kml.KmzParser;
+import joachimeichborn.geotag.io.parser.nmea.NmeaParser;
 import joachimeichborn.geotag.io.writer.TrackWriter;
 import joachimeichborn.geotag.io.writer.kml.KmlWriter;
 import joachimeichborn.geotag.io.writer.kml.KmzWriter;
+import joachimeichborn.geotag.misc.ExecutionService;
 
 public enum TrackFileFormat {
 	KML("kml") {
@@ -44,6 +49,11 @@ public enum TrackFileFormat {
 			return new KmzParser();
 		}
 
+		@Override
+		public TrackParser getParser(final ExecutionService aExecutionService) {
+			return new KmzParser(aExecutionService);
+		}
+
 		public TrackWriter getWriter() {
 			return new KmzWriter();
 		}
@@ -57,6 +67,56 @@ public enum TrackFileFormat {
 		public TrackWriter getWriter() {
 			throw new UnsupportedOperationException("Writing GPX files is not supported");
 		}
+	},
+	JSON("json") {
+		@Override
+		public TrackParser getParser() {
+			return new TakeoutParser();
+		}
+
+		public TrackWriter getWriter() {
+			throw new UnsupportedOperationException("Writing location history files is not supported");
+		}
+	},
+	NMEA("nmea") {
+		@Override
+		public TrackParser getParser() {
+			return new NmeaParser();
+		}
+
+		@Override
+		public TrackParser getParser(final ExecutionService aExecutionService) {
+			return new NmeaParser(aExecutionService);
+		}
+
+		public TrackWriter getWriter() {
+			throw new UnsupportedOperationException("Writing NMEA files is not supported");
+		}
+	},
+	CSV("csv") {
+		@Override
+		public TrackParser getParser() {
+			return new CsvParser();
+		}
+
+		@Override
+		public TrackParser getParser(final ExecutionService aExecutionService) {
+			return new CsvParser(aExecutionService);
+		}
+
+		public TrackWriter getWriter() {
+			throw new UnsupportedOperationException("Writing CSV files is not supported");
+		}
+	},
+	FIT("fit") {
+		@Override
+		public TrackParser getParser() {
+			return new FitParser();
+		}
+
+		public TrackWriter getWriter() {
+			throw new UnsupportedOperationException("Writing FIT files is not supported");
+		}
 	};
 
 	private final String extension;
@@ -67,6 +127,16 @@ public enum TrackFileFormat {
 
 	public abstract TrackParser getParser();
 
+	/**
+	 * @param aExecutionService
+	 *            the service used by parsers that read parts of a file in
+	 *            parallel
+	 * @return a parser for the format
+	 */
+	public TrackParser getParser(final ExecutionService aExecutionService) {
+		return getParser();
+	}
+
 	public abstract TrackWriter getWriter();
 
 	public static TrackFileFormat getByExtension(final String aExtension) {
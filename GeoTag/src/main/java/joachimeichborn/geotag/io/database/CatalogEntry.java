@@ -0,0 +1,96 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.database;
+
+import joachimeichborn.geotag.misc.PictureOrientation;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+
+/**
+ * The meta data of a picture file as stored in the picture catalog. An entry
+ * is only valid as long as the size and the modification time of the file
+ * are the ones the entry has been created for
+ * 
+ * @author Joachim von Eichborn
+ */
+public class CatalogEntry {
+	private final String file;
+	private final long size;
+	private final long lastModified;
+	private final String time;
+	private final String cameraModel;
+	private final Coordinates coordinates;
+	private final PictureOrientation orientation;
+	private final Geocoding geocoding;
+
+	public CatalogEntry(final String aFile, final long aSize, final long aLastModified, final String aTime,
+			final String aCameraModel, final Coordinates aCoordinates, final PictureOrientation aOrientation,
+			final Geocoding aGeocoding) {
+		file = aFile;
+		size = aSize;
+		lastModified = aLastModified;
+		time = aTime;
+		cameraModel = aCameraModel;
+		coordinates = aCoordinates;
+		orientation = aOrientation;
+		geocoding = aGeocoding;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modification time of the file in milliseconds since the
+	 *         epoch
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public String getTime() {
+		return time;
+	}
+
+	public String getCameraModel() {
+		return cameraModel;
+	}
+
+	public Coordinates getCoordinates() {
+		return coordinates;
+	}
+
+	public PictureOrientation getOrientation() {
+		return orientation;
+	}
+
+	public Geocoding getGeocoding() {
+		return geocoding;
+	}
+
+	@Override
+	public String toString() {
+		return "CatalogEntry [file=" + file + ", size=" + size + ", lastModified=" + lastModified + "]";
+	}
+}
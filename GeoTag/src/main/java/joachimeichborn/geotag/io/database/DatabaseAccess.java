@@ -56,7 +56,27 @@ public interface DatabaseAccess {
 	boolean doesPreviewExist(final String aFile);
 	
 	/**
-	 * Trim the database to contain at most the specified number of entries
+	 * Store the meta data of a picture file in the catalog, replacing any
+	 * entry that exists for the same file
+	 * 
+	 * @param aEntry
+	 */
+	void saveCatalogEntry(final CatalogEntry aEntry);
+
+	/**
+	 * @param aFile
+	 * @param aSize
+	 *            the current size of the file
+	 * @param aLastModified
+	 *            the current modification time of the file in milliseconds
+	 * @return the catalog entry of the given file or <code>null</code> if no
+	 *         entry exists or the file has changed since the entry was saved
+	 */
+	CatalogEntry getCatalogEntry(final String aFile, final long aSize, final long aLastModified);
+
+	/**
+	 * Trim the previews and the picture catalog to contain at most the
+	 * specified number of entries each. The oldest entries are removed first
 	 * @param aMaxNumberEntries
 	 */
 	void trim(final int aMaxNumberEntries);
@@ -21,6 +21,7 @@ package joachimeichborn.geotag.io.database;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -28,6 +29,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
@@ -40,7 +42,11 @@ import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.eclipse.e4.core.di.annotations.Creatable;
 
 import joachimeichborn.geotag.LifeCycleManager;
+import joachimeichborn.geotag.io.database.TableModel.Catalog;
 import joachimeichborn.geotag.io.database.TableModel.Preview;
+import joachimeichborn.geotag.misc.PictureOrientation;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
 import joachimeichborn.geotag.preview.PreviewKey;
 
 /**
@@ -83,12 +89,58 @@ public class DerbyDatabase implements DatabaseAccess {
 	private static final String TRIM_PREVIEW_TABLE_QUERY = "DELETE FROM " + Preview.TABLE_NAME + //
 			" WHERE " + Preview.ID_COLUMN + " < ?";
 
+	private static final String CREATE_CATALOG_TABLE = "CREATE TABLE " + Catalog.TABLE_NAME + " (" + //
+			Catalog.ID_COLUMN + " INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), " + //
+			Catalog.FILE_NAME_COLUMN + " VARCHAR(5000) NOT NULL, " + //
+			Catalog.SIZE_COLUMN + " BIGINT NOT NULL, " + //
+			Catalog.LAST_MODIFIED_COLUMN + " BIGINT NOT NULL, " + //
+			Catalog.TIME_COLUMN + " VARCHAR(100), " + //
+			Catalog.CAMERA_MODEL_COLUMN + " VARCHAR(1000), " + //
+			Catalog.LATITUDE_COLUMN + " DOUBLE, " + //
+			Catalog.LONGITUDE_COLUMN + " DOUBLE, " + //
+			Catalog.ALTITUDE_COLUMN + " DOUBLE, " + //
+			Catalog.ORIENTATION_COLUMN + " VARCHAR(100), " + //
+			Catalog.LOCATION_NAME_COLUMN + " VARCHAR(1000), " + //
+			Catalog.CITY_COLUMN + " VARCHAR(1000), " + //
+			Catalog.SUBLOCATION_COLUMN + " VARCHAR(1000), " + //
+			Catalog.PROVINCE_STATE_COLUMN + " VARCHAR(1000), " + //
+			Catalog.COUNTRY_CODE_COLUMN + " VARCHAR(100), " + //
+			Catalog.COUNTRY_NAME_COLUMN + " VARCHAR(1000), " + //
+			"PRIMARY KEY (" + Catalog.FILE_NAME_COLUMN + ")" + //
+			")";
+
+	private static final String DROP_CATALOG_TABLE = "DROP TABLE " + Catalog.TABLE_NAME;
+
+	private static final String DELETE_CATALOG_ENTRY_QUERY = "DELETE FROM " + Catalog.TABLE_NAME + //
+			" WHERE " + Catalog.FILE_NAME_COLUMN + "=?";
+
+	private static final String SAVE_CATALOG_ENTRY_QUERY = "INSERT INTO " + Catalog.TABLE_NAME + //
+			"(" + Catalog.FILE_NAME_COLUMN + "," + Catalog.SIZE_COLUMN + "," + Catalog.LAST_MODIFIED_COLUMN + "," + //
+			Catalog.TIME_COLUMN + "," + Catalog.CAMERA_MODEL_COLUMN + "," + //
+			Catalog.LATITUDE_COLUMN + "," + Catalog.LONGITUDE_COLUMN + "," + Catalog.ALTITUDE_COLUMN + "," + //
+			Catalog.ORIENTATION_COLUMN + "," + Catalog.LOCATION_NAME_COLUMN + "," + Catalog.CITY_COLUMN + "," + //
+			Catalog.SUBLOCATION_COLUMN + "," + Catalog.PROVINCE_STATE_COLUMN + "," + //
+			Catalog.COUNTRY_CODE_COLUMN + "," + Catalog.COUNTRY_NAME_COLUMN + ")" + //
+			" VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+	private static final String GET_CATALOG_ENTRY_QUERY = "SELECT * FROM " + Catalog.TABLE_NAME + //
+			" WHERE " + Catalog.FILE_NAME_COLUMN + "=? AND " + Catalog.SIZE_COLUMN + "=? AND " + Catalog.LAST_MODIFIED_COLUMN + "=?";
+
+	private static final String GET_MAX_CATALOG_ID_QUERY = "SELECT MAX(" + Catalog.ID_COLUMN + ") as max_id FROM " + Catalog.TABLE_NAME;
+
+	private static final String TRIM_CATALOG_TABLE_QUERY = "DELETE FROM " + Catalog.TABLE_NAME + //
+			" WHERE " + Catalog.ID_COLUMN + " < ?";
+
 	private static Logger logger = Logger.getLogger(DerbyDatabase.class.getSimpleName());
 	private Connection readConnection;
 	private Connection writeConnection;
 
 	public DerbyDatabase() {
-		final String url = "jdbc:derby:" + LifeCycleManager.WORKING_DIR.resolve("database").toString() + ";create=true";
+		this(LifeCycleManager.WORKING_DIR.resolve("database"));
+	}
+
+	DerbyDatabase(final Path aDatabaseDir) {
+		final String url = "jdbc:derby:" + aDatabaseDir.toString() + ";create=true";
 		establishConnection(DERBY_DRIVER, url);
 
 		final Set<String> tableNames = getAllTables();
@@ -96,6 +148,15 @@ public class DerbyDatabase implements DatabaseAccess {
 		if (!tableNames.contains(Preview.TABLE_NAME)) {
 			createPreviewTable();
 		}
+
+		if (!tableNames.contains(Catalog.TABLE_NAME)) {
+			createCatalogTable();
+		} else if (!hasColumn(Catalog.TABLE_NAME, Catalog.ID_COLUMN)) {
+			// the catalog is only a cache, an outdated one is simply replaced
+			logger.info("Recreating outdated picture catalog");
+			dropCatalogTable();
+			createCatalogTable();
+		}
 	}
 
 	private void establishConnection(final String aDriver, final String aUrl) {
@@ -131,6 +192,20 @@ public class DerbyDatabase implements DatabaseAccess {
 		return tableNames;
 	}
 
+	private boolean hasColumn(final String aTable, final String aColumn) {
+		try {
+			synchronized (readConnection) {
+				final DatabaseMetaData metaData = readConnection.getMetaData();
+				try (final ResultSet rs = metaData.getColumns(null, null, aTable.toUpperCase(), aColumn.toUpperCase())) {
+					return rs.next();
+				}
+			}
+		} catch (final SQLException aEx) {
+			logger.log(Level.SEVERE, "Could not obtain columns of table " + aTable, aEx);
+			throw new IllegalStateException(aEx);
+		}
+	}
+
 	private void createPreviewTable() {
 		try {
 			synchronized (writeConnection) {
@@ -144,6 +219,32 @@ public class DerbyDatabase implements DatabaseAccess {
 		}
 	}
 
+	private void createCatalogTable() {
+		try {
+			synchronized (writeConnection) {
+				try (final PreparedStatement statement = writeConnection.prepareStatement(CREATE_CATALOG_TABLE)) {
+					statement.execute();
+				}
+			}
+		} catch (final SQLException aEx) {
+			logger.log(Level.SEVERE, "Could not create catalog table", aEx);
+			throw new IllegalStateException(aEx);
+		}
+	}
+
+	private void dropCatalogTable() {
+		try {
+			synchronized (writeConnection) {
+				try (final PreparedStatement statement = writeConnection.prepareStatement(DROP_CATALOG_TABLE)) {
+					statement.execute();
+				}
+			}
+		} catch (final SQLException aEx) {
+			logger.log(Level.SEVERE, "Could not drop catalog table", aEx);
+			throw new IllegalStateException(aEx);
+		}
+	}
+
 	@Override
 	public void savePreview(final PreviewKey aKey, final BufferedImage aPreview) {
 		logger.fine("Saving preview for " + aKey);
@@ -236,17 +337,122 @@ public class DerbyDatabase implements DatabaseAccess {
 		}
 	}
 
-	public void trim(final int aPreviewEntries) {
-		logger.finer("Trimming database to " + aPreviewEntries + " entries");
+	@Override
+	public void saveCatalogEntry(final CatalogEntry aEntry) {
+		logger.fine("Saving " + aEntry);
+		final Coordinates coordinates = aEntry.getCoordinates();
+		final Geocoding geocoding = aEntry.getGeocoding();
+
+		try {
+			synchronized (writeConnection) {
+				try (final PreparedStatement statement = writeConnection.prepareStatement(DELETE_CATALOG_ENTRY_QUERY)) {
+					statement.setString(1, aEntry.getFile());
+					statement.executeUpdate();
+				}
+
+				try (final PreparedStatement statement = writeConnection.prepareStatement(SAVE_CATALOG_ENTRY_QUERY)) {
+					statement.setString(1, aEntry.getFile());
+					statement.setLong(2, aEntry.getSize());
+					statement.setLong(3, aEntry.getLastModified());
+					statement.setString(4, aEntry.getTime());
+					statement.setString(5, aEntry.getCameraModel());
+					setDouble(statement, 6, coordinates == null ? null : coordinates.getLatitude());
+					setDouble(statement, 7, coordinates == null ? null : coordinates.getLongitude());
+					setDouble(statement, 8, coordinates == null ? null : coordinates.getAltitude());
+					statement.setString(9, aEntry.getOrientation() == null ? null : aEntry.getOrientation().name());
+					statement.setString(10, geocoding == null ? null : geocoding.getLocationName());
+					statement.setString(11, geocoding == null ? null : geocoding.getCity());
+					statement.setString(12, geocoding == null ? null : geocoding.getSublocation());
+					statement.setString(13, geocoding == null ? null : geocoding.getProvinceState());
+					statement.setString(14, geocoding == null ? null : geocoding.getCountryCode());
+					statement.setString(15, geocoding == null ? null : geocoding.getCountryName());
+
+					statement.executeUpdate();
+				}
+			}
+		} catch (final SQLException aEx) {
+			logger.log(Level.SEVERE, "Could not save " + aEntry, aEx);
+		}
+	}
+
+	private static void setDouble(final PreparedStatement aStatement, final int aIndex, final Double aValue)
+			throws SQLException {
+		if (aValue == null) {
+			aStatement.setNull(aIndex, Types.DOUBLE);
+		} else {
+			aStatement.setDouble(aIndex, aValue);
+		}
+	}
+
+	@Override
+	public CatalogEntry getCatalogEntry(final String aFile, final long aSize, final long aLastModified) {
+		try {
+			synchronized (readConnection) {
+				try (final PreparedStatement statement = readConnection.prepareStatement(GET_CATALOG_ENTRY_QUERY)) {
+					statement.setString(1, aFile);
+					statement.setLong(2, aSize);
+					statement.setLong(3, aLastModified);
+
+					try (final ResultSet result = statement.executeQuery()) {
+						if (!result.next()) {
+							return null;
+						} else {
+							return readCatalogEntry(result);
+						}
+					}
+				}
+			}
+		} catch (final SQLException aEx) {
+			logger.log(Level.SEVERE, "Could not get catalog entry for " + aFile, aEx);
+			return null;
+		}
+	}
+
+	private static CatalogEntry readCatalogEntry(final ResultSet aResult) throws SQLException {
+		Coordinates coordinates = null;
+		final double latitude = aResult.getDouble(Catalog.LATITUDE_COLUMN);
+		if (!aResult.wasNull()) {
+			coordinates = new Coordinates(latitude, aResult.getDouble(Catalog.LONGITUDE_COLUMN),
+					aResult.getDouble(Catalog.ALTITUDE_COLUMN));
+		}
+
+		final String orientation = aResult.getString(Catalog.ORIENTATION_COLUMN);
+
+		final Geocoding geocoding = new Geocoding.Builder() //
+				.setLocationName(aResult.getString(Catalog.LOCATION_NAME_COLUMN)) //
+				.setCity(aResult.getString(Catalog.CITY_COLUMN)) //
+				.setSublocation(aResult.getString(Catalog.SUBLOCATION_COLUMN)) //
+				.setProvinceState(aResult.getString(Catalog.PROVINCE_STATE_COLUMN)) //
+				.setCountryCode(aResult.getString(Catalog.COUNTRY_CODE_COLUMN)) //
+				.setCountryName(aResult.getString(Catalog.COUNTRY_NAME_COLUMN)) //
+				.build();
+
+		return new CatalogEntry(aResult.getString(Catalog.FILE_NAME_COLUMN), aResult.getLong(Catalog.SIZE_COLUMN),
+				aResult.getLong(Catalog.LAST_MODIFIED_COLUMN), aResult.getString(Catalog.TIME_COLUMN),
+				aResult.getString(Catalog.CAMERA_MODEL_COLUMN), coordinates,
+				orientation == null ? null : PictureOrientation.valueOf(orientation), geocoding);
+	}
+
+	public void trim(final int aMaxEntries) {
+		trimTable(Preview.TABLE_NAME, GET_MAX_PREVIEW_ID_QUERY, TRIM_PREVIEW_TABLE_QUERY, aMaxEntries);
+		// catalog entries get a new id whenever a picture is read again after
+		// it has changed, so entries of deleted or renamed files are removed
+		// first
+		trimTable(Catalog.TABLE_NAME, GET_MAX_CATALOG_ID_QUERY, TRIM_CATALOG_TABLE_QUERY, aMaxEntries);
+	}
+
+	private void trimTable(final String aTable, final String aMaxIdQuery, final String aTrimQuery,
+			final int aMaxEntries) {
+		logger.finer("Trimming " + aTable + " table to " + aMaxEntries + " entries");
 
 		long maxId = 0L;
 		try {
 			synchronized (readConnection) {
-				try (final PreparedStatement statement = readConnection.prepareStatement(GET_MAX_PREVIEW_ID_QUERY)) {
+				try (final PreparedStatement statement = readConnection.prepareStatement(aMaxIdQuery)) {
 
 					try (final ResultSet result = statement.executeQuery()) {
 						if (!result.next()) {
-							logger.severe("Could not get result for maximal preview id");
+							logger.severe("Could not get result for maximal " + aTable + " id");
 						} else {
 							maxId = result.getLong("max_id");
 						}
@@ -254,28 +460,28 @@ public class DerbyDatabase implements DatabaseAccess {
 				}
 			}
 		} catch (final SQLException aEx) {
-			logger.log(Level.SEVERE, "Error while getting maximal preview id", aEx);
+			logger.log(Level.SEVERE, "Error while getting maximal " + aTable + " id", aEx);
 		}
 
-		long minSurvivingEntryId = Math.max(maxId - aPreviewEntries, 0L);
-		logger.finer("Maximal preview id is " + maxId + ", thus deleting all entries with ids lower than " + minSurvivingEntryId);
+		// the entries with the ids maxId - aMaxEntries + 1 up to maxId survive
+		long minSurvivingEntryId = Math.max(maxId - aMaxEntries + 1, 0L);
+		logger.finer("Maximal " + aTable + " id is " + maxId + ", thus deleting all entries with ids lower than " + minSurvivingEntryId);
 
 		if (minSurvivingEntryId > 0L) {
 			try {
 				synchronized (writeConnection) {
-					try (final PreparedStatement statement = writeConnection.prepareStatement(TRIM_PREVIEW_TABLE_QUERY)) {
+					try (final PreparedStatement statement = writeConnection.prepareStatement(aTrimQuery)) {
 						statement.setLong(1, minSurvivingEntryId);
 						int affectedRows = statement.executeUpdate();
-						logger.fine("Trimming database to " + aPreviewEntries + " entries affected " + affectedRows + " rows");
+						logger.fine("Trimming " + aTable + " table to " + aMaxEntries + " entries affected " + affectedRows + " rows");
 					}
 				}
 			} catch (final SQLException aEx) {
-				logger.log(Level.SEVERE, "Trimming previews table in database failed", aEx);
+				logger.log(Level.SEVERE, "Trimming " + aTable + " table in database failed", aEx);
 			}
 		}
 	}
 
-
 	@Override
 	public void close() {
 		if (readConnection != null) {
@@ -36,4 +36,24 @@ public class TableModel {
 		public static final String HEIGHT_COLUMN = "height";
 		public static final String IMAGE_COLUMN = "image";
 	}
+
+	public static class Catalog {
+		public static final String TABLE_NAME = "catalog";
+		public static final String ID_COLUMN = "id";
+		public static final String FILE_NAME_COLUMN = "filename";
+		public static final String SIZE_COLUMN = "filesize";
+		public static final String LAST_MODIFIED_COLUMN = "modified";
+		public static final String TIME_COLUMN = "picturetime";
+		public static final String CAMERA_MODEL_COLUMN = "cameramodel";
+		public static final String LATITUDE_COLUMN = "latitude";
+		public static final String LONGITUDE_COLUMN = "longitude";
+		public static final String ALTITUDE_COLUMN = "altitude";
+		public static final String ORIENTATION_COLUMN = "orientation";
+		public static final String LOCATION_NAME_COLUMN = "locationname";
+		public static final String CITY_COLUMN = "city";
+		public static final String SUBLOCATION_COLUMN = "sublocation";
+		public static final String PROVINCE_STATE_COLUMN = "provincestate";
+		public static final String COUNTRY_CODE_COLUMN = "countrycode";
+		public static final String COUNTRY_NAME_COLUMN = "countryname";
+	}
 }
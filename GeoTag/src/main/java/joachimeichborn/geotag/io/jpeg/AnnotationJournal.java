@@ -0,0 +1,389 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.jpeg;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joachimeichborn.geotag.LifeCycleManager;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+import joachimeichborn.geotag.model.Picture;
+
+/**
+ * On-disk journal of a batch of picture annotations. When the batch is
+ * started, all pictures are recorded as pending together with the meta data
+ * to write. Afterwards, every completed or failed picture is appended and
+ * flushed to disk right away. If the batch is interrupted, the pending
+ * pictures can be read from the journal and written again. Pictures whose
+ * annotation failed remain listed in the journal together with the id of
+ * their backup, so that they can be identified and restored.
+ * 
+ * The journal is a text file with one tab separated record per line, all
+ * values are URL encoded. Once no picture is pending and none has failed, the
+ * journal is deleted.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class AnnotationJournal implements Closeable {
+	public static final Path JOURNAL_DIR = LifeCycleManager.WORKING_DIR.resolve("journal");
+
+	private static final Logger logger = Logger.getLogger(AnnotationJournal.class.getSimpleName());
+	private static final String SUFFIX = ".journal";
+	private static final String SEPARATOR = "\t";
+	private static final String BATCH = "BATCH";
+	private static final String PENDING = "PENDING";
+	private static final String COMPLETED = "COMPLETED";
+	private static final String FAILED = "FAILED";
+	private static final String DISCARDED = "DISCARDED";
+
+	private final Path file;
+	private final String batchId;
+	private final AnnotationType type;
+	private final Map<Path, Picture> pending;
+	private final Map<Path, String> failed;
+	private FileChannel channel;
+
+	private AnnotationJournal(final Path aFile, final String aBatchId, final AnnotationType aType,
+			final Map<Path, Picture> aPending, final Map<Path, String> aFailed) {
+		file = aFile;
+		batchId = aBatchId;
+		type = aType;
+		pending = aPending;
+		failed = aFailed;
+	}
+
+	/**
+	 * Create the journal for a new batch
+	 * 
+	 * @param aDirectory
+	 *            the directory the journals are stored in
+	 * @param aBatchId
+	 *            the id of the batch, it is also used as id of the backups
+	 * @param aType
+	 *            the kind of meta data that is written
+	 * @param aPictures
+	 *            the pictures to write
+	 * @return the journal in which all pictures are pending
+	 * @throws IOException
+	 */
+	public static AnnotationJournal create(final Path aDirectory, final String aBatchId, final AnnotationType aType,
+			final List<Picture> aPictures) throws IOException {
+		final Map<Path, Picture> pending = new LinkedHashMap<>();
+		for (final Picture picture : aPictures) {
+			pending.put(picture.getFile(), picture);
+		}
+
+		final AnnotationJournal journal = new AnnotationJournal(aDirectory.resolve(aBatchId + SUFFIX), aBatchId,
+				aType, pending, new LinkedHashMap<>());
+		journal.rewrite();
+		return journal;
+	}
+
+	/**
+	 * Open an existing journal to resume the batch it belongs to. The journal
+	 * is compacted, such that it only contains the pending and the failed
+	 * pictures afterwards
+	 * 
+	 * @param aFile
+	 * @return the journal
+	 * @throws IOException
+	 *             if the journal can not be read or is malformed
+	 */
+	public static AnnotationJournal open(final Path aFile) throws IOException {
+		String batchId = null;
+		AnnotationType type = null;
+		final Map<Path, Picture> pending = new LinkedHashMap<>();
+		final Map<Path, String> failed = new LinkedHashMap<>();
+
+		for (final String line : Files.readAllLines(aFile, StandardCharsets.UTF_8)) {
+			final String[] fields = line.split(SEPARATOR, -1);
+			try {
+				switch (fields[0]) {
+				case BATCH:
+					batchId = decode(fields[1]);
+					type = AnnotationType.valueOf(decode(fields[2]));
+					break;
+				case PENDING:
+					final Picture picture = decodePicture(fields);
+					pending.put(picture.getFile(), picture);
+					failed.remove(picture.getFile());
+					break;
+				case COMPLETED:
+					pending.remove(Paths.get(decode(fields[1])));
+					break;
+				case FAILED:
+					final Path failedFile = Paths.get(decode(fields[1]));
+					pending.remove(failedFile);
+					failed.put(failedFile, decode(fields[2]));
+					break;
+				case DISCARDED:
+					pending.clear();
+					break;
+				default:
+					logger.warning("Ignoring unknown record in journal " + aFile + ": " + line);
+				}
+			} catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+				// the last record may be incomplete if writing it was interrupted
+				logger.warning("Ignoring malformed record in journal " + aFile + ": " + line);
+			}
+		}
+
+		if (batchId == null) {
+			throw new IOException("Journal " + aFile + " does not contain a batch record");
+		}
+
+		final AnnotationJournal journal = new AnnotationJournal(aFile, batchId, type, pending, failed);
+		journal.rewrite();
+		return journal;
+	}
+
+	/**
+	 * @param aDirectory
+	 *            the directory the journals are stored in
+	 * @return the files of all journals in the given directory
+	 */
+	public static List<Path> findJournals(final Path aDirectory) {
+		if (!Files.isDirectory(aDirectory)) {
+			return Collections.emptyList();
+		}
+
+		final List<Path> journals = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(aDirectory, "*" + SUFFIX)) {
+			for (final Path journal : stream) {
+				journals.add(journal);
+			}
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not list journals in " + aDirectory, e);
+		}
+		return journals;
+	}
+
+	private synchronized void rewrite() throws IOException {
+		Files.createDirectories(file.getParent());
+		final Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try (final BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+				writer.write(join(BATCH, encode(batchId), encode(type.name())));
+				for (final Picture picture : pending.values()) {
+					writer.write(encodePicture(picture));
+				}
+				for (final Map.Entry<Path, String> entry : failed.entrySet()) {
+					writer.write(join(FAILED, encode(entry.getKey().toString()), encode(entry.getValue())));
+				}
+			}
+
+			try (final FileChannel temporaryChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+				temporaryChannel.force(true);
+			}
+
+			try {
+				Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Record that the given picture has been written
+	 * 
+	 * @param aFile
+	 */
+	public synchronized void completed(final Path aFile) {
+		pending.remove(aFile);
+		append(join(COMPLETED, encode(aFile.toString())));
+	}
+
+	/**
+	 * Record that writing the given picture failed
+	 * 
+	 * @param aFile
+	 * @param aMessage
+	 *            the reason of the failure
+	 */
+	public synchronized void failed(final Path aFile, final String aMessage) {
+		pending.remove(aFile);
+		failed.put(aFile, String.valueOf(aMessage));
+		append(join(FAILED, encode(aFile.toString()), encode(String.valueOf(aMessage))));
+	}
+
+	/**
+	 * Record that the pictures that are still pending will not be written
+	 */
+	public synchronized void discardPending() {
+		pending.clear();
+		append(join(DISCARDED));
+	}
+
+	private void append(final String aRecord) {
+		try {
+			final ByteBuffer buffer = ByteBuffer.wrap(aRecord.getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not write to journal " + file, e);
+		}
+	}
+
+	/**
+	 * Close the journal. If all pictures have been written successfully, the
+	 * journal is deleted
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			channel.close();
+			if (pending.isEmpty() && failed.isEmpty()) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not close journal " + file, e);
+		}
+	}
+
+	/**
+	 * Close the journal and delete it, even if pictures have failed or are
+	 * still pending
+	 */
+	public synchronized void delete() {
+		try {
+			channel.close();
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not delete journal " + file, e);
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public String getBatchId() {
+		return batchId;
+	}
+
+	public AnnotationType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the pictures that have neither been written nor failed yet
+	 */
+	public synchronized List<Picture> getPendingPictures() {
+		return new ArrayList<>(pending.values());
+	}
+
+	/**
+	 * @return the files whose annotation failed mapped to the reason of the
+	 *         failure
+	 */
+	public synchronized Map<Path, String> getFailedFiles() {
+		return new LinkedHashMap<>(failed);
+	}
+
+	private static String join(final String... aFields) {
+		return String.join(SEPARATOR, aFields) + "\n";
+	}
+
+	private static String encodePicture(final Picture aPicture) {
+		final Coordinates coordinates = aPicture.getCoordinates();
+		final Geocoding geocoding = aPicture.getGeocoding();
+
+		return join(PENDING, encode(aPicture.getFile().toString()), //
+				coordinates == null ? "" : String.valueOf(coordinates.getLatitude()), //
+				coordinates == null ? "" : String.valueOf(coordinates.getLongitude()), //
+				coordinates == null ? "" : String.valueOf(coordinates.getAltitude()), //
+				geocoding == null ? "" : encode(geocoding.getLocationName()), //
+				geocoding == null ? "" : encode(geocoding.getCity()), //
+				geocoding == null ? "" : encode(geocoding.getSublocation()), //
+				geocoding == null ? "" : encode(geocoding.getProvinceState()), //
+				geocoding == null ? "" : encode(geocoding.getCountryCode()), //
+				geocoding == null ? "" : encode(geocoding.getCountryName()));
+	}
+
+	private static Picture decodePicture(final String[] aFields) {
+		if (aFields.length != 11) {
+			throw new IllegalArgumentException("Expected 11 fields but got " + aFields.length);
+		}
+
+		final Path file = Paths.get(decode(aFields[1]));
+
+		Coordinates coordinates = null;
+		if (!aFields[2].isEmpty()) {
+			coordinates = new Coordinates(Double.parseDouble(aFields[2]), Double.parseDouble(aFields[3]),
+					Double.parseDouble(aFields[4]));
+		}
+
+		final Geocoding geocoding = new Geocoding.Builder() //
+				.setLocationName(decode(aFields[5])) //
+				.setCity(decode(aFields[6])) //
+				.setSublocation(decode(aFields[7])) //
+				.setProvinceState(decode(aFields[8])) //
+				.setCountryCode(decode(aFields[9])) //
+				.setCountryName(decode(aFields[10])) //
+				.build();
+
+		return new Picture(file, null, coordinates, geocoding);
+	}
+
+	private static String encode(final String aValue) {
+		try {
+			return URLEncoder.encode(aValue, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decode(final String aValue) {
+		try {
+			return URLDecoder.decode(aValue, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.jpeg;
+
+/**
+ * The kinds of meta data that can be written to pictures
+ * 
+ * @author Joachim von Eichborn
+ */
+public enum AnnotationType {
+	POSITION("position") {
+		@Override
+		public void write(final PictureMetadataWriter aWriter) throws PictureAnnotationException {
+			aWriter.writePositionMetadata();
+		}
+	},
+	GEOCODING("geocoding") {
+		@Override
+		public void write(final PictureMetadataWriter aWriter) throws PictureAnnotationException {
+			aWriter.writeGeocodingMetadata();
+		}
+	},
+	POSITION_AND_GEOCODING("position and geocoding") {
+		@Override
+		public void write(final PictureMetadataWriter aWriter) throws PictureAnnotationException {
+			aWriter.writePositionAndGeocodingMetadata();
+		}
+	};
+
+	private final String displayName;
+
+	private AnnotationType(final String aDisplayName) {
+		displayName = aDisplayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * Write the meta data of this type using the given writer
+	 * 
+	 * @param aWriter
+	 * @throws PictureAnnotationException
+	 */
+	public abstract void write(final PictureMetadataWriter aWriter) throws PictureAnnotationException;
+}
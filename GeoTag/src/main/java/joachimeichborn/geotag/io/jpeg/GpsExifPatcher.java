@@ -0,0 +1,166 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.imaging.common.RationalNumber;
+
+import joachimeichborn.geotag.io.jpeg.JpegSegmentReader.IfdEntry;
+import joachimeichborn.geotag.model.Coordinates;
+
+/**
+ * Overwrites the values of an existing GPS directory of a JPEG file in place.
+ * This is only possible if the directory already contains the reference,
+ * latitude, longitude and altitude fields with exactly the expected types and
+ * value counts, because then the new values have exactly the size of the old
+ * ones. The values are
+ * encoded the same way as by
+ * {@link org.apache.commons.imaging.formats.tiff.write.TiffOutputSet#setGPSInDegrees(double, double)}
+ * 
+ * @author Joachim von Eichborn
+ */
+public class GpsExifPatcher {
+	private static final Logger logger = Logger.getLogger(GpsExifPatcher.class.getSimpleName());
+
+	private static final int RATIONAL_SIZE = 8;
+
+	private final Path file;
+
+	public GpsExifPatcher(final Path aFile) {
+		file = aFile;
+	}
+
+	/**
+	 * Write the given coordinates to the GPS directory of the file
+	 * 
+	 * @param aCoordinates
+	 * @return true if the coordinates have been written and forced to disk,
+	 *         false if the layout of the file does not allow to write them in
+	 *         place. In the latter case, the file is not modified
+	 * @throws IOException
+	 */
+	public boolean write(final Coordinates aCoordinates) throws IOException {
+		final JpegSegmentReader segments;
+		try {
+			segments = new JpegSegmentReader(PictureSource.open(file).getHead());
+		} catch (IllegalArgumentException e) {
+			logger.fine("Could not read segments of " + file + ": " + e.getMessage());
+			return false;
+		}
+
+		final Map<Integer, IfdEntry> gps = segments.getGpsEntries();
+		if (gps == null) {
+			logger.fine(file + " has no GPS directory, it can not be patched in place");
+			return false;
+		}
+
+		final IfdEntry latitudeRef = gps.get(JpegSegmentReader.TAG_GPS_LATITUDE_REF);
+		final IfdEntry latitude = gps.get(JpegSegmentReader.TAG_GPS_LATITUDE);
+		final IfdEntry longitudeRef = gps.get(JpegSegmentReader.TAG_GPS_LONGITUDE_REF);
+		final IfdEntry longitude = gps.get(JpegSegmentReader.TAG_GPS_LONGITUDE);
+		final IfdEntry altitudeRef = gps.get(JpegSegmentReader.TAG_GPS_ALTITUDE_REF);
+		final IfdEntry altitude = gps.get(JpegSegmentReader.TAG_GPS_ALTITUDE);
+
+		if (!hasLayout(latitudeRef, JpegSegmentReader.TYPE_ASCII, 2) //
+				|| !hasLayout(longitudeRef, JpegSegmentReader.TYPE_ASCII, 2) //
+				|| !hasLayout(latitude, JpegSegmentReader.TYPE_RATIONAL, 3) //
+				|| !hasLayout(longitude, JpegSegmentReader.TYPE_RATIONAL, 3) //
+				|| !hasLayout(altitudeRef, JpegSegmentReader.TYPE_BYTE, 1) //
+				|| !hasLayout(altitude, JpegSegmentReader.TYPE_RATIONAL, 1)) {
+			logger.fine("GPS directory of " + file + " does not contain all required fields");
+			return false;
+		}
+
+		final int tiffStart = segments.getTiffStart();
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			writeAscii(channel, tiffStart, latitudeRef, aCoordinates.getLatitude() < 0 ? "S" : "N");
+			writeRationals(channel, tiffStart, latitude, segments, toDegreesMinutesSeconds(aCoordinates.getLatitude()));
+			writeAscii(channel, tiffStart, longitudeRef, aCoordinates.getLongitude() < 0 ? "W" : "E");
+			writeRationals(channel, tiffStart, longitude, segments,
+					toDegreesMinutesSeconds(aCoordinates.getLongitude()));
+			write(channel, tiffStart + altitudeRef.valueOffset,
+					ByteBuffer.wrap(new byte[] { (byte) (aCoordinates.getAltitude() < 0 ? 1 : 0) }));
+			writeRationals(channel, tiffStart, altitude, segments,
+					new RationalNumber[] { RationalNumber.valueOf(Math.abs(aCoordinates.getAltitude())) });
+			// the caller may record the picture as written once this returns
+			channel.force(false);
+		}
+
+		logger.fine("Patched GPS directory of " + file + " in place");
+		return true;
+	}
+
+	private static boolean hasLayout(final IfdEntry aEntry, final int aType, final int aCount) {
+		return aEntry != null && aEntry.type == aType && aEntry.count == aCount;
+	}
+
+	private static RationalNumber[] toDegreesMinutesSeconds(final double aValue) {
+		double value = Math.abs(aValue);
+		final double degrees = (long) value;
+		value %= 1;
+		value *= 60.0;
+		final double minutes = (long) value;
+		value %= 1;
+		value *= 60.0;
+		final double seconds = value;
+
+		return new RationalNumber[] { RationalNumber.valueOf(degrees), RationalNumber.valueOf(minutes),
+				RationalNumber.valueOf(seconds) };
+	}
+
+	private static void writeAscii(final FileChannel aChannel, final int aTiffStart, final IfdEntry aEntry,
+			final String aValue) throws IOException {
+		// the remaining bytes of the field are filled with NUL characters
+		final byte[] value = new byte[aEntry.count];
+		final byte[] text = aValue.getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(text, 0, value, 0, Math.min(text.length, value.length - 1));
+
+		write(aChannel, aTiffStart + aEntry.valueOffset, ByteBuffer.wrap(value));
+	}
+
+	private static void writeRationals(final FileChannel aChannel, final int aTiffStart, final IfdEntry aEntry,
+			final JpegSegmentReader aSegments, final RationalNumber[] aValues) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(RATIONAL_SIZE * aValues.length)
+				.order(aSegments.getTiffByteOrder());
+		for (final RationalNumber value : aValues) {
+			buffer.putInt(value.numerator);
+			buffer.putInt(value.divisor);
+		}
+		buffer.flip();
+
+		write(aChannel, aTiffStart + aEntry.valueOffset, buffer);
+	}
+
+	private static void write(final FileChannel aChannel, final long aPosition, final ByteBuffer aBuffer)
+			throws IOException {
+		long position = aPosition;
+		while (aBuffer.hasRemaining()) {
+			position += aChannel.write(aBuffer, position);
+		}
+	}
+}
@@ -0,0 +1,515 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.jpeg;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+
+/**
+ * Reader for the meta data of a JPEG file that only looks at the marker
+ * segments in the head of the file. Only the values GeoTag actually uses are
+ * decoded: the capture time, the camera model, the orientation and the
+ * position from the EXIF segment, the offset of the EXIF thumbnail and the
+ * location records from the IPTC block of the Photoshop segment. The
+ * compressed image data is never touched.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class JpegSegmentReader {
+	/**
+	 * An entry of an image file directory. The offset of the value is relative
+	 * to the start of the TIFF header
+	 */
+	static class IfdEntry {
+		final int type;
+		final int count;
+		final int valueOffset;
+
+		private IfdEntry(final int aType, final int aCount, final int aValueOffset) {
+			type = aType;
+			count = aCount;
+			valueOffset = aValueOffset;
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(JpegSegmentReader.class.getSimpleName());
+
+	private static final int MARKER_PREFIX = 0xFF;
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int APP1 = 0xE1;
+	private static final int APP13 = 0xED;
+	private static final int TEM = 0x01;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+
+	private static final byte[] EXIF_IDENTIFIER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PHOTOSHOP_IDENTIFIER = "Photoshop 3.0\0".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] RESOURCE_SIGNATURE = "8BIM".getBytes(StandardCharsets.US_ASCII);
+	private static final int IPTC_RESOURCE_ID = 0x0404;
+	private static final int IPTC_TAG_MARKER = 0x1C;
+	private static final byte[] IPTC_UTF8_CHARSET = { 0x1B, 0x25, 0x47 };
+
+	static final int TYPE_BYTE = 1;
+	static final int TYPE_ASCII = 2;
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_LONG = 4;
+	static final int TYPE_RATIONAL = 5;
+
+	private static final int TAG_MODEL = 0x0110;
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_GPS_IFD = 0x8825;
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+	static final int TAG_GPS_LATITUDE_REF = 0x0001;
+	static final int TAG_GPS_LATITUDE = 0x0002;
+	static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+	static final int TAG_GPS_LONGITUDE = 0x0004;
+	static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+	static final int TAG_GPS_ALTITUDE = 0x0006;
+
+	private static final int IPTC_RECORD_ENVELOPE = 1;
+	private static final int IPTC_RECORD_APPLICATION = 2;
+	private static final int IPTC_CODED_CHARACTER_SET = 90;
+	private static final int IPTC_CONTENT_LOCATION_NAME = 27;
+	private static final int IPTC_CITY = 90;
+	private static final int IPTC_SUBLOCATION = 92;
+	private static final int IPTC_PROVINCE_STATE = 95;
+	private static final int IPTC_COUNTRY_CODE = 100;
+	private static final int IPTC_COUNTRY_NAME = 101;
+
+	private final byte[] head;
+	private boolean exif;
+	private int tiffStart = -1;
+	private ByteOrder tiffByteOrder;
+	private Map<Integer, IfdEntry> gpsEntries;
+	private String dateTimeOriginal;
+	private String model;
+	private int orientation;
+	private Coordinates coordinates;
+	private int thumbnailOffset = -1;
+	private int thumbnailLength;
+	private Geocoding geocoding;
+
+	/**
+	 * Read the meta data from the head of a JPEG file
+	 * 
+	 * @param aHead
+	 *            the head of the file, see {@link PictureSource#getHead()}
+	 * @throws IllegalArgumentException
+	 *             if the data is not the head of a JPEG file
+	 */
+	public JpegSegmentReader(final byte[] aHead) {
+		head = aHead;
+
+		final ByteBuffer buffer = ByteBuffer.wrap(aHead).order(ByteOrder.BIG_ENDIAN);
+		if (buffer.remaining() < 2 || (buffer.get(0) & 0xFF) != MARKER_PREFIX || (buffer.get(1) & 0xFF) != SOI) {
+			throw new IllegalArgumentException("Data does not start with a JPEG start of image marker");
+		}
+
+		int position = 2;
+		while (position + 4 <= buffer.limit()) {
+			if ((buffer.get(position) & 0xFF) != MARKER_PREFIX) {
+				break;
+			}
+
+			final int marker = buffer.get(position + 1) & 0xFF;
+			if (marker == MARKER_PREFIX) {
+				position++;
+				continue;
+			}
+			if (marker == SOS || marker == EOI) {
+				break;
+			}
+			if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+				position += 2;
+				continue;
+			}
+
+			final int length = buffer.getShort(position + 2) & 0xFFFF;
+			final int start = position + 4;
+			final int end = Math.min(position + 2 + length, buffer.limit());
+
+			try {
+				if (marker == APP1 && !exif && startsWith(start, end, EXIF_IDENTIFIER)) {
+					exif = true;
+					readExif(start + EXIF_IDENTIFIER.length, end);
+				} else if (marker == APP13 && startsWith(start, end, PHOTOSHOP_IDENTIFIER)) {
+					readPhotoshop(start + PHOTOSHOP_IDENTIFIER.length, end);
+				}
+			} catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+				logger.fine("Ignoring malformed segment " + Integer.toHexString(marker)
+						+ " at offset " + position + ": " + e.getMessage());
+			}
+
+			position += 2 + length;
+		}
+	}
+
+	private boolean startsWith(final int aStart, final int aEnd, final byte[] aIdentifier) {
+		if (aEnd - aStart < aIdentifier.length) {
+			return false;
+		}
+
+		for (int i = 0; i < aIdentifier.length; i++) {
+			if (head[aStart + i] != aIdentifier[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void readExif(final int aStart, final int aEnd) {
+		final ByteBuffer tiff = ByteBuffer.wrap(head, aStart, aEnd - aStart).slice();
+		if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+			tiff.order(ByteOrder.LITTLE_ENDIAN);
+		} else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+			tiff.order(ByteOrder.BIG_ENDIAN);
+		} else {
+			throw new IllegalArgumentException("Invalid TIFF byte order");
+		}
+
+		tiffStart = aStart;
+		tiffByteOrder = tiff.order();
+
+		final int ifd0Offset = tiff.getInt(4);
+		final Map<Integer, IfdEntry> ifd0 = readIfd(tiff, ifd0Offset);
+
+		model = getAscii(tiff, ifd0.get(TAG_MODEL));
+		orientation = getShort(tiff, ifd0.get(TAG_ORIENTATION));
+
+		final IfdEntry exifPointer = ifd0.get(TAG_EXIF_IFD);
+		if (exifPointer != null && exifPointer.type == TYPE_LONG) {
+			final Map<Integer, IfdEntry> exifIfd = readIfd(tiff, tiff.getInt(exifPointer.valueOffset));
+			dateTimeOriginal = getAscii(tiff, exifIfd.get(TAG_DATE_TIME_ORIGINAL));
+		}
+
+		final IfdEntry gpsPointer = ifd0.get(TAG_GPS_IFD);
+		if (gpsPointer != null && gpsPointer.type == TYPE_LONG) {
+			try {
+				gpsEntries = readIfd(tiff, tiff.getInt(gpsPointer.valueOffset));
+				readGps(tiff, gpsEntries);
+			} catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+				// the remaining directories, e.g. the thumbnail, are still read
+				logger.fine("Ignoring malformed GPS directory: " + e.getMessage());
+			}
+		}
+
+		final int ifd1Offset = tiff.getInt(ifd0Offset + 2 + 12 * (tiff.getShort(ifd0Offset) & 0xFFFF));
+		if (ifd1Offset > 0) {
+			final Map<Integer, IfdEntry> ifd1 = readIfd(tiff, ifd1Offset);
+			final IfdEntry offset = ifd1.get(TAG_THUMBNAIL_OFFSET);
+			final IfdEntry length = ifd1.get(TAG_THUMBNAIL_LENGTH);
+			if (offset != null && length != null && offset.type == TYPE_LONG && length.type == TYPE_LONG) {
+				final int thumbnailStart = tiff.getInt(offset.valueOffset);
+				final int thumbnailSize = tiff.getInt(length.valueOffset);
+				if (thumbnailStart > 0 && thumbnailSize > 0 && thumbnailSize <= tiff.limit() - thumbnailStart) {
+					thumbnailOffset = aStart + thumbnailStart;
+					thumbnailLength = thumbnailSize;
+				}
+			}
+		}
+	}
+
+	private void readGps(final ByteBuffer aTiff, final Map<Integer, IfdEntry> aGps) {
+		final String latitudeRef = getAscii(aTiff, aGps.get(TAG_GPS_LATITUDE_REF));
+		final double[] latitude = getRationals(aTiff, aGps.get(TAG_GPS_LATITUDE));
+		final String longitudeRef = getAscii(aTiff, aGps.get(TAG_GPS_LONGITUDE_REF));
+		final double[] longitude = getRationals(aTiff, aGps.get(TAG_GPS_LONGITUDE));
+
+		if (latitudeRef == null || longitudeRef == null || latitude == null || latitude.length < 3
+				|| longitude == null || longitude.length < 3) {
+			return;
+		}
+
+		final double latitudeSign;
+		if (latitudeRef.trim().equalsIgnoreCase("N")) {
+			latitudeSign = 1;
+		} else if (latitudeRef.trim().equalsIgnoreCase("S")) {
+			latitudeSign = -1;
+		} else {
+			throw new IllegalArgumentException("Invalid latitude reference " + latitudeRef);
+		}
+
+		final double longitudeSign;
+		if (longitudeRef.trim().equalsIgnoreCase("E")) {
+			longitudeSign = 1;
+		} else if (longitudeRef.trim().equalsIgnoreCase("W")) {
+			longitudeSign = -1;
+		} else {
+			throw new IllegalArgumentException("Invalid longitude reference " + longitudeRef);
+		}
+
+		double altitude = 0;
+		final IfdEntry altitudeRef = aGps.get(TAG_GPS_ALTITUDE_REF);
+		final double[] altitudeValue = getRationals(aTiff, aGps.get(TAG_GPS_ALTITUDE));
+		if (altitudeRef != null && altitudeRef.type == TYPE_BYTE && altitudeRef.count > 0 && altitudeValue != null
+				&& altitudeValue.length > 0) {
+			altitude = altitudeValue[0];
+			if (aTiff.get(altitudeRef.valueOffset) == 1) {
+				altitude *= -1;
+			}
+		}
+
+		coordinates = new Coordinates(latitudeSign * toDegrees(latitude), longitudeSign * toDegrees(longitude),
+				altitude);
+	}
+
+	private static double toDegrees(final double[] aDegreesMinutesSeconds) {
+		return aDegreesMinutesSeconds[0] + aDegreesMinutesSeconds[1] / 60.0 + aDegreesMinutesSeconds[2] / 3600.0;
+	}
+
+	private static Map<Integer, IfdEntry> readIfd(final ByteBuffer aTiff, final int aOffset) {
+		final Map<Integer, IfdEntry> entries = new HashMap<>();
+		final int count = aTiff.getShort(aOffset) & 0xFFFF;
+
+		for (int i = 0; i < count; i++) {
+			final int entry = aOffset + 2 + 12 * i;
+			final int tag = aTiff.getShort(entry) & 0xFFFF;
+			final int type = aTiff.getShort(entry + 2) & 0xFFFF;
+			final int valueCount = aTiff.getInt(entry + 4);
+			final long size = (long) getTypeSize(type) * valueCount;
+			final int valueOffset = size <= 4 ? entry + 8 : aTiff.getInt(entry + 8);
+
+			if (valueCount >= 0 && valueOffset >= 0 && valueOffset + size <= aTiff.limit()) {
+				entries.put(tag, new IfdEntry(type, valueCount, valueOffset));
+			}
+		}
+
+		return entries;
+	}
+
+	private static int getTypeSize(final int aType) {
+		switch (aType) {
+		case TYPE_SHORT:
+			return 2;
+		case TYPE_LONG:
+		case 9:
+		case 11:
+			return 4;
+		case TYPE_RATIONAL:
+		case 10:
+		case 12:
+			return 8;
+		default:
+			return 1;
+		}
+	}
+
+	private static String getAscii(final ByteBuffer aTiff, final IfdEntry aEntry) {
+		if (aEntry == null || aEntry.type != TYPE_ASCII) {
+			return null;
+		}
+
+		int length = 0;
+		while (length < aEntry.count && aTiff.get(aEntry.valueOffset + length) != 0) {
+			length++;
+		}
+
+		final byte[] value = new byte[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = aTiff.get(aEntry.valueOffset + i);
+		}
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	private static int getShort(final ByteBuffer aTiff, final IfdEntry aEntry) {
+		if (aEntry == null || aEntry.type != TYPE_SHORT || aEntry.count < 1) {
+			return 0;
+		}
+		return aTiff.getShort(aEntry.valueOffset) & 0xFFFF;
+	}
+
+	private static double[] getRationals(final ByteBuffer aTiff, final IfdEntry aEntry) {
+		if (aEntry == null || aEntry.type != TYPE_RATIONAL) {
+			return null;
+		}
+
+		final double[] values = new double[aEntry.count];
+		for (int i = 0; i < values.length; i++) {
+			final long numerator = aTiff.getInt(aEntry.valueOffset + 8 * i) & 0xFFFFFFFFL;
+			final long denominator = aTiff.getInt(aEntry.valueOffset + 8 * i + 4) & 0xFFFFFFFFL;
+			values[i] = numerator / (double) denominator;
+		}
+		return values;
+	}
+
+	private void readPhotoshop(final int aStart, final int aEnd) {
+		final Geocoding.Builder builder = new Geocoding.Builder();
+		final ByteBuffer buffer = ByteBuffer.wrap(head, aStart, aEnd - aStart).slice().order(ByteOrder.BIG_ENDIAN);
+
+		while (buffer.remaining() >= 12 && startsWith(aStart + buffer.position(), aEnd, RESOURCE_SIGNATURE)) {
+			buffer.position(buffer.position() + RESOURCE_SIGNATURE.length);
+			final int id = buffer.getShort() & 0xFFFF;
+			final int nameLength = buffer.get() & 0xFF;
+			// the name including its length byte is padded to an even size
+			buffer.position(buffer.position() + nameLength + ((nameLength + 1) % 2));
+			final int size = buffer.getInt();
+			final int dataStart = buffer.position();
+
+			if (id == IPTC_RESOURCE_ID) {
+				readIptc(ByteBuffer.wrap(head, aStart + dataStart, size).slice(), builder);
+			}
+
+			buffer.position(dataStart + size + (size % 2));
+		}
+
+		geocoding = builder.build();
+	}
+
+	private static void readIptc(final ByteBuffer aBuffer, final Geocoding.Builder aBuilder) {
+		Charset charset = StandardCharsets.ISO_8859_1;
+
+		while (aBuffer.remaining() >= 5 && (aBuffer.get(aBuffer.position()) & 0xFF) == IPTC_TAG_MARKER) {
+			aBuffer.get();
+			final int record = aBuffer.get() & 0xFF;
+			final int dataset = aBuffer.get() & 0xFF;
+			int size = aBuffer.getShort() & 0xFFFF;
+			if ((size & 0x8000) != 0) {
+				final int lengthBytes = size & 0x7FFF;
+				size = 0;
+				for (int i = 0; i < lengthBytes; i++) {
+					size = (size << 8) | (aBuffer.get() & 0xFF);
+				}
+			}
+
+			final byte[] value = new byte[size];
+			aBuffer.get(value);
+
+			if (record == IPTC_RECORD_ENVELOPE && dataset == IPTC_CODED_CHARACTER_SET) {
+				charset = Arrays.equals(value, IPTC_UTF8_CHARSET) ? StandardCharsets.UTF_8
+						: StandardCharsets.ISO_8859_1;
+			} else if (record == IPTC_RECORD_APPLICATION) {
+				final String text = new String(value, charset);
+				switch (dataset) {
+				case IPTC_CONTENT_LOCATION_NAME:
+					aBuilder.setLocationName(text);
+					break;
+				case IPTC_CITY:
+					aBuilder.setCity(text);
+					break;
+				case IPTC_SUBLOCATION:
+					aBuilder.setSublocation(text);
+					break;
+				case IPTC_PROVINCE_STATE:
+					aBuilder.setProvinceState(text);
+					break;
+				case IPTC_COUNTRY_CODE:
+					aBuilder.setCountryCode(text);
+					break;
+				case IPTC_COUNTRY_NAME:
+					aBuilder.setCountryName(text);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the file contains an EXIF segment
+	 */
+	public boolean hasExif() {
+		return exif;
+	}
+
+	/**
+	 * @return the value of the EXIF tag DateTimeOriginal or null
+	 */
+	public String getDateTimeOriginal() {
+		return dateTimeOriginal;
+	}
+
+	/**
+	 * @return the value of the TIFF tag Model or null
+	 */
+	public String getModel() {
+		return model;
+	}
+
+	/**
+	 * @return the value of the TIFF tag Orientation or 0 if it is not set
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * @return the position stored in the GPS directory or null
+	 */
+	public Coordinates getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * @return the location stored in the IPTC records or null if the file
+	 *         does not contain a Photoshop segment
+	 */
+	public Geocoding getGeocoding() {
+		return geocoding;
+	}
+
+	/**
+	 * @return the compressed EXIF thumbnail or null if there is none
+	 */
+	public byte[] getThumbnailData() {
+		if (thumbnailOffset < 0) {
+			return null;
+		}
+		return Arrays.copyOfRange(head, thumbnailOffset, thumbnailOffset + thumbnailLength);
+	}
+
+	/**
+	 * @return the offset of the TIFF header of the EXIF segment relative to
+	 *         the start of the file or -1 if there is no EXIF segment
+	 */
+	int getTiffStart() {
+		return tiffStart;
+	}
+
+	/**
+	 * @return the byte order of the EXIF data
+	 */
+	ByteOrder getTiffByteOrder() {
+		return tiffByteOrder;
+	}
+
+	/**
+	 * @return the entries of the GPS directory by tag or null if there is no
+	 *         GPS directory
+	 */
+	Map<Integer, IfdEntry> getGpsEntries() {
+		return gpsEntries;
+	}
+}
@@ -20,48 +20,31 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package joachimeichborn.geotag.io.jpeg;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
 import java.util.logging.Logger;
 
-import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.common.ImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.JpegPhotoshopMetadata;
-import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
-import org.apache.commons.imaging.formats.jpeg.iptc.IptcTypes;
-import org.apache.commons.imaging.formats.tiff.TiffField;
-import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
-import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
-import org.apache.commons.imaging.formats.tiff.constants.GpsTagConstants;
-import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
-import org.apache.commons.imaging.formats.tiff.fieldtypes.FieldType;
-import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
+import javax.imageio.ImageIO;
 
 import joachimeichborn.geotag.misc.PictureOrientation;
 import joachimeichborn.geotag.model.Coordinates;
 import joachimeichborn.geotag.model.Geocoding;
 
 /**
- * Representation of EXIF image meta data
+ * Representation of EXIF image meta data. The meta data is decoded by a
+ * {@link JpegSegmentReader} from the head of the file only.
  * 
  * @author Joachim von Eichborn
  */
 public class PictureMetadataReader {
 	static final Logger logger = Logger.getLogger(PictureMetadataReader.class.getSimpleName());
 
-	private final JpegImageMetadata jpegMetadata;
+	private final JpegSegmentReader segments;
 	private final Path pictureFile;
-	private boolean fetchedTime = false;
-	private String time;
-	private boolean fetchedCoordinates = false;
-	private Coordinates coordinates;
+	private final PictureSource source;
 	private boolean fetchedOrientation = false;
 	private PictureOrientation orientation;
-	private boolean fetchedGeocoding = false;
-	private Geocoding geocoding;
 	private boolean fetchedThumbnail = false;
 	private BufferedImage thumbnail;
 
@@ -73,86 +56,84 @@ public class PictureMetadataReader {
 	 *            constructed object
 	 */
 	public PictureMetadataReader(final Path aPicture) {
-		pictureFile = aPicture;
-		ImageMetadata metadata = null;
-		try {
-			metadata = Imaging.getMetadata(aPicture.toFile());
-		} catch (ImageReadException | IOException e) {
-			logger.severe("Could not get metadata section from file '" + pictureFile + "': " + e.getMessage());
-		}
-
-		if (metadata instanceof JpegImageMetadata) {
-			jpegMetadata = (JpegImageMetadata) metadata;
-		} else {
-			jpegMetadata = null;
-			logger.warning("Could not get JPEG metadate for file " + pictureFile);
-		}
+		this(aPicture, openSource(aPicture));
 	}
 
 	/**
-	 * Extract the time that is stored in the EXIF tag
-	 * {@link ExifTagConstants#EXIF_TAG_DATE_TIME_ORIGINAL}
+	 * Constructor using the head of a picture file that has already been read
+	 * 
+	 * @param aSource
+	 *            The source of the picture whose meta data is represented by
+	 *            the constructed object
 	 */
-	public String getTime() {
-		if (!fetchedTime) {
-			fetchedTime = true;
-			time = getTagStringValue(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
-		}
-
-		return time;
+	public PictureMetadataReader(final PictureSource aSource) {
+		this(aSource.getFile(), aSource);
 	}
 
-	public Coordinates getCoordinates() {
-		if (!fetchedCoordinates) {
-			fetchedCoordinates = true;
+	private PictureMetadataReader(final Path aPicture, final PictureSource aSource) {
+		pictureFile = aPicture;
+		source = aSource;
+
+		JpegSegmentReader reader = null;
+		if (source != null) {
 			try {
-				extractGpsData();
-			} catch (ImageReadException e) {
-				logger.severe("Could not get gps data from file '" + pictureFile + "': " + e.getMessage());
+				reader = new JpegSegmentReader(source.getHead());
+			} catch (IllegalArgumentException e) {
+				logger.severe("Could not get metadata section from file '" + pictureFile + "': " + e.getMessage());
 			}
 		}
 
-		return coordinates;
+		if (reader == null || !reader.hasExif()) {
+			logger.warning("Could not get JPEG metadate for file " + pictureFile);
+		}
+		segments = reader;
+	}
+
+	private static PictureSource openSource(final Path aPicture) {
+		try {
+			return PictureSource.open(aPicture);
+		} catch (IOException e) {
+			logger.severe("Could not read file '" + aPicture + "': " + e.getMessage());
+			return null;
+		}
 	}
 
 	/**
-	 * Extract existing position information from the EXIF section
-	 * 
-	 * @throws ImageReadException
+	 * @return the source the meta data has been read from or null if the
+	 *         file could not be read
 	 */
-	private void extractGpsData() throws ImageReadException {
-		if (jpegMetadata != null) {
-			final TiffImageMetadata exifMetadata = jpegMetadata.getExif();
-			if (exifMetadata != null) {
-				final double altitude = getAltitude(exifMetadata);
+	public PictureSource getSource() {
+		return source;
+	}
 
-				final TiffImageMetadata.GPSInfo gpsInfo = exifMetadata.getGPS();
-				if (gpsInfo != null) {
-					final double longitude = gpsInfo.getLongitudeAsDegreesEast();
-					final double latitude = gpsInfo.getLatitudeAsDegreesNorth();
+	/**
+	 * Extract the time that is stored in the EXIF tag DateTimeOriginal
+	 */
+	public String getTime() {
+		if (segments == null) {
+			return null;
+		}
 
-					coordinates = new Coordinates(latitude, longitude, altitude);
-				}
-			}
+		final String time = segments.getDateTimeOriginal();
+		if (time == null) {
+			logger.fine("Field DateTimeOriginal is null for picture " + pictureFile);
 		}
+		return time;
 	}
 
-	private double getAltitude(final TiffImageMetadata aMetadata) throws ImageReadException {
-		final byte[] altitudeRefArray = getTagByteValue(GpsTagConstants.GPS_TAG_GPS_ALTITUDE_REF);
-		final double[] altitudeArray = getTagRationalValue(GpsTagConstants.GPS_TAG_GPS_ALTITUDE);
-
-		if (altitudeRefArray == null || altitudeRefArray.length == 0 || altitudeArray == null
-				|| altitudeArray.length == 0) {
-			return 0;
+	/**
+	 * Extract the camera model that is stored in the TIFF tag Model
+	 */
+	public String getCameraModel() {
+		if (segments == null || segments.getModel() == null) {
+			return null;
 		}
 
-		double altitude = altitudeArray[0];
-
-		if (altitudeRefArray[0] == 1) {
-			altitude *= -1;
-		}
+		return segments.getModel().trim();
+	}
 
-		return altitude;
+	public Coordinates getCoordinates() {
+		return segments == null ? null : segments.getCoordinates();
 	}
 
 	public PictureOrientation getOrientation() {
@@ -165,52 +146,17 @@ public class PictureMetadataReader {
 	}
 
 	private void extractOrientation() {
-		final int[] rawOrientation = getTagIntValue(TiffTagConstants.TIFF_TAG_ORIENTATION);
-
-		if (rawOrientation == null || rawOrientation.length == 0) {
+		if (segments == null || segments.getOrientation() == 0) {
 			logger.info("Could not get orientation for '" + pictureFile + "', assuming horizontal orientation");
 			orientation = PictureOrientation.HORIZONTAL_NORMAL;
 			return;
 		}
 
-		orientation = PictureOrientation.getByMetadataValue(rawOrientation[0]);
+		orientation = PictureOrientation.getByMetadataValue(segments.getOrientation());
 	}
 
 	public Geocoding getGeocoding() {
-		if (!fetchedGeocoding) {
-			fetchedGeocoding = true;
-			extractGeocoding();
-		}
-
-		return geocoding;
-	}
-
-	public void extractGeocoding() {
-		if (jpegMetadata != null) {
-			final JpegPhotoshopMetadata photoshopMetadata = jpegMetadata.getPhotoshop();
-			if (photoshopMetadata != null) {
-				final Geocoding.Builder builder = new Geocoding.Builder();
-				final List<IptcRecord> records = photoshopMetadata.photoshopApp13Data.getRecords();
-
-				for (final IptcRecord record : records) {
-					if (record.iptcType.equals(IptcTypes.CONTENT_LOCATION_NAME)) {
-						builder.setLocationName(record.getValue());
-					} else if (record.iptcType.equals(IptcTypes.CITY)) {
-						builder.setCity(record.getValue());
-					} else if (record.iptcType.equals(IptcTypes.SUBLOCATION)) {
-						builder.setSublocation(record.getValue());
-					} else if (record.iptcType.equals(IptcTypes.PROVINCE_STATE)) {
-						builder.setProvinceState(record.getValue());
-					} else if (record.iptcType.equals(IptcTypes.COUNTRY_PRIMARY_LOCATION_CODE)) {
-						builder.setCountryCode(record.getValue());
-					} else if (record.iptcType.equals(IptcTypes.COUNTRY_PRIMARY_LOCATION_NAME)) {
-						builder.setCountryName(record.getValue());
-					}
-				}
-
-				geocoding = builder.build();
-			}
-		}
+		return segments == null ? null : segments.getGeocoding();
 	}
 
 	public BufferedImage getThumbnail() {
@@ -222,80 +168,23 @@ public class PictureMetadataReader {
 		return thumbnail;
 	}
 
-	private void extractThumbnail() {
-		if (jpegMetadata != null) {
-			try {
-				thumbnail = jpegMetadata.getEXIFThumbnail();
-			} catch (ImageReadException | IOException e) {
-				logger.fine("Failed to extract exiv thumbnail from " + pictureFile);
-			}
-		}
+	/**
+	 * @return the encoded EXIF thumbnail or null if the picture has none
+	 */
+	public byte[] getThumbnailData() {
+		return segments == null ? null : segments.getThumbnailData();
 	}
 
-	private String getTagStringValue(final TagInfo aTagInfo) {
-		if (jpegMetadata != null) {
-			final TiffField field = jpegMetadata.findEXIFValueWithExactMatch(aTagInfo);
-			if (field == null) {
-				logger.fine("Field " + aTagInfo + " is null for picture " + pictureFile);
-				return null;
-			}
-			
-			final FieldType fieldType = field.getFieldType();
-			if (fieldType.getType() == FieldType.ASCII.getType()) {
+	private void extractThumbnail() {
+		if (segments != null) {
+			final byte[] data = getThumbnailData();
+			if (data != null) {
 				try {
-					return field.getStringValue();
-				} catch (ImageReadException e) {
-					logger.fine("Failed to read " + aTagInfo + " from " + pictureFile + ": " + e.getMessage());
-				}
-			}
-		}
-		return null;
-	}
-
-	private double[] getTagRationalValue(final TagInfo aTagInfo) {
-		if (jpegMetadata != null) {
-			final TiffField field = jpegMetadata.findEXIFValueWithExactMatch(aTagInfo);
-			if (field != null) {
-				final FieldType fieldType = field.getFieldType();
-				if (fieldType.getType() == FieldType.RATIONAL.getType()) {
-					try {
-						return field.getDoubleArrayValue();
-					} catch (ImageReadException e) {
-						logger.fine("Failed to read " + aTagInfo + " from " + pictureFile + ": " + e.getMessage());
-					}
-				}
-			}
-		}
-		return null;
-	}
-
-	private byte[] getTagByteValue(final TagInfo aTagInfo) {
-		if (jpegMetadata != null) {
-			final TiffField field = jpegMetadata.findEXIFValueWithExactMatch(aTagInfo);
-			if (field != null) {
-				final FieldType fieldType = field.getFieldType();
-				if (fieldType.getType() == FieldType.BYTE.getType()) {
-					return field.getByteArrayValue();
-				}
-			}
-		}
-		return null;
-	}
-
-	private int[] getTagIntValue(final TagInfo aTagInfo) {
-		if (jpegMetadata != null) {
-			final TiffField field = jpegMetadata.findEXIFValueWithExactMatch(aTagInfo);
-			if (field != null) {
-				final FieldType fieldType = field.getFieldType();
-				if (fieldType.getType() == FieldType.SHORT.getType()) {
-					try {
-						return field.getIntArrayValue();
-					} catch (ImageReadException e) {
-						logger.fine("Failed to read " + aTagInfo + " from " + pictureFile + ": " + e.getMessage());
-					}
+					thumbnail = ImageIO.read(new ByteArrayInputStream(data));
+				} catch (IOException e) {
+					logger.fine("Failed to extract exiv thumbnail from " + pictureFile);
 				}
 			}
 		}
-		return null;
 	}
 }
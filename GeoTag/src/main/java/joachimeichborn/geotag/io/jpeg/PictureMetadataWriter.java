@@ -19,16 +19,20 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.io.jpeg;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -76,12 +80,31 @@ public class PictureMetadataWriter {
 		backupId = aUniqueId;
 	}
 
+	/**
+	 * Write the coordinates of the picture to its EXIF GPS directory. If the
+	 * directory already contains all position fields, they are overwritten in
+	 * place. Only otherwise the whole file is rewritten
+	 * 
+	 * @throws PictureAnnotationException
+	 */
 	public void writePositionMetadata() throws PictureAnnotationException {
-		final Path temporaryFile = prepareAnnotation();
+		backupIfEnabled();
+
+		try {
+			if (new GpsExifPatcher(picture.getFile()).write(picture.getCoordinates())) {
+				return;
+			}
+		} catch (IOException e) {
+			throw new PictureAnnotationException("Failed to annotate position to " + picture.getFile()
+					+ ", skipping position annotation for this picture", e);
+		}
+
+		final Path temporaryFile = createTemporaryFile();
 
 		try {
 			setExifGPSTag(temporaryFile);
 		} catch (ImageWriteException | ImageReadException | IOException e) {
+			deleteTemporaryFile(temporaryFile);
 			throw new PictureAnnotationException("Failed to annotate position to " + picture.getFile()
 					+ ", skipping position annotation for this picture", e);
 		}
@@ -90,6 +113,11 @@ public class PictureMetadataWriter {
 	}
 
 	private Path prepareAnnotation() throws PictureAnnotationException {
+		backupIfEnabled();
+		return createTemporaryFile();
+	}
+
+	private void backupIfEnabled() throws PictureAnnotationException {
 		if (backup) {
 			logger.fine("Picture backup activated");
 			try {
@@ -101,10 +129,18 @@ public class PictureMetadataWriter {
 		} else {
 			logger.fine("Picture backup deactivated");
 		}
+	}
+
+	/**
+	 * The temporary file is created in the directory of the picture, such that
+	 * it is on the same file system and can replace the picture by a rename
+	 */
+	private Path createTemporaryFile() throws PictureAnnotationException {
+		final Path file = picture.getFile().toAbsolutePath();
 
 		Path temporaryFile = null;
 		try {
-			temporaryFile = Files.createTempFile("geotag", null);
+			temporaryFile = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".geotag");
 		} catch (IOException e) {
 			throw new PictureAnnotationException(
 					"Failed to create temporary file, skipping annotation for this picture", e);
@@ -113,37 +149,86 @@ public class PictureMetadataWriter {
 		return temporaryFile;
 	}
 
+	private void deleteTemporaryFile(final Path aTemporaryFile) {
+		try {
+			Files.deleteIfExists(aTemporaryFile);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not delete temporary file " + aTemporaryFile, e);
+		}
+	}
+
 	private void finishAnnotation(final Path aTemporaryFile) throws PictureAnnotationException {
 		try {
 			replaceOriginalWithAnnotated(picture.getFile(), aTemporaryFile);
 		} catch (IOException e) {
+			deleteTemporaryFile(aTemporaryFile);
 			throw new PictureAnnotationException("Failed to replace original file " + picture.getFile()
 					+ " with the annotated one. The original file might got corrupted", e);
 		}
 	}
 
 	private void setExifGPSTag(final Path aTargetFile) throws IOException, ImageWriteException, ImageReadException {
-		final Path sourceFile = picture.getFile();
+		final PictureSource source = PictureSource.open(picture.getFile());
+
+		final TiffOutputSet outputSet = getOutputSet(getJpegMetadata(source));
+		setPosition(outputSet);
 
-		try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(aTargetFile.toFile()))) {
-			TiffOutputSet outputSet = getOutputSet(sourceFile);
+		final ByteArrayOutputStream annotatedHead = new ByteArrayOutputStream();
+		new ExifRewriter().updateExifMetadataLossless(source.getHead(), annotatedHead, outputSet);
 
-			final Coordinates coordinates = picture.getCoordinates();
+		writeAnnotatedFile(source, annotatedHead.toByteArray(), aTargetFile);
+	}
+
+	/**
+	 * Write the annotated head followed by the unchanged rest of the source
+	 * file to the target file. The head ends behind the start of scan segment,
+	 * so the rest only contains the compressed image data, which is
+	 * transferred between the channels without passing through the heap
+	 */
+	private void writeAnnotatedFile(final PictureSource aSource, final byte[] aAnnotatedHead, final Path aTargetFile)
+			throws IOException {
+		try (final FileChannel sourceChannel = FileChannel.open(aSource.getFile(), StandardOpenOption.READ);
+				final FileChannel targetChannel = FileChannel.open(aTargetFile, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer head = ByteBuffer.wrap(aAnnotatedHead);
+			while (head.hasRemaining()) {
+				targetChannel.write(head);
+			}
 
-			outputSet.setGPSInDegrees(coordinates.getLongitude(), coordinates.getLatitude());
-			setAltitude(coordinates.getAltitude(), outputSet);
+			final long size = sourceChannel.size();
+			long position = aSource.getHead().length;
+			while (position < size) {
+				position += sourceChannel.transferTo(position, size - position, targetChannel);
+			}
 
-			new ExifRewriter().updateExifMetadataLossless(sourceFile.toFile(), os, outputSet);
+			// the annotated file must be on disk before it replaces the original
+			targetChannel.force(true);
 		}
 	}
 
+	private void setPosition(final TiffOutputSet aOutputSet) throws ImageWriteException {
+		final Coordinates coordinates = picture.getCoordinates();
+
+		aOutputSet.setGPSInDegrees(coordinates.getLongitude(), coordinates.getLatitude());
+		setAltitude(coordinates.getAltitude(), aOutputSet);
+	}
+
 	private void replaceOriginalWithAnnotated(final Path originalFile, final Path annotatedFile) throws IOException {
-		Files.move(annotatedFile, originalFile, StandardCopyOption.REPLACE_EXISTING);
+		try {
+			Files.move(annotatedFile, originalFile, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			logger.fine("Atomic move not supported, replacing " + originalFile + " non-atomically");
+			Files.move(annotatedFile, originalFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private JpegImageMetadata getJpegMetadata(final PictureSource aSource) throws ImageReadException, IOException {
+		final ImageMetadata metadata = Imaging.getMetadata(aSource.getHead());
+		return (JpegImageMetadata) metadata;
 	}
 
-	private TiffOutputSet getOutputSet(final Path aFile) throws ImageReadException, IOException, ImageWriteException {
-		final ImageMetadata metadata = Imaging.getMetadata(aFile.toFile());
-		final JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
+	private TiffOutputSet getOutputSet(final JpegImageMetadata jpegMetadata) throws ImageWriteException {
 		if (null != jpegMetadata) {
 			final TiffImageMetadata exif = jpegMetadata.getExif();
 			if (exif != null) {
@@ -167,15 +252,51 @@ public class PictureMetadataWriter {
 		gpsDirectory.add(GpsTagConstants.GPS_TAG_GPS_ALTITUDE, RationalNumber.valueOf(altitude));
 	}
 
+	/**
+	 * @param aFile
+	 *            a picture file
+	 * @param aBackupId
+	 *            the unique id used when writing the picture
+	 * @return the file the backup of the given picture is stored in, if
+	 *         backups are activated
+	 */
+	public static Path getBackupFile(final Path aFile, final String aBackupId) {
+		final String parentPath = aFile.getParent().toString();
+		final String hashedPath = DigestUtils.md5Hex(parentPath + aBackupId);
+
+		return BACKUP_DIR.resolve(hashedPath).resolve(aFile.getFileName());
+	}
+
 	private void backupFile() throws IOException {
 		final Path sourceFile = picture.getFile();
-		final String parentPath = sourceFile.getParent().toString();
-		final String hashedPath = DigestUtils.md5Hex(parentPath + backupId);
+		final Path backupFile = getBackupFile(sourceFile, backupId);
+
+		if (Files.exists(backupFile)) {
+			// a resumed batch must not overwrite the backup of the original
+			logger.fine("Backup " + backupFile + " already exists");
+			return;
+		}
 
-		final Path targetDir = BACKUP_DIR.resolve(hashedPath);
-		Files.createDirectories(targetDir);
+		// the backup is completed under a temporary name, such that an
+		// existing backup is never a truncated copy of an interrupted backup
+		Files.createDirectories(backupFile.getParent());
+		final Path temporaryFile = Files.createTempFile(backupFile.getParent(), backupFile.getFileName().toString(),
+				".tmp");
+		try {
+			Files.copy(sourceFile, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+			try (final FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
 
-		Files.copy(sourceFile, targetDir.resolve(sourceFile.getFileName()));
+			try {
+				Files.move(temporaryFile, backupFile, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				logger.fine("Atomic move not supported, moving backup " + backupFile + " non-atomically");
+				Files.move(temporaryFile, backupFile);
+			}
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
 	}
 
 	public void writeGeocodingMetadata() throws PictureAnnotationException {
@@ -184,6 +305,7 @@ public class PictureMetadataWriter {
 		try {
 			setGeocoding(temporaryFile);
 		} catch (ImageWriteException | ImageReadException | IOException e) {
+			deleteTemporaryFile(temporaryFile);
 			throw new PictureAnnotationException("Failed to annotate geocoding to " + picture.getFile()
 					+ ", skipping geocoding annotation for this picture", e);
 		}
@@ -191,56 +313,108 @@ public class PictureMetadataWriter {
 		finishAnnotation(temporaryFile);
 	}
 
+	/**
+	 * Write the coordinates and the geocoding of the picture in one go. Both
+	 * the EXIF and the IPTC segment are replaced in the head of the file, which
+	 * is read only once, and the compressed image data is copied unchanged.
+	 * Thus, there is only one backup, one rewrite and one replacement of the
+	 * original file
+	 * 
+	 * @throws PictureAnnotationException
+	 */
+	public void writePositionAndGeocodingMetadata() throws PictureAnnotationException {
+		final Path temporaryFile = prepareAnnotation();
+
+		try {
+			setExifGPSTagAndGeocoding(temporaryFile);
+		} catch (ImageWriteException | ImageReadException | IOException e) {
+			deleteTemporaryFile(temporaryFile);
+			throw new PictureAnnotationException("Failed to annotate position and geocoding to " + picture.getFile()
+					+ ", skipping annotation for this picture", e);
+		}
+
+		finishAnnotation(temporaryFile);
+	}
+
+	private void setExifGPSTagAndGeocoding(final Path aTargetFile)
+			throws IOException, ImageReadException, ImageWriteException {
+		final PictureSource source = PictureSource.open(picture.getFile());
+		final JpegImageMetadata metadata = getJpegMetadata(source);
+
+		// pictures without IPTC data get a new APP13 segment, such that the
+		// position is not lost together with the geocoding
+		PhotoshopApp13Data photoshopMetadata = getPhotoshopMetadata(metadata);
+		if (photoshopMetadata == null) {
+			photoshopMetadata = new PhotoshopApp13Data(new ArrayList<IptcRecord>(), new ArrayList<IptcBlock>());
+		}
+
+		final TiffOutputSet outputSet = getOutputSet(metadata);
+		setPosition(outputSet);
+
+		final ByteArrayOutputStream exifHead = new ByteArrayOutputStream();
+		new ExifRewriter().updateExifMetadataLossless(source.getHead(), exifHead, outputSet);
+		final ByteArrayOutputStream annotatedHead = new ByteArrayOutputStream();
+		new JpegIptcRewriter().writeIPTC(exifHead.toByteArray(), annotatedHead, createIptcData(photoshopMetadata));
+
+		writeAnnotatedFile(source, annotatedHead.toByteArray(), aTargetFile);
+	}
+
 	private void setGeocoding(final Path aTargetFile) throws IOException, ImageReadException, ImageWriteException {
-		final Path sourceFile = picture.getFile();
+		final PictureSource source = PictureSource.open(picture.getFile());
 
-		final PhotoshopApp13Data photoshopMetadata = getPhotoshopMetadata(sourceFile);
+		final PhotoshopApp13Data photoshopMetadata = getPhotoshopMetadata(getJpegMetadata(source));
 		if (photoshopMetadata == null) {
 			throw new ImageReadException("Could not obtain photoshop metadata");
 		}
 
-		try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(aTargetFile.toFile()))) {
-			final Geocoding geocoding = picture.getGeocoding();
-
-			final EnumSet<IptcTypes> filterTypes = EnumSet.noneOf(IptcTypes.class);
-			filterTypes.add(IptcTypes.CONTENT_LOCATION_NAME);
-			filterTypes.add(IptcTypes.CITY);
-			filterTypes.add(IptcTypes.SUBLOCATION);
-			filterTypes.add(IptcTypes.PROVINCE_STATE);
-			filterTypes.add(IptcTypes.COUNTRY_PRIMARY_LOCATION_CODE);
-			filterTypes.add(IptcTypes.COUNTRY_PRIMARY_LOCATION_NAME);
-
-			final List<IptcRecord> records = photoshopMetadata.getRecords();
-			final Iterator<IptcRecord> iter = records.iterator();
-			while (iter.hasNext()) {
-				final IptcRecord record = iter.next();
-				final IptcType type = record.iptcType;
-				if (filterTypes.contains(type)) {
-					iter.remove();
-				}
+		final ByteArrayOutputStream annotatedHead = new ByteArrayOutputStream();
+		new JpegIptcRewriter().writeIPTC(source.getHead(), annotatedHead, createIptcData(photoshopMetadata));
+
+		writeAnnotatedFile(source, annotatedHead.toByteArray(), aTargetFile);
+	}
+
+	/**
+	 * Replace the location records of the given IPTC data by the geocoding of
+	 * the picture
+	 */
+	private PhotoshopApp13Data createIptcData(final PhotoshopApp13Data aPhotoshopMetadata) {
+		final Geocoding geocoding = picture.getGeocoding();
+
+		final EnumSet<IptcTypes> filterTypes = EnumSet.noneOf(IptcTypes.class);
+		filterTypes.add(IptcTypes.CONTENT_LOCATION_NAME);
+		filterTypes.add(IptcTypes.CITY);
+		filterTypes.add(IptcTypes.SUBLOCATION);
+		filterTypes.add(IptcTypes.PROVINCE_STATE);
+		filterTypes.add(IptcTypes.COUNTRY_PRIMARY_LOCATION_CODE);
+		filterTypes.add(IptcTypes.COUNTRY_PRIMARY_LOCATION_NAME);
+
+		final List<IptcRecord> records = aPhotoshopMetadata.getRecords();
+		final Iterator<IptcRecord> iter = records.iterator();
+		while (iter.hasNext()) {
+			final IptcRecord record = iter.next();
+			final IptcType type = record.iptcType;
+			if (filterTypes.contains(type)) {
+				iter.remove();
 			}
+		}
 
-			records.add(new IptcRecord(IptcTypes.CONTENT_LOCATION_NAME,
-					geocoding != null ? geocoding.getLocationName() : ""));
-			records.add(new IptcRecord(IptcTypes.CITY, geocoding != null ? geocoding.getCity() : ""));
-			records.add(new IptcRecord(IptcTypes.SUBLOCATION, geocoding != null ? geocoding.getSublocation() : ""));
-			records.add(
-					new IptcRecord(IptcTypes.PROVINCE_STATE, geocoding != null ? geocoding.getProvinceState() : ""));
-			records.add(new IptcRecord(IptcTypes.COUNTRY_PRIMARY_LOCATION_CODE,
-					geocoding != null ? geocoding.getCountryCode() : ""));
-			records.add(new IptcRecord(IptcTypes.COUNTRY_PRIMARY_LOCATION_NAME,
-					geocoding != null ? geocoding.getCountryName() : ""));
+		records.add(new IptcRecord(IptcTypes.CONTENT_LOCATION_NAME,
+				geocoding != null ? geocoding.getLocationName() : ""));
+		records.add(new IptcRecord(IptcTypes.CITY, geocoding != null ? geocoding.getCity() : ""));
+		records.add(new IptcRecord(IptcTypes.SUBLOCATION, geocoding != null ? geocoding.getSublocation() : ""));
+		records.add(
+				new IptcRecord(IptcTypes.PROVINCE_STATE, geocoding != null ? geocoding.getProvinceState() : ""));
+		records.add(new IptcRecord(IptcTypes.COUNTRY_PRIMARY_LOCATION_CODE,
+				geocoding != null ? geocoding.getCountryCode() : ""));
+		records.add(new IptcRecord(IptcTypes.COUNTRY_PRIMARY_LOCATION_NAME,
+				geocoding != null ? geocoding.getCountryName() : ""));
 
-			final List<IptcBlock> rawBlocks = photoshopMetadata.getRawBlocks();
+		final List<IptcBlock> rawBlocks = aPhotoshopMetadata.getRawBlocks();
 
-			new JpegIptcRewriter().writeIPTC(sourceFile.toFile(), os, new PhotoshopApp13Data(records, rawBlocks));
-		}
+		return new PhotoshopApp13Data(records, rawBlocks);
 	}
 
-	private PhotoshopApp13Data getPhotoshopMetadata(final Path aFile)
-			throws ImageReadException, IOException, ImageWriteException {
-		final ImageMetadata metadata = Imaging.getMetadata(aFile.toFile());
-		final JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
+	private PhotoshopApp13Data getPhotoshopMetadata(final JpegImageMetadata jpegMetadata) {
 		if (jpegMetadata != null) {
 			final JpegPhotoshopMetadata photoshopMetadata = jpegMetadata.getPhotoshop();
 			if (photoshopMetadata != null) {
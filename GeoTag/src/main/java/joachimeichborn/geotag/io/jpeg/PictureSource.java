@@ -0,0 +1,197 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The head of a JPEG file, i.e. all marker segments up to the start of the
+ * compressed image data. Reading a picture is split into stages: the head is
+ * read once and shared by everything that needs the meta data or the EXIF
+ * thumbnail, and only if the image itself has to be decoded the remaining
+ * bytes of the file are read - without reading the head again.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class PictureSource {
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private static final int MARKER_PREFIX = 0xFF;
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int TEM = 0x01;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+
+	private final Path file;
+	private final long size;
+	private final byte[] head;
+
+	private PictureSource(final Path aFile, final long aSize, final byte[] aHead) {
+		file = aFile;
+		size = aSize;
+		head = aHead;
+	}
+
+	/**
+	 * Read the head of the given JPEG file
+	 * 
+	 * @param aFile
+	 * @return the source containing the head of the file
+	 * @throws IOException
+	 *             if the file cannot be read or is not a JPEG file
+	 */
+	public static PictureSource open(final Path aFile) throws IOException {
+		try (final FileChannel channel = FileChannel.open(aFile, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, BLOCK_SIZE));
+			readFully(channel, buffer);
+
+			if (buffer.position() < 2 || (buffer.get(0) & 0xFF) != MARKER_PREFIX || (buffer.get(1) & 0xFF) != SOI) {
+				throw new IOException("Not a JPEG file: " + aFile);
+			}
+
+			int position = 2;
+			while (buffer.position() < size) {
+				final int headEnd = findHeadEnd(buffer, position);
+				final int required;
+				if (headEnd >= 0) {
+					if (headEnd <= buffer.position()) {
+						break;
+					}
+					required = headEnd;
+				} else {
+					position = -headEnd;
+					required = position + 4;
+				}
+
+				final ByteBuffer grown = ByteBuffer.allocate((int) Math.min(size, roundUp(required)));
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+				readFully(channel, buffer);
+			}
+
+			return new PictureSource(aFile, size, Arrays.copyOf(buffer.array(), buffer.position()));
+		}
+	}
+
+	/**
+	 * Walk the marker segments starting at the given position
+	 * 
+	 * @return the end of the start of scan segment if it lies within the
+	 *         buffered data, the end of the start of scan or end of image
+	 *         marker if that is known, or the negated position of the first
+	 *         segment that is not completely buffered
+	 */
+	private static int findHeadEnd(final ByteBuffer aBuffer, final int aPosition) {
+		final int limit = aBuffer.position();
+		int position = aPosition;
+
+		while (position + 4 <= limit) {
+			if ((aBuffer.get(position) & 0xFF) != MARKER_PREFIX) {
+				// not a marker, treat everything read so far as head
+				return position;
+			}
+
+			final int marker = aBuffer.get(position + 1) & 0xFF;
+			if (marker == MARKER_PREFIX) {
+				position++;
+			} else if (marker == EOI) {
+				return position + 2;
+			} else if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+				position += 2;
+			} else {
+				final int length = aBuffer.getShort(position + 2) & 0xFFFF;
+				if (marker == SOS) {
+					return position + 2 + length;
+				}
+				position += 2 + length;
+			}
+		}
+
+		return -position;
+	}
+
+	private static int roundUp(final int aValue) {
+		return (aValue + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+	}
+
+	private static void readFully(final FileChannel aChannel, final ByteBuffer aBuffer) throws IOException {
+		while (aBuffer.hasRemaining()) {
+			if (aChannel.read(aBuffer, aBuffer.position()) < 0) {
+				throw new EOFException("Unexpected end of file after " + aBuffer.position() + " bytes");
+			}
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the size of the complete file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the head of the file, containing at least all marker segments
+	 *         before the compressed image data
+	 */
+	public byte[] getHead() {
+		return head;
+	}
+
+	/**
+	 * Decode the complete image. Only the part of the file following the
+	 * already read head is read from disk
+	 * 
+	 * @return the decoded image or null if it could not be decoded
+	 * @throws IOException
+	 */
+	public BufferedImage readImage() throws IOException {
+		if (head.length >= size) {
+			return ImageIO.read(new ByteArrayInputStream(head));
+		}
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			channel.position(head.length);
+			try (final InputStream input = new SequenceInputStream(new ByteArrayInputStream(head),
+					Channels.newInputStream(channel))) {
+				return ImageIO.read(input);
+			}
+		}
+	}
+}
@@ -0,0 +1,440 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.IllegalFieldValueException;
+import org.joda.time.LocalDate;
+
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Base class for parsers of line based track formats. The file is memory
+ * mapped and split at line boundaries into chunks that are scanned in parallel
+ * on the IO pool. Each chunk is collected into its own track data, the chunks are
+ * merged into one track ordered by time.
+ * 
+ * Subclasses scan the bytes of each line directly, the number parsing helpers
+ * of this class work on the mapped buffer without creating strings.
+ * 
+ * @author Joachim von Eichborn
+ * @param <H>
+ *            type of the information taken from the header line, if the
+ *            format has one
+ */
+public abstract class AbstractLineParser<H> implements TrackParser {
+	/**
+	 * Reads the lines of one chunk, every chunk gets its own reader
+	 */
+	protected interface LineReader {
+		/**
+		 * @param aBuffer
+		 *            the buffer containing the chunk
+		 * @param aStart
+		 *            index of the first byte of the line
+		 * @param aEnd
+		 *            index after the last byte of the line, line terminators
+		 *            are excluded
+		 */
+		void readLine(ByteBuffer aBuffer, int aStart, int aEnd);
+
+		/**
+		 * Called after the last line of the chunk has been read
+		 */
+		void finish();
+	}
+
+	protected static final long NO_RECORD_KEY = Long.MIN_VALUE;
+
+	private static final Logger logger = Logger.getLogger(AbstractLineParser.class.getSimpleName());
+	private static final long DEFAULT_MIN_CHUNK_SIZE = 4 << 20;
+	private static final long MAX_CHUNK_SIZE = 1 << 30;
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int BOUNDARY_WINDOW_SIZE = 64 * 1024;
+	private static final double[] POWERS_OF_TEN = { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+	private final long minChunkSize;
+	private final int parallelism;
+	private final ExecutionService executionService;
+
+	/**
+	 * @param aExecutionService
+	 *            the service whose IO pool reads the chunks of a file in
+	 *            parallel, if <code>null</code> the file is read in one go
+	 */
+	protected AbstractLineParser(final ExecutionService aExecutionService) {
+		this(DEFAULT_MIN_CHUNK_SIZE, Runtime.getRuntime().availableProcessors(), aExecutionService);
+	}
+
+	/**
+	 * @param aMinChunkSize
+	 *            files are only split into chunks of at least this size
+	 * @param aParallelism
+	 *            the maximum number of chunks that are read in parallel
+	 * @param aExecutionService
+	 *            the service whose IO pool reads the chunks of a file in
+	 *            parallel, if <code>null</code> the file is read in one go
+	 */
+	protected AbstractLineParser(final long aMinChunkSize, final int aParallelism,
+			final ExecutionService aExecutionService) {
+		minChunkSize = aMinChunkSize;
+		parallelism = aExecutionService == null ? 1 : aParallelism;
+		executionService = aExecutionService;
+	}
+
+	/**
+	 * @return <code>true</code> if the first line of the file is a header that
+	 *         must be passed to {@link #readHeader(ByteBuffer, int, int)}
+	 */
+	protected abstract boolean hasHeader();
+
+	/**
+	 * Only called if {@link #hasHeader()} returns <code>true</code>, the
+	 * default implementation returns <code>null</code>
+	 * 
+	 * @param aBuffer
+	 *            the buffer containing the header line
+	 * @param aStart
+	 *            index of the first byte of the header line
+	 * @param aEnd
+	 *            index after the last byte of the header line
+	 * @return the information needed to read the lines of the file
+	 * @throws IOException
+	 *             if the header is not supported
+	 */
+	protected H readHeader(final ByteBuffer aBuffer, final int aStart, final int aEnd) throws IOException {
+		return null;
+	}
+
+	/**
+	 * @param aHeader
+	 *            the header information or <code>null</code> if the format has
+	 *            no header
+	 * @param aBuilder
+	 *            the builder that takes the positions of the chunk
+	 * @param aName
+	 *            the name to give to the positions
+	 * @return a new reader for one chunk
+	 */
+	protected abstract LineReader createLineReader(H aHeader, TrackData.Builder aBuilder, String aName);
+
+	public Track read(final Path aFile) throws IOException {
+		logger.fine("Reading positions from " + aFile);
+
+		try (final FileChannel channel = FileChannel.open(aFile, StandardOpenOption.READ)) {
+			final long size = channel.size();
+
+			long dataStart = 0;
+			H header = null;
+			if (hasHeader()) {
+				final MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						Math.min(size, MAX_HEADER_SIZE));
+				final int headerEnd = findLineEnd(head, 0);
+				header = readHeader(head, skipByteOrderMark(head), trimLineEnd(head, 0, headerEnd));
+				dataStart = Math.min(headerEnd + 1, size);
+			}
+
+			final List<Long> boundaries = findChunkBoundaries(channel, dataStart, size);
+			final String name = aFile.getFileName().toString();
+			final List<TrackData> chunkData = boundaries.size() > 2 && executionService != null
+					? readChunksInParallel(channel, boundaries, header, name)
+					: readChunks(channel, boundaries, header, name);
+
+			int positions = 0;
+			for (final TrackData data : chunkData) {
+				positions += data.size();
+			}
+			final TrackData.Builder builder = new TrackData.Builder(positions);
+			for (final TrackData data : chunkData) {
+				builder.addAll(data);
+			}
+
+			logger.fine("Read " + builder.size() + " positions in " + chunkData.size() + " chunks from " + aFile);
+			return new Track(aFile, builder.build());
+		}
+	}
+
+	/**
+	 * Split the data section of the file into about as many chunks as there
+	 * are cores. Chunks start at the beginning of a line and do not split a
+	 * record as identified by {@link #getRecordKey(ByteBuffer, int, int)}.
+	 */
+	private List<Long> findChunkBoundaries(final FileChannel aChannel, final long aStart, final long aEnd)
+			throws IOException {
+		final long length = aEnd - aStart;
+		final long byCores = Math.min(parallelism, length / minChunkSize);
+		final long chunks = Math.max(Math.max(byCores, (length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE), 1);
+
+		final List<Long> boundaries = new ArrayList<>();
+		boundaries.add(aStart);
+		for (long i = 1; i < chunks; i++) {
+			final long nominal = aStart + length * i / chunks;
+			final long windowStart = Math.max(aStart, nominal - BOUNDARY_WINDOW_SIZE);
+			final long windowEnd = Math.min(aEnd, nominal + BOUNDARY_WINDOW_SIZE);
+			final MappedByteBuffer window = aChannel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					windowEnd - windowStart);
+
+			final int boundary = findBoundary(window, (int) (nominal - windowStart));
+			if (boundary > 0 && windowStart + boundary > boundaries.get(boundaries.size() - 1)) {
+				boundaries.add(windowStart + boundary);
+			}
+		}
+		boundaries.add(aEnd);
+		return boundaries;
+	}
+
+	/**
+	 * @return the index of the first line start at or after the given index
+	 *         that does not continue the record of the preceding lines or -1
+	 *         if there is none in the window
+	 */
+	private int findBoundary(final ByteBuffer aWindow, final int aIndex) {
+		final int limit = aWindow.limit();
+		int boundary = aIndex == 0 ? 0 : findLineEnd(aWindow, aIndex - 1) + 1;
+		if (boundary >= limit) {
+			return -1;
+		}
+
+		long previousKey = NO_RECORD_KEY;
+		int previousEnd = boundary - 1;
+		while (previousKey == NO_RECORD_KEY && previousEnd > 0) {
+			int previousStart = previousEnd - 1;
+			while (previousStart >= 0 && aWindow.get(previousStart) != '\n') {
+				previousStart--;
+			}
+			if (previousStart < 0) {
+				break;
+			}
+			previousKey = getRecordKey(aWindow, previousStart + 1, trimLineEnd(aWindow, previousStart + 1,
+					previousEnd));
+			previousEnd = previousStart;
+		}
+		if (previousKey == NO_RECORD_KEY) {
+			return boundary;
+		}
+
+		while (boundary < limit) {
+			final int lineEnd = findLineEnd(aWindow, boundary);
+			if (lineEnd == limit) {
+				return -1;
+			}
+			final long key = getRecordKey(aWindow, boundary, trimLineEnd(aWindow, boundary, lineEnd));
+			if (key != NO_RECORD_KEY && key != previousKey) {
+				return boundary;
+			}
+			boundary = lineEnd + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Formats where a record spans several lines return the same key for all
+	 * lines of a record, so that chunks are not split within a record. The
+	 * default implementation treats every line as a record of its own.
+	 * 
+	 * @return a key identifying the record the line belongs to or
+	 *         {@link #NO_RECORD_KEY} if the line does not identify a record
+	 */
+	protected long getRecordKey(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+		return NO_RECORD_KEY;
+	}
+
+	private List<TrackData> readChunks(final FileChannel aChannel, final List<Long> aBoundaries, final H aHeader,
+			final String aName) throws IOException {
+		final List<TrackData> chunkData = new ArrayList<>();
+		for (int i = 0; i + 1 < aBoundaries.size(); i++) {
+			chunkData.add(readChunk(aChannel, aBoundaries.get(i), aBoundaries.get(i + 1), aHeader, aName));
+		}
+		return chunkData;
+	}
+
+	private List<TrackData> readChunksInParallel(final FileChannel aChannel, final List<Long> aBoundaries,
+			final H aHeader, final String aName) throws IOException {
+		final List<Callable<TrackData>> tasks = new ArrayList<>();
+		for (int i = 0; i + 1 < aBoundaries.size(); i++) {
+			final long start = aBoundaries.get(i);
+			final long end = aBoundaries.get(i + 1);
+			tasks.add(() -> readChunk(aChannel, start, end, aHeader, aName));
+		}
+
+		try {
+			return executionService.invokeAll(PoolType.IO, tasks);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading chunks", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private TrackData readChunk(final FileChannel aChannel, final long aStart, final long aEnd, final H aHeader,
+			final String aName) throws IOException {
+		final TrackData.Builder builder = new TrackData.Builder();
+		if (aEnd > aStart) {
+			final MappedByteBuffer buffer = aChannel.map(FileChannel.MapMode.READ_ONLY, aStart, aEnd - aStart);
+			final LineReader reader = createLineReader(aHeader, builder, aName);
+			final int limit = buffer.limit();
+			int lineStart = aStart == 0 ? skipByteOrderMark(buffer) : 0;
+			while (lineStart < limit) {
+				final int lineEnd = findLineEnd(buffer, lineStart);
+				final int contentEnd = trimLineEnd(buffer, lineStart, lineEnd);
+				if (contentEnd > lineStart) {
+					reader.readLine(buffer, lineStart, contentEnd);
+				}
+				lineStart = lineEnd + 1;
+			}
+			reader.finish();
+		}
+		return builder.build();
+	}
+
+	private static int findLineEnd(final ByteBuffer aBuffer, final int aStart) {
+		final int limit = aBuffer.limit();
+		for (int i = aStart; i < limit; i++) {
+			if (aBuffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	private static int trimLineEnd(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+		int end = aEnd;
+		while (end > aStart && aBuffer.get(end - 1) == '\r') {
+			end--;
+		}
+		return end;
+	}
+
+	private static int skipByteOrderMark(final ByteBuffer aBuffer) {
+		if (aBuffer.limit() >= 3 && aBuffer.get(0) == (byte) 0xef && aBuffer.get(1) == (byte) 0xbb
+				&& aBuffer.get(2) == (byte) 0xbf) {
+			return 3;
+		}
+		return 0;
+	}
+
+	/**
+	 * Parse a decimal number like <code>-12.345</code> without creating a
+	 * string. Exponents are not supported.
+	 * 
+	 * @return the number or {@link Double#NaN} if the bytes are not a number
+	 */
+	protected static double parseDecimal(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+		int i = aStart;
+		final boolean negative = i < aEnd && aBuffer.get(i) == '-';
+		if (negative || i < aEnd && aBuffer.get(i) == '+') {
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; i < aEnd; i++) {
+			final byte b = aBuffer.get(i);
+			if (b >= '0' && b <= '9') {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + (b - '0');
+					digits++;
+					if (fractionDigits >= 0) {
+						fractionDigits++;
+					}
+				} else if (fractionDigits < 0) {
+					return Double.NaN;
+				}
+			} else if (b == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else {
+				return Double.NaN;
+			}
+		}
+
+		if (digits == 0) {
+			return Double.NaN;
+		}
+		final double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse the given number of decimal digits
+	 * 
+	 * @return the value or <code>-1</code> if there are not enough digits
+	 */
+	protected static int parseDigits(final ByteBuffer aBuffer, final int aStart, final int aEnd,
+			final int aDigits) {
+		if (aEnd - aStart < aDigits) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = aStart; i < aStart + aDigits; i++) {
+			final int digit = aBuffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = 10 * value + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return milliseconds of midnight UTC of the given date or
+	 *         {@link Long#MIN_VALUE} if the date is invalid
+	 */
+	protected static long startOfDay(final int aYear, final int aMonth, final int aDay) {
+		try {
+			return new LocalDate(aYear, aMonth, aDay).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+		} catch (final IllegalFieldValueException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * @return index of the next occurrence of the byte at or after the start or
+	 *         the end index if it does not occur
+	 */
+	protected static int indexOf(final ByteBuffer aBuffer, final int aStart, final int aEnd, final byte aByte) {
+		for (int i = aStart; i < aEnd; i++) {
+			if (aBuffer.get(i) == aByte) {
+				return i;
+			}
+		}
+		return aEnd;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package joachimeichborn.geotag.io.parser;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Parser for ISO-8601 time stamps as written by GPX and KML emitters. Time
+ * stamps of the form {@code yyyy-MM-ddTHH:mm:ss[.fraction](Z|+/-hh[[:]mm])} are
+ * parsed directly from the characters without creating intermediate objects,
+ * all other input is handed to Joda-Time's ISO parser.
+ * 
+ * The result of the last successful parse is kept in the parser, so an
+ * instance must not be shared between threads.
+ * 
+ * @author Joachim von Eichborn
+ */
+public final class IsoTimestampParser {
+	private static final DateTimeFormatter FALLBACK_FORMATTER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+	private static final int MAX_FAST_PATH_LENGTH = 40;
+	private static final long MILLIS_PER_SECOND = 1000;
+	private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+	private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+	private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+	private static final int[] DAYS_PER_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+	private final char[] buffer = new char[MAX_FAST_PATH_LENGTH];
+	private long millis;
+	private int offsetMillis;
+	private DateTimeZone fallbackZone;
+	private DateTimeZone offsetZone;
+
+	/**
+	 * Parse the given time stamp
+	 * 
+	 * @param aText
+	 *            the time stamp
+	 * @throws IllegalArgumentException
+	 *             if the text is no valid ISO-8601 time stamp
+	 */
+	public void parse(final CharSequence aText) {
+		final int length = aText.length();
+		if (length <= MAX_FAST_PATH_LENGTH) {
+			for (int i = 0; i < length; i++) {
+				buffer[i] = aText.charAt(i);
+			}
+			if (parseFast(buffer, 0, length)) {
+				return;
+			}
+		}
+
+		parseFallback(aText.toString());
+	}
+
+	/**
+	 * Parse the time stamp contained in the given range of characters
+	 * 
+	 * @param aCharacters
+	 *            the characters
+	 * @param aStart
+	 *            the index of the first character of the time stamp
+	 * @param aLength
+	 *            the number of characters of the time stamp
+	 * @throws IllegalArgumentException
+	 *             if the text is no valid ISO-8601 time stamp
+	 */
+	public void parse(final char[] aCharacters, final int aStart, final int aLength) {
+		if (!parseFast(aCharacters, aStart, aStart + aLength)) {
+			parseFallback(new String(aCharacters, aStart, aLength));
+		}
+	}
+
+	/**
+	 * @return the parsed time in milliseconds since the epoch
+	 */
+	public long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * @return the offset of the parsed time stamp to UTC in milliseconds
+	 */
+	public int getOffsetMillis() {
+		return offsetMillis;
+	}
+
+	/**
+	 * @return the time zone of the parsed time stamp, a fixed offset zone
+	 *         unless the fallback parser determined another zone
+	 */
+	public DateTimeZone getZone() {
+		if (fallbackZone != null) {
+			return fallbackZone;
+		}
+		if (offsetZone == null || offsetZone.getOffset(millis) != offsetMillis) {
+			offsetZone = DateTimeZone.forOffsetMillis(offsetMillis);
+		}
+		return offsetZone;
+	}
+
+	private void parseFallback(final String aText) {
+		final DateTime time = FALLBACK_FORMATTER.parseDateTime(aText);
+		millis = time.getMillis();
+		fallbackZone = time.getZone();
+		offsetMillis = fallbackZone.getOffset(millis);
+	}
+
+	private boolean parseFast(final char[] aChars, final int aStart, final int aEnd) {
+		// yyyy-MM-ddTHH:mm:ss is the shortest form that still needs a zone
+		if (aEnd - aStart < 20 || aChars[aStart + 4] != '-' || aChars[aStart + 7] != '-'
+				|| aChars[aStart + 10] != 'T' || aChars[aStart + 13] != ':' || aChars[aStart + 16] != ':') {
+			return false;
+		}
+
+		final int year = digits(aChars, aStart, 4);
+		final int month = digits(aChars, aStart + 5, 2);
+		final int day = digits(aChars, aStart + 8, 2);
+		final int hour = digits(aChars, aStart + 11, 2);
+		final int minute = digits(aChars, aStart + 14, 2);
+		final int second = digits(aChars, aStart + 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0
+				|| hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return false;
+		}
+
+		int position = aStart + 19;
+		int fractionMillis = 0;
+		if (aChars[position] == '.' || aChars[position] == ',') {
+			position++;
+			final int fractionStart = position;
+			while (position < aEnd && aChars[position] >= '0' && aChars[position] <= '9') {
+				if (position - fractionStart < 3) {
+					fractionMillis = fractionMillis * 10 + aChars[position] - '0';
+				}
+				position++;
+			}
+			final int fractionDigits = position - fractionStart;
+			if (fractionDigits == 0 || fractionDigits > 9) {
+				return false;
+			}
+			for (int i = fractionDigits; i < 3; i++) {
+				fractionMillis *= 10;
+			}
+		}
+
+		final int offset = parseOffset(aChars, position, aEnd);
+		if (offset == Integer.MIN_VALUE) {
+			return false;
+		}
+
+		final long localMillis = epochDay(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR
+				+ minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND + fractionMillis;
+		millis = localMillis - offset;
+		offsetMillis = offset;
+		fallbackZone = null;
+		return true;
+	}
+
+	/**
+	 * @return the offset in milliseconds or {@link Integer#MIN_VALUE} if the
+	 *         characters are no supported zone designator
+	 */
+	private static int parseOffset(final char[] aChars, final int aStart, final int aEnd) {
+		final int length = aEnd - aStart;
+		if (length == 1 && aChars[aStart] == 'Z') {
+			return 0;
+		}
+
+		final int sign;
+		if (length < 1) {
+			return Integer.MIN_VALUE;
+		} else if (aChars[aStart] == '+') {
+			sign = 1;
+		} else if (aChars[aStart] == '-') {
+			sign = -1;
+		} else {
+			return Integer.MIN_VALUE;
+		}
+
+		final int hours;
+		final int minutes;
+		if (length == 3) {
+			hours = digits(aChars, aStart + 1, 2);
+			minutes = 0;
+		} else if (length == 5) {
+			hours = digits(aChars, aStart + 1, 2);
+			minutes = digits(aChars, aStart + 3, 2);
+		} else if (length == 6 && aChars[aStart + 3] == ':') {
+			hours = digits(aChars, aStart + 1, 2);
+			minutes = digits(aChars, aStart + 4, 2);
+		} else {
+			return Integer.MIN_VALUE;
+		}
+
+		if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+			return Integer.MIN_VALUE;
+		}
+
+		return sign * (int) (hours * MILLIS_PER_HOUR + minutes * MILLIS_PER_MINUTE);
+	}
+
+	/**
+	 * @return the value of the decimal digits or -1 if any character is no
+	 *         digit
+	 */
+	private static int digits(final char[] aChars, final int aStart, final int aCount) {
+		int value = 0;
+		for (int i = aStart; i < aStart + aCount; i++) {
+			final int digit = aChars[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static int daysInMonth(final int aYear, final int aMonth) {
+		if (aMonth == 2 && isLeapYear(aYear)) {
+			return 29;
+		}
+		return DAYS_PER_MONTH[aMonth - 1];
+	}
+
+	private static boolean isLeapYear(final int aYear) {
+		return (aYear & 3) == 0 && (aYear % 100 != 0 || aYear % 400 == 0);
+	}
+
+	/**
+	 * Number of days since 1970-01-01 in the proleptic Gregorian calendar
+	 */
+	private static long epochDay(final int aYear, final int aMonth, final int aDay) {
+		final int year = aMonth <= 2 ? aYear - 1 : aYear;
+		final int era = Math.floorDiv(year, 400);
+		final int yearOfEra = Math.floorMod(year, 400);
+		final int monthFromMarch = aMonth > 2 ? aMonth - 3 : aMonth + 9;
+		final int dayOfYear = (153 * monthFromMarch + 2) / 5 + aDay - 1;
+		final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146_097L + dayOfEra - 719_468;
+	}
+}
@@ -0,0 +1,283 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+import org.eclipse.e4.core.di.extensions.Preference;
+
+import joachimeichborn.geotag.LifeCycleManager;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
+import joachimeichborn.geotag.ui.preferences.GeneralPreferences;
+
+/**
+ * Cache for parsed tracks. The positions of a parsed track file are stored in a
+ * compact binary encoding in the working directory and are read in one go
+ * when the same file is opened again. Entries are keyed by the path of the track
+ * file and are only used as long as size and modification time of the file
+ * are unchanged. If the cache grows beyond its size limit, the least recently
+ * used entries are removed.
+ * 
+ * @author Joachim von Eichborn
+ */
+@Creatable
+@Singleton
+public class TrackCache {
+	private static final Path CACHE_DIR = LifeCycleManager.WORKING_DIR.resolve("tracks-cache");
+	private static final String SUFFIX = ".track";
+	private static final int MAGIC = 0x47544b43;
+	private static final int VERSION = 1;
+	private static final int DEFAULT_SIZE_MB = 512;
+	private static final long MB = 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Logger logger = Logger.getLogger(TrackCache.class.getSimpleName());
+
+	@Inject
+	@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.TRACK_CACHE)
+	private boolean enabled;
+
+	@Inject
+	@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.TRACK_CACHE_SIZE)
+	private int sizeMb;
+
+	private final Path cacheDir;
+
+	public TrackCache() {
+		this(CACHE_DIR, true, DEFAULT_SIZE_MB);
+	}
+
+	TrackCache(final Path aCacheDir, final boolean aEnabled, final int aSizeMb) {
+		cacheDir = aCacheDir;
+		enabled = aEnabled;
+		sizeMb = aSizeMb;
+	}
+
+	/**
+	 * @param aParser
+	 *            the parser to use for files that are not cached yet
+	 * @return a parser that consults the cache before delegating to the given
+	 *         parser
+	 */
+	public TrackParser cached(final TrackParser aParser) {
+		return aFile -> read(aFile, aParser);
+	}
+
+	/**
+	 * Read a track from the cache or, if the file is not cached or has changed
+	 * since it was cached, parse it using the given parser and store the result
+	 * in the cache
+	 * 
+	 * @param aFile
+	 *            the track file
+	 * @param aParser
+	 *            the parser for the track file
+	 * @return the track
+	 * @throws IOException
+	 *             if the track file could not be parsed
+	 */
+	public Track read(final Path aFile, final TrackParser aParser) throws IOException {
+		if (!enabled) {
+			return aParser.read(aFile);
+		}
+
+		final BasicFileAttributes attributes = Files.readAttributes(aFile, BasicFileAttributes.class);
+		final String source = aFile.toAbsolutePath().normalize().toString();
+		final Path entry = cacheDir.resolve(getKey(source) + SUFFIX);
+
+		final TrackData cachedData = readEntry(entry, source, attributes);
+		if (cachedData != null) {
+			logger.fine("Read track " + aFile.getFileName() + " from cache");
+			return new Track(aFile, cachedData);
+		}
+
+		final Track track = aParser.read(aFile);
+		if (track != null) {
+			try {
+				writeEntry(entry, source, attributes, track.getData());
+				evict();
+			} catch (final IOException e) {
+				logger.log(Level.WARNING, "Failed to cache track " + aFile.getFileName(), e);
+			}
+		}
+		return track;
+	}
+
+	private TrackData readEntry(final Path aEntry, final String aSource, final BasicFileAttributes aAttributes) {
+		final ByteBuffer buffer;
+		try {
+			buffer = readFully(aEntry);
+		} catch (final NoSuchFileException e) {
+			return null;
+		} catch (final IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Failed to read cache entry " + aEntry, e);
+			return invalidate(aEntry);
+		}
+
+		// the entry is closed and not mapped, so it can be deleted or replaced
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return invalidate(aEntry);
+			}
+
+			final byte[] source = new byte[buffer.getInt()];
+			buffer.get(source);
+			if (!aSource.equals(new String(source, StandardCharsets.UTF_8))
+					|| buffer.getLong() != aAttributes.size()
+					|| buffer.getLong() != aAttributes.lastModifiedTime().toMillis()) {
+				return invalidate(aEntry);
+			}
+
+			final TrackData data = TrackData.read(buffer);
+			Files.setLastModifiedTime(aEntry, FileTime.fromMillis(System.currentTimeMillis()));
+			return data;
+		} catch (final NoSuchFileException e) {
+			return null;
+		} catch (final IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Failed to read cache entry " + aEntry, e);
+			return invalidate(aEntry);
+		}
+	}
+
+	private static ByteBuffer readFully(final Path aEntry) throws IOException {
+		try (final FileChannel channel = FileChannel.open(aEntry, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read until the buffer is full or the end of the entry is reached
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	private TrackData invalidate(final Path aEntry) {
+		try {
+			Files.deleteIfExists(aEntry);
+		} catch (final IOException e) {
+			logger.log(Level.FINE, "Failed to delete stale cache entry " + aEntry, e);
+		}
+		return null;
+	}
+
+	private void writeEntry(final Path aEntry, final String aSource, final BasicFileAttributes aAttributes,
+			final TrackData aData) throws IOException {
+		Files.createDirectories(cacheDir);
+		final Path temporaryFile = Files.createTempFile(cacheDir, aEntry.getFileName().toString(), ".tmp");
+		try {
+			try (final DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporaryFile), BUFFER_SIZE))) {
+				final byte[] source = aSource.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(source.length);
+				output.write(source);
+				output.writeLong(aAttributes.size());
+				output.writeLong(aAttributes.lastModifiedTime().toMillis());
+				aData.write(output);
+			}
+
+			try {
+				Files.move(temporaryFile, aEntry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile, aEntry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * Remove the least recently used entries until the cache fits into its size
+	 * limit
+	 */
+	synchronized void evict() throws IOException {
+		final long maxBytes = (sizeMb > 0 ? sizeMb : DEFAULT_SIZE_MB) * MB;
+
+		final Map<Path, BasicFileAttributes> entries = new HashMap<>();
+		long totalBytes = 0;
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, "*" + SUFFIX)) {
+			for (final Path entry : stream) {
+				final BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+				entries.put(entry, attributes);
+				totalBytes += attributes.size();
+			}
+		}
+
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+
+		final List<Path> leastRecentlyUsed = new ArrayList<>(entries.keySet());
+		leastRecentlyUsed.sort(Comparator.comparing(aEntry -> entries.get(aEntry).lastModifiedTime()));
+
+		for (final Path entry : leastRecentlyUsed) {
+			if (totalBytes <= maxBytes) {
+				break;
+			}
+			try {
+				Files.deleteIfExists(entry);
+				totalBytes -= entries.get(entry).size();
+				logger.fine("Evicted " + entry.getFileName() + " from track cache");
+			} catch (final IOException e) {
+				logger.log(Level.FINE, "Failed to evict cache entry " + entry, e);
+			}
+		}
+	}
+
+	private static String getKey(final String aSource) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(aSource.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder key = new StringBuilder(2 * digest.length);
+			for (final byte b : digest) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.joda.time.DateTimeZone;
+
+import joachimeichborn.geotag.io.parser.AbstractLineParser;
+import joachimeichborn.geotag.io.parser.IsoTimestampParser;
+import joachimeichborn.geotag.io.parser.nmea.NmeaParser;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Parser for CSV dumps of GPS loggers. The columns are identified by the
+ * header line, which must contain latitude and longitude in decimal degrees
+ * and either a time stamp column or separate date and time columns. Altitude
+ * and accuracy are optional, if there is no accuracy column but one for the
+ * horizontal dilution of precision, the accuracy is estimated from it.
+ * 
+ * Time stamps are either ISO-8601 (a blank may separate date and time) or
+ * seconds or milliseconds since the epoch. Dates are <code>yyyy-MM-dd</code>,
+ * <code>dd.MM.yyyy</code>, <code>yyyyMMdd</code> or <code>yyMMdd</code>, times
+ * <code>HH:mm:ss</code> or <code>HHmmss</code> with optional fraction. Times
+ * without zone are taken as UTC.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class CsvParser extends AbstractLineParser<CsvParser.Columns> {
+	private static final int MAX_COLUMNS = 64;
+	private static final int MAX_TIMESTAMP_LENGTH = 40;
+	private static final double EPOCH_MILLIS_THRESHOLD = 1e11;
+
+	/**
+	 * Positions of the relevant columns as found in the header
+	 */
+	static final class Columns {
+		private final byte delimiter;
+		private int latitude = -1;
+		private int longitude = -1;
+		private int timestamp = -1;
+		private int date = -1;
+		private int time = -1;
+		private int altitude = -1;
+		private int accuracy = -1;
+		private int hdop = -1;
+		private int count;
+
+		private Columns(final byte aDelimiter) {
+			delimiter = aDelimiter;
+		}
+
+		private void add(final String aName) {
+			final int column = count++;
+			switch (aName) {
+			case "lat":
+			case "latitude":
+			case "latitudens":
+				latitude = column;
+				break;
+			case "lon":
+			case "lng":
+			case "long":
+			case "longitude":
+			case "longitudeew":
+				longitude = column;
+				break;
+			case "timestamp":
+			case "datetime":
+			case "utc":
+				timestamp = column;
+				break;
+			case "date":
+			case "utcdate":
+				date = column;
+				break;
+			case "time":
+			case "utctime":
+				time = column;
+				break;
+			case "alt":
+			case "altitude":
+			case "ele":
+			case "elevation":
+			case "height":
+				altitude = column;
+				break;
+			case "acc":
+			case "accuracy":
+			case "horizontalaccuracy":
+				accuracy = column;
+				break;
+			case "hdop":
+				hdop = column;
+				break;
+			}
+		}
+
+		private void validate() throws IOException {
+			if (latitude < 0 || longitude < 0) {
+				throw new IOException("CSV header has no latitude and longitude columns");
+			}
+			if (time >= 0 && date < 0 && timestamp < 0) {
+				// a single time column holds the complete time stamp
+				timestamp = time;
+				time = -1;
+			}
+			if (timestamp < 0 && (date < 0 || time < 0)) {
+				throw new IOException("CSV header has no time stamp or date and time columns");
+			}
+		}
+	}
+
+	private static class CsvLineReader implements LineReader {
+		private final Columns columns;
+		private final TrackData.Builder builder;
+		private final String name;
+		private final int[] fieldStarts;
+		private final int[] fieldEnds;
+		private final char[] timestamp = new char[MAX_TIMESTAMP_LENGTH + 1];
+		private final IsoTimestampParser timestampParser = new IsoTimestampParser();
+		private long millis;
+		private DateTimeZone zone;
+		private int cachedDate = -1;
+		private long cachedDateMillis;
+
+		private CsvLineReader(final Columns aColumns, final TrackData.Builder aBuilder, final String aName) {
+			columns = aColumns;
+			builder = aBuilder;
+			name = aName;
+			fieldStarts = new int[aColumns.count];
+			fieldEnds = new int[aColumns.count];
+		}
+
+		@Override
+		public void readLine(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			if (!splitFields(aBuffer, aStart, aEnd)) {
+				return;
+			}
+
+			final double latitude = parseCoordinate(aBuffer, columns.latitude, 'S');
+			final double longitude = parseCoordinate(aBuffer, columns.longitude, 'W');
+			if (Double.isNaN(latitude) || Double.isNaN(longitude) || !parseTime(aBuffer)) {
+				return;
+			}
+
+			final double altitude = parseOptional(aBuffer, columns.altitude);
+			double accuracy = parseOptional(aBuffer, columns.accuracy);
+			if (columns.accuracy < 0) {
+				accuracy = parseOptional(aBuffer, columns.hdop) * NmeaParser.USER_EQUIVALENT_RANGE_ERROR;
+			}
+
+			builder.add(millis, zone, latitude, longitude, altitude, name, (float) accuracy);
+		}
+
+		@Override
+		public void finish() {
+		}
+
+		/**
+		 * @return <code>false</code> if the line has fewer columns than the
+		 *         header
+		 */
+		private boolean splitFields(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			int field = 0;
+			int position = aStart;
+			while (field < fieldStarts.length && position <= aEnd) {
+				int start = position;
+				int end;
+				if (position < aEnd && aBuffer.get(position) == '"') {
+					start = position + 1;
+					end = indexOf(aBuffer, start, aEnd, (byte) '"');
+					position = indexOf(aBuffer, end, aEnd, columns.delimiter) + 1;
+				} else {
+					end = indexOf(aBuffer, position, aEnd, columns.delimiter);
+					position = end + 1;
+				}
+				while (start < end && aBuffer.get(start) == ' ') {
+					start++;
+				}
+				while (end > start && aBuffer.get(end - 1) == ' ') {
+					end--;
+				}
+				fieldStarts[field] = start;
+				fieldEnds[field] = end;
+				field++;
+			}
+			return field == fieldStarts.length;
+		}
+
+		private double parseOptional(final ByteBuffer aBuffer, final int aColumn) {
+			if (aColumn < 0 || fieldEnds[aColumn] == fieldStarts[aColumn]) {
+				return 0;
+			}
+			final double value = parseDecimal(aBuffer, fieldStarts[aColumn], fieldEnds[aColumn]);
+			return Double.isNaN(value) ? 0 : value;
+		}
+
+		/**
+		 * Parse decimal degrees with an optional leading or trailing
+		 * hemisphere letter
+		 */
+		private double parseCoordinate(final ByteBuffer aBuffer, final int aColumn,
+				final char aNegativeHemisphere) {
+			int start = fieldStarts[aColumn];
+			int end = fieldEnds[aColumn];
+			if (end == start) {
+				return Double.NaN;
+			}
+
+			boolean negative = false;
+			final byte first = aBuffer.get(start);
+			final byte last = aBuffer.get(end - 1);
+			if (isHemisphere(first)) {
+				negative = first == aNegativeHemisphere;
+				start++;
+			} else if (isHemisphere(last)) {
+				negative = last == aNegativeHemisphere;
+				end--;
+			}
+
+			final double value = parseDecimal(aBuffer, start, end);
+			return negative ? -value : value;
+		}
+
+		private static boolean isHemisphere(final byte aByte) {
+			return aByte == 'N' || aByte == 'S' || aByte == 'E' || aByte == 'W';
+		}
+
+		private boolean parseTime(final ByteBuffer aBuffer) {
+			if (columns.timestamp >= 0) {
+				return parseTimestamp(aBuffer, fieldStarts[columns.timestamp], fieldEnds[columns.timestamp]);
+			}
+
+			final long date = parseDate(aBuffer, fieldStarts[columns.date], fieldEnds[columns.date]);
+			final long timeOfDay = parseTimeOfDay(aBuffer, fieldStarts[columns.time], fieldEnds[columns.time]);
+			if (date == Long.MIN_VALUE || timeOfDay < 0) {
+				return false;
+			}
+			millis = date + timeOfDay;
+			zone = DateTimeZone.UTC;
+			return true;
+		}
+
+		private boolean parseTimestamp(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			final int length = aEnd - aStart;
+			if (length == 0 || length > MAX_TIMESTAMP_LENGTH) {
+				return false;
+			}
+
+			final double epoch = parseDecimal(aBuffer, aStart, aEnd);
+			if (!Double.isNaN(epoch)) {
+				millis = Math.round(Math.abs(epoch) >= EPOCH_MILLIS_THRESHOLD ? epoch : epoch * 1000);
+				zone = DateTimeZone.UTC;
+				return true;
+			}
+
+			boolean hasZone = false;
+			for (int i = 0; i < length; i++) {
+				final char c = (char) aBuffer.get(aStart + i);
+				timestamp[i] = i == 10 && c == ' ' ? 'T' : c;
+				hasZone |= i > 10 && (c == 'Z' || c == '+' || c == '-');
+			}
+			int timestampLength = length;
+			if (!hasZone) {
+				timestamp[timestampLength++] = 'Z';
+			}
+
+			try {
+				timestampParser.parse(timestamp, 0, timestampLength);
+			} catch (final IllegalArgumentException e) {
+				return false;
+			}
+			millis = timestampParser.getMillis();
+			zone = timestampParser.getZone();
+			return true;
+		}
+
+		private long parseDate(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			final int length = aEnd - aStart;
+			final int date;
+			if (length == 6 || length == 8) {
+				date = parseDigits(aBuffer, aStart, aEnd, length);
+			} else if (length == 10 && aBuffer.get(aStart + 4) == aBuffer.get(aStart + 7)) {
+				date = toDate(parseDigits(aBuffer, aStart, aEnd, 4), parseDigits(aBuffer, aStart + 5, aEnd, 2),
+						parseDigits(aBuffer, aStart + 8, aEnd, 2));
+			} else if (length == 10 && aBuffer.get(aStart + 2) == aBuffer.get(aStart + 5)) {
+				date = toDate(parseDigits(aBuffer, aStart + 6, aEnd, 4), parseDigits(aBuffer, aStart + 3, aEnd, 2),
+						parseDigits(aBuffer, aStart, aEnd, 2));
+			} else {
+				return Long.MIN_VALUE;
+			}
+			if (date < 0) {
+				return Long.MIN_VALUE;
+			}
+
+			if (date != cachedDate) {
+				// yyMMdd dates are below 10^6
+				final int year = date < 1_000_000 ? 2000 + date / 10000 : date / 10000;
+				cachedDateMillis = startOfDay(year, date / 100 % 100, date % 100);
+				cachedDate = date;
+			}
+			return cachedDateMillis;
+		}
+
+		private static int toDate(final int aYear, final int aMonth, final int aDay) {
+			if (aYear < 0 || aMonth < 0 || aDay < 0) {
+				return -1;
+			}
+			return (aYear * 100 + aMonth) * 100 + aDay;
+		}
+
+		/**
+		 * @return milliseconds since midnight or <code>-1</code> if the time
+		 *         is invalid
+		 */
+		private static long parseTimeOfDay(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			final int separator = aEnd - aStart > 2 && aBuffer.get(aStart + 2) == ':' ? 1 : 0;
+			final int hours = parseDigits(aBuffer, aStart, aEnd, 2);
+			final int minutes = parseDigits(aBuffer, aStart + 2 + separator, aEnd, 2);
+			final int seconds = parseDigits(aBuffer, aStart + 4 + 2 * separator, aEnd, 2);
+			if (hours < 0 || minutes < 0 || seconds < 0 || hours > 23 || minutes > 59 || seconds > 60) {
+				return -1;
+			}
+
+			long millis = ((hours * 60L + minutes) * 60 + seconds) * 1000;
+			final int fractionStart = aStart + 6 + 2 * separator;
+			if (aEnd > fractionStart) {
+				final double fraction = parseDecimal(aBuffer, fractionStart, aEnd);
+				if (Double.isNaN(fraction)) {
+					return -1;
+				}
+				millis += Math.round(fraction * 1000);
+			}
+			return millis;
+		}
+	}
+
+	/**
+	 * Create a parser that reads a file in one go
+	 */
+	public CsvParser() {
+		this(null);
+	}
+
+	/**
+	 * @param aExecutionService
+	 *            the service whose IO pool reads the chunks of a file in
+	 *            parallel
+	 */
+	public CsvParser(final ExecutionService aExecutionService) {
+		super(aExecutionService);
+	}
+
+	CsvParser(final long aMinChunkSize, final int aParallelism, final ExecutionService aExecutionService) {
+		super(aMinChunkSize, aParallelism, aExecutionService);
+	}
+
+	@Override
+	protected boolean hasHeader() {
+		return true;
+	}
+
+	@Override
+	protected Columns readHeader(final ByteBuffer aBuffer, final int aStart, final int aEnd) throws IOException {
+		final byte[] bytes = new byte[aEnd - aStart];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = aBuffer.get(aStart + i);
+		}
+		final String header = new String(bytes, StandardCharsets.UTF_8);
+
+		byte delimiter = ',';
+		for (final char candidate : new char[] { ';', '\t' }) {
+			if (header.indexOf(candidate) >= 0 && header.indexOf(delimiter) < 0) {
+				delimiter = (byte) candidate;
+			}
+		}
+
+		final Columns columns = new Columns(delimiter);
+		for (final String column : header.split(String.valueOf((char) delimiter), MAX_COLUMNS)) {
+			columns.add(column.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", ""));
+		}
+		columns.validate();
+		return columns;
+	}
+
+	@Override
+	protected LineReader createLineReader(final Columns aHeader, final TrackData.Builder aBuilder,
+			final String aName) {
+		return new CsvLineReader(aHeader, aBuilder, aName);
+	}
+}
@@ -0,0 +1,322 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser.fit;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTimeZone;
+
+import joachimeichborn.geotag.io.parser.TrackParser;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Parser for Garmin FIT activity files. The file is memory mapped and the
+ * position fields of <code>record</code> messages are read directly from the
+ * buffer at the offsets given by the local message definitions, all other
+ * messages are skipped. Compressed time stamp headers, big endian definitions,
+ * developer fields and chained FIT files are supported.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class FitParser implements TrackParser {
+	private static final Logger logger = Logger.getLogger(FitParser.class.getSimpleName());
+
+	private static final int FILE_HEADER_MIN_SIZE = 12;
+	private static final int CRC_SIZE = 2;
+	private static final int LOCAL_MESSAGE_TYPES = 16;
+
+	private static final int DEFINITION_FLAG = 0x40;
+	private static final int DEVELOPER_DATA_FLAG = 0x20;
+	private static final int COMPRESSED_TIMESTAMP_FLAG = 0x80;
+	private static final int TIME_OFFSET_MASK = 0x1f;
+
+	private static final int RECORD_MESSAGE = 20;
+	private static final int LATITUDE_FIELD = 0;
+	private static final int LONGITUDE_FIELD = 1;
+	private static final int ALTITUDE_FIELD = 2;
+	private static final int GPS_ACCURACY_FIELD = 31;
+	private static final int ENHANCED_ALTITUDE_FIELD = 78;
+	private static final int TIMESTAMP_FIELD = 253;
+
+	private static final int INVALID_SINT32 = 0x7fffffff;
+	private static final long FIT_EPOCH_MILLIS = 631_065_600_000L;
+	private static final double DEGREES_PER_SEMICIRCLE = 180.0 / (1L << 31);
+	private static final double ALTITUDE_SCALE = 5;
+	private static final double ALTITUDE_OFFSET = 500;
+
+	/**
+	 * Offsets of the relevant fields within the messages of one local message
+	 * type, -1 for fields that are not part of the message
+	 */
+	private static final class MessageDefinition {
+		private ByteOrder order;
+		private int globalMessage;
+		private int size;
+		private int timestamp;
+		private int latitude;
+		private int longitude;
+		private int altitude;
+		private int altitudeSize;
+		private int enhancedAltitude;
+		private int enhancedAltitudeSize;
+		private int gpsAccuracy;
+
+		private void reset(final ByteOrder aOrder, final int aGlobalMessage) {
+			order = aOrder;
+			globalMessage = aGlobalMessage;
+			size = 0;
+			timestamp = -1;
+			latitude = -1;
+			longitude = -1;
+			altitude = -1;
+			enhancedAltitude = -1;
+			gpsAccuracy = -1;
+		}
+
+		private void addField(final int aFieldNumber, final int aSize) {
+			switch (aFieldNumber) {
+			case TIMESTAMP_FIELD:
+				timestamp = aSize == 4 ? size : -1;
+				break;
+			case LATITUDE_FIELD:
+				latitude = aSize == 4 ? size : -1;
+				break;
+			case LONGITUDE_FIELD:
+				longitude = aSize == 4 ? size : -1;
+				break;
+			case ALTITUDE_FIELD:
+				altitude = aSize == 2 || aSize == 4 ? size : -1;
+				altitudeSize = aSize;
+				break;
+			case ENHANCED_ALTITUDE_FIELD:
+				enhancedAltitude = aSize == 2 || aSize == 4 ? size : -1;
+				enhancedAltitudeSize = aSize;
+				break;
+			case GPS_ACCURACY_FIELD:
+				gpsAccuracy = aSize == 1 ? size : -1;
+				break;
+			}
+			size += aSize;
+		}
+	}
+
+	private static final class MessageReader {
+		private final MappedByteBuffer buffer;
+		private final TrackData.Builder builder;
+		private final String name;
+		private final MessageDefinition[] definitions = new MessageDefinition[LOCAL_MESSAGE_TYPES];
+		private long lastTimestamp = -1;
+		private int skipped;
+
+		private MessageReader(final MappedByteBuffer aBuffer, final TrackData.Builder aBuilder, final String aName) {
+			buffer = aBuffer;
+			builder = aBuilder;
+			name = aName;
+		}
+
+		private void read() throws IOException {
+			int position = 0;
+			final int limit = buffer.limit();
+			while (limit - position >= FILE_HEADER_MIN_SIZE) {
+				final int headerSize = buffer.get(position) & 0xff;
+				if (headerSize < FILE_HEADER_MIN_SIZE || buffer.get(position + 8) != '.'
+						|| buffer.get(position + 9) != 'F' || buffer.get(position + 10) != 'I'
+						|| buffer.get(position + 11) != 'T') {
+					throw new IOException("Missing FIT file header at byte " + position);
+				}
+
+				final long dataSize = buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(position + 4) & 0xffffffffL;
+				final long dataEnd = position + headerSize + dataSize;
+				if (dataEnd > limit) {
+					throw new IOException("FIT file is truncated, expected " + dataEnd + " bytes but found " + limit);
+				}
+
+				readMessages(position + headerSize, (int) dataEnd);
+				position = (int) dataEnd + CRC_SIZE;
+			}
+		}
+
+		private void readMessages(final int aStart, final int aEnd) throws IOException {
+			int position = aStart;
+			while (position < aEnd) {
+				final int header = buffer.get(position++) & 0xff;
+				if ((header & COMPRESSED_TIMESTAMP_FLAG) != 0) {
+					final MessageDefinition definition = getDefinition((header >> 5) & 0x3, position);
+					final int timeOffset = header & TIME_OFFSET_MASK;
+					if (lastTimestamp >= 0) {
+						long timestamp = (lastTimestamp & ~TIME_OFFSET_MASK) + timeOffset;
+						if (timeOffset < (lastTimestamp & TIME_OFFSET_MASK)) {
+							timestamp += TIME_OFFSET_MASK + 1;
+						}
+						lastTimestamp = timestamp;
+					}
+					readData(definition, position, true);
+					position += definition.size;
+				} else if ((header & DEFINITION_FLAG) != 0) {
+					position = readDefinition(header, position);
+				} else {
+					final MessageDefinition definition = getDefinition(header & 0xf, position);
+					readData(definition, position, false);
+					position += definition.size;
+				}
+
+				if (position > aEnd) {
+					throw new IOException("FIT message exceeds the data section at byte " + position);
+				}
+			}
+		}
+
+		private MessageDefinition getDefinition(final int aLocalType, final int aPosition) throws IOException {
+			final MessageDefinition definition = definitions[aLocalType];
+			if (definition == null) {
+				throw new IOException("Undefined local message type " + aLocalType + " at byte " + aPosition);
+			}
+			return definition;
+		}
+
+		/**
+		 * @return the position after the definition
+		 */
+		private int readDefinition(final int aHeader, final int aPosition) {
+			final int localType = aHeader & 0xf;
+			MessageDefinition definition = definitions[localType];
+			if (definition == null) {
+				definition = new MessageDefinition();
+				definitions[localType] = definition;
+			}
+
+			final ByteOrder order = buffer.get(aPosition + 1) == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			definition.reset(order, buffer.order(order).getShort(aPosition + 2) & 0xffff);
+
+			final int fields = buffer.get(aPosition + 4) & 0xff;
+			int position = aPosition + 5;
+			for (int i = 0; i < fields; i++) {
+				definition.addField(buffer.get(position) & 0xff, buffer.get(position + 1) & 0xff);
+				position += 3;
+			}
+
+			if ((aHeader & DEVELOPER_DATA_FLAG) != 0) {
+				final int developerFields = buffer.get(position++) & 0xff;
+				for (int i = 0; i < developerFields; i++) {
+					// developer fields are never position data, only their size matters
+					definition.addField(-1, buffer.get(position + 1) & 0xff);
+					position += 3;
+				}
+			}
+			return position;
+		}
+
+		private void readData(final MessageDefinition aDefinition, final int aPosition,
+				final boolean aCompressedTimestamp) {
+			buffer.order(aDefinition.order);
+			if (aDefinition.timestamp >= 0) {
+				lastTimestamp = buffer.getInt(aPosition + aDefinition.timestamp) & 0xffffffffL;
+			}
+			if (aDefinition.globalMessage != RECORD_MESSAGE) {
+				return;
+			}
+			if (aDefinition.latitude < 0 || aDefinition.longitude < 0 || lastTimestamp < 0
+					|| aDefinition.timestamp < 0 && !aCompressedTimestamp) {
+				skipped++;
+				return;
+			}
+
+			final int latitude = buffer.getInt(aPosition + aDefinition.latitude);
+			final int longitude = buffer.getInt(aPosition + aDefinition.longitude);
+			if (latitude == INVALID_SINT32 || longitude == INVALID_SINT32) {
+				skipped++;
+				return;
+			}
+
+			double altitude = readAltitude(aPosition + aDefinition.enhancedAltitude, aDefinition.enhancedAltitude,
+					aDefinition.enhancedAltitudeSize);
+			if (Double.isNaN(altitude)) {
+				altitude = readAltitude(aPosition + aDefinition.altitude, aDefinition.altitude,
+						aDefinition.altitudeSize);
+			}
+
+			float accuracy = 0;
+			if (aDefinition.gpsAccuracy >= 0) {
+				final int value = buffer.get(aPosition + aDefinition.gpsAccuracy) & 0xff;
+				accuracy = value == 0xff ? 0 : value;
+			}
+
+			builder.add(FIT_EPOCH_MILLIS + lastTimestamp * 1000, DateTimeZone.UTC,
+					latitude * DEGREES_PER_SEMICIRCLE, longitude * DEGREES_PER_SEMICIRCLE,
+					Double.isNaN(altitude) ? 0 : altitude, name, accuracy);
+		}
+
+		/**
+		 * @return the altitude in meters or {@link Double#NaN} if the field is
+		 *         missing or invalid
+		 */
+		private double readAltitude(final int aIndex, final int aOffset, final int aSize) {
+			if (aOffset < 0) {
+				return Double.NaN;
+			}
+			final long value;
+			if (aSize == 2) {
+				value = buffer.getShort(aIndex) & 0xffff;
+				if (value == 0xffff) {
+					return Double.NaN;
+				}
+			} else {
+				value = buffer.getInt(aIndex) & 0xffffffffL;
+				if (value == 0xffffffffL) {
+					return Double.NaN;
+				}
+			}
+			return value / ALTITUDE_SCALE - ALTITUDE_OFFSET;
+		}
+	}
+
+	public Track read(final Path aFitFile) throws IOException {
+		logger.fine("Reading positions from " + aFitFile);
+
+		final TrackData.Builder builder = new TrackData.Builder();
+		try (final FileChannel channel = FileChannel.open(aFitFile, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("FIT file " + aFitFile + " is too large");
+			}
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			final MessageReader reader = new MessageReader(buffer, builder, aFitFile.getFileName().toString());
+			try {
+				reader.read();
+			} catch (final IndexOutOfBoundsException e) {
+				throw new IOException("FIT file " + aFitFile + " is truncated", e);
+			}
+
+			if (reader.skipped > 0) {
+				logger.fine("Skipped " + reader.skipped + " records without position in " + aFitFile);
+			}
+		}
+
+		logger.fine("Read " + builder.size() + " coordinates from " + aFitFile);
+
+		return new Track(aFitFile, builder.build());
+	}
+}
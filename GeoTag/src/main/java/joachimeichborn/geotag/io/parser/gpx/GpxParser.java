@@ -19,119 +19,269 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.io.parser.gpx;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.apache.commons.lang3.math.NumberUtils;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import joachimeichborn.geotag.io.parser.IsoTimestampParser;
 import joachimeichborn.geotag.io.parser.TrackParser;
-import joachimeichborn.geotag.model.Coordinates;
-import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
 
+/**
+ * Streaming parser for GPX files. Track points, route points and way points
+ * are read with StAX and written directly into the columnar track data, so
+ * that memory only grows with the number of points.
+ * 
+ * A point's name is taken from its {@code name} element, points without name
+ * are named by their time stamp. Points without time stamp are skipped.
+ * 
+ * @author Joachim von Eichborn
+ */
 public class GpxParser implements TrackParser {
 	private static final Logger logger = Logger.getLogger(GpxParser.class.getSimpleName());
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int BYTES_PER_POINT_ESTIMATE = 128;
+	private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+	private static final int MAX_EXACT_FRACTION_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15 };
 
-	private static final DateTimeFormatter formatter = ISODateTimeFormat.dateTime().withOffsetParsed();
+	private static final XMLInputFactory FACTORY = createFactory();
 
-	private static class Handler extends DefaultHandler {
-		private final List<PositionData> positions = new LinkedList<>();
-		private final StringBuffer buffer = new StringBuffer();
-		private Double longitude;
-		private Double latitude;
+	/**
+	 * Collects the children of the point that is currently being read. The
+	 * texts of the children are collected in reused buffers, a string is only
+	 * created for the name of a point
+	 */
+	private static class PointReader {
+		private final TrackData.Builder builder;
+		private final IsoTimestampParser timestampParser = new IsoTimestampParser();
+		private char[] text = new char[64];
+		private int textLength;
+		private boolean inPoint;
+		private int pointDepth;
+		private boolean hasCoordinates;
+		private double latitude;
+		private double longitude;
 		private double altitude;
-		private String timestamp;
+		private char[] timestamp = new char[32];
+		private int timestampLength = -1;
+		private String name;
 
-		@Override
-		public void startElement(final String aUri, final String aLocalName, final String aQualifiedName,
-				final Attributes aAttributes) {
-			buffer.setLength(0);
+		private PointReader(final TrackData.Builder aBuilder) {
+			builder = aBuilder;
+		}
 
-			switch (aLocalName) {
-			case "trkpt": {
-				altitude = 0;
-				timestamp = null;
+		private void read(final XMLStreamReader aReader) throws XMLStreamException {
+			int depth = 0;
+			while (aReader.hasNext()) {
+				switch (aReader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					textLength = 0;
+					if (!inPoint && isPoint(aReader.getLocalName())) {
+						startPoint(aReader, depth);
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (inPoint) {
+						appendText(aReader);
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (inPoint) {
+						if (depth == pointDepth) {
+							endPoint();
+						} else if (depth == pointDepth + 1) {
+							endPointChild(aReader.getLocalName());
+						}
+					}
+					depth--;
+					break;
+				}
+			}
+		}
 
-				final String longitudeAtt = aAttributes.getValue("lon");
-				longitude = NumberUtils.createDouble(longitudeAtt);
+		private static boolean isPoint(final String aLocalName) {
+			switch (aLocalName) {
+			case "trkpt":
+			case "rtept":
+			case "wpt":
+				return true;
+			default:
+				return false;
+			}
+		}
 
-				final String latitudeAtt = aAttributes.getValue("lat");
-				latitude = NumberUtils.createDouble(latitudeAtt);
+		private void startPoint(final XMLStreamReader aReader, final int aDepth) {
+			inPoint = true;
+			pointDepth = aDepth;
+			altitude = 0;
+			timestampLength = -1;
+			name = null;
 
-				break;
-			}
+			final String latitudeAtt = aReader.getAttributeValue(null, "lat");
+			final String longitudeAtt = aReader.getAttributeValue(null, "lon");
+			hasCoordinates = latitudeAtt != null && longitudeAtt != null;
+			if (hasCoordinates) {
+				latitude = Double.parseDouble(latitudeAtt);
+				longitude = Double.parseDouble(longitudeAtt);
+			} else {
+				logger.severe("Could not read coordinates from longitude '" + longitudeAtt + "', latitude '"
+						+ latitudeAtt + "'");
 			}
 		}
 
-		@Override
-		public void endElement(final String aUri, final String aLocalName, final String aQualifiedName) {
+		private void endPointChild(final String aLocalName) {
 			switch (aLocalName) {
 			case "ele": {
-				final String elevationContent = buffer.toString();
-
-				altitude = Double.parseDouble(elevationContent);
+				final int start = trimStart();
+				altitude = parseDouble(text, start, trimEnd(start));
 				break;
 			}
 			case "time": {
-				timestamp = buffer.toString();
+				final int start = trimStart();
+				timestampLength = trimEnd(start) - start;
+				if (timestampLength > timestamp.length) {
+					timestamp = new char[Math.max(2 * timestamp.length, timestampLength)];
+				}
+				System.arraycopy(text, start, timestamp, 0, timestampLength);
 				break;
 			}
-			case "trkpt": {
-				if (longitude != null && latitude != null && timestamp != null) {
-					final Coordinates coordinates = new Coordinates(latitude, longitude, altitude);
-					final PositionData position = new PositionData(coordinates, formatter.parseDateTime(timestamp),
-							timestamp, 0);
-					positions.add(position);
-				} else {
-					logger.severe("Could not create position based on longitude '" + longitude + "', latitude '"
-							+ latitude + "', timestamp '" + timestamp + "'");
-				}
+			case "name":
+				name = new String(text, 0, textLength);
 				break;
 			}
+		}
+
+		private int trimStart() {
+			int start = 0;
+			while (start < textLength && text[start] <= ' ') {
+				start++;
 			}
+			return start;
 		}
 
-		@Override
-		public void characters(final char[] aCharacters, final int aStart, final int aLength) {
-			buffer.append(new String(aCharacters, aStart, aLength));
+		private int trimEnd(final int aStart) {
+			int end = textLength;
+			while (end > aStart && text[end - 1] <= ' ') {
+				end--;
+			}
+			return end;
 		}
 
-		public List<PositionData> getPositions() {
-			return positions;
+		private void endPoint() {
+			inPoint = false;
+			if (!hasCoordinates) {
+				return;
+			}
+
+			if (timestampLength < 0) {
+				logger.severe("Could not create position at longitude '" + longitude + "', latitude '" + latitude
+						+ "' without timestamp");
+				return;
+			}
+
+			timestampParser.parse(timestamp, 0, timestampLength);
+			builder.add(timestampParser.getMillis(), timestampParser.getZone(), latitude, longitude, altitude,
+					name != null ? name : new String(timestamp, 0, timestampLength), 0);
+		}
+
+		private void appendText(final XMLStreamReader aReader) {
+			final int length = aReader.getTextLength();
+			if (textLength + length > text.length) {
+				text = Arrays.copyOf(text, Math.max(2 * text.length, textLength + length));
+			}
+			System.arraycopy(aReader.getTextCharacters(), aReader.getTextStart(), text, textLength, length);
+			textLength += length;
 		}
 	}
 
-	public joachimeichborn.geotag.model.Track read(final Path aGpxFile) throws IOException {
-		logger.fine("Reading positions from " + aGpxFile);
+	/**
+	 * Parse a decimal number like {@code -12.345} from the given range of
+	 * characters. Such numbers are computed exactly like by
+	 * {@link Double#parseDouble(String)}, all other input is handed to it
+	 * 
+	 * @throws NumberFormatException
+	 *             if the characters are no number
+	 */
+	static double parseDouble(final char[] aChars, final int aStart, final int aEnd) {
+		int position = aStart;
+		final boolean negative = position < aEnd && aChars[position] == '-';
+		if (negative || position < aEnd && aChars[position] == '+') {
+			position++;
+		}
 
-		final List<PositionData> positions = new LinkedList<>();
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; position < aEnd; position++) {
+			final char c = aChars[position];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + c - '0';
+				digits++;
+				if (fraction) {
+					fractionDigits++;
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
 
-		final SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
-		try {
-			final SAXParser saxParser = factory.newSAXParser();
-			final Handler handler = new Handler();
-			saxParser.parse(aGpxFile.toFile(), handler);
-			
-			positions.addAll(handler.getPositions());
+		// the mantissa and the power of ten are exact doubles, so the
+		// quotient is correctly rounded
+		if (position == aEnd && digits > 0 && digits <= MAX_EXACT_FRACTION_DIGITS
+				&& fractionDigits <= MAX_EXACT_FRACTION_DIGITS) {
+			final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			return negative ? -value : value;
+		}
+
+		return Double.parseDouble(new String(aChars, aStart, aEnd - aStart));
+	}
+
+	private static XMLInputFactory createFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
 
-		} catch (ParserConfigurationException | SAXException e) {
-			throw new IOException(e);
+	public Track read(final Path aGpxFile) throws IOException {
+		logger.fine("Reading positions from " + aGpxFile);
+
+		final long estimatedPoints = Files.size(aGpxFile) / BYTES_PER_POINT_ESTIMATE;
+		final TrackData.Builder builder = new TrackData.Builder(
+				(int) Math.min(Math.max(estimatedPoints, 16), MAX_INITIAL_CAPACITY));
+
+		try (final InputStream input = new BufferedInputStream(Files.newInputStream(aGpxFile), BUFFER_SIZE)) {
+			final XMLStreamReader reader = FACTORY.createXMLStreamReader(input);
+			try {
+				new PointReader(builder).read(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException | IllegalArgumentException e) {
+			throw new IOException("Could not parse " + aGpxFile, e);
 		}
 
-		logger.fine("Read " + positions.size() + " coordinates from " + aGpxFile);
+		logger.fine("Read " + builder.size() + " coordinates from " + aGpxFile);
 
-		return new joachimeichborn.geotag.model.Track(aGpxFile, positions);
+		return new Track(aGpxFile, builder.build());
 	}
 }
@@ -0,0 +1,116 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser.json;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import joachimeichborn.geotag.io.parser.TrackParser;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Parser for the location history JSON files of Google Takeout. The file is
+ * streamed, so memory only grows with the number of positions. All positions
+ * are named after the file they were read from.
+ * 
+ * As location histories typically span years, the track can be split into
+ * one track per time window using {@link #splitByTimeWindow(Track, int)}.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class TakeoutParser implements TrackParser {
+	public static final int DEFAULT_WINDOW_HOURS = 24;
+
+	private static final Logger logger = Logger.getLogger(TakeoutParser.class.getSimpleName());
+	private static final int BYTES_PER_RECORD_ESTIMATE = 256;
+	private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final DateTimeFormatter WINDOW_FORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd_HH-mm")
+			.withZone(DateTimeZone.UTC);
+
+	public Track read(final Path aJsonFile) throws IOException {
+		logger.fine("Reading positions from " + aJsonFile);
+
+		final long estimatedRecords = Files.size(aJsonFile) / BYTES_PER_RECORD_ESTIMATE;
+		final TrackData.Builder builder = new TrackData.Builder(
+				(int) Math.min(Math.max(estimatedRecords, 16), MAX_INITIAL_CAPACITY));
+
+		try (final FileChannel channel = FileChannel.open(aJsonFile, StandardOpenOption.READ)) {
+			final int skipped = new TakeoutRecordReader(channel, builder, aJsonFile.getFileName().toString()).read();
+			if (skipped > 0) {
+				logger.warning("Skipped " + skipped + " unparsable values in " + aJsonFile);
+			}
+		} catch (final IOException e) {
+			throw new IOException("Could not parse " + aJsonFile, e);
+		}
+
+		logger.fine("Read " + builder.size() + " coordinates from " + aJsonFile);
+
+		return new Track(aJsonFile, builder.build());
+	}
+
+	/**
+	 * Split a track into one track per time window. Windows are aligned to
+	 * multiples of the window length since the epoch, windows without positions
+	 * are omitted. Each track is named after the original file and the start of
+	 * its window.
+	 * 
+	 * @param aTrack
+	 *            the track to split
+	 * @param aWindowHours
+	 *            the length of a window in hours
+	 * @return the tracks ordered by time
+	 */
+	public static List<Track> splitByTimeWindow(final Track aTrack, final int aWindowHours) {
+		final long window = aWindowHours * HOUR;
+		final TrackData data = aTrack.getData();
+		final Path file = aTrack.getFile();
+		final String baseName = FilenameUtils.getBaseName(file.getFileName().toString());
+		final String extension = FilenameUtils.getExtension(file.getFileName().toString());
+
+		final List<Track> tracks = new ArrayList<>();
+		int start = 0;
+		while (start < data.size()) {
+			final long windowStart = Math.floorDiv(data.getTime(start), window) * window;
+			final long windowEnd = windowStart + window;
+			int end = start + 1;
+			while (end < data.size() && data.getTime(end) < windowEnd) {
+				end++;
+			}
+
+			final String name = baseName + "_" + WINDOW_FORMATTER.print(windowStart) + "." + extension;
+			tracks.add(new Track(file.resolveSibling(name), data.subset(start, end)));
+			start = end;
+		}
+		return tracks;
+	}
+}
@@ -0,0 +1,533 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import org.joda.time.DateTimeZone;
+
+import joachimeichborn.geotag.io.parser.IsoTimestampParser;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Streaming reader for location records in Google Takeout location history
+ * files. The JSON is tokenized byte by byte from a fixed size buffer so that
+ * memory consumption does not depend on the size of the file. Every object
+ * that directly contains <code>latitudeE7</code> or <code>latE7</code>,
+ * <code>longitudeE7</code> or <code>lngE7</code> and a time stamp is taken as
+ * a position, <code>accuracy</code>, <code>accuracyMeters</code> and
+ * <code>altitude</code> are used if present. This covers the records of the
+ * raw history as well as the points of the <code>simplifiedRawPath</code> in
+ * the semantic history.<br>
+ * The <code>placeVisit</code> and <code>activitySegment</code> entries of the
+ * semantic history keep their coordinates in <code>location</code>,
+ * <code>startLocation</code> and <code>endLocation</code> objects and their
+ * time in a sibling <code>duration</code> object. These objects are passed up
+ * to the enclosing entry, which yields one position at the start and one at
+ * the end of the entry.
+ * 
+ * @author Joachim von Eichborn
+ */
+class TakeoutRecordReader {
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final int INITIAL_DEPTH = 16;
+	private static final int MAX_TOKEN_LENGTH = 64;
+	private static final double E7 = 1e7;
+	private static final long MAX_LATITUDE_E7 = 900_000_000L;
+	private static final long MAX_LONGITUDE_E7 = 1_800_000_000L;
+	private static final long INT_OVERFLOW = 1L << 32;
+
+	private static final int UNKNOWN = 0;
+	private static final int LATITUDE = 1;
+	private static final int LONGITUDE = 2;
+	private static final int TIME = 4;
+	private static final int ACCURACY = 8;
+	private static final int ALTITUDE = 16;
+	private static final int TIME_MILLIS = 32;
+	private static final int END_LATITUDE = 64;
+	private static final int END_LONGITUDE = 128;
+	private static final int END_TIME = 256;
+	private static final int END_TIME_MILLIS = 512;
+	private static final int LOCATION = 1024;
+	private static final int START_LOCATION = 2048;
+	private static final int END_LOCATION = 4096;
+	private static final int DURATION = 8192;
+	private static final int POSITION = LATITUDE | LONGITUDE | TIME;
+	private static final int END_POSITION = END_LATITUDE | END_LONGITUDE | END_TIME;
+
+	private static final byte[][] KEYS = { "latitudeE7".getBytes(), "longitudeE7".getBytes(), "latE7".getBytes(),
+			"lngE7".getBytes(), "timestamp".getBytes(), "startTimestamp".getBytes(), "endTimestamp".getBytes(),
+			"accuracy".getBytes(), "accuracyMeters".getBytes(), "altitude".getBytes(), "timestampMs".getBytes(),
+			"startTimestampMs".getBytes(), "endTimestampMs".getBytes(), "location".getBytes(),
+			"startLocation".getBytes(), "endLocation".getBytes(), "duration".getBytes() };
+	private static final int[] KEY_IDS = { LATITUDE, LONGITUDE, LATITUDE, LONGITUDE, TIME, TIME, END_TIME,
+			ACCURACY, ACCURACY, ALTITUDE, TIME_MILLIS, TIME_MILLIS, END_TIME_MILLIS, LOCATION, START_LOCATION,
+			END_LOCATION, DURATION };
+
+	private final ReadableByteChannel channel;
+	private final TrackData.Builder builder;
+	private final String name;
+	private final byte[] bytes;
+	private final ByteBuffer buffer;
+	private final char[] token;
+	private final IsoTimestampParser timestampParser;
+	private int position;
+	private int limit;
+	private long offset;
+
+	private int depth;
+	private boolean[] objects;
+	private int[] roles;
+	private int[] found;
+	private long[] latitudes;
+	private long[] longitudes;
+	private long[] millis;
+	private DateTimeZone[] zones;
+	private long[] endLatitudes;
+	private long[] endLongitudes;
+	private long[] endMillis;
+	private DateTimeZone[] endZones;
+	private float[] accuracies;
+	private double[] altitudes;
+
+	private int tokenLength;
+	private boolean integer;
+	private long longValue;
+	private int skipped;
+
+	TakeoutRecordReader(final ReadableByteChannel aChannel, final TrackData.Builder aBuilder, final String aName) {
+		channel = aChannel;
+		builder = aBuilder;
+		name = aName;
+		bytes = new byte[BUFFER_SIZE];
+		buffer = ByteBuffer.wrap(bytes);
+		token = new char[MAX_TOKEN_LENGTH];
+		timestampParser = new IsoTimestampParser();
+		objects = new boolean[INITIAL_DEPTH];
+		roles = new int[INITIAL_DEPTH];
+		found = new int[INITIAL_DEPTH];
+		latitudes = new long[INITIAL_DEPTH];
+		longitudes = new long[INITIAL_DEPTH];
+		millis = new long[INITIAL_DEPTH];
+		zones = new DateTimeZone[INITIAL_DEPTH];
+		endLatitudes = new long[INITIAL_DEPTH];
+		endLongitudes = new long[INITIAL_DEPTH];
+		endMillis = new long[INITIAL_DEPTH];
+		endZones = new DateTimeZone[INITIAL_DEPTH];
+		accuracies = new float[INITIAL_DEPTH];
+		altitudes = new double[INITIAL_DEPTH];
+	}
+
+	/**
+	 * Read all records and add them to the builder
+	 * 
+	 * @return the number of records that were skipped because their values
+	 *         could not be parsed
+	 * @throws IOException
+	 *             if reading fails or the file is not well-formed JSON
+	 */
+	int read() throws IOException {
+		boolean expectKey = false;
+		int key = UNKNOWN;
+
+		int c;
+		while ((c = nextNonWhitespace()) >= 0) {
+			switch (c) {
+			case '{':
+				enter(true, key);
+				key = UNKNOWN;
+				expectKey = true;
+				break;
+			case '[':
+				enter(false, UNKNOWN);
+				key = UNKNOWN;
+				break;
+			case '}':
+				if (depth == 0 || !objects[depth]) {
+					throw error("Unexpected '}'");
+				}
+				completeRecord();
+				depth--;
+				expectKey = false;
+				break;
+			case ']':
+				if (depth == 0 || objects[depth]) {
+					throw error("Unexpected ']'");
+				}
+				depth--;
+				expectKey = false;
+				break;
+			case ',':
+				expectKey = objects[depth];
+				break;
+			case ':':
+				break;
+			case '"':
+				if (expectKey) {
+					key = readKey();
+					expectKey = false;
+				} else {
+					readStringValue(key);
+					key = UNKNOWN;
+				}
+				break;
+			default:
+				readLiteral(c, key);
+				key = UNKNOWN;
+			}
+		}
+
+		if (depth != 0) {
+			throw error("Unexpected end of file");
+		}
+		return skipped;
+	}
+
+	/**
+	 * @param aRole
+	 *            the key the object or array is the value of
+	 */
+	private void enter(final boolean aObject, final int aRole) {
+		depth++;
+		if (depth == objects.length) {
+			final int capacity = 2 * depth;
+			objects = Arrays.copyOf(objects, capacity);
+			roles = Arrays.copyOf(roles, capacity);
+			found = Arrays.copyOf(found, capacity);
+			latitudes = Arrays.copyOf(latitudes, capacity);
+			longitudes = Arrays.copyOf(longitudes, capacity);
+			millis = Arrays.copyOf(millis, capacity);
+			zones = Arrays.copyOf(zones, capacity);
+			endLatitudes = Arrays.copyOf(endLatitudes, capacity);
+			endLongitudes = Arrays.copyOf(endLongitudes, capacity);
+			endMillis = Arrays.copyOf(endMillis, capacity);
+			endZones = Arrays.copyOf(endZones, capacity);
+			accuracies = Arrays.copyOf(accuracies, capacity);
+			altitudes = Arrays.copyOf(altitudes, capacity);
+		}
+		objects[depth] = aObject;
+		roles[depth] = aRole;
+		found[depth] = 0;
+		accuracies[depth] = 0;
+		altitudes[depth] = 0;
+	}
+
+	private void completeRecord() {
+		final int parent = depth - 1;
+		switch (roles[depth]) {
+		case DURATION:
+			if (parent > 0 && (found[depth] & TIME) != 0) {
+				setTime(parent, millis[depth], zones[depth]);
+			}
+			if (parent > 0 && (found[depth] & END_TIME) != 0) {
+				setEndTime(parent, endMillis[depth], endZones[depth]);
+			}
+			return;
+		case LOCATION:
+		case START_LOCATION:
+		case END_LOCATION:
+			if (parent > 0 && (found[depth] & (LATITUDE | LONGITUDE)) == (LATITUDE | LONGITUDE)) {
+				passLocationUp(parent);
+			}
+			return;
+		}
+
+		if ((found[depth] & POSITION) == POSITION) {
+			addPosition(millis[depth], zones[depth], latitudes[depth], longitudes[depth]);
+		}
+		if ((found[depth] & END_POSITION) == END_POSITION) {
+			addPosition(endMillis[depth], endZones[depth], endLatitudes[depth], endLongitudes[depth]);
+		}
+	}
+
+	/**
+	 * The location of a visit applies to its start and its end, a segment has
+	 * separate locations for both
+	 */
+	private void passLocationUp(final int aParent) {
+		if (roles[depth] != END_LOCATION) {
+			latitudes[aParent] = latitudes[depth];
+			longitudes[aParent] = longitudes[depth];
+			found[aParent] |= LATITUDE | LONGITUDE;
+		}
+		if (roles[depth] != START_LOCATION) {
+			endLatitudes[aParent] = latitudes[depth];
+			endLongitudes[aParent] = longitudes[depth];
+			found[aParent] |= END_LATITUDE | END_LONGITUDE;
+		}
+	}
+
+	private void addPosition(final long aMillis, final DateTimeZone aZone, final long aLatitudeE7,
+			final long aLongitudeE7) {
+		builder.add(aMillis, aZone, fixOverflow(aLatitudeE7, MAX_LATITUDE_E7) / E7,
+				fixOverflow(aLongitudeE7, MAX_LONGITUDE_E7) / E7, altitudes[depth], name, accuracies[depth]);
+	}
+
+	/**
+	 * Some exports contain coordinates that overflowed a signed 32 bit
+	 * integer, those are folded back into the valid range
+	 */
+	private static long fixOverflow(final long aValueE7, final long aMaximum) {
+		if (aValueE7 > aMaximum) {
+			return aValueE7 - INT_OVERFLOW;
+		}
+		return aValueE7;
+	}
+
+	private int readKey() throws IOException {
+		int length = 0;
+		boolean plain = true;
+		int c;
+		while ((c = next()) != '"') {
+			if (c < 0) {
+				throw error("Unterminated string");
+			}
+			if (c == '\\') {
+				next();
+				plain = false;
+			} else if (length < MAX_TOKEN_LENGTH) {
+				token[length] = (char) c;
+			}
+			length++;
+		}
+
+		if (plain && length < MAX_TOKEN_LENGTH) {
+			for (int i = 0; i < KEYS.length; i++) {
+				if (matches(KEYS[i], length)) {
+					return KEY_IDS[i];
+				}
+			}
+		}
+		return UNKNOWN;
+	}
+
+	private boolean matches(final byte[] aKey, final int aLength) {
+		if (aKey.length != aLength) {
+			return false;
+		}
+		for (int i = 0; i < aLength; i++) {
+			if (aKey[i] != token[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void readStringValue(final int aKey) throws IOException {
+		if (aKey != TIME && aKey != TIME_MILLIS && aKey != END_TIME && aKey != END_TIME_MILLIS) {
+			skipString();
+			return;
+		}
+
+		tokenLength = 0;
+		int c;
+		while ((c = next()) != '"') {
+			if (c < 0) {
+				throw error("Unterminated string");
+			}
+			if (c == '\\' || tokenLength == MAX_TOKEN_LENGTH) {
+				skipped++;
+				if (c == '\\') {
+					next();
+				}
+				skipString();
+				return;
+			}
+			token[tokenLength++] = (char) c;
+		}
+
+		if (aKey == TIME || aKey == END_TIME) {
+			try {
+				timestampParser.parse(token, 0, tokenLength);
+				storeTime(aKey, timestampParser.getMillis(), timestampParser.getZone());
+			} catch (final IllegalArgumentException e) {
+				skipped++;
+			}
+		} else if (parseInteger()) {
+			storeTime(aKey, longValue, DateTimeZone.UTC);
+		} else {
+			skipped++;
+		}
+	}
+
+	private void storeTime(final int aKey, final long aMillis, final DateTimeZone aZone) {
+		if (aKey == END_TIME || aKey == END_TIME_MILLIS) {
+			setEndTime(depth, aMillis, aZone);
+		} else {
+			setTime(depth, aMillis, aZone);
+		}
+	}
+
+	private void setTime(final int aDepth, final long aMillis, final DateTimeZone aZone) {
+		millis[aDepth] = aMillis;
+		zones[aDepth] = aZone;
+		found[aDepth] |= TIME;
+	}
+
+	private void setEndTime(final int aDepth, final long aMillis, final DateTimeZone aZone) {
+		endMillis[aDepth] = aMillis;
+		endZones[aDepth] = aZone;
+		found[aDepth] |= END_TIME;
+	}
+
+	private void skipString() throws IOException {
+		int c;
+		while ((c = next()) != '"') {
+			if (c < 0) {
+				throw error("Unterminated string");
+			}
+			if (c == '\\') {
+				next();
+			}
+		}
+	}
+
+	private void readLiteral(final int aFirst, final int aKey) throws IOException {
+		tokenLength = 0;
+		boolean overflow = false;
+		int c = aFirst;
+		while (true) {
+			if (tokenLength < MAX_TOKEN_LENGTH) {
+				token[tokenLength++] = (char) c;
+			} else {
+				overflow = true;
+			}
+
+			if (position == limit && !fill()) {
+				break;
+			}
+			c = bytes[position];
+			if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+				break;
+			}
+			position++;
+		}
+
+		if (aKey == UNKNOWN || aKey == TIME || aKey == END_TIME || aKey >= LOCATION) {
+			return;
+		}
+		if (overflow || !parseNumber()) {
+			skipped++;
+			return;
+		}
+
+		switch (aKey) {
+		case LATITUDE:
+			if (integer) {
+				latitudes[depth] = longValue;
+				found[depth] |= LATITUDE;
+			}
+			break;
+		case LONGITUDE:
+			if (integer) {
+				longitudes[depth] = longValue;
+				found[depth] |= LONGITUDE;
+			}
+			break;
+		case ACCURACY:
+			accuracies[depth] = integer ? longValue : (float) Double.parseDouble(new String(token, 0, tokenLength));
+			break;
+		case ALTITUDE:
+			altitudes[depth] = integer ? longValue : Double.parseDouble(new String(token, 0, tokenLength));
+			break;
+		case TIME_MILLIS:
+		case END_TIME_MILLIS:
+			if (integer) {
+				storeTime(aKey, longValue, DateTimeZone.UTC);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Check whether the token is a number and, if it is an integer, parse it
+	 * into {@link #longValue}
+	 */
+	private boolean parseNumber() {
+		if (parseInteger()) {
+			integer = true;
+			return true;
+		}
+
+		integer = false;
+		try {
+			Double.parseDouble(new String(token, 0, tokenLength));
+			return true;
+		} catch (final NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private boolean parseInteger() {
+		int i = 0;
+		final boolean negative = tokenLength > 0 && token[0] == '-';
+		if (negative) {
+			i++;
+		}
+		if (i == tokenLength || tokenLength - i > 18) {
+			return false;
+		}
+
+		long value = 0;
+		for (; i < tokenLength; i++) {
+			final int digit = token[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			value = 10 * value + digit;
+		}
+		longValue = negative ? -value : value;
+		return true;
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c;
+		do {
+			c = next();
+		} while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+		return c;
+	}
+
+	private int next() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return bytes[position++] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		buffer.clear();
+		int read;
+		do {
+			read = channel.read(buffer);
+		} while (read == 0);
+		offset += limit;
+		position = 0;
+		limit = Math.max(read, 0);
+		return read > 0;
+	}
+
+	private IOException error(final String aMessage) {
+		return new IOException(aMessage + " at byte " + (offset + position));
+	}
+}
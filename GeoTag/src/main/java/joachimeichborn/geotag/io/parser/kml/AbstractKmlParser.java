@@ -19,153 +19,45 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.io.parser.kml;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang3.StringUtils;
 
-import de.micromata.opengis.kml.v_2_2_0.Coordinate;
-import de.micromata.opengis.kml.v_2_2_0.Data;
-import de.micromata.opengis.kml.v_2_2_0.Document;
-import de.micromata.opengis.kml.v_2_2_0.Feature;
-import de.micromata.opengis.kml.v_2_2_0.Folder;
-import de.micromata.opengis.kml.v_2_2_0.Geometry;
-import de.micromata.opengis.kml.v_2_2_0.Kml;
-import de.micromata.opengis.kml.v_2_2_0.Placemark;
-import de.micromata.opengis.kml.v_2_2_0.Point;
-import de.micromata.opengis.kml.v_2_2_0.TimePrimitive;
-import de.micromata.opengis.kml.v_2_2_0.TimeStamp;
-import joachimeichborn.geotag.io.parser.PositionParsingException;
 import joachimeichborn.geotag.io.parser.TrackParser;
-import joachimeichborn.geotag.model.Coordinates;
-import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.TrackData;
 
 public abstract class AbstractKmlParser implements TrackParser {
-	private static final Logger logger = Logger.getLogger(AbstractKmlParser.class.getSimpleName());
-	private static String FLOAT_PATTERN = "^\\d*.\\d*$";
-
-	List<PositionData> readPositions(final Kml aKml) {
-		final List<PositionData> positions = new LinkedList<>();
-
-		final Feature kmlFeature = aKml.getFeature();
-		if (kmlFeature != null) {
-			if (kmlFeature instanceof Document) {
-				positions.addAll(parseDocument((Document) kmlFeature));
-			} else if (kmlFeature instanceof Folder) {
-				final Folder folder = (Folder) kmlFeature;
-				for (final Feature folderFeature : folder.getFeature()) {
-					if (folderFeature instanceof Document) {
-						positions.addAll(parseDocument((Document) folderFeature));
-					}
-				}
-			}
-		}
-
-		return positions;
-	}
+	static final String ACCURACY_DATA_NAME = "accuracy";
+	private static final Pattern FLOAT_PATTERN = Pattern.compile("^\\d*.\\d*$");
 
 	/**
-	 * Parse a document subnode within the KML tree
+	 * Stream the positions of a KML document into the given builder, see
+	 * {@link KmlPositionReader}
 	 * 
-	 * @param aDocument
-	 *            The document subnode
-	 * @param aPositions
-	 *            The position list
-	 * @return
+	 * @param aInput
+	 *            The KML document, the stream is not closed
+	 * @param aBuilder
+	 *            The builder receiving the positions
+	 * @throws IOException
+	 *             if the document could not be read or parsed
 	 */
-	private List<PositionData> parseDocument(final Document aDocument) {
-		final List<PositionData> positions = new ArrayList<PositionData>();
-
-		for (final Feature documentFeature : aDocument.getFeature()) {
-			if (documentFeature instanceof Placemark) {
-				final PositionData position = parsePlacemark((Placemark) documentFeature);
-				if (position != null) {
-					positions.add(position);
-				}
-			} else if (documentFeature instanceof Folder) {
-				final Folder folder = (Folder) documentFeature;
-				for (final Feature folderFeature : folder.getFeature()) {
-					if (folderFeature instanceof Placemark) {
-						final PositionData position = parsePlacemark((Placemark) folderFeature);
-						if (position != null) {
-							positions.add(position);
-						}
-					}
-				}
-			}
+	void readPositions(final InputStream aInput, final TrackData.Builder aBuilder) throws IOException {
+		try {
+			new KmlPositionReader(aBuilder).read(aInput);
+		} catch (XMLStreamException | IllegalArgumentException e) {
+			throw new IOException(e);
 		}
-
-		return positions;
 	}
 
 	/**
-	 * Parse a placemark subnode within the KML tree. If the placemark contains
-	 * a position, create a new {@link PositionData} object and add it to the
-	 * position list
-	 * 
-	 * @param aPlacemark
-	 *            The placemark subnode
-	 * @param aPositions
-	 *            The position list
-	 * @throws PositionParsingException
+	 * Check if the content of an accuracy data entry or a description can be
+	 * used as accuracy
 	 */
-	private PositionData parsePlacemark(final Placemark aPlacemark) {
-		final TimePrimitive timePrimitive = aPlacemark.getTimePrimitive();
-		final Geometry geometry = aPlacemark.getGeometry();
-		if (!(timePrimitive instanceof TimeStamp)) {
-			logger.finer("Skipping placemark " + aPlacemark.getName() + " without time stamp");
-			return null;
-		}
-		if (!(geometry instanceof Point)) {
-			logger.finer("Skipping placemark " + aPlacemark.getName() + " without point geometry");
-			return null;
-		}
-
-		final String time = ((TimeStamp) timePrimitive).getWhen();
-		float accuracy = parseAccuracy(aPlacemark);
-		final Coordinates position;
-		try {
-			position = parseCoordinates(geometry);
-		} catch (PositionParsingException e) {
-			logger.log(Level.WARNING, "Could not parse placemark " + aPlacemark.getName(), e);
-			return null;
-		}
-
-		return new PositionData(position, time, aPlacemark.getName(), accuracy);
-	}
-
-	private float parseAccuracy(final Placemark aPlacemark) {
-		if (aPlacemark.getExtendedData() != null) {
-			final List<Data> data = aPlacemark.getExtendedData().getData();
-			for (final Data entry : data) {
-				if ("accuracy".equals(entry.getName()) && entry.getValue().matches(FLOAT_PATTERN)) {
-					return Float.valueOf(entry.getValue());
-				}
-			}
-		}
-
-		final String description = aPlacemark.getDescription();
-		if (!StringUtils.isEmpty(description) && description.matches(FLOAT_PATTERN)) {
-			return Float.valueOf(description);
-		}
-
-		return 0f;
-	}
-
-	private Coordinates parseCoordinates(final Geometry aGeometry) throws PositionParsingException {
-		final List<Coordinate> coordinates = ((Point) aGeometry).getCoordinates();
-
-		if (coordinates.size() != 1) {
-			throw new PositionParsingException(
-					"Placemark contains " + coordinates.size() + " coordinates instead of one as expected");
-		}
-
-		final Coordinate coordinate = coordinates.get(0);
-		final Coordinates position = new Coordinates(coordinate.getLatitude(), coordinate.getLongitude(),
-				coordinate.getAltitude());
-		return position;
+	static boolean isAccuracy(final String aValue) {
+		return !StringUtils.isEmpty(aValue) && FLOAT_PATTERN.matcher(aValue).matches();
 	}
 }
@@ -19,25 +19,30 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.io.parser.kml;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
 import java.util.logging.Logger;
 
-import de.micromata.opengis.kml.v_2_2_0.Kml;
-import joachimeichborn.geotag.model.PositionData;
 import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
 
 public class KmlParser extends AbstractKmlParser {
 	private static final Logger logger = Logger.getLogger(KmlParser.class.getSimpleName());
+	private static final int BUFFER_SIZE = 1 << 16;
 
-	public Track read(final Path aKmlFile) {
+	public Track read(final Path aKmlFile) throws IOException {
 		logger.fine("Reading positions from " + aKmlFile);
 
-		final Kml kml = Kml.unmarshal(aKmlFile.toFile());
-		final List<PositionData> positions = readPositions(kml);
+		final TrackData.Builder builder = new TrackData.Builder();
+		try (final InputStream input = new BufferedInputStream(Files.newInputStream(aKmlFile), BUFFER_SIZE)) {
+			readPositions(input, builder);
+		}
 
-		logger.fine("Read " + positions.size() + " coordinates from " + aKmlFile);
+		logger.fine("Read " + builder.size() + " coordinates from " + aKmlFile);
 
-		return new Track(aKmlFile, positions);
+		return new Track(aKmlFile, builder.build());
 	}
 }
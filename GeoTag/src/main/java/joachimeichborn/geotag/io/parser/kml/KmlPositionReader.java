@@ -0,0 +1,372 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package joachimeichborn.geotag.io.parser.kml;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.joda.time.DateTimeZone;
+
+import joachimeichborn.geotag.io.parser.IsoTimestampParser;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Streaming reader for the positions contained in a KML document. Placemarks
+ * are read with StAX in a single pass without building the KML object model.
+ * 
+ * Placemarks in the root document (or documents of the root folder) and in
+ * their folders are considered. A placemark yields a position if it has a
+ * {@code TimeStamp} and a {@code Point} geometry with exactly one coordinate.
+ * Additionally the {@code when}/{@code gx:coord} pairs of {@code gx:Track}
+ * geometries, also inside of {@code gx:MultiTrack}, are read as positions
+ * named after their placemark. Track coordinates without longitude and
+ * latitude are skipped together with their time stamp.
+ * 
+ * An instance must not be shared between threads.
+ * 
+ * @author Joachim von Eichborn
+ */
+class KmlPositionReader {
+	private static final Logger logger = Logger.getLogger(KmlPositionReader.class.getSimpleName());
+	private static final Pattern COMMA_WHITESPACE = Pattern.compile(",\\s+");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private final TrackData.Builder builder;
+	private final IsoTimestampParser timestampParser = new IsoTimestampParser();
+	private String[] path = new String[16];
+	private int depth;
+	private char[] text = new char[64];
+	private int textLength;
+
+	private int placemarkDepth;
+	private String name;
+	private String description;
+	private String when;
+	private String pointCoordinates;
+	private boolean hasTimeStamp;
+	private boolean hasPoint;
+	private String dataName;
+	private String accuracy;
+
+	private int trackSize;
+	private long[] trackTimes = new long[16];
+	private DateTimeZone[] trackZones = new DateTimeZone[16];
+	private int trackCoordinatesSize;
+	private double[] trackCoordinates = new double[48];
+	private int trackStart;
+
+	/**
+	 * @param aBuilder
+	 *            the builder that receives the positions
+	 */
+	KmlPositionReader(final TrackData.Builder aBuilder) {
+		builder = aBuilder;
+	}
+
+	private static XMLInputFactory createFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+
+	/**
+	 * Read all positions of the given KML document
+	 * 
+	 * @param aInput
+	 *            the KML document, the stream is not closed
+	 * @throws XMLStreamException
+	 *             if the document is no well-formed XML
+	 */
+	void read(final InputStream aInput) throws XMLStreamException {
+		final XMLStreamReader reader = FACTORY.createXMLStreamReader(aInput);
+		try {
+			read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void read(final XMLStreamReader aReader) throws XMLStreamException {
+		depth = 0;
+		placemarkDepth = 0;
+		while (aReader.hasNext()) {
+			switch (aReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				startElement(aReader);
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (placemarkDepth > 0) {
+					appendText(aReader);
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				endElement();
+				depth--;
+				break;
+			}
+		}
+	}
+
+	private void startElement(final XMLStreamReader aReader) {
+		if (depth == path.length) {
+			path = Arrays.copyOf(path, 2 * path.length);
+		}
+		final String localName = aReader.getLocalName();
+		path[depth++] = localName;
+		textLength = 0;
+
+		if (placemarkDepth == 0) {
+			if ("Placemark".equals(localName) && isPositionContainer()) {
+				startPlacemark();
+			}
+		} else if ("Data".equals(localName) && depth - placemarkDepth == 2 && isInPlacemark(1, "ExtendedData")) {
+			dataName = aReader.getAttributeValue(null, "name");
+		} else if ("Track".equals(localName) && isTrack()) {
+			trackStart = trackSize;
+			trackCoordinatesSize = 3 * trackSize;
+		}
+	}
+
+	private void endElement() {
+		if (placemarkDepth == 0) {
+			return;
+		}
+
+		final String localName = path[depth - 1];
+		final int level = depth - placemarkDepth;
+		if (level == 0) {
+			endPlacemark();
+		} else if (level == 1) {
+			switch (localName) {
+			case "name":
+				name = currentText();
+				break;
+			case "description":
+				description = currentText();
+				break;
+			case "TimeStamp":
+				hasTimeStamp = true;
+				break;
+			case "Point":
+				hasPoint = true;
+				break;
+			}
+		} else if (level == 2 && "when".equals(localName) && isInPlacemark(1, "TimeStamp")) {
+			when = currentText().trim();
+		} else if (level == 2 && "coordinates".equals(localName) && isInPlacemark(1, "Point")) {
+			pointCoordinates = currentText();
+		} else if (level == 3 && "value".equals(localName) && isInPlacemark(2, "Data")
+				&& isInPlacemark(1, "ExtendedData")) {
+			if (accuracy == null && AbstractKmlParser.ACCURACY_DATA_NAME.equals(dataName)) {
+				final String value = currentText();
+				if (AbstractKmlParser.isAccuracy(value)) {
+					accuracy = value;
+				}
+			}
+		} else if ("when".equals(localName) && isTrack(depth - 2)) {
+			addTrackTime(currentText().trim());
+		} else if ("coord".equals(localName) && isTrack(depth - 2)) {
+			addTrackCoordinate(currentText().trim());
+		} else if ("Track".equals(localName) && isTrack()) {
+			endTrack();
+		}
+	}
+
+	/**
+	 * Check if the current element may contain position placemarks: a
+	 * document that is the root feature or part of the root folder, or a
+	 * folder in such a document
+	 */
+	private boolean isPositionContainer() {
+		// path[0] is the kml element, path[depth - 1] the placemark
+		final int parent = depth - 2;
+		if (parent == 1) {
+			return "Document".equals(path[1]);
+		} else if (parent == 2) {
+			return "Document".equals(path[1]) && "Folder".equals(path[2])
+					|| "Folder".equals(path[1]) && "Document".equals(path[2]);
+		} else if (parent == 3) {
+			return "Folder".equals(path[1]) && "Document".equals(path[2]) && "Folder".equals(path[3]);
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the element at the given level below the placemark has
+	 *         the given name
+	 */
+	private boolean isInPlacemark(final int aLevel, final String aLocalName) {
+		final int index = placemarkDepth + aLevel - 1;
+		return index < depth && aLocalName.equals(path[index]);
+	}
+
+	private boolean isTrack() {
+		return isTrack(depth - 1);
+	}
+
+	/**
+	 * @return true if the element at the given index of the path is a track
+	 *         geometry of the placemark
+	 */
+	private boolean isTrack(final int aIndex) {
+		final int level = aIndex - placemarkDepth + 1;
+		if (!"Track".equals(path[aIndex])) {
+			return false;
+		}
+		return level == 1 || level == 2 && "MultiTrack".equals(path[aIndex - 1]);
+	}
+
+	private void startPlacemark() {
+		placemarkDepth = depth;
+		name = null;
+		description = null;
+		when = null;
+		pointCoordinates = null;
+		hasTimeStamp = false;
+		hasPoint = false;
+		dataName = null;
+		accuracy = null;
+		trackSize = 0;
+		trackCoordinatesSize = 0;
+	}
+
+	private void endPlacemark() {
+		placemarkDepth = 0;
+
+		final float placemarkAccuracy;
+		if (accuracy != null) {
+			placemarkAccuracy = Float.valueOf(accuracy);
+		} else if (AbstractKmlParser.isAccuracy(description)) {
+			placemarkAccuracy = Float.valueOf(description);
+		} else {
+			placemarkAccuracy = 0f;
+		}
+
+		for (int i = 0; i < trackSize; i++) {
+			if (Double.isNaN(trackCoordinates[3 * i])) {
+				continue;
+			}
+			builder.add(trackTimes[i], trackZones[i], trackCoordinates[3 * i + 1], trackCoordinates[3 * i],
+					trackCoordinates[3 * i + 2], name, placemarkAccuracy);
+		}
+
+		if (!hasTimeStamp) {
+			logger.finer("Skipping placemark " + name + " without time stamp");
+			return;
+		}
+		if (!hasPoint) {
+			logger.finer("Skipping placemark " + name + " without point geometry");
+			return;
+		}
+		if (when == null || pointCoordinates == null) {
+			logger.warning("Could not parse placemark " + name + ": time stamp or coordinates are missing");
+			return;
+		}
+
+		final String[] tuples = WHITESPACE.split(COMMA_WHITESPACE.matcher(pointCoordinates).replaceAll(",").trim());
+		if (tuples.length != 1 || tuples[0].isEmpty()) {
+			logger.warning("Could not parse placemark " + name + ": Placemark contains " + tuples.length
+					+ " coordinates instead of one as expected");
+			return;
+		}
+
+		final String[] values = tuples[0].split(",");
+		if (values.length < 2 || values.length > 3) {
+			logger.warning("Could not parse placemark " + name + ": invalid coordinate '" + tuples[0] + "'");
+			return;
+		}
+
+		final double longitude = Double.parseDouble(values[0]);
+		final double latitude = Double.parseDouble(values[1]);
+		final double altitude = values.length == 3 ? Double.parseDouble(values[2]) : 0.0;
+
+		timestampParser.parse(when);
+		builder.add(timestampParser.getMillis(), timestampParser.getZone(), latitude, longitude, altitude, name,
+				placemarkAccuracy);
+	}
+
+	private void addTrackTime(final String aWhen) {
+		if (trackSize == trackTimes.length) {
+			trackTimes = Arrays.copyOf(trackTimes, 2 * trackTimes.length);
+			trackZones = Arrays.copyOf(trackZones, 2 * trackZones.length);
+		}
+		timestampParser.parse(aWhen);
+		trackTimes[trackSize] = timestampParser.getMillis();
+		trackZones[trackSize] = timestampParser.getZone();
+		trackSize++;
+	}
+
+	private void addTrackCoordinate(final String aCoord) {
+		if (trackCoordinatesSize + 3 > trackCoordinates.length) {
+			trackCoordinates = Arrays.copyOf(trackCoordinates, 2 * trackCoordinates.length);
+		}
+		final String[] values = WHITESPACE.split(aCoord);
+		if (values.length < 2 || values.length > 3) {
+			// keep the slot, such that the following coordinates stay paired
+			// with their time stamps
+			logger.warning("Skipping invalid track coordinate '" + aCoord + "' of placemark " + name);
+			trackCoordinates[trackCoordinatesSize] = Double.NaN;
+		} else {
+			trackCoordinates[trackCoordinatesSize] = Double.parseDouble(values[0]);
+			trackCoordinates[trackCoordinatesSize + 1] = Double.parseDouble(values[1]);
+			trackCoordinates[trackCoordinatesSize + 2] = values.length > 2 ? Double.parseDouble(values[2]) : 0.0;
+		}
+		trackCoordinatesSize += 3;
+	}
+
+	/**
+	 * Drop unpaired time stamps or coordinates of the track that just ended
+	 */
+	private void endTrack() {
+		final int coordinateCount = trackCoordinatesSize / 3;
+		if (coordinateCount != trackSize) {
+			logger.warning("Track of placemark " + name + " contains " + (trackSize - trackStart) + " time stamps but "
+					+ (coordinateCount - trackStart) + " coordinates, ignoring unpaired entries");
+		}
+		trackSize = Math.min(trackSize, coordinateCount);
+		trackCoordinatesSize = 3 * trackSize;
+	}
+
+	private String currentText() {
+		return new String(text, 0, textLength);
+	}
+
+	private void appendText(final XMLStreamReader aReader) {
+		final int length = aReader.getTextLength();
+		if (textLength + length > text.length) {
+			text = Arrays.copyOf(text, Math.max(2 * text.length, textLength + length));
+		}
+		System.arraycopy(aReader.getTextCharacters(), aReader.getTextStart(), text, textLength, length);
+		textLength += length;
+	}
+}
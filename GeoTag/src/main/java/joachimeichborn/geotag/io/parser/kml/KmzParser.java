@@ -19,35 +19,125 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.io.parser.kml;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
-import de.micromata.opengis.kml.v_2_2_0.Kml;
-import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
 
+/**
+ * Parser for KMZ archives. Every KML entry is streamed from the archive and
+ * decoded as a task of its own on the IO pool, the positions of all entries
+ * are merged into one track.
+ * 
+ * @author Joachim von Eichborn
+ */
 public class KmzParser extends AbstractKmlParser {
 	private static final Logger logger = Logger.getLogger(KmzParser.class.getSimpleName());
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ExecutionService executionService;
+
+	/**
+	 * Create a parser that reads the entries of an archive one after another
+	 */
+	public KmzParser() {
+		this(null);
+	}
+
+	/**
+	 * @param aExecutionService
+	 *            the service whose IO pool reads the entries of an archive in
+	 *            parallel
+	 */
+	public KmzParser(final ExecutionService aExecutionService) {
+		executionService = aExecutionService;
+	}
 
 	public Track read(final Path aKmzFile) throws IOException {
 		logger.fine("Reading positions from " + aKmzFile);
 
-		final List<PositionData> positions = new LinkedList<>();
+		try (final ZipFile kmz = new ZipFile(aKmzFile.toFile())) {
+			final List<ZipEntry> kmlEntries = new ArrayList<>();
+			final Enumeration<? extends ZipEntry> entries = kmz.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				if (isKmlEntry(entry)) {
+					kmlEntries.add(entry);
+				}
+			}
+
+			logger.fine("Reading " + kmlEntries.size() + " KML entries from " + aKmzFile);
+
+			final List<TrackData> entryData = kmlEntries.size() > 1 && executionService != null
+					? readEntriesInParallel(kmz, kmlEntries) : readEntries(kmz, kmlEntries);
+
+			int size = 0;
+			for (final TrackData data : entryData) {
+				size += data.size();
+			}
+			final TrackData.Builder builder = new TrackData.Builder(size);
+			for (final TrackData data : entryData) {
+				builder.addAll(data);
+			}
+
+			logger.fine("Read " + builder.size() + " positions from " + aKmzFile);
+			return new Track(aKmzFile, builder.build());
+		}
+	}
 
-		final Kml[] kmls = Kml.unmarshalFromKmz(aKmzFile.toFile());
+	private List<TrackData> readEntries(final ZipFile aKmz, final List<ZipEntry> aEntries) throws IOException {
+		final List<TrackData> entryData = new ArrayList<>();
+		for (final ZipEntry entry : aEntries) {
+			entryData.add(readEntry(aKmz, entry));
+		}
+		return entryData;
+	}
 
-		logger.fine("Read " + kmls.length + " KML entries from " + aKmzFile);
+	private List<TrackData> readEntriesInParallel(final ZipFile aKmz, final List<ZipEntry> aEntries)
+			throws IOException {
+		final List<Callable<TrackData>> tasks = new ArrayList<>();
+		for (final ZipEntry entry : aEntries) {
+			tasks.add(() -> readEntry(aKmz, entry));
+		}
 
-		for (final Kml kml : kmls) {
-			final List<PositionData> kmlPositions = readPositions(kml);
-			logger.fine("Read " + kmlPositions.size() + " positions from KMZ entry");
-			positions.addAll(kmlPositions);
+		try {
+			return executionService.invokeAll(PoolType.IO, tasks);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading KMZ entries", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
 		}
+	}
+
+	private TrackData readEntry(final ZipFile aKmz, final ZipEntry aEntry) throws IOException {
+		final TrackData.Builder builder = new TrackData.Builder();
+		try (final InputStream input = new BufferedInputStream(aKmz.getInputStream(aEntry), BUFFER_SIZE)) {
+			readPositions(input, builder);
+		}
+		logger.fine("Read " + builder.size() + " positions from KMZ entry " + aEntry.getName());
+		return builder.build();
+	}
 
-		logger.fine("Read " + positions.size() + " positions from " + aKmzFile);
-		return new Track(aKmzFile, positions);
+	private static boolean isKmlEntry(final ZipEntry aEntry) {
+		final String name = aEntry.getName();
+		return !aEntry.isDirectory() && name.endsWith(".kml") && !name.contains("__MACOSX")
+				&& !name.contains(".DS_STORE");
 	}
 }
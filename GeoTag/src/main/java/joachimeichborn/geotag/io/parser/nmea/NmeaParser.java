@@ -0,0 +1,333 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.io.parser.nmea;
+
+import java.nio.ByteBuffer;
+
+import org.joda.time.DateTimeZone;
+
+import joachimeichborn.geotag.io.parser.AbstractLineParser;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Parser for NMEA 0183 logs. Positions are taken from <code>RMC</code>
+ * sentences which carry date and time, an adjacent <code>GGA</code> sentence
+ * for the same fix adds altitude and the horizontal dilution of precision that
+ * is used to estimate the accuracy. Sentences from any talker (GP, GN, GL, ...)
+ * are accepted, sentences with wrong checksums are skipped.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class NmeaParser extends AbstractLineParser<Void> {
+	/**
+	 * Estimated range error of a GPS receiver in meters, multiplied with the
+	 * horizontal dilution of precision it gives an estimate of the accuracy
+	 */
+	public static final float USER_EQUIVALENT_RANGE_ERROR = 5f;
+
+	private static final int MAX_FIELDS = 24;
+
+	private static class NmeaLineReader implements LineReader {
+		private final TrackData.Builder builder;
+		private final String name;
+		private final int[] fieldStarts = new int[MAX_FIELDS + 1];
+		private int fields;
+
+		private boolean hasFix;
+		private long fixTimeOfDay;
+		private long fixMillis;
+		private double fixLatitude;
+		private double fixLongitude;
+
+		private boolean hasDetails;
+		private long detailsTimeOfDay;
+		private double detailsAltitude;
+		private float detailsAccuracy;
+
+		private int cachedDate = -1;
+		private long cachedDateMillis;
+
+		private NmeaLineReader(final TrackData.Builder aBuilder, final String aName) {
+			builder = aBuilder;
+			name = aName;
+		}
+
+		@Override
+		public void readLine(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			final int sentenceStart = indexOf(aBuffer, aStart, aEnd, (byte) '$');
+			final int sentenceEnd = verifyChecksum(aBuffer, sentenceStart, aEnd);
+			if (sentenceEnd < 0 || sentenceEnd - sentenceStart < 6) {
+				return;
+			}
+
+			splitFields(aBuffer, sentenceStart, sentenceEnd);
+			if (matches(aBuffer, sentenceStart + 3, 'R', 'M', 'C')) {
+				readRmc(aBuffer);
+			} else if (matches(aBuffer, sentenceStart + 3, 'G', 'G', 'A')) {
+				readGga(aBuffer);
+			}
+		}
+
+		@Override
+		public void finish() {
+			emitFix(false);
+		}
+
+		/**
+		 * @return index of the checksum delimiter or the end of the line if
+		 *         there is no checksum, <code>-1</code> if the checksum is
+		 *         wrong
+		 */
+		private static int verifyChecksum(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			if (aStart >= aEnd) {
+				return -1;
+			}
+			final int delimiter = indexOf(aBuffer, aStart, aEnd, (byte) '*');
+			if (delimiter == aEnd) {
+				return aEnd;
+			}
+
+			int checksum = 0;
+			for (int i = aStart + 1; i < delimiter; i++) {
+				checksum ^= aBuffer.get(i);
+			}
+			if (delimiter + 3 > aEnd || (hexValue(aBuffer.get(delimiter + 1)) << 4
+					| hexValue(aBuffer.get(delimiter + 2))) != checksum) {
+				return -1;
+			}
+			return delimiter;
+		}
+
+		private static int hexValue(final byte aByte) {
+			return Character.digit(aByte, 16) & 0xff;
+		}
+
+		private static boolean matches(final ByteBuffer aBuffer, final int aIndex, final char aFirst,
+				final char aSecond, final char aThird) {
+			return aBuffer.get(aIndex) == aFirst && aBuffer.get(aIndex + 1) == aSecond
+					&& aBuffer.get(aIndex + 2) == aThird;
+		}
+
+		private void splitFields(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+			fields = 0;
+			fieldStarts[0] = aStart;
+			for (int i = aStart; i < aEnd && fields < MAX_FIELDS - 1; i++) {
+				if (aBuffer.get(i) == ',') {
+					fieldStarts[++fields] = i + 1;
+				}
+			}
+			fields++;
+			fieldStarts[fields] = aEnd + 1;
+		}
+
+		private int start(final int aField) {
+			return fieldStarts[aField];
+		}
+
+		private int end(final int aField) {
+			return fieldStarts[aField + 1] - 1;
+		}
+
+		private boolean isEmpty(final int aField) {
+			return aField >= fields || end(aField) <= start(aField);
+		}
+
+		private void readRmc(final ByteBuffer aBuffer) {
+			if (fields < 10 || isEmpty(2) || aBuffer.get(start(2)) != 'A') {
+				return;
+			}
+
+			final long timeOfDay = parseTimeOfDay(aBuffer, 1);
+			final long date = parseDate(aBuffer, 9);
+			final double latitude = parseCoordinate(aBuffer, 3, 'S');
+			final double longitude = parseCoordinate(aBuffer, 5, 'W');
+			if (timeOfDay < 0 || date == Long.MIN_VALUE || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+				return;
+			}
+
+			emitFix(false);
+			hasFix = true;
+			fixTimeOfDay = timeOfDay;
+			fixMillis = date + timeOfDay;
+			fixLatitude = latitude;
+			fixLongitude = longitude;
+			emitFix(true);
+		}
+
+		private void readGga(final ByteBuffer aBuffer) {
+			if (fields < 10 || isEmpty(6) || aBuffer.get(start(6)) == '0') {
+				return;
+			}
+
+			final long timeOfDay = parseTimeOfDay(aBuffer, 1);
+			if (timeOfDay < 0) {
+				return;
+			}
+
+			final double hdop = isEmpty(8) ? Double.NaN : parseDecimal(aBuffer, start(8), end(8));
+			final double altitude = isEmpty(9) ? Double.NaN : parseDecimal(aBuffer, start(9), end(9));
+
+			if (hasFix && fixTimeOfDay != timeOfDay) {
+				emitFix(false);
+			}
+			hasDetails = true;
+			detailsTimeOfDay = timeOfDay;
+			detailsAltitude = Double.isNaN(altitude) ? 0 : altitude;
+			detailsAccuracy = Double.isNaN(hdop) ? 0 : (float) hdop * USER_EQUIVALENT_RANGE_ERROR;
+			emitFix(true);
+		}
+
+		/**
+		 * Add the current fix to the track
+		 * 
+		 * @param aOnlyIfComplete
+		 *            if <code>true</code> the fix is only added if details
+		 *            for the same time are available
+		 */
+		private void emitFix(final boolean aOnlyIfComplete) {
+			final boolean complete = hasFix && hasDetails && fixTimeOfDay == detailsTimeOfDay;
+			if (!hasFix || aOnlyIfComplete && !complete) {
+				return;
+			}
+
+			builder.add(fixMillis, DateTimeZone.UTC, fixLatitude, fixLongitude, complete ? detailsAltitude : 0, name,
+					complete ? detailsAccuracy : 0);
+			hasFix = false;
+			hasDetails = false;
+		}
+
+		/**
+		 * @return milliseconds since midnight or <code>-1</code> if the field
+		 *         is invalid
+		 */
+		private long parseTimeOfDay(final ByteBuffer aBuffer, final int aField) {
+			final int start = start(aField);
+			final int end = end(aField);
+			final int hours = parseDigits(aBuffer, start, end, 2);
+			final int minutes = parseDigits(aBuffer, start + 2, end, 2);
+			final int seconds = parseDigits(aBuffer, start + 4, end, 2);
+			if (hours < 0 || minutes < 0 || seconds < 0 || hours > 23 || minutes > 59 || seconds > 60) {
+				return -1;
+			}
+
+			long millis = ((hours * 60L + minutes) * 60 + seconds) * 1000;
+			if (end > start + 6) {
+				final double fraction = parseDecimal(aBuffer, start + 6, end);
+				if (Double.isNaN(fraction)) {
+					return -1;
+				}
+				millis += Math.round(fraction * 1000);
+			}
+			return millis;
+		}
+
+		/**
+		 * @return milliseconds of midnight UTC of the <code>ddmmyy</code> date
+		 *         or {@link Long#MIN_VALUE} if the field is invalid
+		 */
+		private long parseDate(final ByteBuffer aBuffer, final int aField) {
+			final int start = start(aField);
+			final int end = end(aField);
+			if (end - start != 6) {
+				return Long.MIN_VALUE;
+			}
+			final int date = parseDigits(aBuffer, start, end, 6);
+			if (date < 0) {
+				return Long.MIN_VALUE;
+			}
+
+			if (date != cachedDate) {
+				final int day = date / 10000;
+				final int month = date / 100 % 100;
+				final int shortYear = date % 100;
+				final int year = shortYear < 80 ? 2000 + shortYear : 1900 + shortYear;
+				cachedDateMillis = startOfDay(year, month, day);
+				cachedDate = date;
+			}
+			return cachedDateMillis;
+		}
+
+		/**
+		 * Parse a coordinate in the format <code>(d)ddmm.mmmm</code> followed
+		 * by a hemisphere field
+		 * 
+		 * @return the coordinate in degrees or {@link Double#NaN} if the field
+		 *         is invalid
+		 */
+		private double parseCoordinate(final ByteBuffer aBuffer, final int aField, final char aNegativeHemisphere) {
+			if (isEmpty(aField) || isEmpty(aField + 1)) {
+				return Double.NaN;
+			}
+			final double value = parseDecimal(aBuffer, start(aField), end(aField));
+			final double degrees = Math.floor(value / 100);
+			final double coordinate = degrees + (value - 100 * degrees) / 60;
+			return aBuffer.get(start(aField + 1)) == aNegativeHemisphere ? -coordinate : coordinate;
+		}
+	}
+
+	/**
+	 * Create a parser that reads a file in one go
+	 */
+	public NmeaParser() {
+		this(null);
+	}
+
+	/**
+	 * @param aExecutionService
+	 *            the service whose IO pool reads the chunks of a file in
+	 *            parallel
+	 */
+	public NmeaParser(final ExecutionService aExecutionService) {
+		super(aExecutionService);
+	}
+
+	NmeaParser(final long aMinChunkSize, final int aParallelism, final ExecutionService aExecutionService) {
+		super(aMinChunkSize, aParallelism, aExecutionService);
+	}
+
+	/**
+	 * The sentences of one fix share their time, chunks must not be split
+	 * between them
+	 */
+	@Override
+	protected long getRecordKey(final ByteBuffer aBuffer, final int aStart, final int aEnd) {
+		final int sentenceStart = indexOf(aBuffer, aStart, aEnd, (byte) '$');
+		if (aEnd - sentenceStart < 7 || !NmeaLineReader.matches(aBuffer, sentenceStart + 3, 'R', 'M', 'C')
+				&& !NmeaLineReader.matches(aBuffer, sentenceStart + 3, 'G', 'G', 'A')) {
+			return NO_RECORD_KEY;
+		}
+
+		final int timeStart = sentenceStart + 7;
+		final int timeEnd = indexOf(aBuffer, timeStart, aEnd, (byte) ',');
+		final double time = parseDecimal(aBuffer, timeStart, timeEnd);
+		return Double.isNaN(time) ? NO_RECORD_KEY : Math.round(time * 1000);
+	}
+
+	@Override
+	protected boolean hasHeader() {
+		return false;
+	}
+
+	@Override
+	protected LineReader createLineReader(final Void aHeader, final TrackData.Builder aBuilder, final String aName) {
+		return new NmeaLineReader(aBuilder, aName);
+	}
+}
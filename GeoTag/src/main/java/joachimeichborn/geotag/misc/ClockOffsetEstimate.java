@@ -0,0 +1,86 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.misc;
+
+/**
+ * Immutable result of a camera clock offset estimation for one camera model
+ * 
+ * @author Joachim von Eichborn
+ */
+public final class ClockOffsetEstimate {
+	private final String cameraModel;
+	private final long offsetMillis;
+	private final int pictureCount;
+	private final int matchCount;
+	private final double meanDeltaMillis;
+
+	/**
+	 * @param aCameraModel
+	 *            the camera model the estimate applies to
+	 * @param aOffsetMillis
+	 *            the offset in milliseconds that has to be added to the
+	 *            picture times to match the tracks best
+	 * @param aPictureCount
+	 *            the number of pictures of the camera model that took part in
+	 *            the estimation
+	 * @param aMatchCount
+	 *            the number of pictures that match a position within the
+	 *            tolerance when the offset is applied
+	 * @param aMeanDeltaMillis
+	 *            the mean time difference in milliseconds between the matching
+	 *            pictures and their closest positions when the offset is
+	 *            applied
+	 */
+	public ClockOffsetEstimate(final String aCameraModel, final long aOffsetMillis, final int aPictureCount,
+			final int aMatchCount, final double aMeanDeltaMillis) {
+		cameraModel = aCameraModel;
+		offsetMillis = aOffsetMillis;
+		pictureCount = aPictureCount;
+		matchCount = aMatchCount;
+		meanDeltaMillis = aMeanDeltaMillis;
+	}
+
+	public String getCameraModel() {
+		return cameraModel;
+	}
+
+	public long getOffsetMillis() {
+		return offsetMillis;
+	}
+
+	public int getPictureCount() {
+		return pictureCount;
+	}
+
+	public int getMatchCount() {
+		return matchCount;
+	}
+
+	public double getMeanDeltaMillis() {
+		return meanDeltaMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "ClockOffsetEstimate [cameraModel=" + cameraModel + ", offsetMillis=" + offsetMillis
+				+ ", pictureCount=" + pictureCount + ", matchCount=" + matchCount + ", meanDeltaMillis="
+				+ meanDeltaMillis + "]";
+	}
+}
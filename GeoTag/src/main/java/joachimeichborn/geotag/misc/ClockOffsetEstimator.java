@@ -0,0 +1,365 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
+import joachimeichborn.geotag.model.Picture;
+import joachimeichborn.geotag.model.Track;
+
+/**
+ * Estimate the offset of camera clocks by evaluating a range of candidate
+ * offsets against the positions of a set of tracks. For every candidate offset
+ * the number of pictures that match a position within the tolerance and the
+ * mean time difference of these matches is computed. The best offset is
+ * proposed separately for each camera model.
+ * 
+ * Instead of searching the closest position for every picture and every
+ * candidate offset, each picture's contribution to all candidate offsets is
+ * derived from the positions within its offset window: the time line is split
+ * into the intervals closest to each position and every interval adds a
+ * constant match count and a linear time difference to a contiguous range of
+ * offsets. These ranges are accumulated in difference arrays, so the cost per
+ * picture is proportional to the number of positions within its window rather
+ * than to the number of candidate offsets.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class ClockOffsetEstimator {
+	public static final String UNKNOWN_CAMERA_MODEL = "Unknown camera";
+
+	private static final Logger logger = Logger.getLogger(ClockOffsetEstimator.class.getSimpleName());
+	private static final int SWEEP_RANGE_SIZE = 1024;
+
+	/**
+	 * Accumulated contributions of all pictures of one camera model. For each
+	 * offset index the differences of the match count, of the constant part
+	 * and of the slope of the summed time differences are stored next to each
+	 * other, so that a contribution touches as few cache lines as possible.
+	 */
+	private static class Sweep {
+		private final long[] diffs;
+		private final long step;
+
+		private Sweep(final int aOffsetCount, final long aStep) {
+			diffs = new long[3 * (aOffsetCount + 1)];
+			step = aStep;
+		}
+
+		/**
+		 * Add a match to all offset indices in [aFrom, aTo). The time
+		 * difference at offset index k is aDistance - step * k before
+		 * aPosition and step * k - aDistance from aPosition on.
+		 */
+		private void add(final int aFrom, final int aPosition, final int aTo, final long aDistance) {
+			if (aFrom >= aTo) {
+				return;
+			}
+			addDiff(aFrom, 1, aDistance, -step);
+			addDiff(aPosition, 0, -2 * aDistance, 2 * step);
+			addDiff(aTo, -1, aDistance, -step);
+		}
+
+		private void addAll(final Sweep aOther) {
+			for (int i = 0; i < diffs.length; i++) {
+				diffs[i] += aOther.diffs[i];
+			}
+		}
+
+		private void addDiff(final int aIndex, final long aCount, final long aConstant, final long aSlope) {
+			final int base = 3 * aIndex;
+			diffs[base] += aCount;
+			diffs[base + 1] += aConstant;
+			diffs[base + 2] += aSlope;
+		}
+	}
+
+	/**
+	 * Accumulate the contributions of a range of pictures, the sweeps of
+	 * concurrently computed ranges are summed up afterwards
+	 */
+	private class SweepTask implements Callable<Sweep> {
+		private final PositionTimeIndex positions;
+		private final long[] times;
+		private final int from;
+		private final int to;
+
+		private SweepTask(final PositionTimeIndex aPositions, final long[] aTimes, final int aFrom, final int aTo) {
+			positions = aPositions;
+			times = aTimes;
+			from = aFrom;
+			to = aTo;
+		}
+
+		@Override
+		public Sweep call() {
+			final Sweep sweep = new Sweep(offsetCount, step);
+			for (int i = from; i < to; i++) {
+				addPicture(sweep, positions, times[i]);
+			}
+			return sweep;
+		}
+	}
+
+	private final List<Track> tracks;
+	private final List<Picture> pictures;
+	private final long toleranceMillis;
+	private final long minOffset;
+	private final long step;
+	private final int offsetCount;
+	private ExecutionService executionService;
+
+	/**
+	 * @param aTracks
+	 *            the tracks the pictures are matched against
+	 * @param aPictures
+	 *            the pictures whose camera clock offsets are estimated
+	 * @param aTolerance
+	 *            tolerance in minutes, a picture matches a position under the
+	 *            same condition as in {@link PictureAnnotator}
+	 * @param aMinOffset
+	 *            the smallest candidate offset in milliseconds
+	 * @param aMaxOffset
+	 *            the largest candidate offset in milliseconds
+	 * @param aStep
+	 *            the distance between two candidate offsets in milliseconds
+	 */
+	public ClockOffsetEstimator(final List<Track> aTracks, final List<Picture> aPictures, final int aTolerance,
+			final long aMinOffset, final long aMaxOffset, final long aStep) {
+		if (aStep <= 0 || aMaxOffset < aMinOffset) {
+			throw new IllegalArgumentException(
+					"Invalid offset range " + aMinOffset + " to " + aMaxOffset + " with step " + aStep);
+		}
+
+		tracks = new ArrayList<>(aTracks);
+		pictures = new ArrayList<>(aPictures);
+		toleranceMillis = aTolerance * 60_000L + 59_999;
+		minOffset = aMinOffset;
+		step = aStep;
+		offsetCount = (int) ((aMaxOffset - aMinOffset) / aStep) + 1;
+	}
+
+	/**
+	 * @param aExecutionService
+	 *            the service whose CPU pool accumulates ranges of many
+	 *            pictures concurrently, if not set all pictures are evaluated
+	 *            in the calling thread
+	 */
+	public void setExecutionService(final ExecutionService aExecutionService) {
+		executionService = aExecutionService;
+	}
+
+	/**
+	 * @return the candidate offset in milliseconds at the given index
+	 */
+	public long getOffset(final int aIndex) {
+		return minOffset + aIndex * step;
+	}
+
+	/**
+	 * Evaluate all candidate offsets and propose the best one per camera
+	 * model. The best offset is the one with the most matching pictures, ties
+	 * are broken by the smallest mean time difference and then by the smallest
+	 * absolute offset.
+	 * 
+	 * @return the estimates keyed by camera model, pictures without camera
+	 *         model are grouped under {@link #UNKNOWN_CAMERA_MODEL}. Camera
+	 *         models without any pictures with a parseable time are omitted.
+	 *         If the calling thread is interrupted, the camera models that
+	 *         have not been evaluated yet are omitted as well.
+	 */
+	public Map<String, ClockOffsetEstimate> estimate() {
+		final PositionTimeIndex positions = new PositionTimeIndex(tracks);
+
+		logger.fine("Estimating clock offsets for " + pictures.size() + " pictures with " + positions.size()
+				+ " positions and " + offsetCount + " candidate offsets");
+
+		final Map<String, List<Picture>> picturesByCamera = new TreeMap<>();
+		for (final Picture picture : pictures) {
+			if (picture.getTimeMillis() == Picture.UNPARSEABLE_TIME) {
+				continue;
+			}
+
+			final String cameraModel = picture.getCameraModel() == null ? UNKNOWN_CAMERA_MODEL
+					: picture.getCameraModel();
+			List<Picture> cameraPictures = picturesByCamera.get(cameraModel);
+			if (cameraPictures == null) {
+				cameraPictures = new ArrayList<>();
+				picturesByCamera.put(cameraModel, cameraPictures);
+			}
+			cameraPictures.add(picture);
+		}
+
+		final Map<String, ClockOffsetEstimate> estimates = new TreeMap<>();
+		for (final Map.Entry<String, List<Picture>> entry : picturesByCamera.entrySet()) {
+			final List<Picture> cameraPictures = entry.getValue();
+			final long[] times = new long[cameraPictures.size()];
+			for (int i = 0; i < times.length; i++) {
+				times[i] = cameraPictures.get(i).getTimeMillis();
+			}
+
+			final Sweep sweep;
+			try {
+				sweep = sweep(positions, times);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.info("Interrupted while estimating clock offsets, skipping remaining camera models");
+				break;
+			}
+
+			final ClockOffsetEstimate estimate = selectBestOffset(entry.getKey(), sweep, entry.getValue().size());
+			logger.fine("Estimated clock offset " + estimate);
+			estimates.put(entry.getKey(), estimate);
+		}
+
+		return estimates;
+	}
+
+	/**
+	 * Accumulate the contributions of all pictures, with an execution service
+	 * the pictures are split into about one range per core
+	 */
+	private Sweep sweep(final PositionTimeIndex aPositions, final long[] aTimes) throws InterruptedException {
+		final int ranges = executionService == null ? 1
+				: Math.min((aTimes.length + SWEEP_RANGE_SIZE - 1) / SWEEP_RANGE_SIZE,
+						Runtime.getRuntime().availableProcessors());
+		if (ranges <= 1) {
+			return new SweepTask(aPositions, aTimes, 0, aTimes.length).call();
+		}
+
+		final List<SweepTask> tasks = new ArrayList<>();
+		for (int i = 0; i < ranges; i++) {
+			tasks.add(new SweepTask(aPositions, aTimes, (int) ((long) aTimes.length * i / ranges),
+					(int) ((long) aTimes.length * (i + 1) / ranges)));
+		}
+
+		try {
+			final List<Sweep> sweeps = executionService.invokeAll(PoolType.CPU, tasks);
+			final Sweep sweep = sweeps.get(0);
+			for (int i = 1; i < sweeps.size(); i++) {
+				sweep.addAll(sweeps.get(i));
+			}
+			return sweep;
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Estimating clock offsets failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Add the contribution of a single picture to all candidate offsets
+	 */
+	private void addPicture(final Sweep aSweep, final PositionTimeIndex aPositions, final long aTime) {
+		final long base = aTime + minOffset;
+		final long windowEnd = base + (offsetCount - 1) * step + toleranceMillis;
+
+		for (int i = aPositions.lowerBound(base - toleranceMillis); i < aPositions.size(); i++) {
+			final long position = aPositions.getMillis(i);
+			if (position > windowEnd) {
+				break;
+			}
+
+			// the half-open time interval in which this position is the
+			// closest one and within the tolerance, ties go to the later
+			// position just like in PositionTimeIndex#findClosest
+			long from = position - toleranceMillis;
+			long to = position + toleranceMillis + 1;
+			if (i > 0) {
+				from = Math.max(from, midpoint(aPositions.getMillis(i - 1), position));
+			}
+			if (i < aPositions.size() - 1) {
+				to = Math.min(to, midpoint(position, aPositions.getMillis(i + 1)));
+			}
+
+			final int fromIndex = clampIndex(ceilDiv(from - base, step));
+			final int toIndex = clampIndex(ceilDiv(to - base, step));
+			final int positionIndex = Math.max(fromIndex, Math.min(toIndex, clampIndex(ceilDiv(position - base, step))));
+
+			aSweep.add(fromIndex, positionIndex, toIndex, position - base);
+		}
+	}
+
+	private ClockOffsetEstimate selectBestOffset(final String aCameraModel, final Sweep aSweep,
+			final int aPictureCount) {
+		int bestIndex = 0;
+		int bestMatchCount = -1;
+		long bestDeltaSum = 0;
+
+		int matchCount = 0;
+		long deltaConstant = 0;
+		long deltaSlope = 0;
+		for (int k = 0; k < offsetCount; k++) {
+			matchCount += (int) aSweep.diffs[3 * k];
+			deltaConstant += aSweep.diffs[3 * k + 1];
+			deltaSlope += aSweep.diffs[3 * k + 2];
+			final long deltaSum = deltaConstant + deltaSlope * k;
+
+			if (isBetter(k, matchCount, deltaSum, bestIndex, bestMatchCount, bestDeltaSum)) {
+				bestIndex = k;
+				bestMatchCount = matchCount;
+				bestDeltaSum = deltaSum;
+			}
+		}
+
+		final double meanDelta = bestMatchCount == 0 ? 0 : (double) bestDeltaSum / bestMatchCount;
+		return new ClockOffsetEstimate(aCameraModel, getOffset(bestIndex), aPictureCount, bestMatchCount,
+				meanDelta);
+	}
+
+	private boolean isBetter(final int aIndex, final int aMatchCount, final long aDeltaSum, final int aBestIndex,
+			final int aBestMatchCount, final long aBestDeltaSum) {
+		if (aMatchCount != aBestMatchCount) {
+			return aMatchCount > aBestMatchCount;
+		}
+
+		// compare the mean time differences without dividing
+		final long meanComparison = Long.compare(aDeltaSum * aBestMatchCount, aBestDeltaSum * aMatchCount);
+		if (meanComparison != 0) {
+			return meanComparison < 0;
+		}
+
+		return Math.abs(getOffset(aIndex)) < Math.abs(getOffset(aBestIndex));
+	}
+
+	/**
+	 * @return the first time that is at least as close to the later of the two
+	 *         given times as to the earlier one
+	 */
+	private static long midpoint(final long aEarlier, final long aLater) {
+		return aEarlier + (aLater - aEarlier + 1) / 2;
+	}
+
+	private static long ceilDiv(final long aDividend, final long aDivisor) {
+		return -Math.floorDiv(-aDividend, aDivisor);
+	}
+
+	private int clampIndex(final long aIndex) {
+		return (int) Math.max(0, Math.min(offsetCount, aIndex));
+	}
+}
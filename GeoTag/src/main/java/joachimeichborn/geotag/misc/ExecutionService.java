@@ -0,0 +1,402 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.misc;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+import org.eclipse.e4.core.di.extensions.Preference;
+
+import joachimeichborn.geotag.LifeCycleManager;
+import joachimeichborn.geotag.ui.preferences.GeneralPreferences;
+
+/**
+ * Application wide thread pools for background work. Instead of creating
+ * executors per job, all background tasks are submitted to one of a small set
+ * of named pools whose sizes are bounded according to the kind of work they
+ * are meant for. Idle threads time out, so the pools do not hold any threads
+ * while there is nothing to do.<br>
+ * Optionally, the pools for blocking work can be replaced by a
+ * {@link ThreadPerTaskExecutor} each, so that slow file systems and remote
+ * services are not limited by the size of a fixed pool.<br>
+ * The load of all busy pools is logged periodically while the application
+ * is running.
+ * 
+ * @author Joachim von Eichborn
+ */
+@Creatable
+@Singleton
+public class ExecutionService {
+	/**
+	 * The kinds of work that background tasks are classified into
+	 */
+	public static enum PoolType {
+		/** Blocking file system access like reading pictures and tracks */
+		IO("io"),
+		/** Computations like track refinement and preview scaling */
+		CPU("cpu"),
+		/** Requests to remote services like geocoding providers */
+		NETWORK("network");
+
+		private final String name;
+
+		private PoolType(final String aName) {
+			name = aName;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Snapshot of the load of a pool
+	 */
+	public static class PoolMetrics {
+		private final PoolType type;
+		private final int maximumThreads;
+		private final int poolSize;
+		private final int activeThreads;
+		private final int queueDepth;
+		private final long completedTasks;
+
+		PoolMetrics(final PoolType aType, final int aMaximumThreads, final int aPoolSize, final int aActiveThreads,
+				final int aQueueDepth, final long aCompletedTasks) {
+			type = aType;
+			maximumThreads = aMaximumThreads;
+			poolSize = aPoolSize;
+			activeThreads = aActiveThreads;
+			queueDepth = aQueueDepth;
+			completedTasks = aCompletedTasks;
+		}
+
+		public PoolType getType() {
+			return type;
+		}
+
+		/**
+		 * @return the number of threads the pool is allowed to use
+		 */
+		public int getMaximumThreads() {
+			return maximumThreads;
+		}
+
+		/**
+		 * @return the number of threads the pool currently holds
+		 */
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		/**
+		 * @return the number of threads currently executing a task
+		 */
+		public int getActiveThreads() {
+			return activeThreads;
+		}
+
+		/**
+		 * @return the number of tasks waiting for a free thread
+		 */
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+
+		public long getCompletedTasks() {
+			return completedTasks;
+		}
+
+		@Override
+		public String toString() {
+			return "PoolMetrics [type=" + type.getName() + ", maximumThreads=" + maximumThreads + ", poolSize="
+					+ poolSize + ", activeThreads=" + activeThreads + ", queueDepth=" + queueDepth
+					+ ", completedTasks=" + completedTasks + "]";
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger counter;
+
+		public NamedThreadFactory(final String aName) {
+			prefix = "geotag-" + aName + "-";
+			counter = new AtomicInteger();
+		}
+
+		@Override
+		public Thread newThread(final Runnable aRunnable) {
+			final Thread thread = new Thread(aRunnable, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(ExecutionService.class.getSimpleName());
+	private static final int NETWORK_THREADS = 4;
+	private static final int IO_CONCURRENCY_FALLBACK = 64;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+	private static final long METRICS_INTERVAL_SECONDS = 60;
+
+	private final Map<PoolType, ThreadPoolExecutor> pools;
+	private final Map<PoolType, ThreadPerTaskExecutor> threadPerTaskExecutors;
+	private final ScheduledExecutorService metricsLogger;
+
+	@Inject
+	public ExecutionService() {
+		this(2 * Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+				NETWORK_THREADS);
+	}
+
+	/**
+	 * @param aIoThreads
+	 *            maximum number of threads for {@link PoolType#IO}
+	 * @param aCpuThreads
+	 *            maximum number of threads for {@link PoolType#CPU}
+	 * @param aNetworkThreads
+	 *            maximum number of threads for {@link PoolType#NETWORK}
+	 */
+	public ExecutionService(final int aIoThreads, final int aCpuThreads, final int aNetworkThreads) {
+		pools = new EnumMap<>(PoolType.class);
+		pools.put(PoolType.IO, createPool(PoolType.IO, aIoThreads));
+		pools.put(PoolType.CPU, createPool(PoolType.CPU, aCpuThreads));
+		pools.put(PoolType.NETWORK, createPool(PoolType.NETWORK, aNetworkThreads));
+		threadPerTaskExecutors = new EnumMap<>(PoolType.class);
+
+		metricsLogger = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("metrics"));
+		metricsLogger.scheduleAtFixedRate(this::logBusyMetrics, METRICS_INTERVAL_SECONDS, METRICS_INTERVAL_SECONDS,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Choose between the fixed size pools and one thread per task for
+	 * blocking work. Tasks that have already been submitted are completed by
+	 * the executor they were submitted to
+	 * 
+	 * @param aThreadPerTask
+	 *            true to run blocking tasks on a thread of their own
+	 * @param aIoConcurrency
+	 *            maximum number of concurrently running {@link PoolType#IO}
+	 *            tasks in thread per task mode
+	 * @param aNetworkConcurrency
+	 *            maximum number of concurrently running
+	 *            {@link PoolType#NETWORK} tasks in thread per task mode
+	 */
+	@Inject
+	public synchronized void configureThreadPerTask(
+			@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.THREAD_PER_TASK) //
+			final boolean aThreadPerTask,
+			@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.IO_CONCURRENCY) //
+			final int aIoConcurrency,
+			@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.NETWORK_CONCURRENCY) //
+			final int aNetworkConcurrency) {
+		for (final ThreadPerTaskExecutor executor : threadPerTaskExecutors.values()) {
+			executor.shutdown();
+		}
+		threadPerTaskExecutors.clear();
+
+		if (aThreadPerTask) {
+			threadPerTaskExecutors.put(PoolType.IO, new ThreadPerTaskExecutor("geotag-" + PoolType.IO.getName(),
+					aIoConcurrency > 0 ? aIoConcurrency : IO_CONCURRENCY_FALLBACK));
+			threadPerTaskExecutors.put(PoolType.NETWORK, new ThreadPerTaskExecutor(
+					"geotag-" + PoolType.NETWORK.getName(), aNetworkConcurrency > 0 ? aNetworkConcurrency : NETWORK_THREADS));
+		}
+	}
+
+	private ThreadPoolExecutor createPool(final PoolType aType, final int aThreads) {
+		final int threads = Math.max(1, aThreads);
+		logger.fine("Using " + threads + " threads for " + aType.getName() + " pool");
+
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(aType.getName()));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Get the executor for the given kind of work. The executor is shared
+	 * within the application, so callers must not shut it down
+	 * 
+	 * @param aType
+	 * @return the shared executor
+	 */
+	public synchronized ExecutorService getExecutor(final PoolType aType) {
+		final ThreadPerTaskExecutor executor = threadPerTaskExecutors.get(aType);
+		return executor != null ? executor : pools.get(aType);
+	}
+
+	/**
+	 * Execute the given tasks on the pool for the given kind of work and wait
+	 * for all of them. The calling thread runs every task that no pool thread
+	 * has started yet itself, so callers that are running on a thread of the
+	 * same pool can not exhaust the pool by waiting for their subtasks
+	 * 
+	 * @param aType
+	 * @param aTasks
+	 * @return the results of the tasks in the order of the tasks
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 * @throws ExecutionException
+	 *             if a task failed, the remaining tasks are cancelled
+	 */
+	public <T> List<T> invokeAll(final PoolType aType, final List<? extends Callable<T>> aTasks)
+			throws InterruptedException, ExecutionException {
+		final List<FutureTask<T>> tasks = new ArrayList<>(aTasks.size());
+		for (final Callable<T> task : aTasks) {
+			tasks.add(new FutureTask<>(task));
+		}
+
+		final ExecutorService executor = getExecutor(aType);
+		try {
+			for (final FutureTask<T> task : tasks.subList(Math.min(1, tasks.size()), tasks.size())) {
+				executor.execute(task);
+			}
+		} catch (final RejectedExecutionException e) {
+			logger.fine("The " + aType.getName() + " pool is shut down, running the tasks on the calling thread");
+		}
+
+		// running a task that has already been started or completed is a no-op
+		for (final FutureTask<T> task : tasks) {
+			task.run();
+		}
+
+		final List<T> results = new ArrayList<>(tasks.size());
+		try {
+			for (final FutureTask<T> task : tasks) {
+				results.add(task.get());
+			}
+		} catch (final InterruptedException | ExecutionException e) {
+			for (final FutureTask<T> task : tasks) {
+				task.cancel(true);
+			}
+			throw e;
+		}
+		return results;
+	}
+
+	/**
+	 * @param aType
+	 * @return a snapshot of the current load of the given pool
+	 */
+	public synchronized PoolMetrics getMetrics(final PoolType aType) {
+		final ThreadPerTaskExecutor executor = threadPerTaskExecutors.get(aType);
+		if (executor != null) {
+			return new PoolMetrics(aType, executor.getLimit(), executor.getActiveCount(), executor.getActiveCount(),
+					executor.getQueueDepth(), executor.getCompletedTaskCount());
+		}
+
+		final ThreadPoolExecutor pool = pools.get(aType);
+		return new PoolMetrics(aType, pool.getMaximumPoolSize(), pool.getPoolSize(), pool.getActiveCount(),
+				pool.getQueue().size(), pool.getCompletedTaskCount());
+	}
+
+	/**
+	 * Log the current load of all pools
+	 */
+	public void logMetrics() {
+		for (final PoolType type : PoolType.values()) {
+			logger.fine(getMetrics(type).toString());
+		}
+	}
+
+	/**
+	 * Log the current load of all pools that are executing or queueing tasks
+	 */
+	private void logBusyMetrics() {
+		for (final PoolType type : PoolType.values()) {
+			final PoolMetrics metrics = getMetrics(type);
+			if (metrics.getActiveThreads() > 0 || metrics.getQueueDepth() > 0) {
+				logger.fine(metrics.toString());
+			}
+		}
+	}
+
+	/**
+	 * Stop all pools. Queued tasks are cancelled and running tasks are
+	 * interrupted if they do not finish within a short grace period
+	 */
+	public synchronized void shutdown() {
+		metricsLogger.shutdownNow();
+		logMetrics();
+
+		for (final ThreadPoolExecutor pool : pools.values()) {
+			pool.shutdown();
+
+			final List<Runnable> pending = new ArrayList<>();
+			pool.getQueue().drainTo(pending);
+			cancel(pending);
+		}
+
+		for (final ThreadPerTaskExecutor executor : threadPerTaskExecutors.values()) {
+			executor.shutdown();
+			cancel(executor.drainPending());
+		}
+
+		for (final Map.Entry<PoolType, ThreadPoolExecutor> entry : pools.entrySet()) {
+			awaitTermination(entry.getKey(), entry.getValue());
+		}
+
+		for (final Map.Entry<PoolType, ThreadPerTaskExecutor> entry : threadPerTaskExecutors.entrySet()) {
+			awaitTermination(entry.getKey(), entry.getValue());
+		}
+
+		logger.fine("Execution service shut down");
+	}
+
+	private void cancel(final List<Runnable> aTasks) {
+		for (final Runnable task : aTasks) {
+			if (task instanceof Future) {
+				((Future<?>) task).cancel(false);
+			}
+		}
+	}
+
+	private void awaitTermination(final PoolType aType, final ExecutorService aExecutor) {
+		try {
+			if (!aExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				logger.warning("Tasks of " + aType.getName() + " pool did not finish in time");
+				aExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			aExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -20,29 +20,133 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package joachimeichborn.geotag.misc;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.Picture;
-import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.TimeOrder;
 import joachimeichborn.geotag.model.Track;
 
 public class PictureAnnotator {
+	/**
+	 * The way pictures are matched to the positions closest in time
+	 */
+	public enum MatchingStrategy {
+		/**
+		 * Choose {@link #MERGE_JOIN} if the number of pictures is a meaningful
+		 * fraction of the number of positions, {@link #BINARY_SEARCH}
+		 * otherwise
+		 */
+		AUTOMATIC,
+		/**
+		 * Search the closest position for each picture separately
+		 */
+		BINARY_SEARCH,
+		/**
+		 * Sort the pictures by time and walk the sorted pictures and the sorted
+		 * positions together in a single pass
+		 */
+		MERGE_JOIN
+	}
+
+	/**
+	 * Match a range of the picture order against the shared, read-only
+	 * position index. For merge join matching the order is sorted by time, so
+	 * each range covers a time contiguous part of the pictures and only walks
+	 * the positions of that part. Each picture's result is stored at the
+	 * picture's own index so that the outcome does not depend on the order in
+	 * which ranges complete.
+	 */
+	private class MatchingTask implements Callable<Void> {
+		private final PositionTimeIndex positions;
+		private final MatchingStrategy strategy;
+		private final Picture[] input;
+		private final long[] timestamps;
+		private final int[] order;
+		private final int[] matches;
+		private final Picture[] results;
+		private final int from;
+		private final int to;
+
+		/**
+		 * @param aTimestamps
+		 *            the time stamps of the input pictures
+		 * @param aOrder
+		 *            the indices of the input pictures, sorted by time for
+		 *            merge join matching
+		 * @param aMatches
+		 *            receives the index of the closest position for each
+		 *            input picture
+		 * @param aResults
+		 *            receives the annotated picture for each matched input
+		 *            picture, entries of non-annotated pictures are left null
+		 */
+		private MatchingTask(final PositionTimeIndex aPositions, final MatchingStrategy aStrategy,
+				final Picture[] aInput, final long[] aTimestamps, final int[] aOrder, final int[] aMatches,
+				final Picture[] aResults, final int aFrom, final int aTo) {
+			positions = aPositions;
+			strategy = aStrategy;
+			input = aInput;
+			timestamps = aTimestamps;
+			order = aOrder;
+			matches = aMatches;
+			results = aResults;
+			from = aFrom;
+			to = aTo;
+		}
+
+		@Override
+		public Void call() {
+			if (strategy == MatchingStrategy.MERGE_JOIN) {
+				positions.findClosest(timestamps, order, from, to, matches);
+			} else {
+				for (int k = from; k < to; k++) {
+					matches[order[k]] = positions.findClosest(timestamps[order[k]]);
+				}
+			}
+
+			for (int k = from; k < to; k++) {
+				final int i = order[k];
+				if (timestamps[i] != Picture.UNPARSEABLE_TIME && matches[i] >= 0) {
+					results[i] = annotate(input[i], timestamps[i], matches[i]);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return the annotated picture or null if the closest position is
+		 *         outside the tolerance
+		 */
+		private Picture annotate(final Picture aPicture, final long aTimestamp, final int aPosition) {
+			final long delta = Math.abs(aTimestamp - positions.getMillis(aPosition)) / 60_000;
+
+			if (delta <= tolerance) {
+				logger.finer("Accepted timestamp with delta " + delta + " min (" + aPicture.getFile() + ")");
+				return new Picture(aPicture.getFile(), aPicture.getTime(), aPicture.getTimeMillis(),
+						aPicture.getCameraModel(), positions.getCoordinates(aPosition), aPicture.getGeocoding());
+			} else {
+				logger.fine("Rejected timestamp with delta " + delta + " min (" + aPicture.getFile() + ")");
+				return null;
+			}
+		}
+	}
+
 	private static final Logger logger = Logger.getLogger(PictureAnnotator.class.getSimpleName());
-	private static final DateTimeFormatter utcDateFormatter = DateTimeFormat.forPattern("yyyy:MM:dd HH:mm:ss")
-			.withOffsetParsed().withZoneUTC();
+	private static final int MERGE_JOIN_MAX_POSITIONS_PER_PICTURE = 16;
+	private static final int PARALLEL_RANGE_SIZE = 2048;
 
 	private final List<Picture> pictures;
 	private final LinkedList<Track> tracks;
 	private int tolerance;
 	private boolean overwrite;
+	private MatchingStrategy matchingStrategy;
+	private ExecutionService executionService;
 	private List<Picture> annotatedPictures;
 	private List<Picture> nonAnnotatedPictures;
 
@@ -59,45 +163,95 @@ public class PictureAnnotator {
 		tracks = new LinkedList<>(aTracks);
 		tolerance = aTolerance;
 		overwrite = aOverwrite;
+		matchingStrategy = MatchingStrategy.AUTOMATIC;
 
 		annotatedPictures = new LinkedList<>();
 		nonAnnotatedPictures = new LinkedList<>();
 	}
-	
+
+	/**
+	 * @param aMatchingStrategy
+	 *            the strategy used to match pictures and positions, defaults
+	 *            to {@link MatchingStrategy#AUTOMATIC}
+	 */
+	public void setMatchingStrategy(final MatchingStrategy aMatchingStrategy) {
+		matchingStrategy = aMatchingStrategy;
+	}
+
+	/**
+	 * @param aExecutionService
+	 *            the service whose CPU pool matches ranges of large picture
+	 *            batches concurrently, if not set all pictures are matched in
+	 *            the calling thread
+	 */
+	public void setExecutionService(final ExecutionService aExecutionService) {
+		executionService = aExecutionService;
+	}
+
 	public void computeMatches() {
-		final List<PositionData> positions = tracks.stream().flatMap(t -> t.getPositions().stream()).sorted().collect(Collectors.toCollection(ArrayList::new));
+		final PositionTimeIndex positions = new PositionTimeIndex(tracks);
+		final MatchingStrategy strategy = selectMatchingStrategy(positions.size());
 
 		logger.fine("Annotating " + pictures.size() + " pictures with " + positions.size() + " positions, tolerance "
-				+ tolerance + " minutes and overwrite " + overwrite);
-		
+				+ tolerance + " minutes and overwrite " + overwrite + " using " + strategy + " matching"
+				+ (executionService != null ? " in parallel" : ""));
+
 		if (!overwrite) {
 			filterPicturesWithPosition();
 		}
 
-		for (final Picture picture : pictures) {
-			long timestamp = 0;
-
-			try {
-				timestamp = utcDateFormatter.parseDateTime(picture.getTime()).getMillis();
-			} catch (final IllegalArgumentException e) {
-				logger.info("Could not parse time '" + picture.getTime() + "' from picture '" + picture.getFile()
-						+ "': " + e.getMessage());
-				nonAnnotatedPictures.add(picture);
-				continue;
+		final Picture[] input = pictures.toArray(new Picture[pictures.size()]);
+		final long[] timestamps = new long[input.length];
+		final int[] order = new int[input.length];
+		for (int i = 0; i < input.length; i++) {
+			timestamps[i] = input[i].getTimeMillis();
+			order[i] = i;
+			if (timestamps[i] == Picture.UNPARSEABLE_TIME) {
+				logger.info("Could not parse time '" + input[i].getTime() + "' from picture '" + input[i].getFile()
+						+ "'");
 			}
+		}
 
-			final PositionData position = findBestPosition(positions, timestamp);
+		if (strategy == MatchingStrategy.MERGE_JOIN) {
+			// sort once, such that splitting the order yields time contiguous
+			// ranges
+			TimeOrder.sortByTime(order, timestamps);
+		}
 
-			final long delta = Math.abs(timestamp - position.getTimeStampWithoutTimeZone().getMillis()) / 60_000;
+		final int[] matches = new int[input.length];
+		final Picture[] results = new Picture[input.length];
+		final int rangeSize = executionService != null ? PARALLEL_RANGE_SIZE : Math.max(input.length, 1);
+		final List<MatchingTask> tasks = new ArrayList<>();
+		for (int from = 0; from < input.length; from += rangeSize) {
+			tasks.add(new MatchingTask(positions, strategy, input, timestamps, order, matches, results, from,
+					Math.min(from + rangeSize, input.length)));
+		}
 
-			if (delta <= tolerance) {
-				logger.finer("Accepted timestamp with delta " + delta + " min (" + picture.getFile() + ")");
-				final Picture annotatedPicture = new Picture(picture.getFile(), picture.getTime(),
-						position.getCoordinates(), picture.getGeocoding());
-				annotatedPictures.add(annotatedPicture);
+		if (tasks.size() > 1) {
+			try {
+				executionService.invokeAll(PoolType.CPU, tasks);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.info("Interrupted while matching pictures, no picture is annotated");
+				nonAnnotatedPictures.addAll(pictures);
+				return;
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException("Matching pictures failed", e.getCause());
+			}
+		} else {
+			for (final MatchingTask task : tasks) {
+				task.call();
+			}
+		}
+
+		for (int i = 0; i < input.length; i++) {
+			if (results[i] != null) {
+				annotatedPictures.add(results[i]);
 			} else {
-				logger.fine("Rejected timestamp with delta " + delta + " min (" + picture.getFile() + ")");
-				nonAnnotatedPictures.add(picture);
+				nonAnnotatedPictures.add(input[i]);
 			}
 		}
 
@@ -105,6 +259,17 @@ public class PictureAnnotator {
 				+ " pictures");
 	}
 
+	private MatchingStrategy selectMatchingStrategy(final int aPositionCount) {
+		if (matchingStrategy != MatchingStrategy.AUTOMATIC) {
+			return matchingStrategy;
+		}
+
+		if ((long) pictures.size() * MERGE_JOIN_MAX_POSITIONS_PER_PICTURE >= aPositionCount) {
+			return MatchingStrategy.MERGE_JOIN;
+		}
+		return MatchingStrategy.BINARY_SEARCH;
+	}
+
 	private void filterPicturesWithPosition() {
 		final Iterator<Picture> iter = pictures.iterator();
 		while (iter.hasNext()) {
@@ -118,29 +283,6 @@ public class PictureAnnotator {
 		}
 	}
 
-	private PositionData findBestPosition(final List<PositionData> aPositions, final long aMillis) {
-		final int size = aPositions.size();
-		if (size == 1) {
-			return aPositions.get(0);
-		} else if (size == 2) {
-			if (Math.abs(aPositions.get(0).getTimeStampWithoutTimeZone().getMillis() - aMillis) < //
-			Math.abs(aPositions.get(1).getTimeStampWithoutTimeZone().getMillis() - aMillis)) {
-				return aPositions.get(0);
-			} else {
-				return aPositions.get(1);
-			}
-		} else {
-			final PositionData middleEntry = aPositions.get(size / 2);
-			if (middleEntry.getTimeStampWithoutTimeZone().getMillis() == aMillis) {
-				return middleEntry;
-			} else if (middleEntry.getTimeStampWithoutTimeZone().getMillis() < aMillis) {
-				return findBestPosition(aPositions.subList(size / 2, aPositions.size()), aMillis);
-			} else {
-				return findBestPosition(aPositions.subList(0, size / 2 + 1), aMillis);
-			}
-		}
-	}
-
 	public List<Picture> getAnnotatedPictures() {
 		return annotatedPictures;
 	}
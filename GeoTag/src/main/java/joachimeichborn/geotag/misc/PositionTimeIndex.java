@@ -0,0 +1,247 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.misc;
+
+import java.util.Arrays;
+import java.util.List;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.TimeOrder;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
+
+/**
+ * Immutable, array backed index over the positions of a set of tracks that
+ * allows to look up the position that is closest in time to a given time
+ * stamp. The index is ordered by the time stamps without time zone
+ * information, see {@link PositionData#getTimeStampWithoutTimeZone()}.
+ * 
+ * Position data is stored in parallel primitive arrays so that lookups do not
+ * touch any {@link PositionData} objects and do not allocate.
+ * 
+ * @author Joachim von Eichborn
+ */
+public final class PositionTimeIndex {
+	private final long[] millis;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] altitudes;
+	private final float[] accuracies;
+
+	/**
+	 * Build the index over all positions of the given tracks
+	 * 
+	 * @param aTracks
+	 *            the tracks whose positions are indexed
+	 */
+	public PositionTimeIndex(final List<Track> aTracks) {
+		int size = 0;
+		for (final Track track : aTracks) {
+			size += track.getData().size();
+		}
+
+		final long[] unsortedMillis = new long[size];
+		int i = 0;
+		boolean sorted = true;
+		for (final Track track : aTracks) {
+			final TrackData data = track.getData();
+			for (int j = 0; j < data.size(); j++) {
+				unsortedMillis[i] = data.getTimeWithoutTimeZone(j);
+				sorted &= i == 0 || unsortedMillis[i - 1] <= unsortedMillis[i];
+				i++;
+			}
+		}
+
+		final int[] order = new int[size];
+		for (i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		if (!sorted) {
+			TimeOrder.sortByTime(order, unsortedMillis);
+		}
+
+		final int[] rank = new int[size];
+		for (i = 0; i < size; i++) {
+			rank[order[i]] = i;
+		}
+
+		millis = new long[size];
+		latitudes = new double[size];
+		longitudes = new double[size];
+		altitudes = new double[size];
+		accuracies = new float[size];
+
+		i = 0;
+		for (final Track track : aTracks) {
+			final TrackData data = track.getData();
+			for (int j = 0; j < data.size(); j++) {
+				final int target = rank[i++];
+				millis[target] = unsortedMillis[order[target]];
+				latitudes[target] = data.getLatitude(j);
+				longitudes[target] = data.getLongitude(j);
+				altitudes[target] = data.getAltitude(j);
+				accuracies[target] = data.getAccuracy(j);
+			}
+		}
+	}
+
+	/**
+	 * Find the position that is closest in time to the given time stamp. If two
+	 * positions are equally close, the later one is chosen.
+	 * 
+	 * @param aMillis
+	 *            the time stamp without time zone information in milliseconds
+	 * @return the index of the closest position or -1 if the index is empty
+	 */
+	public int findClosest(final long aMillis) {
+		if (millis.length == 0) {
+			return -1;
+		}
+
+		return closestAround(lowerBound(aMillis), aMillis);
+	}
+
+	/**
+	 * Find the closest positions for many time stamps at once by walking the
+	 * time stamps in ascending order together with the indexed positions. The
+	 * same tie breaking as in {@link #findClosest(long)} applies.
+	 * 
+	 * @param aMillis
+	 *            the time stamps without time zone information in milliseconds
+	 * @param aOrder
+	 *            the indices of the time stamps in ascending order of time
+	 * @return for each time stamp the index of the closest position or -1 if
+	 *         the index is empty
+	 */
+	public int[] findClosest(final long[] aMillis, final int[] aOrder) {
+		final int[] result = new int[aMillis.length];
+
+		if (millis.length == 0) {
+			Arrays.fill(result, -1);
+			return result;
+		}
+
+		findClosest(aMillis, aOrder, 0, aOrder.length, result);
+		return result;
+	}
+
+	/**
+	 * Like {@link #findClosest(long[], int[])}, but only for the time stamps
+	 * referenced by the given range of the order. The start of the range is
+	 * located with a single binary search, so disjoint ranges of a sorted
+	 * order walk disjoint parts of the index and can be matched independently.
+	 * 
+	 * @param aMillis
+	 *            the time stamps without time zone information in milliseconds
+	 * @param aOrder
+	 *            the indices of the time stamps in ascending order of time
+	 * @param aFrom
+	 *            the first entry of the order to match, inclusive
+	 * @param aTo
+	 *            the last entry of the order to match, exclusive
+	 * @param aResult
+	 *            receives for each matched time stamp the index of the closest
+	 *            position or -1 if the index is empty
+	 */
+	public void findClosest(final long[] aMillis, final int[] aOrder, final int aFrom, final int aTo,
+			final int[] aResult) {
+		if (aFrom >= aTo) {
+			return;
+		}
+
+		if (millis.length == 0) {
+			for (int k = aFrom; k < aTo; k++) {
+				aResult[aOrder[k]] = -1;
+			}
+			return;
+		}
+
+		int position = lowerBound(aMillis[aOrder[aFrom]]);
+		for (int k = aFrom; k < aTo; k++) {
+			final int entry = aOrder[k];
+			final long time = aMillis[entry];
+			while (position < millis.length && millis[position] < time) {
+				position++;
+			}
+			aResult[entry] = closestAround(position, time);
+		}
+	}
+
+	/**
+	 * @return the index of the first position that is not before the given
+	 *         time stamp or the number of positions if there is none
+	 */
+	int lowerBound(final long aMillis) {
+		int low = 0;
+		int high = millis.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (millis[middle] < aMillis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the closer one of the positions right before and at the given
+	 *         lower bound, preferring the later position in case of a tie
+	 */
+	private int closestAround(final int aLowerBound, final long aMillis) {
+		if (aLowerBound == millis.length) {
+			return aLowerBound - 1;
+		} else if (aLowerBound > 0 && aMillis - millis[aLowerBound - 1] < millis[aLowerBound] - aMillis) {
+			return aLowerBound - 1;
+		}
+		return aLowerBound;
+	}
+
+	/**
+	 * @return the number of indexed positions
+	 */
+	public int size() {
+		return millis.length;
+	}
+
+	/**
+	 * @return the time stamp without time zone information in milliseconds of
+	 *         the position at the given index
+	 */
+	public long getMillis(final int aIndex) {
+		return millis[aIndex];
+	}
+
+	/**
+	 * @return the accuracy of the position at the given index
+	 */
+	public float getAccuracy(final int aIndex) {
+		return accuracies[aIndex];
+	}
+
+	/**
+	 * @return newly created coordinates of the position at the given index
+	 */
+	public Coordinates getCoordinates(final int aIndex) {
+		return new Coordinates(latitudes[aIndex], longitudes[aIndex], altitudes[aIndex]);
+	}
+}
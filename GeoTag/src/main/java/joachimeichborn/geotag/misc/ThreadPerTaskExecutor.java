@@ -0,0 +1,257 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.misc;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Executor that starts a new thread for every task instead of reusing a fixed
+ * set of pooled threads. This suits tasks that spend most of their time
+ * waiting for blocking I/O, like reading files from network shares or
+ * querying web services. If the Java runtime supports virtual threads, those
+ * are used, otherwise plain daemon threads are started.<br>
+ * The number of tasks running at the same time is limited by a semaphore.
+ * Tasks exceeding the limit are queued and started as soon as a running task
+ * finishes, so no threads are created just to wait for a permit.
+ * 
+ * @author Joachim von Eichborn
+ */
+public class ThreadPerTaskExecutor extends AbstractExecutorService {
+	private static final Logger logger = Logger.getLogger(ThreadPerTaskExecutor.class.getSimpleName());
+
+	private final String name;
+	private final int limit;
+	private final ThreadFactory threadFactory;
+	private final boolean virtual;
+	private final Semaphore permits;
+	private final Queue<Runnable> pending;
+	private final Set<Thread> runningThreads;
+	private final AtomicLong completedTasks;
+	private final Object terminationLock;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param aName
+	 *            name of the executor, used as prefix for thread names
+	 * @param aLimit
+	 *            maximum number of tasks running at the same time
+	 */
+	public ThreadPerTaskExecutor(final String aName, final int aLimit) {
+		name = aName;
+		limit = Math.max(1, aLimit);
+
+		final ThreadFactory virtualThreadFactory = createVirtualThreadFactory(aName + "-");
+		virtual = virtualThreadFactory != null;
+		threadFactory = virtual ? virtualThreadFactory : createPlatformThreadFactory(aName + "-");
+
+		permits = new Semaphore(limit);
+		pending = new ConcurrentLinkedQueue<>();
+		runningThreads = ConcurrentHashMap.newKeySet();
+		completedTasks = new AtomicLong();
+		terminationLock = new Object();
+
+		logger.fine("Using " + (virtual ? "virtual" : "platform") + " threads for up to " + limit + " concurrent "
+				+ aName + " tasks");
+	}
+
+	/**
+	 * Create a factory for virtual threads using reflection, as they are not
+	 * available on all Java runtimes the application is run with
+	 * 
+	 * @param aPrefix
+	 * @return the thread factory or null if virtual threads are not supported
+	 */
+	private static ThreadFactory createVirtualThreadFactory(final String aPrefix) {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+			final Object namedBuilder = nameMethod.invoke(builder, aPrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static ThreadFactory createPlatformThreadFactory(final String aPrefix) {
+		final AtomicInteger counter = new AtomicInteger();
+		return aRunnable -> {
+			final Thread thread = new Thread(aRunnable, aPrefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	@Override
+	public void execute(final Runnable aTask) {
+		if (aTask == null) {
+			throw new NullPointerException();
+		}
+		if (shutdown) {
+			throw new RejectedExecutionException(name + " executor has been shut down");
+		}
+
+		pending.add(aTask);
+		dispatch();
+	}
+
+	/**
+	 * Start threads for pending tasks as long as permits are available
+	 */
+	private void dispatch() {
+		while (!pending.isEmpty() && permits.tryAcquire()) {
+			final Runnable task = pending.poll();
+			if (task == null) {
+				permits.release();
+				continue;
+			}
+
+			threadFactory.newThread(() -> runTask(task)).start();
+		}
+	}
+
+	private void runTask(final Runnable aTask) {
+		final Thread thread = Thread.currentThread();
+		runningThreads.add(thread);
+		try {
+			aTask.run();
+		} finally {
+			runningThreads.remove(thread);
+			completedTasks.incrementAndGet();
+			permits.release();
+			dispatch();
+			signalIfTerminated();
+		}
+	}
+
+	private void signalIfTerminated() {
+		if (isTerminated()) {
+			synchronized (terminationLock) {
+				terminationLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return true if tasks are run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return the maximum number of tasks running at the same time
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the number of tasks currently running
+	 */
+	public int getActiveCount() {
+		return limit - permits.availablePermits();
+	}
+
+	/**
+	 * @return the number of tasks waiting for a permit
+	 */
+	public int getQueueDepth() {
+		return pending.size();
+	}
+
+	public long getCompletedTaskCount() {
+		return completedTasks.get();
+	}
+
+	/**
+	 * Remove all tasks that have not been started yet
+	 * 
+	 * @return the removed tasks
+	 */
+	public List<Runnable> drainPending() {
+		final List<Runnable> tasks = new ArrayList<>();
+		Runnable task;
+		while ((task = pending.poll()) != null) {
+			tasks.add(task);
+		}
+		signalIfTerminated();
+		return tasks;
+	}
+
+	/**
+	 * Stop accepting new tasks. Already submitted tasks are still executed
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		dispatch();
+		signalIfTerminated();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		final List<Runnable> tasks = drainPending();
+		for (final Thread thread : runningThreads) {
+			thread.interrupt();
+		}
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && pending.isEmpty() && getActiveCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(final long aTimeout, final TimeUnit aUnit) throws InterruptedException {
+		final long deadline = System.nanoTime() + aUnit.toNanos(aTimeout);
+		synchronized (terminationLock) {
+			while (!isTerminated()) {
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				terminationLock.wait(remaining);
+			}
+		}
+		return true;
+	}
+}
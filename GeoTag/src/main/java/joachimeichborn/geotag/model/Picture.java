@@ -24,6 +24,9 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.nio.file.Path;
 
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
 /**
  * Immutable representation of a picture
  * 
@@ -34,20 +37,70 @@ public class Picture implements PropertyChangeListener {
 	public static final String TIME_PROPERTY = "time";
 	public static final String COORDINATES_PROPERTY = "coordinates";
 	public static final String GEOCODING_PROPERTY = "geocoding";
+	/**
+	 * Value of {@link #getTimeMillis()} for pictures whose time could not be
+	 * parsed
+	 */
+	public static final long UNPARSEABLE_TIME = Long.MIN_VALUE;
+
+	private static final DateTimeFormatter UTC_DATE_FORMATTER = DateTimeFormat.forPattern("yyyy:MM:dd HH:mm:ss")
+			.withOffsetParsed().withZoneUTC();
 
 	private Path file;
 	private String time;
+	private long timeMillis;
+	private String cameraModel;
 	private Coordinates coordinates;
 	private Geocoding geocoding;
 	private final PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
+	/**
+	 * Create a picture, the given time is parsed once by this constructor
+	 */
 	public Picture(final Path aFile, final String aTime, final Coordinates aCoordinates, final Geocoding aGeoCoding) {
+		this(aFile, aTime, parseTime(aTime), null, aCoordinates, aGeoCoding);
+	}
+
+	/**
+	 * Create a picture with an already parsed time, e.g. when deriving a
+	 * picture from an existing one
+	 * 
+	 * @param aTimeMillis
+	 *            the result of {@link #parseTime(String)} for the given time
+	 * @param aCameraModel
+	 *            the model of the camera that took the picture, may be null
+	 */
+	public Picture(final Path aFile, final String aTime, final long aTimeMillis, final String aCameraModel,
+			final Coordinates aCoordinates, final Geocoding aGeoCoding) {
 		file = aFile;
 		time = aTime;
+		timeMillis = aTimeMillis;
+		cameraModel = aCameraModel;
 		coordinates = aCoordinates;
 		geocoding = aGeoCoding;
 	}
 
+	/**
+	 * Parse a picture time as found in the EXIF metadata. Time zone
+	 * information is ignored, the time is interpreted as UTC
+	 * 
+	 * @param aTime
+	 *            the time in the format yyyy:MM:dd HH:mm:ss
+	 * @return the time in milliseconds or {@link #UNPARSEABLE_TIME} if the
+	 *         time is missing or malformed
+	 */
+	public static long parseTime(final String aTime) {
+		if (aTime == null) {
+			return UNPARSEABLE_TIME;
+		}
+
+		try {
+			return UTC_DATE_FORMATTER.parseMillis(aTime);
+		} catch (final IllegalArgumentException e) {
+			return UNPARSEABLE_TIME;
+		}
+	}
+
 	public Path getFile() {
 		return file;
 	}
@@ -56,6 +109,22 @@ public class Picture implements PropertyChangeListener {
 		return time;
 	}
 
+	/**
+	 * @return the time when the picture was taken in milliseconds, interpreted
+	 *         as UTC, or {@link #UNPARSEABLE_TIME}
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return the model of the camera that took the picture or null if it is
+	 *         unknown
+	 */
+	public String getCameraModel() {
+		return cameraModel;
+	}
+
 	public Coordinates getCoordinates() {
 		return coordinates;
 	}
@@ -81,6 +150,7 @@ public class Picture implements PropertyChangeListener {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		result = prime * result + ((cameraModel == null) ? 0 : cameraModel.hashCode());
 		result = prime * result + ((coordinates == null) ? 0 : coordinates.hashCode());
 		result = prime * result + ((file == null) ? 0 : file.hashCode());
 		result = prime * result + ((geocoding == null) ? 0 : geocoding.hashCode());
@@ -97,6 +167,11 @@ public class Picture implements PropertyChangeListener {
 		if (getClass() != aObj.getClass())
 			return false;
 		Picture other = (Picture) aObj;
+		if (cameraModel == null) {
+			if (other.cameraModel != null)
+				return false;
+		} else if (!cameraModel.equals(other.cameraModel))
+			return false;
 		if (coordinates == null) {
 			if (other.coordinates != null)
 				return false;
@@ -122,7 +197,7 @@ public class Picture implements PropertyChangeListener {
 
 	@Override
 	public String toString() {
-		return "Picture [file=" + file + ", time=" + time + ", coordinates=" + coordinates + ", geoCoding=" + geocoding
+		return "Picture [file=" + file + ", time=" + time + ", cameraModel=" + cameraModel + ", coordinates=" + coordinates + ", geoCoding=" + geocoding
 				+ ", propertyChangeSupport=" + propertyChangeSupport + "]";
 	}
 }
@@ -19,8 +19,6 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.model;
 
-import java.util.logging.Logger;
-
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
@@ -36,22 +34,21 @@ import org.joda.time.format.ISODateTimeFormat;
  * @author Joachim von Eichborn
  */
 public final class PositionData implements Comparable<PositionData> {
-	private static final Logger LOGGER = Logger.getLogger(PositionData.class.getSimpleName());
 	private static final DateTimeFormatter FORMATTER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+	private static final long MILLIS_PER_SECOND = 1000;
 
 	private final Coordinates coordinates;
-	private final DateTime timeStamp;
-	private final DateTime timeStampWithoutTimeZone;
+	private final long timeMillis;
+	private final long timeMillisWithoutTimeZone;
+	private final DateTimeZone timeZone;
 	private final String name;
 	private final float accuracy;
+	private DateTime timeStamp;
+	private DateTime timeStampWithoutTimeZone;
 
 	/**
 	 * @param aPosition
 	 *            The coordinates
-	 * @param aLatitude
-	 *            The latitude part of the position
-	 * @param aAltitude
-	 *            The altitude part of the position
 	 * @param aTime
 	 *            The time when the position was recorded
 	 * @param aName
@@ -63,7 +60,6 @@ public final class PositionData implements Comparable<PositionData> {
 	 */
 	public PositionData(final Coordinates aPosition, final String aTime, final String aName, final float aAccuracy) {
 		this(aPosition, FORMATTER.parseDateTime(aTime), aName, aAccuracy);
-		LOGGER.finer("Parsed time information '" + aTime + "' to '" + timeStamp + "' (with time zone)");
 	}
 
 	/**
@@ -80,28 +76,50 @@ public final class PositionData implements Comparable<PositionData> {
 	 */
 	public PositionData(final Coordinates aPosition, final DateTime aTimeStamp, final String aName,
 			final float aAccuracy) {
-		coordinates = aPosition;
+		this(aPosition, aTimeStamp.getMillis(), aTimeStamp.getZone(), aName, aAccuracy);
 		timeStamp = aTimeStamp;
-		timeStampWithoutTimeZone = stripTimeZoneInformation(timeStamp);
+	}
+
+	/**
+	 * @param aPosition
+	 *            The coordinates
+	 * @param aTimeMillis
+	 *            The time when the position was recorded in milliseconds since
+	 *            the epoch
+	 * @param aTimeZone
+	 *            The time zone in which the position was recorded
+	 * @param aName
+	 *            The position's name
+	 * @param aAccuracy
+	 *            The radius in meters of the circle around the recorded
+	 *            position that contains the real position with a probability of
+	 *            66.6%
+	 */
+	public PositionData(final Coordinates aPosition, final long aTimeMillis, final DateTimeZone aTimeZone,
+			final String aName, final float aAccuracy) {
+		coordinates = aPosition;
+		timeMillis = aTimeMillis;
+		timeZone = aTimeZone;
+		timeMillisWithoutTimeZone = stripTimeZoneInformation(aTimeMillis, aTimeZone);
 		name = aName;
 		accuracy = aAccuracy;
-		LOGGER.finer("Parsed time stamp '" + aTimeStamp + "' (with time zone) to '" + timeStampWithoutTimeZone
-				+ "' (without time zone)");
 	}
 
 	/**
-	 * Get a date time object with the same absolute date as the given one but
-	 * with the time zone stripped by setting it to UTC
+	 * Get the milliseconds of a UTC time with the same absolute date as the
+	 * given one, but with the time zone stripped. Milliseconds of the second are
+	 * dropped.
 	 * 
-	 * @param aTime
-	 *            The time in the source time zone
-	 * @return The same absolute time (meaning the same date, hour of the day,
-	 *         minute of the hour etc.) in UTC time
+	 * @param aTimeMillis
+	 *            The time in milliseconds since the epoch
+	 * @param aTimeZone
+	 *            The source time zone
+	 * @return The milliseconds of the same absolute time (meaning the same
+	 *         date, hour of the day, minute of the hour etc.) in UTC time
 	 */
-	private DateTime stripTimeZoneInformation(final DateTime aTime) {
-		return new DateTime(DateTimeZone.UTC)
-				.withDate(timeStamp.getYear(), timeStamp.getMonthOfYear(), timeStamp.getDayOfMonth())
-				.withTime(timeStamp.getHourOfDay(), timeStamp.getMinuteOfHour(), timeStamp.getSecondOfMinute(), 0);
+	public static long stripTimeZoneInformation(final long aTimeMillis, final DateTimeZone aTimeZone) {
+		final long localMillis = aTimeMillis + aTimeZone.getOffset(aTimeMillis);
+		return Math.floorDiv(localMillis, MILLIS_PER_SECOND) * MILLIS_PER_SECOND;
 	}
 
 	/**
@@ -137,9 +155,27 @@ public final class PositionData implements Comparable<PositionData> {
 	 * @return The time when the position was recorded
 	 */
 	public DateTime getTimeStamp() {
+		if (timeStamp == null) {
+			timeStamp = new DateTime(timeMillis, timeZone);
+		}
 		return timeStamp;
 	}
 
+	/**
+	 * @return The time when the position was recorded in milliseconds since
+	 *         the epoch
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return The time zone in which the position was recorded
+	 */
+	public DateTimeZone getTimeZone() {
+		return timeZone;
+	}
+
 	/**
 	 * Get the time when the position was recorded as a {@link DateTime} object
 	 * but with stripped time zone information. The time zone information is
@@ -151,13 +187,24 @@ public final class PositionData implements Comparable<PositionData> {
 	 *         {@link #getTimeStamp()} in UTC time
 	 */
 	public DateTime getTimeStampWithoutTimeZone() {
+		if (timeStampWithoutTimeZone == null) {
+			timeStampWithoutTimeZone = new DateTime(timeMillisWithoutTimeZone, DateTimeZone.UTC);
+		}
 		return timeStampWithoutTimeZone;
 	}
 
+	/**
+	 * @return The milliseconds of the time returned by
+	 *         {@link #getTimeStampWithoutTimeZone()}
+	 */
+	public long getTimeMillisWithoutTimeZone() {
+		return timeMillisWithoutTimeZone;
+	}
+
 	@Override
 	public String toString() {
-		return "PositionData [coordinates=" + coordinates + ", timeStamp=" + timeStamp + ", timeStampWithoutTimeZone="
-				+ timeStampWithoutTimeZone + ", name=" + name + ", accuracy=" + accuracy + "]";
+		return "PositionData [coordinates=" + coordinates + ", timeStamp=" + getTimeStamp()
+				+ ", timeStampWithoutTimeZone=" + getTimeStampWithoutTimeZone() + ", name=" + name + ", accuracy=" + accuracy + "]";
 	}
 
 	/**
@@ -169,7 +216,7 @@ public final class PositionData implements Comparable<PositionData> {
 	 */
 	@Override
 	public int compareTo(final PositionData aOtherPosition) {
-		return timeStamp.compareTo(aOtherPosition.getTimeStamp());
+		return Long.compare(timeMillis, aOtherPosition.timeMillis);
 	}
 
 	@Override
@@ -179,7 +226,7 @@ public final class PositionData implements Comparable<PositionData> {
 		result = prime * result + Float.floatToIntBits(accuracy);
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		result = prime * result + ((coordinates == null) ? 0 : coordinates.hashCode());
-		result = prime * result + ((timeStamp == null) ? 0 : timeStamp.hashCode());
+		result = prime * result + (int) (timeMillis ^ (timeMillis >>> 32));
 		return result;
 	}
 
@@ -204,10 +251,7 @@ public final class PositionData implements Comparable<PositionData> {
 				return false;
 		} else if (!coordinates.equals(other.coordinates))
 			return false;
-		if (timeStamp == null) {
-			if (other.timeStamp != null)
-				return false;
-		} else if (!timeStamp.isEqual(other.timeStamp))
+		if (timeMillis != other.timeMillis)
 			return false;
 		return true;
 	}
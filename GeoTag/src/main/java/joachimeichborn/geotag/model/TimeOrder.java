@@ -0,0 +1,70 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.model;
+
+/**
+ * Sorting of time stamps that are stored in primitive arrays. Instead of the
+ * time stamps themselves, a permutation of indices into the time stamp array
+ * is sorted, such that the data belonging to each time stamp can be arranged
+ * accordingly afterwards.
+ * 
+ * @author Joachim von Eichborn
+ */
+public final class TimeOrder {
+	private TimeOrder() {
+	}
+
+	/**
+	 * Stable bottom-up merge sort of the given permutation by the referenced
+	 * time stamps
+	 * 
+	 * @param aOrder
+	 *            indices into the time stamp array, sorted in place
+	 * @param aMillis
+	 *            the time stamps
+	 */
+	public static void sortByTime(final int[] aOrder, final long[] aMillis) {
+		int[] source = aOrder;
+		int[] target = new int[aOrder.length];
+
+		for (int width = 1; width < aOrder.length; width *= 2) {
+			for (int start = 0; start < aOrder.length; start += 2 * width) {
+				final int middle = Math.min(start + width, aOrder.length);
+				final int end = Math.min(start + 2 * width, aOrder.length);
+				int left = start;
+				int right = middle;
+				for (int k = start; k < end; k++) {
+					if (left < middle && (right >= end || aMillis[source[left]] <= aMillis[source[right]])) {
+						target[k] = source[left++];
+					} else {
+						target[k] = source[right++];
+					}
+				}
+			}
+			final int[] swap = source;
+			source = target;
+			target = swap;
+		}
+
+		if (source != aOrder) {
+			System.arraycopy(source, 0, aOrder, 0, aOrder.length);
+		}
+	}
+}
@@ -23,8 +23,6 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.swt.graphics.RGB;
@@ -43,7 +41,7 @@ public class Track implements PropertyChangeListener {
 	public static final String COLOR_PROPERTY = "color";
 
 	private final Path file;
-	private final List<PositionData> positions;
+	private final TrackData data;
 	private RGB color;
 	private PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
@@ -52,9 +50,16 @@ public class Track implements PropertyChangeListener {
 	}
 
 	public Track(final Path aFile, final List<PositionData> aPositions, final RGB aColor) {
+		this(aFile, TrackData.of(aPositions), aColor);
+	}
+
+	public Track(final Path aFile, final TrackData aData) {
+		this(aFile, aData, ColorGenerator.getInstance().getNextColor());
+	}
+
+	public Track(final Path aFile, final TrackData aData, final RGB aColor) {
 		file = aFile;
-		positions = new ArrayList<>(aPositions);
-		Collections.sort(positions);
+		data = aData;
 		color = aColor;
 	}
 
@@ -70,8 +75,19 @@ public class Track implements PropertyChangeListener {
 		return file;
 	}
 
+	/**
+	 * @return an unmodifiable view on the positions ordered by time, position
+	 *         objects are created when they are accessed
+	 */
 	public List<PositionData> getPositions() {
-		return Collections.unmodifiableList(positions);
+		return data.asList();
+	}
+
+	/**
+	 * @return the columnar representation of the positions
+	 */
+	public TrackData getData() {
+		return data;
 	}
 
 	public RGB getColor() {
@@ -89,7 +105,7 @@ public class Track implements PropertyChangeListener {
 
 	@Override
 	public String toString() {
-		return "Track [file=" + file + ", " + positions.size() + " positions, color=" + color + "]";
+		return "Track [file=" + file + ", " + data.size() + " positions, color=" + color + "]";
 	}
 
 	@Override
@@ -97,7 +113,7 @@ public class Track implements PropertyChangeListener {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((file == null) ? 0 : file.hashCode());
-		result = prime * result + ((positions == null) ? 0 : positions.hashCode());
+		result = prime * result + ((data == null) ? 0 : data.hashCode());
 		return result;
 	}
 
@@ -115,10 +131,10 @@ public class Track implements PropertyChangeListener {
 				return false;
 		} else if (!file.equals(other.file))
 			return false;
-		if (positions == null) {
-			if (other.positions != null)
+		if (data == null) {
+			if (other.data != null)
 				return false;
-		} else if (!positions.equals(other.positions))
+		} else if (!data.equals(other.data))
 			return false;
 		return true;
 	}
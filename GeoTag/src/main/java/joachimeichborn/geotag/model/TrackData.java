@@ -0,0 +1,592 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package joachimeichborn.geotag.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * Immutable, columnar storage of the positions of a track. Instead of one
+ * {@link PositionData} object graph per position, every attribute is kept in
+ * a primitive array, time zones and names are dictionary encoded. Names are
+ * stored plainly if most of them are distinct. Positions
+ * are ordered by their time stamp.
+ * 
+ * {@link PositionData} objects are only materialized on demand, see
+ * {@link #getPosition(int)} and {@link #asList()}.
+ * 
+ * @author Joachim von Eichborn
+ */
+public final class TrackData {
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int NAME_DICTIONARY_LIMIT = 1024;
+
+	/**
+	 * Collects positions and creates the columnar representation. Positions
+	 * may be added in any order, they are sorted by time when building the
+	 * track data
+	 */
+	public static class Builder {
+		private final Map<String, Integer> nameDictionary = new HashMap<>();
+		private final Map<DateTimeZone, Integer> zoneDictionary = new HashMap<>();
+		private long[] builderTimes;
+		private int[] builderZones;
+		private double[] builderLatitudes;
+		private double[] builderLongitudes;
+		private double[] builderAltitudes;
+		private float[] builderAccuracies;
+		private int[] builderNames;
+		private String[] builderPlainNames;
+		private DateTimeZone lastZone;
+		private int lastZoneCode;
+		private int builderSize;
+		private boolean sorted = true;
+
+		public Builder() {
+			this(INITIAL_CAPACITY);
+		}
+
+		/**
+		 * @param aExpectedSize
+		 *            the number of positions the builder is sized for, it
+		 *            grows if more positions are added
+		 */
+		public Builder(final int aExpectedSize) {
+			final int capacity = Math.max(aExpectedSize, 1);
+			builderTimes = new long[capacity];
+			builderZones = new int[capacity];
+			builderLatitudes = new double[capacity];
+			builderLongitudes = new double[capacity];
+			builderAltitudes = new double[capacity];
+			builderAccuracies = new float[capacity];
+			builderNames = new int[capacity];
+		}
+
+		public final Builder add(final PositionData aPosition) {
+			final Coordinates coordinates = aPosition.getCoordinates();
+			return add(aPosition.getTimeMillis(), aPosition.getTimeZone(), coordinates.getLatitude(),
+					coordinates.getLongitude(), coordinates.getAltitude(), aPosition.getName(),
+					aPosition.getAccuracy());
+		}
+
+		public final Builder addAll(final List<PositionData> aPositions) {
+			ensureCapacity(builderSize + aPositions.size());
+			for (final PositionData position : aPositions) {
+				add(position);
+			}
+			return this;
+		}
+
+		public final Builder addAll(final TrackData aData) {
+			ensureCapacity(builderSize + aData.size());
+			for (int i = 0; i < aData.size(); i++) {
+				add(aData.getTime(i), aData.getZone(i), aData.getLatitude(i), aData.getLongitude(i),
+						aData.getAltitude(i), aData.getName(i), aData.getAccuracy(i));
+			}
+			return this;
+		}
+
+		/**
+		 * @param aMillis
+		 *            The time when the position was recorded in milliseconds
+		 *            since the epoch
+		 * @param aZone
+		 *            The time zone in which the position was recorded
+		 * @param aLatitude
+		 *            The latitude part of the position
+		 * @param aLongitude
+		 *            The longitude part of the position
+		 * @param aAltitude
+		 *            The altitude part of the position
+		 * @param aName
+		 *            The position's name
+		 * @param aAccuracy
+		 *            The radius in meters of the circle around the recorded
+		 *            position that contains the real position with a
+		 *            probability of 66.6%
+		 * @return this builder
+		 */
+		public final Builder add(final long aMillis, final DateTimeZone aZone, final double aLatitude,
+				final double aLongitude, final double aAltitude, final String aName, final float aAccuracy) {
+			ensureCapacity(builderSize + 1);
+
+			sorted &= builderSize == 0 || builderTimes[builderSize - 1] <= aMillis;
+			builderTimes[builderSize] = aMillis;
+			if (aZone != lastZone) {
+				lastZone = aZone;
+				lastZoneCode = encode(zoneDictionary, aZone);
+			}
+			builderZones[builderSize] = lastZoneCode;
+			builderLatitudes[builderSize] = aLatitude;
+			builderLongitudes[builderSize] = aLongitude;
+			builderAltitudes[builderSize] = aAltitude;
+			builderAccuracies[builderSize] = aAccuracy;
+			if (builderPlainNames != null) {
+				builderPlainNames[builderSize] = aName;
+			} else {
+				builderNames[builderSize] = encode(nameDictionary, aName);
+			}
+			builderSize++;
+
+			if (builderPlainNames == null && nameDictionary.size() > NAME_DICTIONARY_LIMIT
+					&& nameDictionary.size() > builderSize / 2) {
+				storePlainNames();
+			}
+			return this;
+		}
+
+		public final int size() {
+			return builderSize;
+		}
+
+		public TrackData build() {
+			final int[] order = new int[builderSize];
+			for (int i = 0; i < builderSize; i++) {
+				order[i] = i;
+			}
+			if (!sorted) {
+				TimeOrder.sortByTime(order, builderTimes);
+			}
+
+			return new TrackData(this, order);
+		}
+
+		private void ensureCapacity(final int aCapacity) {
+			if (aCapacity <= builderTimes.length) {
+				return;
+			}
+
+			final int capacity = Math.max(aCapacity, builderTimes.length + (builderTimes.length >> 1));
+			builderTimes = Arrays.copyOf(builderTimes, capacity);
+			builderZones = Arrays.copyOf(builderZones, capacity);
+			builderLatitudes = Arrays.copyOf(builderLatitudes, capacity);
+			builderLongitudes = Arrays.copyOf(builderLongitudes, capacity);
+			builderAltitudes = Arrays.copyOf(builderAltitudes, capacity);
+			builderAccuracies = Arrays.copyOf(builderAccuracies, capacity);
+			if (builderPlainNames != null) {
+				builderPlainNames = Arrays.copyOf(builderPlainNames, capacity);
+			} else {
+				builderNames = Arrays.copyOf(builderNames, capacity);
+			}
+		}
+
+		/**
+		 * Give up dictionary encoding of the names, it does not pay off if
+		 * (almost) every position has its own name
+		 */
+		private void storePlainNames() {
+			final String[] dictionary = decode(nameDictionary, new String[nameDictionary.size()]);
+			builderPlainNames = new String[builderNames.length];
+			for (int i = 0; i < builderSize; i++) {
+				builderPlainNames[i] = dictionary[builderNames[i]];
+			}
+			builderNames = null;
+			nameDictionary.clear();
+		}
+
+		private static <T> int encode(final Map<T, Integer> aDictionary, final T aValue) {
+			final Integer code = aDictionary.get(aValue);
+			if (code != null) {
+				return code;
+			}
+
+			final int newCode = aDictionary.size();
+			aDictionary.put(aValue, newCode);
+			return newCode;
+		}
+
+		private static <T> T[] decode(final Map<T, Integer> aDictionary, final T[] aValues) {
+			for (final Map.Entry<T, Integer> entry : aDictionary.entrySet()) {
+				aValues[entry.getValue()] = entry.getKey();
+			}
+			return aValues;
+		}
+	}
+
+	/**
+	 * Read only list view on the positions that creates {@link PositionData}
+	 * objects only when they are accessed
+	 */
+	private class PositionList extends AbstractList<PositionData> implements RandomAccess {
+		@Override
+		public PositionData get(final int aIndex) {
+			return getPosition(aIndex);
+		}
+
+		@Override
+		public int size() {
+			return times.length;
+		}
+	}
+
+	private final long[] times;
+	private final int[] zones;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] altitudes;
+	private final float[] accuracies;
+	private final int[] names;
+	private final DateTimeZone[] zoneDictionary;
+	private final String[] nameDictionary;
+	private final String[] plainNames;
+	private final List<PositionData> positionList;
+
+	private TrackData(final Builder aBuilder, final int[] aOrder) {
+		final int size = aOrder.length;
+		times = new long[size];
+		zones = new int[size];
+		latitudes = new double[size];
+		longitudes = new double[size];
+		altitudes = new double[size];
+		accuracies = new float[size];
+		final boolean plain = aBuilder.builderPlainNames != null;
+		names = plain ? null : new int[size];
+		plainNames = plain ? new String[size] : null;
+
+		for (int i = 0; i < size; i++) {
+			final int source = aOrder[i];
+			times[i] = aBuilder.builderTimes[source];
+			zones[i] = aBuilder.builderZones[source];
+			latitudes[i] = aBuilder.builderLatitudes[source];
+			longitudes[i] = aBuilder.builderLongitudes[source];
+			altitudes[i] = aBuilder.builderAltitudes[source];
+			accuracies[i] = aBuilder.builderAccuracies[source];
+			if (plain) {
+				plainNames[i] = aBuilder.builderPlainNames[source];
+			} else {
+				names[i] = aBuilder.builderNames[source];
+			}
+		}
+
+		zoneDictionary = Builder.decode(aBuilder.zoneDictionary, new DateTimeZone[aBuilder.zoneDictionary.size()]);
+		nameDictionary = Builder.decode(aBuilder.nameDictionary, new String[aBuilder.nameDictionary.size()]);
+		positionList = new PositionList();
+	}
+
+	private TrackData(final long[] aTimes, final int[] aZones, final double[] aLatitudes, final double[] aLongitudes,
+			final double[] aAltitudes, final float[] aAccuracies, final int[] aNames,
+			final DateTimeZone[] aZoneDictionary, final String[] aNameDictionary, final String[] aPlainNames) {
+		times = aTimes;
+		zones = aZones;
+		latitudes = aLatitudes;
+		longitudes = aLongitudes;
+		altitudes = aAltitudes;
+		accuracies = aAccuracies;
+		names = aNames;
+		zoneDictionary = aZoneDictionary;
+		nameDictionary = aNameDictionary;
+		plainNames = aPlainNames;
+		positionList = new PositionList();
+	}
+
+	/**
+	 * Write the columns in a compact binary encoding that can be read back by
+	 * {@link #read(ByteBuffer)}
+	 * 
+	 * @param aOutput
+	 *            the output
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(final DataOutput aOutput) throws IOException {
+		final int size = times.length;
+		aOutput.writeInt(size);
+
+		aOutput.writeInt(zoneDictionary.length);
+		for (final DateTimeZone zone : zoneDictionary) {
+			writeString(aOutput, zone.getID());
+		}
+
+		final String[] nameValues = plainNames != null ? plainNames : nameDictionary;
+		aOutput.writeBoolean(plainNames != null);
+		aOutput.writeInt(nameValues.length);
+		for (final String name : nameValues) {
+			writeString(aOutput, name);
+		}
+
+		for (int i = 0; i < size; i++) {
+			aOutput.writeLong(times[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			aOutput.writeInt(zones[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			aOutput.writeDouble(latitudes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			aOutput.writeDouble(longitudes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			aOutput.writeDouble(altitudes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			aOutput.writeFloat(accuracies[i]);
+		}
+		if (plainNames == null) {
+			for (int i = 0; i < size; i++) {
+				aOutput.writeInt(names[i]);
+			}
+		}
+	}
+
+	/**
+	 * Read track data written by {@link #write(DataOutput)}
+	 * 
+	 * @param aBuffer
+	 *            the buffer positioned at the start of the track data, big
+	 *            endian byte order is expected
+	 * @return the track data
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain valid track data
+	 */
+	public static TrackData read(final ByteBuffer aBuffer) {
+		try {
+			final int size = aBuffer.getInt();
+
+			final DateTimeZone[] zoneDictionary = new DateTimeZone[aBuffer.getInt()];
+			for (int i = 0; i < zoneDictionary.length; i++) {
+				zoneDictionary[i] = DateTimeZone.forID(readString(aBuffer));
+			}
+
+			final boolean plain = aBuffer.get() != 0;
+			final String[] nameValues = new String[aBuffer.getInt()];
+			for (int i = 0; i < nameValues.length; i++) {
+				nameValues[i] = readString(aBuffer);
+			}
+
+			final long[] times = new long[size];
+			aBuffer.asLongBuffer().get(times);
+			aBuffer.position(aBuffer.position() + size * Long.BYTES);
+			final int[] zones = new int[size];
+			aBuffer.asIntBuffer().get(zones);
+			aBuffer.position(aBuffer.position() + size * Integer.BYTES);
+			final double[] latitudes = readDoubles(aBuffer, size);
+			final double[] longitudes = readDoubles(aBuffer, size);
+			final double[] altitudes = readDoubles(aBuffer, size);
+			final float[] accuracies = new float[size];
+			aBuffer.asFloatBuffer().get(accuracies);
+			aBuffer.position(aBuffer.position() + size * Float.BYTES);
+
+			int[] names = null;
+			if (!plain) {
+				names = new int[size];
+				aBuffer.asIntBuffer().get(names);
+				aBuffer.position(aBuffer.position() + size * Integer.BYTES);
+			}
+
+			for (int i = 0; i < size; i++) {
+				if (zones[i] < 0 || zones[i] >= zoneDictionary.length || names != null
+						&& (names[i] < 0 || names[i] >= nameValues.length)) {
+					throw new IllegalArgumentException("Invalid dictionary reference at position " + i);
+				}
+			}
+			if (plain && nameValues.length != size) {
+				throw new IllegalArgumentException("Expected " + size + " names but found " + nameValues.length);
+			}
+
+			return new TrackData(times, zones, latitudes, longitudes, altitudes, accuracies, names, zoneDictionary,
+					plain ? new String[0] : nameValues, plain ? nameValues : null);
+		} catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated track data", e);
+		}
+	}
+
+	private static double[] readDoubles(final ByteBuffer aBuffer, final int aSize) {
+		final double[] values = new double[aSize];
+		aBuffer.asDoubleBuffer().get(values);
+		aBuffer.position(aBuffer.position() + aSize * Double.BYTES);
+		return values;
+	}
+
+	private static void writeString(final DataOutput aOutput, final String aValue) throws IOException {
+		if (aValue == null) {
+			aOutput.writeInt(-1);
+		} else {
+			final byte[] bytes = aValue.getBytes(StandardCharsets.UTF_8);
+			aOutput.writeInt(bytes.length);
+			aOutput.write(bytes);
+		}
+	}
+
+	private static String readString(final ByteBuffer aBuffer) {
+		final int length = aBuffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		aBuffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Create the columnar representation of the given positions
+	 * 
+	 * @param aPositions
+	 *            the positions in any order
+	 * @return the track data
+	 */
+	public static TrackData of(final List<PositionData> aPositions) {
+		return new Builder().addAll(aPositions).build();
+	}
+
+	public int size() {
+		return times.length;
+	}
+
+	/**
+	 * @return The time when the position was recorded in milliseconds since the
+	 *         epoch
+	 */
+	public long getTime(final int aIndex) {
+		return times[aIndex];
+	}
+
+	/**
+	 * @return The time when the position was recorded with stripped time zone
+	 *         information in milliseconds, that is the same local date and
+	 *         time in UTC, see
+	 *         {@link PositionData#getTimeStampWithoutTimeZone()}
+	 */
+	public long getTimeWithoutTimeZone(final int aIndex) {
+		return PositionData.stripTimeZoneInformation(times[aIndex], zoneDictionary[zones[aIndex]]);
+	}
+
+	public DateTimeZone getZone(final int aIndex) {
+		return zoneDictionary[zones[aIndex]];
+	}
+
+	public double getLatitude(final int aIndex) {
+		return latitudes[aIndex];
+	}
+
+	public double getLongitude(final int aIndex) {
+		return longitudes[aIndex];
+	}
+
+	public double getAltitude(final int aIndex) {
+		return altitudes[aIndex];
+	}
+
+	public float getAccuracy(final int aIndex) {
+		return accuracies[aIndex];
+	}
+
+	public String getName(final int aIndex) {
+		return plainNames != null ? plainNames[aIndex] : nameDictionary[names[aIndex]];
+	}
+
+	/**
+	 * Materialize the position at the given index
+	 * 
+	 * @param aIndex
+	 *            the index of the position
+	 * @return a new position object
+	 */
+	public PositionData getPosition(final int aIndex) {
+		return new PositionData(new Coordinates(latitudes[aIndex], longitudes[aIndex], altitudes[aIndex]),
+				times[aIndex], zoneDictionary[zones[aIndex]], getName(aIndex),
+				accuracies[aIndex]);
+	}
+
+	/**
+	 * @param aFrom
+	 *            index of the first position, inclusive
+	 * @param aTo
+	 *            index of the last position, exclusive
+	 * @return a copy of the given range of positions
+	 */
+	public TrackData subset(final int aFrom, final int aTo) {
+		return new TrackData(Arrays.copyOfRange(times, aFrom, aTo), Arrays.copyOfRange(zones, aFrom, aTo),
+				Arrays.copyOfRange(latitudes, aFrom, aTo), Arrays.copyOfRange(longitudes, aFrom, aTo),
+				Arrays.copyOfRange(altitudes, aFrom, aTo), Arrays.copyOfRange(accuracies, aFrom, aTo),
+				plainNames == null ? Arrays.copyOfRange(names, aFrom, aTo) : null, zoneDictionary, nameDictionary,
+				plainNames == null ? null : Arrays.copyOfRange(plainNames, aFrom, aTo));
+	}
+
+	/**
+	 * @return an unmodifiable list view on the positions that materializes
+	 *         position objects only when they are accessed
+	 */
+	public List<PositionData> asList() {
+		return positionList;
+	}
+
+	@Override
+	public String toString() {
+		return "TrackData [" + times.length + " positions]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		for (int i = 0; i < times.length; i++) {
+			result = prime * result + Long.hashCode(times[i]);
+			result = prime * result + Double.hashCode(latitudes[i]);
+			result = prime * result + Double.hashCode(longitudes[i]);
+			result = prime * result + Double.hashCode(altitudes[i]);
+			result = prime * result + Float.floatToIntBits(accuracies[i]);
+			result = prime * result + Objects.hashCode(getName(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Equality follows {@link PositionData#equals(Object)}: two positions are
+	 * equal if they have been recorded at the same instant, independent of the
+	 * time zone
+	 */
+	@Override
+	public boolean equals(final Object aObj) {
+		if (this == aObj)
+			return true;
+		if (aObj == null)
+			return false;
+		if (getClass() != aObj.getClass())
+			return false;
+		TrackData other = (TrackData) aObj;
+		if (!Arrays.equals(times, other.times))
+			return false;
+		if (!Arrays.equals(latitudes, other.latitudes))
+			return false;
+		if (!Arrays.equals(longitudes, other.longitudes))
+			return false;
+		if (!Arrays.equals(altitudes, other.altitudes))
+			return false;
+		if (!Arrays.equals(accuracies, other.accuracies))
+			return false;
+		for (int i = 0; i < times.length; i++) {
+			if (!Objects.equals(getName(i), other.getName(i)))
+				return false;
+		}
+		return true;
+	}
+}
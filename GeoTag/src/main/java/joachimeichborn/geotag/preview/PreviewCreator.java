@@ -26,9 +26,6 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
@@ -36,7 +33,7 @@ import javax.imageio.ImageIO;
 import org.jxmapviewer.util.GraphicsUtilities;
 
 import joachimeichborn.geotag.io.jpeg.PictureMetadataReader;
-import joachimeichborn.geotag.misc.LifoBlockingDeque;
+import joachimeichborn.geotag.io.jpeg.PictureSource;
 import joachimeichborn.geotag.misc.PictureOrientation;
 
 /**
@@ -53,6 +50,8 @@ public class PreviewCreator {
 		private final PreviewKey cacheKey;
 		private final boolean rotatable;
 		private final PreviewConsumer previewConsumer;
+		private final BufferedImage thumbnail;
+		private final PictureOrientation orientation;
 
 		/**
 		 * @param aCacheKey
@@ -63,33 +62,70 @@ public class PreviewCreator {
 		 */
 		public Worker(final PreviewKey aCacheKey, final boolean aRotatable,
 				final PreviewConsumer aPreviewConsumer) {
+			this(aCacheKey, aRotatable, aPreviewConsumer, null, null);
+		}
+
+		/**
+		 * Create a worker that computes the preview from an EXIF thumbnail
+		 * that has already been read, without opening the picture file
+		 * 
+		 * @param aThumbnail
+		 *            the EXIF thumbnail, it must be large enough for the
+		 *            preview, see {@link #isSufficient(BufferedImage, PictureOrientation)}
+		 * @param aOrientation
+		 *            the orientation of the picture
+		 */
+		Worker(final PreviewKey aCacheKey, final boolean aRotatable, final PreviewConsumer aPreviewConsumer,
+				final BufferedImage aThumbnail, final PictureOrientation aOrientation) {
 			cacheKey = aCacheKey;
 			rotatable = aRotatable;
 			previewConsumer = aPreviewConsumer;
+			thumbnail = aThumbnail;
+			orientation = aOrientation;
+		}
+
+		public PreviewKey getCacheKey() {
+			return cacheKey;
+		}
+
+		public PreviewConsumer getPreviewConsumer() {
+			return previewConsumer;
 		}
 
 		/**
-		 * Compute a preview. When it is ready, the {@link PreviewConsumer}
-		 * is informed about it
+		 * Compute a preview. If the worker has not been given a thumbnail,
+		 * only the head of the picture file is read at first, the image data
+		 * is only read if the EXIF thumbnail is too small for the preview.
+		 * When the preview is ready, the {@link PreviewConsumer} is informed
+		 * about it
 		 */
 		@Override
 		public void run() {
 			final Path pictureFile = Paths.get(cacheKey.getFile());
-			final PictureMetadataReader metadataExtractor = new PictureMetadataReader(pictureFile);
 
-			final BufferedImage original = getOriginalImage(pictureFile, metadataExtractor);
+			final BufferedImage original;
+			final PictureOrientation pictureOrientation;
+			if (thumbnail != null) {
+				logger.fine("Using given exiv thumbnail image to compute preview for " + pictureFile);
+				original = thumbnail;
+				pictureOrientation = orientation;
+			} else {
+				final PictureMetadataReader metadata = new PictureMetadataReader(pictureFile);
+				pictureOrientation = metadata.getOrientation();
+				original = getOriginalImage(pictureFile, metadata.getThumbnail(), pictureOrientation,
+						metadata.getSource());
+			}
 			if (original == null) {
 				return;
 			}
 
-			final PictureOrientation orientation = metadataExtractor.getOrientation();
-			final Dimension scaledDim = getScaledDimension(original.getWidth(), original.getHeight(), orientation);
+			final Dimension scaledDim = getScaledDimension(original.getWidth(), original.getHeight(), pictureOrientation);
 
 			final BufferedImage preview = createPreview(original, scaledDim.getWidth() - 2 * BORDER_SIZE,
 					scaledDim.getHeight() - 2 * BORDER_SIZE);
 
 			final Dimension rotatedDim;
-			if (orientation.isHorizontal()) {
+			if (pictureOrientation.isHorizontal()) {
 				rotatedDim = new Dimension(scaledDim.getWidth(), scaledDim.getHeight());
 			} else {
 				rotatedDim = new Dimension(scaledDim.getHeight(), scaledDim.getWidth());
@@ -101,7 +137,7 @@ public class PreviewCreator {
 			g.setColor(Color.BLACK);
 			g.fillRect(0, 0, rotatedDim.getWidth(), rotatedDim.getHeight());
 
-			switch (orientation) {
+			switch (pictureOrientation) {
 			case ROTATE_90_CW:
 				g.translate(scaledDim.getHeight() / 2, scaledDim.getWidth() / 2);
 				g.rotate(Math.toRadians(270));
@@ -162,42 +198,52 @@ public class PreviewCreator {
 			return new Dimension(scaledWidth, scaledHeight);
 		}
 
-		private BufferedImage getOriginalImage(final Path aPictureFile,
-				final PictureMetadataReader aMetadataExtractor) {
-			final BufferedImage exivThumbnail = aMetadataExtractor.getThumbnail();
-
-			if (exivThumbnail != null) {
-				final int exivHeight;
-				final int exivWidth;
-				if (aMetadataExtractor.getOrientation().isHorizontal()) {
-					exivHeight = exivThumbnail.getHeight();
-					exivWidth = exivThumbnail.getWidth();
-				} else {
-					exivHeight = exivThumbnail.getWidth();
-					exivWidth = exivThumbnail.getHeight();
-				}
-
-				final int height = cacheKey.getHeight();
-				final int width = cacheKey.getWidth();
-
-				if ((!rotatable && (exivHeight >= height || exivWidth >= width))
-						|| (rotatable && (Math.max(exivHeight, exivWidth) >= Math.max(height, width)))) {
-					logger.fine("Using exiv thumbnail image to compute preview for " + aPictureFile);
-					return exivThumbnail;
-				}
+		private BufferedImage getOriginalImage(final Path aPictureFile, final BufferedImage aThumbnail,
+				final PictureOrientation aOrientation, final PictureSource aSource) {
+			if (isSufficient(aThumbnail, aOrientation)) {
+				logger.fine("Using exiv thumbnail image to compute preview for " + aPictureFile);
+				return aThumbnail;
 			}
 
 			try {
 				logger.fine("Using original image to compute preview for " + aPictureFile);
-				return ImageIO.read(aPictureFile.toFile());
-			} catch (
-
-			IOException e) {
+				if (aSource == null) {
+					// not a JPEG file, let ImageIO decode the whole file
+					return ImageIO.read(aPictureFile.toFile());
+				}
+				return aSource.readImage();
+			} catch (IOException e) {
 				logger.warning("Could not read " + aPictureFile + " for preview generation: " + e.getMessage());
 				return null;
 			}
 		}
 
+		/**
+		 * @return true if the given EXIF thumbnail is large enough to compute
+		 *         the preview from it
+		 */
+		boolean isSufficient(final BufferedImage aThumbnail, final PictureOrientation aOrientation) {
+			if (aThumbnail == null) {
+				return false;
+			}
+
+			final int exivHeight;
+			final int exivWidth;
+			if (aOrientation.isHorizontal()) {
+				exivHeight = aThumbnail.getHeight();
+				exivWidth = aThumbnail.getWidth();
+			} else {
+				exivHeight = aThumbnail.getWidth();
+				exivWidth = aThumbnail.getHeight();
+			}
+
+			final int height = cacheKey.getHeight();
+			final int width = cacheKey.getWidth();
+
+			return (!rotatable && (exivHeight >= height || exivWidth >= width))
+					|| (rotatable && (Math.max(exivHeight, exivWidth) >= Math.max(height, width)));
+		}
+
 		private BufferedImage createPreview(final BufferedImage aImage, final int aWidth, int aHeight) {
 			final BufferedImage temp = GraphicsUtilities.createCompatibleImage(aImage, aWidth, aHeight);
 			final Graphics2D g2 = temp.createGraphics();
@@ -240,30 +286,68 @@ public class PreviewCreator {
 	private static final int BORDER_SIZE = 1;
 	private static final Logger logger = Logger.getLogger(PreviewCreator.class.getSimpleName());
 
-	private final ExecutorService threadPool;
+	private final PreviewScheduler scheduler;
 	final PreviewConsumer previewConsumer;
 
 	/**
 	 * @param aPreviewConsumer
 	 *            The preview consumer that is informed when a preview is
 	 *            ready
+	 * @param aScheduler
+	 *            The scheduler that decides when previews are computed
 	 */
-	public PreviewCreator(final PreviewConsumer aPreviewConsumer) {
+	public PreviewCreator(final PreviewConsumer aPreviewConsumer, final PreviewScheduler aScheduler) {
 		previewConsumer = aPreviewConsumer;
-		int threads = 2 * Runtime.getRuntime().availableProcessors();
-		logger.fine("Using " + threads + " threads for preview computation");
-		threadPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LifoBlockingDeque<Runnable>());
+		scheduler = aScheduler;
 	}
 
 	/**
 	 * Request a preview. The actual computation is done using multithreaded
 	 * worker thread. Once a preview is finished, the
+	 * {@link PreviewConsumer} is informed about it. Previews are computed in
+	 * order of their priority, the most recently requested previews first
+	 * 
+	 * @param aKey
+	 * @param aRotatable
+	 * @param aPriority
+	 */
+	public void requestPreview(final PreviewKey aKey, final boolean aRotatable, final PreviewPriority aPriority) {
+		scheduler.schedule(new Worker(aKey, aRotatable, previewConsumer), aPriority);
+	}
+
+	/**
+	 * Compute a preview right away in the calling thread from an EXIF
+	 * thumbnail that has already been read. Once the preview is finished, the
 	 * {@link PreviewConsumer} is informed about it
 	 * 
 	 * @param aKey
 	 * @param aRotatable
+	 * @param aThumbnail
+	 *            the EXIF thumbnail of the picture, may be null
+	 * @param aOrientation
+	 *            the orientation of the picture
+	 * @return false if the thumbnail is missing or too small for the preview,
+	 *         no preview is computed then
+	 */
+	public boolean createPreview(final PreviewKey aKey, final boolean aRotatable, final BufferedImage aThumbnail,
+			final PictureOrientation aOrientation) {
+		final Worker worker = new Worker(aKey, aRotatable, previewConsumer, aThumbnail, aOrientation);
+		if (!worker.isSufficient(aThumbnail, aOrientation)) {
+			return false;
+		}
+
+		worker.run();
+		return true;
+	}
+
+	/**
+	 * Raise the priority of a preview that has been requested before but is
+	 * not yet being computed
+	 * 
+	 * @param aKey
+	 * @param aPriority
 	 */
-	public void requestPreview(final PreviewKey aKey, final boolean aRotatable) {
-		threadPool.execute(new Worker(aKey, aRotatable, previewConsumer));
+	public void promotePreview(final PreviewKey aKey, final PreviewPriority aPriority) {
+		scheduler.promote(aKey, previewConsumer, aPriority);
 	}
 }
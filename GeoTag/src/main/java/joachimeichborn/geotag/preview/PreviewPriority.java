@@ -0,0 +1,35 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.preview;
+
+/**
+ * Priority classes for preview requests. Pending requests of a higher class
+ * are always computed before those of a lower class
+ * 
+ * @author Joachim von Eichborn
+ */
+public enum PreviewPriority {
+	/** Previews the user is actively waiting for, like the selected picture */
+	INTERACTIVE,
+	/** Previews that are currently visible, like thumbnails on the map */
+	VISIBLE_PREFETCH,
+	/** Previews that are computed in advance, like after loading pictures */
+	BACKGROUND;
+}
@@ -57,12 +57,12 @@ public class PreviewRepo implements PreviewConsumer {
 	final BufferedImage placeholder;
 
 	@Inject
-	public PreviewRepo(final DatabaseAccess aDbAccess) {
+	public PreviewRepo(final DatabaseAccess aDbAccess, final PreviewScheduler aScheduler) {
 		LOGGER.fine("Constructing preview repo");
 		
 		dbAccess = aDbAccess;
 		requestedImages = Multimaps.synchronizedMultimap(HashMultimap.create());
-		previewCreator = new PreviewCreator(this);
+		previewCreator = new PreviewCreator(this, aScheduler);
 
 		BufferedImage placeholderTmp = null;
 		try {
@@ -78,6 +78,8 @@ public class PreviewRepo implements PreviewConsumer {
 	 * Request a preview. If it already exists, it is returned immediately.
 	 * Otherwise, a placeholder image is returned and the requesting
 	 * {@link PreviewConsumer} is informed once the actual preview is ready.
+	 * The preview is computed with {@link PreviewPriority#INTERACTIVE}
+	 * priority.
 	 * 
 	 * @param aCacheKey
 	 * @param aRotatable
@@ -85,6 +87,23 @@ public class PreviewRepo implements PreviewConsumer {
 	 * @return
 	 */
 	public BufferedImage getPreview(final PreviewKey aCacheKey, final boolean aRotatable, final PreviewConsumer aConsumer) {
+		return getPreview(aCacheKey, aRotatable, aConsumer, PreviewPriority.INTERACTIVE);
+	}
+
+	/**
+	 * Request a preview. If it already exists, it is returned immediately.
+	 * Otherwise, a placeholder image is returned and the requesting
+	 * {@link PreviewConsumer} is informed once the actual preview is ready.
+	 * 
+	 * @param aCacheKey
+	 * @param aRotatable
+	 * @param aConsumer
+	 * @param aPriority
+	 *            the priority with which a missing preview is computed
+	 * @return
+	 */
+	public BufferedImage getPreview(final PreviewKey aCacheKey, final boolean aRotatable,
+			final PreviewConsumer aConsumer, final PreviewPriority aPriority) {
 		BufferedImage entry = dbAccess.getPreview(aCacheKey);
 
 		if (entry != null) {
@@ -108,17 +127,19 @@ public class PreviewRepo implements PreviewConsumer {
 					LOGGER.fine("Adding consumer for key " + aCacheKey + ": " + aConsumer);
 					requestedImages.put(aCacheKey, aConsumer);
 				}
+				previewCreator.promotePreview(aCacheKey, aPriority);
 			} else if (aRotatable && requestedImages.containsKey(rotatedKey)) {
 				if (!requestedImages.get(rotatedKey).contains(aConsumer)) {
 					LOGGER.fine("Adding consumer for rotated key" + rotatedKey + ": " + aConsumer);
 					requestedImages.put(rotatedKey, aConsumer);
 				}
+				previewCreator.promotePreview(rotatedKey, aPriority);
 			} else {
 				LOGGER.fine("Adding consumer for " + aCacheKey + ": " + aConsumer);
 				requestedImages.put(aCacheKey, aConsumer);
 
 				LOGGER.fine("Requesting preview for " + aCacheKey);
-				previewCreator.requestPreview(aCacheKey, aRotatable);
+				previewCreator.requestPreview(aCacheKey, aRotatable, aPriority);
 			}
 		}
 
@@ -25,13 +25,15 @@ import java.util.logging.Logger;
 import javax.inject.Inject;
 
 import joachimeichborn.geotag.io.database.DatabaseAccess;
+import joachimeichborn.geotag.io.jpeg.PictureMetadataReader;
 
 /**
  * Checks for a given {@link PreviewKey}, if any preview for that file exist -
  * disregarding it's size. If not, a new preview is requested for that key. This
  * is used to ensure that any previews exist for all pictures that are loaded.
  * This helps avoiding to show the placeholder image because that way always a
- * preview (maybe with an incorrect size) is present
+ * preview (maybe with an incorrect size) is present. Previews are computed
+ * with {@link PreviewPriority#BACKGROUND} priority
  * 
  * @author Joachim von Eichborn
  */
@@ -42,18 +44,36 @@ public class PreviewRequester implements PreviewConsumer {
 	private final PreviewCreator previewCreator;
 
 	@Inject
-	public PreviewRequester(final DatabaseAccess aDbAccess) {
+	public PreviewRequester(final DatabaseAccess aDbAccess, final PreviewScheduler aScheduler) {
 		dbAccess = aDbAccess;
-		previewCreator = new PreviewCreator(this);
+		previewCreator = new PreviewCreator(this, aScheduler);
 	}
 
-	public void triggerPreviewCreation(final PreviewKey aCacheKey) {
+	/**
+	 * Ensure that a preview exists for the given key. If it does not and the
+	 * given meta data of the picture contains a large enough EXIF thumbnail,
+	 * the preview is computed right away from that thumbnail, such that the
+	 * picture file is not opened again. Otherwise only the key is queued and
+	 * the worker reads the picture when it runs
+	 * 
+	 * @param aCacheKey
+	 * @param aMetadata
+	 *            the meta data that has already been read for the picture,
+	 *            null if the picture file has not been opened
+	 */
+	public void triggerPreviewCreation(final PreviewKey aCacheKey, final PictureMetadataReader aMetadata) {
 		if (dbAccess.doesPreviewExist(aCacheKey.getFile())) {
 			return;
 		}
 
+		if (aMetadata != null && aMetadata.getSource() != null && previewCreator.createPreview(aCacheKey, true,
+				aMetadata.getThumbnail(), aMetadata.getOrientation())) {
+			LOGGER.fine("Created preview for " + aCacheKey + " from the thumbnail read with the meta data");
+			return;
+		}
+
 		LOGGER.fine("Triggering preview creation for " + aCacheKey);
-		previewCreator.requestPreview(aCacheKey, true);
+		previewCreator.requestPreview(aCacheKey, true, PreviewPriority.BACKGROUND);
 	}
 
 	/**
@@ -0,0 +1,198 @@
+/*
+GeoTag
+
+Copyright (C) 2015  Joachim von Eichborn
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package joachimeichborn.geotag.preview;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
+import joachimeichborn.geotag.preview.PreviewCreator.Worker;
+
+/**
+ * Schedules the computation of previews for all {@link PreviewCreator}s.
+ * Pending previews are kept here instead of in the queue of the CPU pool, so
+ * that they can be dispatched by {@link PreviewPriority}: a new request is
+ * always started before any pending request of a lower class. Within a class,
+ * the most recently requested previews are computed first.<br>
+ * Background previews use at most half of the available threads and are not
+ * started at all while interactive previews are pending or being computed, so
+ * there is always a thread available for interactive requests quickly.
+ * 
+ * @author Joachim von Eichborn
+ */
+@Creatable
+@Singleton
+public class PreviewScheduler {
+	private static final Logger logger = Logger.getLogger(PreviewScheduler.class.getSimpleName());
+
+	private final ExecutorService threadPool;
+	private final int slots;
+	private final int backgroundSlots;
+	private final Map<PreviewPriority, Deque<Worker>> pendingWorkers;
+	private final Map<PreviewPriority, Integer> runningWorkers;
+
+	@Inject
+	public PreviewScheduler(final ExecutionService aExecutionService) {
+		this(aExecutionService.getExecutor(PoolType.CPU),
+				aExecutionService.getMetrics(PoolType.CPU).getMaximumThreads());
+	}
+
+	/**
+	 * @param aThreadPool
+	 *            the pool the previews are computed in
+	 * @param aSlots
+	 *            the maximum number of previews computed at the same time
+	 */
+	PreviewScheduler(final ExecutorService aThreadPool, final int aSlots) {
+		threadPool = aThreadPool;
+		slots = Math.max(1, aSlots);
+		backgroundSlots = Math.max(1, slots / 2);
+
+		pendingWorkers = new EnumMap<>(PreviewPriority.class);
+		runningWorkers = new EnumMap<>(PreviewPriority.class);
+		for (final PreviewPriority priority : PreviewPriority.values()) {
+			pendingWorkers.put(priority, new ArrayDeque<>());
+			runningWorkers.put(priority, 0);
+		}
+
+		logger.fine("Computing up to " + slots + " previews at the same time, " + backgroundSlots
+				+ " of them in background");
+	}
+
+	/**
+	 * Schedule the computation of a preview
+	 * 
+	 * @param aWorker
+	 *            the worker computing the preview
+	 * @param aPriority
+	 */
+	public synchronized void schedule(final Worker aWorker, final PreviewPriority aPriority) {
+		pendingWorkers.get(aPriority).addFirst(aWorker);
+		dispatch();
+	}
+
+	/**
+	 * Move a pending preview of the given consumer to a higher priority class,
+	 * e.g. when a picture whose preview is prefetched gets selected
+	 * 
+	 * @param aKey
+	 * @param aConsumer
+	 *            the consumer the preview was requested for
+	 * @param aPriority
+	 *            the new priority
+	 */
+	public synchronized void promote(final PreviewKey aKey, final PreviewConsumer aConsumer,
+			final PreviewPriority aPriority) {
+		for (final PreviewPriority priority : PreviewPriority.values()) {
+			if (priority.compareTo(aPriority) <= 0) {
+				continue;
+			}
+
+			final Iterator<Worker> iterator = pendingWorkers.get(priority).iterator();
+			while (iterator.hasNext()) {
+				final Worker worker = iterator.next();
+				if (worker.getCacheKey().equals(aKey) && worker.getPreviewConsumer() == aConsumer) {
+					iterator.remove();
+					logger.fine("Promoting preview " + aKey + " from " + priority + " to " + aPriority);
+					schedule(worker, aPriority);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param aPriority
+	 * @return the number of pending previews of the given class
+	 */
+	public synchronized int getPendingCount(final PreviewPriority aPriority) {
+		return pendingWorkers.get(aPriority).size();
+	}
+
+	/**
+	 * Start pending workers as long as there are free slots
+	 */
+	private void dispatch() {
+		while (getRunningCount() < slots) {
+			final PreviewPriority priority = nextPriority();
+			if (priority == null) {
+				return;
+			}
+
+			final Worker worker = pendingWorkers.get(priority).pollFirst();
+			try {
+				threadPool.execute(() -> run(worker, priority));
+			} catch (RejectedExecutionException e) {
+				logger.fine("Discarding preview request for " + worker.getCacheKey() + ": " + e.getMessage());
+				continue;
+			}
+			runningWorkers.put(priority, runningWorkers.get(priority) + 1);
+		}
+	}
+
+	private PreviewPriority nextPriority() {
+		if (!pendingWorkers.get(PreviewPriority.INTERACTIVE).isEmpty()) {
+			return PreviewPriority.INTERACTIVE;
+		}
+
+		if (!pendingWorkers.get(PreviewPriority.VISIBLE_PREFETCH).isEmpty()) {
+			return PreviewPriority.VISIBLE_PREFETCH;
+		}
+
+		if (!pendingWorkers.get(PreviewPriority.BACKGROUND).isEmpty()
+				&& runningWorkers.get(PreviewPriority.INTERACTIVE) == 0
+				&& runningWorkers.get(PreviewPriority.BACKGROUND) < backgroundSlots) {
+			return PreviewPriority.BACKGROUND;
+		}
+
+		return null;
+	}
+
+	private int getRunningCount() {
+		int running = 0;
+		for (final int count : runningWorkers.values()) {
+			running += count;
+		}
+		return running;
+	}
+
+	private void run(final Worker aWorker, final PreviewPriority aPriority) {
+		try {
+			aWorker.run();
+		} finally {
+			synchronized (this) {
+				runningWorkers.put(aPriority, runningWorkers.get(aPriority) - 1);
+				dispatch();
+			}
+		}
+	}
+}
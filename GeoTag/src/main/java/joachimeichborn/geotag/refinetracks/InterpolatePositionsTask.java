@@ -70,8 +70,8 @@ public class InterpolatePositionsTask extends AbstractTrackImprovementTask {
 						+ iPlus1Coordinates.getAltitude()) / 3.0;
 
 				final Coordinates coordinates = new Coordinates(latitude, longitude, altitude);
-				aPositions.add(new PositionData(coordinates, position.getTimeStamp(), position.getName(),
-						position.getAccuracy()));
+				aPositions.add(new PositionData(coordinates, position.getTimeMillis(), position.getTimeZone(),
+						position.getName(), position.getAccuracy()));
 			}
 
 			if (clonedPositions.size() > 1) {
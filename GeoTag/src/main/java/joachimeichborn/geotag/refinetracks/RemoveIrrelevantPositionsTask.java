@@ -70,8 +70,8 @@ public class RemoveIrrelevantPositionsTask extends AbstractTrackImprovementTask
 						&& position.getCoordinates().equals(next.getCoordinates())
 						&& Float.floatToIntBits(position.getAccuracy()) == Float.floatToIntBits(previous.getAccuracy())
 						&& Float.floatToIntBits(position.getAccuracy()) == Float.floatToIntBits(next.getAccuracy())
-						&& position.getTimeStamp().getMillis() - previous.getTimeStamp().getMillis() < MAX_TIME_DELTA
-						&& next.getTimeStamp().getMillis() - position.getTimeStamp().getMillis() < MAX_TIME_DELTA)) {
+						&& position.getTimeMillis() - previous.getTimeMillis() < MAX_TIME_DELTA
+						&& next.getTimeMillis() - position.getTimeMillis() < MAX_TIME_DELTA)) {
 					aPositions.add(position);
 				}
 			}
@@ -25,7 +25,6 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -47,8 +46,16 @@ public class ReplacePositionsByAccuracyComparisonTask extends AbstractTrackImpro
 	private final static Logger logger = Logger.getLogger(ReplacePositionsByAccuracyComparisonTask.class.getSimpleName());
 	static final String REPLACED_POSITION_NAME = "Accuracy replacement";
 
-	public ReplacePositionsByAccuracyComparisonTask(final ImproveTrackOptions aOptions) {
+	private final ExecutorService threadPool;
+
+	/**
+	 * @param aOptions
+	 * @param aThreadPool
+	 *            the shared pool the replacement chunks are computed in
+	 */
+	public ReplacePositionsByAccuracyComparisonTask(final ImproveTrackOptions aOptions, final ExecutorService aThreadPool) {
 		super(aOptions);
+		threadPool = aThreadPool;
 	}
 
 	@Override
@@ -99,7 +106,7 @@ public class ReplacePositionsByAccuracyComparisonTask extends AbstractTrackImpro
 		final PositionData secondPosition = aPositions.get(indexSecondPosition);
 		if (isFirstPositionReplacementForSecondPosition(firstPosition, secondPosition)) {
 			aPositions.set(indexSecondPosition,
-					new PositionData(firstPosition.getCoordinates(), secondPosition.getTimeStamp(), REPLACED_POSITION_NAME, firstPosition.getAccuracy()));
+					new PositionData(firstPosition.getCoordinates(), secondPosition.getTimeMillis(), secondPosition.getTimeZone(), REPLACED_POSITION_NAME, firstPosition.getAccuracy()));
 			return true;
 		}
 
@@ -123,8 +130,6 @@ public class ReplacePositionsByAccuracyComparisonTask extends AbstractTrackImpro
 		int chunks = Runtime.getRuntime().availableProcessors();
 		logger.fine("Splitting positions in " + chunks + " chunks for replacement by location accuracy");
 
-		final ExecutorService threadPool = Executors.newCachedThreadPool();
-
 		boolean replacementOccured = true;
 		int replacementCount = 0;
 
@@ -27,6 +27,8 @@ import java.util.logging.Logger;
 
 import org.eclipse.swt.graphics.RGB;
 
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.PositionData;
 import joachimeichborn.geotag.model.Track;
 
@@ -36,14 +38,16 @@ public class TrackRefiner {
 	private List<Track> tracks;
 	private List<TrackImprovementTask> tasks;
 
-	public TrackRefiner(final ImproveTrackOptions aImprovementOptions, final List<Track> aTracks) {
+	public TrackRefiner(final ImproveTrackOptions aImprovementOptions, final List<Track> aTracks,
+			final ExecutionService aExecutionService) {
 		improvementOptions = aImprovementOptions;
 		tracks = new LinkedList<>(aTracks);
 
 		tasks = new LinkedList<>();
 		tasks.add(new RemoveDuplicatePositionsTask(improvementOptions));
 		tasks.add(new FilterPositionsByPairwiseDistanceTask(improvementOptions));
-		tasks.add(new ReplacePositionsByAccuracyComparisonTask(improvementOptions));
+		tasks.add(new ReplacePositionsByAccuracyComparisonTask(improvementOptions,
+				aExecutionService.getExecutor(PoolType.CPU)));
 		tasks.add(new FilterPositionsByAccuracyRadiusTask(improvementOptions));
 		tasks.add(new RemoveIrrelevantPositionsTask(improvementOptions));
 		tasks.add(new InterpolatePositionsTask(improvementOptions));
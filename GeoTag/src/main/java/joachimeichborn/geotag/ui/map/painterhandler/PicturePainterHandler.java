@@ -44,6 +44,7 @@ import joachimeichborn.geotag.model.Coordinates;
 import joachimeichborn.geotag.model.Picture;
 import joachimeichborn.geotag.preview.PreviewConsumer;
 import joachimeichborn.geotag.preview.PreviewKey;
+import joachimeichborn.geotag.preview.PreviewPriority;
 import joachimeichborn.geotag.preview.PreviewRepo;
 import joachimeichborn.geotag.ui.map.ImageWaypointRenderer;
 import joachimeichborn.geotag.ui.parts.MapView;
@@ -121,7 +122,8 @@ public class PicturePainterHandler extends AbstractPainterHandler<Picture>implem
 
 					if (coordinates != null) {
 						final PreviewKey key = new PreviewKey(picture.getFile().toString(), LONGER_DIMENSION, shorterDimension);
-						final BufferedImage thumbnail = previewRepo.getPreview(key, true, this);
+						final BufferedImage thumbnail = previewRepo.getPreview(key, true, this,
+								PreviewPriority.VISIBLE_PREFETCH);
 						requestedImages.add(key.getFile());
 
 						final WaypointPainter<Waypoint> waypointPainter = new WaypointPainter<>();
@@ -19,17 +19,20 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.ui.parts;
 
-import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
-import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.databinding.beans.BeanProperties;
 import org.eclipse.core.databinding.beans.IBeanValueProperty;
 import org.eclipse.core.databinding.observable.list.IObservableList;
@@ -39,7 +42,6 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.e4.core.contexts.ContextInjectionFactory;
 import org.eclipse.e4.core.contexts.IEclipseContext;
 import org.eclipse.e4.core.di.extensions.Preference;
 import org.eclipse.e4.ui.di.Persist;
@@ -47,7 +49,6 @@ import org.eclipse.e4.ui.di.UISynchronize;
 import org.eclipse.e4.ui.model.application.ui.MDirtyable;
 import org.eclipse.e4.ui.workbench.modeling.ESelectionService;
 import org.eclipse.jface.databinding.viewers.ObservableListContentProvider;
-import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.IStructuredSelection;
@@ -65,17 +66,16 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
-import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
-import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.TableColumn;
 
 import joachimeichborn.geotag.LifeCycleManager;
 import joachimeichborn.geotag.geocode.Geocoder;
 import joachimeichborn.geotag.geocode.GeocodingProvider;
-import joachimeichborn.geotag.handlers.PictureLoader;
-import joachimeichborn.geotag.io.jpeg.PictureAnnotationException;
-import joachimeichborn.geotag.io.jpeg.PictureMetadataWriter;
+import joachimeichborn.geotag.handlers.PictureAnnotationJob;
+import joachimeichborn.geotag.io.jpeg.AnnotationType;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.Geocoding;
 import joachimeichborn.geotag.model.Picture;
 import joachimeichborn.geotag.model.PicturesRepo;
@@ -109,6 +109,7 @@ public class GeocodingView {
 	private final IEclipseContext eclipseContext;
 	private final UISynchronize sync;
 	private final PicturesRepo picturesRepo;
+	private final ExecutionService executionService;
 	private TableViewer inputPictureViewer;
 	private TableViewer geocodedPictureViewer;
 	private Button geocodeButton;
@@ -125,12 +126,13 @@ public class GeocodingView {
 	private boolean geocodingInProgress;
 
 	@Inject
-	public GeocodingView(final PicturesRepo aPicturesRepo, final UISynchronize aSync, final IEclipseContext aEclipseContext, final MDirtyable aDirtyable, final ESelectionService aSelectionService) {
+	public GeocodingView(final PicturesRepo aPicturesRepo, final UISynchronize aSync, final IEclipseContext aEclipseContext, final MDirtyable aDirtyable, final ESelectionService aSelectionService, final ExecutionService aExecutionService) {
  		picturesRepo = aPicturesRepo;
 		sync = aSync;
 		eclipseContext = aEclipseContext;
 		dirtyable = aDirtyable;
 		selectionService = aSelectionService;
+		executionService = aExecutionService;
 
 		selectedPictures = new PictureSelection();
 		geocodedPictures = new LinkedList<>();
@@ -275,33 +277,7 @@ public class GeocodingView {
 	public void savePictureGeocoding() {
 		LOGGER.info("Writing " + geocodedPictures.size() + " picture geocodings");
 
-		final List<Path> failedPictures = new LinkedList<>();
-
-		final String timestamp = String.valueOf(System.currentTimeMillis());
-		for (final Picture picture : geocodedPictures) {
-			final PictureMetadataWriter metadataWriter = new PictureMetadataWriter(picture, timestamp);
-			ContextInjectionFactory.inject(metadataWriter, eclipseContext);
-			try {
-				metadataWriter.writeGeocodingMetadata();
-			} catch (PictureAnnotationException e) {
-				LOGGER.log(Level.SEVERE, "Annotating geocoding for " + picture.getFile() + " failed: " + e.getMessage(),
-						e);
-				failedPictures.add(picture.getFile());
-			}
-		}
-
-		LOGGER.info("Finished writing picture geocodings");
-
-		if (!failedPictures.isEmpty()) {
-			MessageDialog.openError(new Shell(Display.getCurrent()),
-					failedPictures.size() + " pictures failed in geocoding annotation",
-					failedPictures.size()
-							+ " pictures could not be annotated with their geocoding. Please check the log, if picture corruption might has happened.\n\nAffected pictures are:\n"
-							+ StringUtils.join(failedPictures, "\n"));
-		}
-
-		final List<Path> reloadPictureFiles = new LinkedList<>();
-		geocodedPictures.forEach(picture -> reloadPictureFiles.add(picture.getFile()));
+		PictureAnnotationJob.submit(AnnotationType.GEOCODING, geocodedPictures, executionService, eclipseContext);
 
 		geocodedPictures.clear();
 		geocodedPictureViewer.refresh();
@@ -309,10 +285,6 @@ public class GeocodingView {
 		nonGeocodedPictureViewer.refresh();
 		dirtyable.setDirty(false);
 		updateButtonStates();
-
-		final PictureLoader pictureLoader = new PictureLoader();
-		ContextInjectionFactory.inject(pictureLoader, eclipseContext);
-		pictureLoader.openPictures(reloadPictureFiles);
 	}
 
 	private void updateButtonStates() {
@@ -449,22 +421,42 @@ public class GeocodingView {
 			protected IStatus run(final IProgressMonitor aMonitor) {
 				aMonitor.beginTask("Geocoding " + selectedPictures.getSelection().size() + " pictures", selectedPictures.getSelection().size());
 
+				final ExecutorService threadPool = executionService.getExecutor(PoolType.NETWORK);
+				final Map<Picture, Future<Geocoding>> futures = new LinkedHashMap<>();
+
 				for (final Picture picture : selectedPictures.getSelection()) {
 					if (picture.getGeocoding() != null && !overwrite) {
 						LOGGER.fine("Ignoring picture " + picture.getFile().toString() + " with existing geocoding");
 						nonGeocodedPictures.add(picture);
+						aMonitor.worked(1);
 					} else {
-						final Geocoding geocoding = geoCoder.queryPosition(picture.getCoordinates());
-						final Picture codedPicture = new Picture(picture.getFile(), picture.getTime(),
-								picture.getCoordinates(), geocoding);
-
-						if (geocoding != null) {
-							geocodedPictures.add(codedPicture);
-						} else {
-							nonGeocodedPictures.add(picture);
-						}
+						futures.put(picture, threadPool.submit(() -> {
+							final Geocoding geocoding = geoCoder.queryPosition(picture.getCoordinates());
+							aMonitor.worked(1);
+							return geocoding;
+						}));
+					}
+				}
+
+				for (final Map.Entry<Picture, Future<Geocoding>> entry : futures.entrySet()) {
+					final Picture picture = entry.getKey();
+					Geocoding geocoding = null;
+					try {
+						geocoding = entry.getValue().get();
+					} catch (InterruptedException e) {
+						LOGGER.log(Level.FINE, "Waiting for geocoding was interrupted", e);
+						entry.getValue().cancel(true);
+						Thread.currentThread().interrupt();
+					} catch (ExecutionException e) {
+						LOGGER.log(Level.FINE, "Geocoding " + picture.getFile() + " failed", e);
+					}
+
+					if (geocoding != null) {
+						geocodedPictures.add(new Picture(picture.getFile(), picture.getTime(), picture.getTimeMillis(),
+								picture.getCameraModel(), picture.getCoordinates(), geocoding));
+					} else {
+						nonGeocodedPictures.add(picture);
 					}
-					aMonitor.worked(1);
 				}
 
 				LOGGER.info("Geocoding " + selectedPictures.getSelection().size() + " pictures completed");
@@ -19,17 +19,15 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 package joachimeichborn.geotag.ui.parts;
 
-import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
-import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.databinding.beans.BeanProperties;
 import org.eclipse.core.databinding.beans.IBeanValueProperty;
 import org.eclipse.core.databinding.observable.list.IObservableList;
@@ -71,10 +69,12 @@ import org.eclipse.swt.widgets.Scale;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.TableColumn;
 
-import joachimeichborn.geotag.handlers.PictureLoader;
-import joachimeichborn.geotag.io.jpeg.PictureAnnotationException;
-import joachimeichborn.geotag.io.jpeg.PictureMetadataWriter;
+import joachimeichborn.geotag.handlers.PictureAnnotationJob;
+import joachimeichborn.geotag.io.jpeg.AnnotationType;
+import joachimeichborn.geotag.misc.ClockOffsetEstimate;
+import joachimeichborn.geotag.misc.ClockOffsetEstimator;
 import joachimeichborn.geotag.misc.ColorPreviewImageGenerator;
+import joachimeichborn.geotag.misc.ExecutionService;
 import joachimeichborn.geotag.misc.PictureAnnotator;
 import joachimeichborn.geotag.model.Picture;
 import joachimeichborn.geotag.model.PicturesRepo;
@@ -95,6 +95,9 @@ public class PositionAnnotationView {
 	private static final String ANNOTATED_PICTURES_MSG = "%d pictures successfully annotated";
 	private static final String PICTURE_SELECTION_MSG = "Selected %d pictures, %d of those already contain position information";
 	private static final String TRACK_SELECTION_MSG = "Selected %d tracks with %d positions";
+	private static final String CLOCK_OFFSET_MSG = "%s: %s (matches %d of %d pictures, mean deviation %d s)";
+	private static final long OFFSET_ESTIMATION_RANGE = 12 * 60 * 60 * 1000;
+	private static final long OFFSET_ESTIMATION_STEP = 1000;
 
 	private class AnnotationViewerSelectionListener implements ISelectionChangedListener {
 
@@ -116,6 +119,7 @@ public class PositionAnnotationView {
 	private final IEclipseContext eclipseContext;
 	private final MDirtyable dirtyable;
 	private final UISynchronize sync;
+	private final ExecutionService executionService;
 	private TableViewer trackViewer;
 	private TableViewer pictureViewer;
 	private TrackSelection selectedTracks;
@@ -123,6 +127,7 @@ public class PositionAnnotationView {
 	private Label selectedTracksLabel;
 	private Label selectedPicturesLabel;
 	private Button computeAnnotationButton;
+	private Button estimateOffsetsButton;
 	private TableViewer annotatedPictureViewer;
 	private Button saveAnnotationButton;
 	private TableViewer nonAnnotatedPictureViewer;
@@ -141,13 +146,14 @@ public class PositionAnnotationView {
 	private boolean annotationInProgress;
 
 	@Inject
-	public PositionAnnotationView(final TracksRepo aTracksRepo, final PicturesRepo aPicturesRepo, final ESelectionService aSelectionService, final IEclipseContext aEclipseContext, final MDirtyable aDirtyable, final UISynchronize aSync) {
+	public PositionAnnotationView(final TracksRepo aTracksRepo, final PicturesRepo aPicturesRepo, final ESelectionService aSelectionService, final IEclipseContext aEclipseContext, final MDirtyable aDirtyable, final UISynchronize aSync, final ExecutionService aExecutionService) {
 		tracksRepo = aTracksRepo;
 		picturesRepo = aPicturesRepo;
 		selectionService = aSelectionService;
 		eclipseContext = aEclipseContext;
 		dirtyable = aDirtyable;
 		sync = aSync;
+		executionService = aExecutionService;
 		
 		selectedTracks = new TrackSelection();
 		selectedPictures = new PictureSelection();
@@ -367,9 +373,7 @@ public class PositionAnnotationView {
 		initializeSettingsPange(settingsPane);
 
 		computeAnnotationButton = new Button(aParent, SWT.NONE);
-		final GridData computButtonLayoutData = new GridData(SWT.FILL, SWT.FILL, true, false);
-		computButtonLayoutData.horizontalSpan = 2;
-		computeAnnotationButton.setLayoutData(computButtonLayoutData);
+		computeAnnotationButton.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, false));
 		computeAnnotationButton.setText("Compute matching positions");
 		computeAnnotationButton.addSelectionListener(new SelectionAdapter() {
 			@Override
@@ -377,6 +381,16 @@ public class PositionAnnotationView {
 				annotatePictures();
 			}
 		});
+
+		estimateOffsetsButton = new Button(aParent, SWT.NONE);
+		estimateOffsetsButton.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, false));
+		estimateOffsetsButton.setText("Estimate camera clock offsets");
+		estimateOffsetsButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(final SelectionEvent aEvent) {
+				estimateClockOffsets();
+			}
+		});
 	}
 
 	private void initializeSettingsPange(final Composite aParent) {
@@ -408,40 +422,14 @@ public class PositionAnnotationView {
 	public void savePictureAnnotations() {
 		logger.info("Writing " + annotatedPictures.size() + " position annotations");
 
-		final List<Path> failedPictures = new LinkedList<>();
-
-		final String timestamp = String.valueOf(System.currentTimeMillis());
-		for (final Picture picture : annotatedPictures) {
-			final PictureMetadataWriter metadataWriter = new PictureMetadataWriter(picture, timestamp);
-			ContextInjectionFactory.inject(metadataWriter, eclipseContext);
-			try {
-				metadataWriter.writePositionMetadata();
-			} catch (PictureAnnotationException e) {
-				logger.severe("Annotating position metadata for " + picture.getFile() + " failed: " + e.getMessage());
-				failedPictures.add(picture.getFile());
-			}
-		}
+		PictureAnnotationJob.submit(AnnotationType.POSITION, annotatedPictures, executionService, eclipseContext);
 
-		logger.info("Finished writing position annotations");
-
-		if (!failedPictures.isEmpty()) {
-			MessageDialog.openError(new Shell(Display.getCurrent()),
-					failedPictures.size() + " pictures failed in position annotation",
-					failedPictures.size()
-							+ " pictures could not be annotated with their position. Please check the log, if picture corruption might has happened.\n\nAffected pictures are:\n"
-							+ StringUtils.join(failedPictures, "\n"));
-		}
-
-		final List<Path> reloadPictureFiles  = annotatedPictures.stream().map(Picture::getFile).collect(Collectors.toList());
-		
 		annotatedPictures.clear();
 		annotatedPictureViewer.refresh();
 		nonAnnotatedPictures.clear();
 		nonAnnotatedPictureViewer.refresh();
 		dirtyable.setDirty(false);
 		updateButtonStates();
-
-		new PictureLoader().openPictures(reloadPictureFiles);
 	}
 
 	private int getTolerance(final int aScalePosition) {
@@ -551,6 +539,7 @@ public class PositionAnnotationView {
 				final PictureAnnotator annotator = new PictureAnnotator(selectedTracks.getSelection(), selectedPictures.getSelection(), tolerance,
 						overwrite);
 				ContextInjectionFactory.inject(annotator, eclipseContext);
+				annotator.setExecutionService(executionService);
 				annotator.computeMatches();
 
 				logger.info("Annotating " + selectedPictures.getSelection().size() + " pictures completed");
@@ -585,9 +574,77 @@ public class PositionAnnotationView {
 		job.schedule();
 	}
 
+	private void estimateClockOffsets() {
+		annotationInProgress = true;
+		updateButtonStates();
+
+		logger.info("Estimating clock offsets of " + selectedPictures.getSelection().size() + " pictures using "
+				+ selectedTracks.getSelection().size() + " tracks...");
+
+		final int tolerance = getTolerance(toleranceScale.getSelection());
+
+		final Job job = new Job("Estimating camera clock offsets") {
+			@Override
+			protected IStatus run(final IProgressMonitor aMonitor) {
+				aMonitor.beginTask("Estimating clock offsets of " + selectedPictures.getSelection().size() + " pictures using "
+						+ selectedTracks.getSelection().size() + " tracks", -1);
+
+				try {
+					final ClockOffsetEstimator estimator = new ClockOffsetEstimator(selectedTracks.getSelection(),
+							selectedPictures.getSelection(), tolerance, -OFFSET_ESTIMATION_RANGE, OFFSET_ESTIMATION_RANGE,
+							OFFSET_ESTIMATION_STEP);
+					estimator.setExecutionService(executionService);
+					final Map<String, ClockOffsetEstimate> estimates = estimator.estimate();
+
+					final StringBuilder message = new StringBuilder();
+					for (final ClockOffsetEstimate estimate : estimates.values()) {
+						message.append(String.format(CLOCK_OFFSET_MSG, estimate.getCameraModel(),
+								formatOffset(estimate.getOffsetMillis()), estimate.getMatchCount(), estimate.getPictureCount(),
+								Math.round(estimate.getMeanDeltaMillis() / 1000))).append('\n');
+					}
+					if (message.length() == 0) {
+						message.append("None of the selected pictures contains a capture time");
+					}
+
+					logger.info("Estimating clock offsets completed: " + estimates.values());
+
+					sync.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							MessageDialog.openInformation(new Shell(Display.getCurrent()), "Estimated camera clock offsets",
+									message.toString());
+						}
+					});
+
+					return Status.OK_STATUS;
+				} finally {
+					// re-enable the view even if the estimation failed
+					aMonitor.done();
+					annotationInProgress = false;
+
+					sync.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							updateButtonStates();
+						}
+					});
+				}
+			}
+		};
+		job.setUser(true);
+		job.schedule();
+	}
+
+	private static String formatOffset(final long aOffsetMillis) {
+		final long seconds = Math.abs(aOffsetMillis) / 1000;
+		return String.format("%s%d:%02d:%02d", aOffsetMillis < 0 ? "-" : "+", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+
 	private void updateButtonStates() {
 		computeAnnotationButton.setEnabled(!annotationInProgress && !dirtyable.isDirty() && selectedTracks.getSelection().size() > 0
 				&& selectedPictures.getSelection().size() > 0);
+		estimateOffsetsButton.setEnabled(!annotationInProgress && selectedTracks.getSelection().size() > 0
+				&& selectedPictures.getSelection().size() > 0);
 		saveAnnotationButton.setEnabled(!annotationInProgress && dirtyable.isDirty());
 		clearAnnotationButton.setEnabled(!annotationInProgress && dirtyable.isDirty());
 		trackViewer.getControl().setEnabled(!annotationInProgress);
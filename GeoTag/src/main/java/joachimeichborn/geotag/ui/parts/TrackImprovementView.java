@@ -39,6 +39,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.e4.core.di.extensions.Preference;
 import org.eclipse.e4.ui.di.Persist;
 import org.eclipse.e4.ui.di.UISynchronize;
 import org.eclipse.e4.ui.model.application.ui.MDirtyable;
@@ -68,16 +69,20 @@ import org.eclipse.swt.widgets.Scale;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.TableColumn;
 
+import joachimeichborn.geotag.LifeCycleManager;
 import joachimeichborn.geotag.handlers.OpenTracksHandler;
 import joachimeichborn.geotag.io.TrackFileFormat;
+import joachimeichborn.geotag.io.parser.TrackCache;
 import joachimeichborn.geotag.io.writer.TrackWriter;
 import joachimeichborn.geotag.misc.ColorPreviewImageGenerator;
+import joachimeichborn.geotag.misc.ExecutionService;
 import joachimeichborn.geotag.model.Track;
 import joachimeichborn.geotag.model.TracksRepo;
 import joachimeichborn.geotag.model.selections.TrackSelection;
 import joachimeichborn.geotag.refinetracks.ImproveTrackOptions.ImproveTrackOptionsBuilder;
 import joachimeichborn.geotag.refinetracks.TrackRefiner;
 import joachimeichborn.geotag.ui.labelprovider.TrackViewerObservableLabelProvider;
+import joachimeichborn.geotag.ui.preferences.GeneralPreferences;
 import joachimeichborn.geotag.ui.tablecomparators.TrackViewerComparator;
 import net.miginfocom.swt.MigLayout;
 
@@ -92,6 +97,8 @@ public class TrackImprovementView {
 	private final MDirtyable dirtyable;
 	private final TracksRepo tracksRepo;
 	private final UISynchronize sync;
+	private final TrackCache trackCache;
+	private final ExecutionService executionService;
 	private final LinkedList<Track> inputTracks;
 	private final ImageRegistry registry;
 	private final ColorPreviewImageGenerator colorPreviewGenerator;
@@ -112,12 +119,18 @@ public class TrackImprovementView {
 	private Scale distanceFactorScale;
 	private TableViewer trackViewer;
 	private boolean improvementInProgress;
+
+	@Inject
+	@Preference(nodePath = LifeCycleManager.PREFERENCES_NODE, value = GeneralPreferences.LOCATION_HISTORY_WINDOW)
+	private int locationHistoryWindow;
 	
 	@Inject
-	public TrackImprovementView(final ESelectionService aSelectionService, final MDirtyable aDirtyable, final TracksRepo aTracksRepo, final UISynchronize aSync) {
+	public TrackImprovementView(final ESelectionService aSelectionService, final MDirtyable aDirtyable, final TracksRepo aTracksRepo, final UISynchronize aSync, final TrackCache aTrackCache, final ExecutionService aExecutionService) {
 		selectionService = aSelectionService;
 		dirtyable = aDirtyable;
 		tracksRepo = aTracksRepo;
+		trackCache = aTrackCache;
+		executionService = aExecutionService;
 		sync = aSync;
 		selectedTracks = new TrackSelection();
 		inputTracks = new LinkedList<>();
@@ -253,7 +266,7 @@ public class TrackImprovementView {
 			protected IStatus run(final IProgressMonitor aMonitor) {
 				aMonitor.beginTask("Improving " + inputTracks.size() + " tracks", -1);
 
-				final TrackRefiner refiner = new TrackRefiner(builder.build(), inputTracks);
+				final TrackRefiner refiner = new TrackRefiner(builder.build(), inputTracks, executionService);
 				refinedTrack = refiner.refine();
 
 				LOGGER.info("Improving " + inputTracks.size() + " tracks completed");
@@ -318,7 +331,8 @@ public class TrackImprovementView {
 			dirtyable.setDirty(false);
 			updateButtonStates();
 
-			OpenTracksHandler.openTracks(file.getParent(), new String[] { file.getName() }, tracksRepo);
+			OpenTracksHandler.openTracks(file.getParent(), new String[] { file.getName() }, tracksRepo, trackCache, executionService,
+					locationHistoryWindow);
 		}
 	}
 
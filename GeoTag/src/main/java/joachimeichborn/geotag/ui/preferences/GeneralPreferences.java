@@ -34,22 +34,45 @@ import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Text;
 
 import joachimeichborn.geotag.LifeCycleManager;
+import joachimeichborn.geotag.io.parser.json.TakeoutParser;
 import net.miginfocom.swt.MigLayout;
 
 public class GeneralPreferences extends PreferencePage {
 	public static final String BACKUP = "backup_pictures";
 	public static final String DB_MAX_ENTRIES = "db_max_entries";
+	public static final String TRACK_CACHE = "track_cache";
+	public static final String TRACK_CACHE_SIZE = "track_cache_size";
+	public static final String LOCATION_HISTORY_WINDOW = "location_history_window";
+	public static final String THREAD_PER_TASK = "thread_per_task";
+	public static final String IO_CONCURRENCY = "io_concurrency";
+	public static final String NETWORK_CONCURRENCY = "network_concurrency";
 
 	private static final Pattern POSITIVE_INTEGER = Pattern.compile("^[1-9]\\d*$");
 	private static final String TITLE = "General";
 	private static final boolean DO_BACKUP_FALLBACK = true;
 	private static final int MAX_ENTRIES_FALLBACK = 20_000;
+	private static final boolean TRACK_CACHE_FALLBACK = true;
+	private static final int TRACK_CACHE_SIZE_FALLBACK = 512;
+	private static final int LOCATION_HISTORY_WINDOW_FALLBACK = TakeoutParser.DEFAULT_WINDOW_HOURS;
+	private static final boolean THREAD_PER_TASK_FALLBACK = false;
+	private static final int IO_CONCURRENCY_FALLBACK = 64;
+	private static final int NETWORK_CONCURRENCY_FALLBACK = 4;
 
 	private final IEclipsePreferences preferences;
 	private final IEclipsePreferences defaultPreferences;
 	private Button doBackup;
 	private Text dbMaxEntries;
 	private boolean dbMaxEntriesValid = true;
+	private Button trackCache;
+	private Text trackCacheSize;
+	private boolean trackCacheSizeValid = true;
+	private Text locationHistoryWindow;
+	private boolean locationHistoryWindowValid = true;
+	private Button threadPerTask;
+	private Text ioConcurrency;
+	private boolean ioConcurrencyValid = true;
+	private Text networkConcurrency;
+	private boolean networkConcurrencyValid = true;
 
 	public GeneralPreferences(final IEclipsePreferences aPreferences) {
 		super(TITLE);
@@ -89,11 +112,100 @@ public class GeneralPreferences extends PreferencePage {
 			}
 		});
 
+		trackCache = new Button(composite, SWT.CHECK);
+		trackCache.setText("Cache parsed tracks for faster re-opening");
+		trackCache.setSelection(preferences.getBoolean(TRACK_CACHE,
+				defaultPreferences.getBoolean(TRACK_CACHE, TRACK_CACHE_FALLBACK)));
+		trackCache.setLayoutData("span 2");
+
+		new Label(composite, SWT.LEFT).setText("Track cache size (MB):");
+		trackCacheSize = new Text(composite, SWT.BORDER);
+		trackCacheSize.setText(String.valueOf(preferences.getInt(TRACK_CACHE_SIZE,
+				defaultPreferences.getInt(TRACK_CACHE_SIZE, TRACK_CACHE_SIZE_FALLBACK))));
+		trackCacheSize.setLayoutData("growx,pushx");
+		trackCacheSize.addKeyListener(new KeyAdapter() {
+			public void keyReleased(KeyEvent e) {
+				if (POSITIVE_INTEGER.matcher(trackCacheSize.getText()).matches()) {
+					setTitle(TITLE);
+					trackCacheSizeValid = true;
+				} else {
+					setTitle("Track cache size must be a positive integer");
+					trackCacheSizeValid = false;
+				}
+
+				updateValidity();
+			}
+		});
+
+		new Label(composite, SWT.LEFT).setText("Split location history into tracks of (hours):");
+		locationHistoryWindow = new Text(composite, SWT.BORDER);
+		locationHistoryWindow.setText(String.valueOf(preferences.getInt(LOCATION_HISTORY_WINDOW,
+				defaultPreferences.getInt(LOCATION_HISTORY_WINDOW, LOCATION_HISTORY_WINDOW_FALLBACK))));
+		locationHistoryWindow.setLayoutData("growx,pushx");
+		locationHistoryWindow.addKeyListener(new KeyAdapter() {
+			public void keyReleased(KeyEvent e) {
+				if (POSITIVE_INTEGER.matcher(locationHistoryWindow.getText()).matches()) {
+					setTitle(TITLE);
+					locationHistoryWindowValid = true;
+				} else {
+					setTitle("Location history track length must be a positive integer");
+					locationHistoryWindowValid = false;
+				}
+
+				updateValidity();
+			}
+		});
+
+		threadPerTask = new Button(composite, SWT.CHECK);
+		threadPerTask.setText("Read files and query web services on one (virtual, if supported) thread per task");
+		threadPerTask.setSelection(preferences.getBoolean(THREAD_PER_TASK,
+				defaultPreferences.getBoolean(THREAD_PER_TASK, THREAD_PER_TASK_FALLBACK)));
+		threadPerTask.setLayoutData("span 2");
+
+		new Label(composite, SWT.LEFT).setText("Concurrent file reads:");
+		ioConcurrency = new Text(composite, SWT.BORDER);
+		ioConcurrency.setText(String.valueOf(preferences.getInt(IO_CONCURRENCY,
+				defaultPreferences.getInt(IO_CONCURRENCY, IO_CONCURRENCY_FALLBACK))));
+		ioConcurrency.setLayoutData("growx,pushx");
+		ioConcurrency.addKeyListener(new KeyAdapter() {
+			public void keyReleased(KeyEvent e) {
+				if (POSITIVE_INTEGER.matcher(ioConcurrency.getText()).matches()) {
+					setTitle(TITLE);
+					ioConcurrencyValid = true;
+				} else {
+					setTitle("Concurrent file reads must be a positive integer");
+					ioConcurrencyValid = false;
+				}
+
+				updateValidity();
+			}
+		});
+
+		new Label(composite, SWT.LEFT).setText("Concurrent web service requests:");
+		networkConcurrency = new Text(composite, SWT.BORDER);
+		networkConcurrency.setText(String.valueOf(preferences.getInt(NETWORK_CONCURRENCY,
+				defaultPreferences.getInt(NETWORK_CONCURRENCY, NETWORK_CONCURRENCY_FALLBACK))));
+		networkConcurrency.setLayoutData("growx,pushx");
+		networkConcurrency.addKeyListener(new KeyAdapter() {
+			public void keyReleased(KeyEvent e) {
+				if (POSITIVE_INTEGER.matcher(networkConcurrency.getText()).matches()) {
+					setTitle(TITLE);
+					networkConcurrencyValid = true;
+				} else {
+					setTitle("Concurrent web service requests must be a positive integer");
+					networkConcurrencyValid = false;
+				}
+
+				updateValidity();
+			}
+		});
+
 		return composite;
 	}
 
 	private void updateValidity() {
-		setValid(dbMaxEntriesValid);
+		setValid(dbMaxEntriesValid && trackCacheSizeValid && locationHistoryWindowValid && ioConcurrencyValid
+				&& networkConcurrencyValid);
 	}
 
 	public boolean performOk() {
@@ -103,6 +215,24 @@ public class GeneralPreferences extends PreferencePage {
 		if (dbMaxEntries != null) {
 			preferences.putInt(DB_MAX_ENTRIES, Integer.valueOf(dbMaxEntries.getText()));
 		}
+		if (trackCache != null) {
+			preferences.putBoolean(TRACK_CACHE, trackCache.getSelection());
+		}
+		if (trackCacheSize != null) {
+			preferences.putInt(TRACK_CACHE_SIZE, Integer.valueOf(trackCacheSize.getText()));
+		}
+		if (locationHistoryWindow != null) {
+			preferences.putInt(LOCATION_HISTORY_WINDOW, Integer.valueOf(locationHistoryWindow.getText()));
+		}
+		if (threadPerTask != null) {
+			preferences.putBoolean(THREAD_PER_TASK, threadPerTask.getSelection());
+		}
+		if (ioConcurrency != null) {
+			preferences.putInt(IO_CONCURRENCY, Integer.valueOf(ioConcurrency.getText()));
+		}
+		if (networkConcurrency != null) {
+			preferences.putInt(NETWORK_CONCURRENCY, Integer.valueOf(networkConcurrency.getText()));
+		}
 
 		return true;
 	}
@@ -111,6 +241,16 @@ public class GeneralPreferences extends PreferencePage {
 	public void performDefaults() {
 		doBackup.setSelection(defaultPreferences.getBoolean(BACKUP, DO_BACKUP_FALLBACK));
 		dbMaxEntries.setText(String.valueOf(defaultPreferences.getInt(DB_MAX_ENTRIES, MAX_ENTRIES_FALLBACK)));
+		trackCache.setSelection(defaultPreferences.getBoolean(TRACK_CACHE, TRACK_CACHE_FALLBACK));
+		trackCacheSize.setText(
+				String.valueOf(defaultPreferences.getInt(TRACK_CACHE_SIZE, TRACK_CACHE_SIZE_FALLBACK)));
+		locationHistoryWindow.setText(String
+				.valueOf(defaultPreferences.getInt(LOCATION_HISTORY_WINDOW, LOCATION_HISTORY_WINDOW_FALLBACK)));
+		threadPerTask.setSelection(defaultPreferences.getBoolean(THREAD_PER_TASK, THREAD_PER_TASK_FALLBACK));
+		ioConcurrency.setText(
+				String.valueOf(defaultPreferences.getInt(IO_CONCURRENCY, IO_CONCURRENCY_FALLBACK)));
+		networkConcurrency.setText(
+				String.valueOf(defaultPreferences.getInt(NETWORK_CONCURRENCY, NETWORK_CONCURRENCY_FALLBACK)));
 
 		super.performDefaults();
 	}
@@ -59,7 +59,7 @@ public class PictureViewerComparator extends ViewComparator {
 			rc = p1.getFile().getFileName().toString().compareTo(p2.getFile().getFileName().toString());
 			break;
 		case PictureViewerLabelProvider.TIME_COLUMN:
-			rc = p1.getTime().compareTo(p2.getTime());
+			rc = Long.compare(p1.getTimeMillis(), p2.getTimeMillis());
 			break;
 		case PictureViewerLabelProvider.COORDINATES_COLUMN:
 			ObjectUtils.compare(p1.getCoordinates(), p2.getCoordinates());
@@ -63,7 +63,7 @@ public class PositionViewerComparator extends ViewComparator {
 			ObjectUtils.compare(p1.getCoordinates(), p2.getCoordinates());
 			break;
 		case PositionsViewerLabelProvider.TIMESTAMP_COLUMN:
-			rc = p1.getTimeStamp().compareTo(p2.getTimeStamp());
+			rc = Long.compare(p1.getTimeMillis(), p2.getTimeMillis());
 			break;
 		case PositionsViewerLabelProvider.ACCURACY_COLUMN:
 			rc = Float.compare(p1.getAccuracy(), p2.getAccuracy());
@@ -0,0 +1,37 @@
+package joachimeichborn.geotag;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Access to the JPEG test pictures, which are stored with the preview test
+ * resources
+ */
+public class TestPictures {
+	private static URL getResource(final String aName) {
+		return TestPictures.class.getResource("preview/" + aName);
+	}
+
+	/**
+	 * @return the test picture with the given name, it must not be modified
+	 */
+	public static Path get(final String aName) throws URISyntaxException {
+		return Paths.get(getResource(aName).toURI());
+	}
+
+	/**
+	 * Copy the test picture with the given name to the given file, such that
+	 * it can be modified
+	 * 
+	 * @return the copied file
+	 */
+	public static Path copy(final String aName, final Path aTarget) throws IOException {
+		FileUtils.copyURLToFile(getResource(aName), aTarget.toFile());
+		return aTarget;
+	}
+}
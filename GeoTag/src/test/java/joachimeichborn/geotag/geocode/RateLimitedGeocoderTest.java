@@ -0,0 +1,43 @@
+package joachimeichborn.geotag.geocode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+
+public class RateLimitedGeocoderTest {
+	@Test
+	public void testParallelQueriesAreSpaced() throws Exception {
+		final List<Long> queryTimes = new ArrayList<>();
+		final Geocoder geocoder = new RateLimitedGeocoder(aPosition -> {
+			synchronized (queryTimes) {
+				queryTimes.add(System.nanoTime());
+			}
+			return new Geocoding.Builder().setCity("Berlin").build();
+		}, 50);
+
+		final ExecutorService threadPool = Executors.newFixedThreadPool(4);
+		final List<Future<Geocoding>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(threadPool.submit(() -> geocoder.queryPosition(new Coordinates(48.1, 11.5, 0))));
+		}
+		for (final Future<Geocoding> future : futures) {
+			Assert.assertNotNull(future.get());
+		}
+		threadPool.shutdown();
+
+		Assert.assertEquals(queryTimes.size(), 4);
+		queryTimes.sort(null);
+		for (int i = 1; i < queryTimes.size(); i++) {
+			// allow for the coarse resolution of sleep on some platforms
+			Assert.assertTrue(queryTimes.get(i) - queryTimes.get(i - 1) >= 40_000_000L);
+		}
+	}
+}
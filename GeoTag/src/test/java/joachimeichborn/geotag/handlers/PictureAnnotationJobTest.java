@@ -0,0 +1,139 @@
+package joachimeichborn.geotag.handlers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.TestPictures;
+import joachimeichborn.geotag.io.jpeg.AnnotationJournal;
+import joachimeichborn.geotag.io.jpeg.AnnotationType;
+import joachimeichborn.geotag.io.jpeg.JpegSegmentReader;
+import joachimeichborn.geotag.io.jpeg.PictureMetadataWriter;
+import joachimeichborn.geotag.io.jpeg.PictureSource;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+import joachimeichborn.geotag.model.Picture;
+
+public class PictureAnnotationJobTest {
+	private static final Coordinates COORDINATES = new Coordinates(48.1, 11.5, 520);
+	private static final Geocoding GEOCODING = new Geocoding.Builder().setCity("Munich").setCountryCode("DE")
+			.build();
+
+	private Path directory;
+	private Path journalDirectory;
+	private ExecutionService executionService;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("annotationjob");
+		journalDirectory = directory.resolve("journal");
+		executionService = new ExecutionService(2, 1, 1);
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		executionService.shutdown();
+		Files.walk(directory).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+	}
+
+	@Test
+	public void testWritePositions() throws Exception {
+		final Path file1 = TestPictures.copy("img1.jpg", directory.resolve("img1.jpg"));
+		final Path file2 = TestPictures.copy("img2.jpg", directory.resolve("img2.jpg"));
+		final Path missing = directory.resolve("missing.jpg");
+
+		final PictureAnnotationJob job = new PictureAnnotationJob(AnnotationType.POSITION,
+				Arrays.asList(new Picture(file1, null, COORDINATES, null), new Picture(file2, null, COORDINATES, null),
+						new Picture(missing, null, COORDINATES, null)),
+				"test", journalDirectory, executionService, picture -> new PictureMetadataWriter(picture, "test"));
+
+		final IStatus status = job.run(new NullProgressMonitor());
+
+		Assert.assertTrue(status.isOK());
+		Assert.assertEqualsNoOrder(job.getWrittenFiles().toArray(), new Object[] { file1, file2 });
+		Assert.assertEquals(job.getFailedFiles(), Arrays.asList(missing));
+		for (final Path file : job.getWrittenFiles()) {
+			final Coordinates coordinates = new JpegSegmentReader(PictureSource.open(file).getHead())
+					.getCoordinates();
+			Assert.assertEquals(coordinates.getLatitude(), COORDINATES.getLatitude(), 1e-6);
+			Assert.assertEquals(coordinates.getLongitude(), COORDINATES.getLongitude(), 1e-6);
+		}
+
+		// the failed picture is kept in the journal
+		final AnnotationJournal journal = AnnotationJournal.open(journalDirectory.resolve("test.journal"));
+		Assert.assertTrue(journal.getPendingPictures().isEmpty());
+		Assert.assertEquals(journal.getFailedFiles().keySet().iterator().next(), missing);
+		journal.close();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		final Path file = TestPictures.copy("img1.jpg", directory.resolve("img1.jpg"));
+		AnnotationJournal.create(journalDirectory, "resume", AnnotationType.POSITION,
+				Arrays.asList(new Picture(file, null, COORDINATES, null))).close();
+
+		final AnnotationJournal journal = AnnotationJournal.open(journalDirectory.resolve("resume.journal"));
+		final PictureAnnotationJob job = PictureAnnotationJob.resume(journal, executionService,
+				picture -> new PictureMetadataWriter(picture, "resume"));
+		job.run(new NullProgressMonitor());
+
+		Assert.assertEquals(job.getWrittenFiles(), Arrays.asList(file));
+		Assert.assertEquals(
+				new JpegSegmentReader(PictureSource.open(file).getHead()).getCoordinates().getAltitude(),
+				COORDINATES.getAltitude(), 1e-6);
+		Assert.assertTrue(AnnotationJournal.findJournals(journalDirectory).isEmpty());
+	}
+
+	@Test
+	public void testResumeInterruptedDropsFailedBatch() throws Exception {
+		final Path file = directory.resolve("missing.jpg");
+		final AnnotationJournal journal = AnnotationJournal.create(journalDirectory, "failed", AnnotationType.POSITION,
+				Arrays.asList(new Picture(file, null, COORDINATES, null)));
+		journal.failed(file, "broken");
+		journal.close();
+		Assert.assertEquals(AnnotationJournal.findJournals(journalDirectory).size(), 1);
+
+		PictureAnnotationJob.resumeInterrupted(journalDirectory, executionService, null);
+
+		Assert.assertTrue(AnnotationJournal.findJournals(journalDirectory).isEmpty());
+	}
+
+	@Test
+	public void testSubmitCombinesWaitingBatches() throws Exception {
+		final Path file1 = TestPictures.copy("img1.jpg", directory.resolve("img1.jpg"));
+		final Path file2 = TestPictures.copy("img2.jpg", directory.resolve("img2.jpg"));
+
+		final List<PictureAnnotationJob> positionJobs = PictureAnnotationJob.submit(AnnotationType.POSITION,
+				Arrays.asList(new Picture(file1, null, COORDINATES, null), new Picture(file2, null, COORDINATES, null)),
+				journalDirectory, executionService, batchId -> picture -> new PictureMetadataWriter(picture, batchId));
+		final List<PictureAnnotationJob> geocodingJobs = PictureAnnotationJob.submit(AnnotationType.GEOCODING,
+				Arrays.asList(new Picture(file1, null, null, GEOCODING)), journalDirectory, executionService,
+				batchId -> picture -> new PictureMetadataWriter(picture, batchId));
+
+		Assert.assertEquals(positionJobs.size(), 1);
+		Assert.assertEquals(geocodingJobs.size(), 1);
+		final PictureAnnotationJob positionJob = positionJobs.get(0);
+		final PictureAnnotationJob combinedJob = geocodingJobs.get(0);
+		Assert.assertEquals(combinedJob.getType(), AnnotationType.POSITION_AND_GEOCODING);
+		Assert.assertEquals(positionJob.getPictures().size(), 1);
+		Assert.assertEquals(positionJob.getPictures().get(0).getFile(), file2);
+
+		Assert.assertTrue(combinedJob.run(new NullProgressMonitor()).isOK());
+		Assert.assertTrue(positionJob.run(new NullProgressMonitor()).isOK());
+
+		final JpegSegmentReader segments = new JpegSegmentReader(PictureSource.open(file1).getHead());
+		Assert.assertEquals(segments.getCoordinates().getLatitude(), COORDINATES.getLatitude(), 1e-6);
+		Assert.assertEquals(segments.getGeocoding().getCity(), GEOCODING.getCity());
+		Assert.assertEquals(combinedJob.getWrittenFiles(), Arrays.asList(file1));
+		Assert.assertEquals(positionJob.getWrittenFiles(), Arrays.asList(file2));
+	}
+}
@@ -0,0 +1,105 @@
+package joachimeichborn.geotag.io.database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.misc.PictureOrientation;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+
+public class DerbyDatabaseTest {
+	private Path directory;
+	private DerbyDatabase database;
+
+	@BeforeClass
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("geotag");
+		database = new DerbyDatabase(directory.resolve("database"));
+	}
+
+	@AfterClass
+	public void tearDown() throws IOException {
+		database.close();
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Test
+	public void testCatalogEntry() {
+		final Geocoding geocoding = new Geocoding.Builder().setCity("Berlin").setCountryCode("DE").build();
+		database.saveCatalogEntry(new CatalogEntry("/pictures/a.jpg", 1000, 5000, "2015:06:01 12:00:00", "Camera",
+				new Coordinates(52.5, 13.4, 34), PictureOrientation.ROTATE_90_CW, geocoding));
+
+		final CatalogEntry entry = database.getCatalogEntry("/pictures/a.jpg", 1000, 5000);
+
+		Assert.assertNotNull(entry);
+		Assert.assertEquals(entry.getFile(), "/pictures/a.jpg");
+		Assert.assertEquals(entry.getSize(), 1000);
+		Assert.assertEquals(entry.getLastModified(), 5000);
+		Assert.assertEquals(entry.getTime(), "2015:06:01 12:00:00");
+		Assert.assertEquals(entry.getCameraModel(), "Camera");
+		Assert.assertEquals(entry.getCoordinates(), new Coordinates(52.5, 13.4, 34));
+		Assert.assertEquals(entry.getOrientation(), PictureOrientation.ROTATE_90_CW);
+		Assert.assertEquals(entry.getGeocoding(), geocoding);
+	}
+
+	@Test
+	public void testCatalogEntryWithoutMetadata() {
+		database.saveCatalogEntry(new CatalogEntry("/pictures/b.jpg", 1000, 5000, null, null, null, null, null));
+
+		final CatalogEntry entry = database.getCatalogEntry("/pictures/b.jpg", 1000, 5000);
+
+		Assert.assertNotNull(entry);
+		Assert.assertNull(entry.getTime());
+		Assert.assertNull(entry.getCameraModel());
+		Assert.assertNull(entry.getCoordinates());
+		Assert.assertNull(entry.getOrientation());
+		Assert.assertNull(entry.getGeocoding());
+	}
+
+	@Test
+	public void testChangedFile() {
+		database.saveCatalogEntry(new CatalogEntry("/pictures/c.jpg", 1000, 5000, "2015:06:01 12:00:00", null, null,
+				null, null));
+
+		Assert.assertNull(database.getCatalogEntry("/pictures/c.jpg", 1001, 5000));
+		Assert.assertNull(database.getCatalogEntry("/pictures/c.jpg", 1000, 5001));
+		Assert.assertNull(database.getCatalogEntry("/pictures/d.jpg", 1000, 5000));
+
+		database.saveCatalogEntry(new CatalogEntry("/pictures/c.jpg", 1001, 6000, "2016:06:01 12:00:00", null, null,
+				null, null));
+
+		Assert.assertNull(database.getCatalogEntry("/pictures/c.jpg", 1000, 5000));
+		Assert.assertEquals(database.getCatalogEntry("/pictures/c.jpg", 1001, 6000).getTime(), "2016:06:01 12:00:00");
+	}
+
+	@Test
+	public void testTrimCatalog() {
+		final DerbyDatabase trimmedDatabase = new DerbyDatabase(directory.resolve("trimmed"));
+		try {
+			trimmedDatabase.saveCatalogEntry(new CatalogEntry("/pictures/old.jpg", 1000, 5000, null, null, null, null,
+					null));
+			trimmedDatabase.saveCatalogEntry(new CatalogEntry("/pictures/renamed.jpg", 1000, 5000, null, null, null,
+					null, null));
+			trimmedDatabase.saveCatalogEntry(new CatalogEntry("/pictures/new.jpg", 1000, 5000, null, null, null, null,
+					null));
+			// a changed picture is saved again and counts as recent
+			trimmedDatabase.saveCatalogEntry(new CatalogEntry("/pictures/old.jpg", 1001, 6000, null, null, null, null,
+					null));
+
+			trimmedDatabase.trim(2);
+
+			Assert.assertNotNull(trimmedDatabase.getCatalogEntry("/pictures/old.jpg", 1001, 6000));
+			Assert.assertNotNull(trimmedDatabase.getCatalogEntry("/pictures/new.jpg", 1000, 5000));
+			Assert.assertNull(trimmedDatabase.getCatalogEntry("/pictures/renamed.jpg", 1000, 5000));
+		} finally {
+			trimmedDatabase.close();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package joachimeichborn.geotag.io.jpeg;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+import joachimeichborn.geotag.model.Picture;
+
+public class AnnotationJournalTest {
+	private static final Picture PICTURE1 = new Picture(Paths.get("/pictures/tab\tand space.jpg"), null,
+			new Coordinates(52.5161, 13.3777, 34), null);
+	private static final Picture PICTURE2 = new Picture(Paths.get("/pictures/img2.jpg"), null,
+			new Coordinates(-33.8568, 151.2153, 0), new Geocoding.Builder().setLocationName("Opera House")
+					.setCity("Sydney").setProvinceState("New South Wales").setCountryCode("AU").build());
+	private static final Picture PICTURE3 = new Picture(Paths.get("/pictures/img3.jpg"), null, null, null);
+
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		for (final Path file : Files.newDirectoryStream(directory)) {
+			Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	private AnnotationJournal createJournal() throws Exception {
+		return AnnotationJournal.create(directory, "1234", AnnotationType.POSITION_AND_GEOCODING,
+				Arrays.asList(PICTURE1, PICTURE2, PICTURE3));
+	}
+
+	private static void assertPicture(final Picture aActual, final Picture aExpected) {
+		Assert.assertEquals(aActual.getFile(), aExpected.getFile());
+		Assert.assertEquals(aActual.getCoordinates(), aExpected.getCoordinates());
+		Assert.assertEquals(aActual.getGeocoding(), aExpected.getGeocoding());
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		final AnnotationJournal journal = createJournal();
+		journal.completed(PICTURE3.getFile());
+		journal.failed(PICTURE2.getFile(), "broken");
+		journal.close();
+
+		final List<Path> journals = AnnotationJournal.findJournals(directory);
+		Assert.assertEquals(journals, Arrays.asList(journal.getFile()));
+
+		final AnnotationJournal resumed = AnnotationJournal.open(journal.getFile());
+		Assert.assertEquals(resumed.getBatchId(), "1234");
+		Assert.assertEquals(resumed.getType(), AnnotationType.POSITION_AND_GEOCODING);
+		Assert.assertEquals(resumed.getPendingPictures().size(), 1);
+		assertPicture(resumed.getPendingPictures().get(0), PICTURE1);
+		Assert.assertEquals(resumed.getFailedFiles().size(), 1);
+		Assert.assertEquals(resumed.getFailedFiles().get(PICTURE2.getFile()), "broken");
+
+		resumed.completed(PICTURE1.getFile());
+		resumed.close();
+
+		// the failure is kept after compaction
+		final AnnotationJournal reopened = AnnotationJournal.open(journal.getFile());
+		Assert.assertTrue(reopened.getPendingPictures().isEmpty());
+		Assert.assertEquals(reopened.getFailedFiles().keySet(), resumed.getFailedFiles().keySet());
+		reopened.close();
+		Assert.assertTrue(Files.exists(journal.getFile()));
+	}
+
+	@Test
+	public void testPendingPictures() throws Exception {
+		final AnnotationJournal journal = createJournal();
+		journal.close();
+
+		final AnnotationJournal resumed = AnnotationJournal.open(journal.getFile());
+		final List<Picture> pending = resumed.getPendingPictures();
+		Assert.assertEquals(pending.size(), 3);
+		assertPicture(pending.get(0), PICTURE1);
+		assertPicture(pending.get(1), PICTURE2);
+		assertPicture(pending.get(2), PICTURE3);
+		resumed.close();
+	}
+
+	@Test
+	public void testDeletedWhenDone() throws Exception {
+		final AnnotationJournal journal = createJournal();
+		journal.completed(PICTURE1.getFile());
+		journal.completed(PICTURE2.getFile());
+		Assert.assertTrue(Files.exists(journal.getFile()));
+
+		journal.completed(PICTURE3.getFile());
+		journal.close();
+
+		Assert.assertFalse(Files.exists(journal.getFile()));
+		Assert.assertTrue(AnnotationJournal.findJournals(directory).isEmpty());
+	}
+
+	@Test
+	public void testDiscardPending() throws Exception {
+		final AnnotationJournal journal = createJournal();
+		journal.completed(PICTURE1.getFile());
+		journal.discardPending();
+
+		Assert.assertTrue(journal.getPendingPictures().isEmpty());
+		journal.close();
+		Assert.assertFalse(Files.exists(journal.getFile()));
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		final AnnotationJournal journal = createJournal();
+		journal.completed(PICTURE1.getFile());
+		journal.failed(PICTURE2.getFile(), "broken");
+		journal.delete();
+
+		Assert.assertFalse(Files.exists(journal.getFile()));
+	}
+
+	@Test
+	public void testIncompleteRecord() throws Exception {
+		final AnnotationJournal journal = createJournal();
+		journal.completed(PICTURE1.getFile());
+		journal.close();
+
+		Files.write(journal.getFile(), "FAILED".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		final AnnotationJournal resumed = AnnotationJournal.open(journal.getFile());
+		Assert.assertEquals(resumed.getPendingPictures().size(), 2);
+		Assert.assertTrue(resumed.getFailedFiles().isEmpty());
+		resumed.close();
+	}
+
+	@Test
+	public void testNoJournalDirectory() {
+		Assert.assertTrue(AnnotationJournal.findJournals(directory.resolve("missing")).isEmpty());
+	}
+}
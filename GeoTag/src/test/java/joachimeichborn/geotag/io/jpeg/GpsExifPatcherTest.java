@@ -0,0 +1,134 @@
+package joachimeichborn.geotag.io.jpeg;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.DataProviderList;
+import joachimeichborn.geotag.TestPictures;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Picture;
+
+public class GpsExifPatcherTest {
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("gpspatcher");
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		for (final Path file : Files.newDirectoryStream(directory)) {
+			Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	private static JpegSegmentReader read(final Path aFile) throws Exception {
+		return new JpegSegmentReader(PictureSource.open(aFile).getHead());
+	}
+
+	@DataProvider
+	public Object[][] dataCoordinates() {
+		final DataProviderList data = new DataProviderList();
+		data.add(new Coordinates(52.5161, 13.3777, 34));
+		data.add(new Coordinates(-33.8568, 151.2153, 0));
+		data.add(new Coordinates(-0.25, -78.5, -12.5));
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataCoordinates")
+	public void testPatchMatchesRewrite(final Coordinates aCoordinates) throws Exception {
+		// a full rewrite adds all GPS fields, afterwards patching is possible
+		final Path patched = TestPictures.copy("img1.jpg", directory.resolve("patched.jpg"));
+		new PictureMetadataWriter(new Picture(patched, null, new Coordinates(1, 2, 3), null), "test")
+				.writePositionMetadata();
+		final byte[] before = Files.readAllBytes(patched);
+
+		Assert.assertTrue(new GpsExifPatcher(patched).write(aCoordinates));
+
+		final byte[] after = Files.readAllBytes(patched);
+		Assert.assertEquals(after.length, before.length);
+		int changedBytes = 0;
+		for (int i = 0; i < before.length; i++) {
+			if (before[i] != after[i]) {
+				changedBytes++;
+			}
+		}
+		Assert.assertTrue(changedBytes <= 2 + 2 + 1 + 7 * 8, "Changed " + changedBytes + " bytes");
+
+		final Path rewritten = TestPictures.copy("img1.jpg", directory.resolve("rewritten.jpg"));
+		new PictureMetadataWriter(new Picture(rewritten, null, aCoordinates, null), "test").writePositionMetadata();
+
+		Assert.assertEquals(read(patched).getCoordinates(), read(rewritten).getCoordinates());
+		Assert.assertEquals(read(patched).getCoordinates().getLatitude(), aCoordinates.getLatitude(), 1e-6);
+		Assert.assertEquals(read(patched).getCoordinates().getLongitude(), aCoordinates.getLongitude(), 1e-6);
+		Assert.assertEquals(read(patched).getCoordinates().getAltitude(), aCoordinates.getAltitude(), 1e-6);
+		Assert.assertEquals(read(patched).getDateTimeOriginal(),
+				read(TestPictures.get("img1.jpg")).getDateTimeOriginal());
+	}
+
+	@Test
+	public void testNoGpsDirectory() throws Exception {
+		final Path file = directory.resolve("noexif.jpg");
+		try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(file.toFile()))) {
+			new ExifRewriter().removeExifMetadata(TestPictures.get("img2.jpg").toFile(), os);
+		}
+		final byte[] before = Files.readAllBytes(file);
+
+		Assert.assertFalse(new GpsExifPatcher(file).write(new Coordinates(1, 2, 3)));
+		Assert.assertEquals(Files.readAllBytes(file), before);
+
+		final Coordinates coordinates = new Coordinates(48.1, 11.5, 520);
+		new PictureMetadataWriter(new Picture(file, null, coordinates, null), "test").writePositionMetadata();
+
+		Assert.assertEquals(read(file).getCoordinates().getLatitude(), 48.1, 1e-6);
+		Assert.assertEquals(read(file).getCoordinates().getLongitude(), 11.5, 1e-6);
+		Assert.assertEquals(read(file).getCoordinates().getAltitude(), 520, 1e-6);
+	}
+
+	@Test
+	public void testUnexpectedValueCount() throws Exception {
+		final Path file = TestPictures.copy("img1.jpg", directory.resolve("fourvalues.jpg"));
+		new PictureMetadataWriter(new Picture(file, null, new Coordinates(1, 2, 3), null), "test")
+				.writePositionMetadata();
+
+		// declare four instead of three values for the latitude
+		final byte[] content = Files.readAllBytes(file);
+		final ByteOrder order = read(file).getTiffByteOrder();
+		final byte[] entry = ByteBuffer.allocate(8).order(order).putShort((short) JpegSegmentReader.TAG_GPS_LATITUDE)
+				.putShort((short) JpegSegmentReader.TYPE_RATIONAL).putInt(3).array();
+		final int position = indexOf(content, entry);
+		Assert.assertTrue(position > 0);
+		ByteBuffer.wrap(content).order(order).putInt(position + 4, 4);
+		Files.write(file, content);
+
+		Assert.assertFalse(new GpsExifPatcher(file).write(new Coordinates(48.1, 11.5, 520)));
+		Assert.assertEquals(Files.readAllBytes(file), content);
+	}
+
+	private static int indexOf(final byte[] aData, final byte[] aPattern) {
+		for (int i = 0; i + aPattern.length <= aData.length; i++) {
+			int j = 0;
+			while (j < aPattern.length && aData[i + j] == aPattern[j]) {
+				j++;
+			}
+			if (j == aPattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,213 @@
+package joachimeichborn.geotag.io.jpeg;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcBlock;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcTypes;
+import org.apache.commons.imaging.formats.jpeg.iptc.JpegIptcRewriter;
+import org.apache.commons.imaging.formats.jpeg.iptc.PhotoshopApp13Data;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.DataProviderList;
+import joachimeichborn.geotag.TestPictures;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+import joachimeichborn.geotag.model.Picture;
+
+public class JpegSegmentReaderTest {
+	@DataProvider
+	public Object[][] dataPictures() {
+		final DataProviderList data = new DataProviderList();
+		data.add("img1.jpg");
+		data.add("img2.jpg");
+		data.add("4to5_clockwise90.jpg");
+		data.add("16to9_clockwise270.jpg");
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataPictures")
+	public void testCompareWithImaging(final String aName) throws Exception {
+		final byte[] head = PictureSource.open(TestPictures.get(aName)).getHead();
+		final JpegSegmentReader reader = new JpegSegmentReader(head);
+		final JpegImageMetadata expected = (JpegImageMetadata) Imaging.getMetadata(head);
+
+		Assert.assertEquals(reader.hasExif(), expected.getExif() != null);
+		Assert.assertEquals(reader.getDateTimeOriginal(),
+				getString(expected.findEXIFValueWithExactMatch(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL)));
+		Assert.assertEquals(reader.getModel(),
+				getString(expected.findEXIFValueWithExactMatch(TiffTagConstants.TIFF_TAG_MODEL)));
+
+		final TiffField orientation = expected.findEXIFValueWithExactMatch(TiffTagConstants.TIFF_TAG_ORIENTATION);
+		Assert.assertEquals(reader.getOrientation(), orientation == null ? 0 : orientation.getIntValue());
+		Assert.assertEquals(reader.getThumbnailData(), expected.getEXIFThumbnailData());
+
+		final TiffImageMetadata.GPSInfo gps = expected.getExif().getGPS();
+		if (gps == null) {
+			Assert.assertNull(reader.getCoordinates());
+		} else {
+			Assert.assertEquals(reader.getCoordinates().getLatitude(), gps.getLatitudeAsDegreesNorth(), 1e-9);
+			Assert.assertEquals(reader.getCoordinates().getLongitude(), gps.getLongitudeAsDegreesEast(), 1e-9);
+		}
+		Assert.assertEquals(reader.getGeocoding() != null, expected.getPhotoshop() != null);
+	}
+
+	private static String getString(final TiffField aField) throws Exception {
+		return aField == null ? null : aField.getStringValue();
+	}
+
+	@DataProvider
+	public Object[][] dataCoordinates() {
+		final DataProviderList data = new DataProviderList();
+		data.add(new Coordinates(52.5161, 13.3777, 34));
+		data.add(new Coordinates(-33.8568, 151.2153, 0));
+		data.add(new Coordinates(-0.25, -78.5, -12.5));
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataCoordinates")
+	public void testCoordinates(final Coordinates aCoordinates) throws Exception {
+		final Path file = Files.createTempFile("segmentreader", ".jpg");
+		try {
+			TestPictures.copy("img1.jpg", file);
+			new PictureMetadataWriter(new Picture(file, null, aCoordinates, null), "test").writePositionMetadata();
+
+			final JpegSegmentReader reader = new JpegSegmentReader(PictureSource.open(file).getHead());
+
+			final Coordinates coordinates = reader.getCoordinates();
+			Assert.assertNotNull(coordinates);
+			Assert.assertEquals(coordinates.getLatitude(), aCoordinates.getLatitude(), 1e-6);
+			Assert.assertEquals(coordinates.getLongitude(), aCoordinates.getLongitude(), 1e-6);
+			Assert.assertEquals(coordinates.getAltitude(), aCoordinates.getAltitude(), 1e-6);
+			Assert.assertEquals(reader.getDateTimeOriginal(),
+					new JpegSegmentReader(PictureSource.open(TestPictures.get("img1.jpg")).getHead()).getDateTimeOriginal());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testGeocoding() throws Exception {
+		final Path file = Files.createTempFile("segmentreader", ".jpg");
+		try {
+			final List<IptcRecord> records = new ArrayList<>();
+			records.add(new IptcRecord(IptcTypes.CONTENT_LOCATION_NAME, "Brandenburger Tor"));
+			records.add(new IptcRecord(IptcTypes.CITY, "Berlin"));
+			records.add(new IptcRecord(IptcTypes.SUBLOCATION, "Mitte"));
+			records.add(new IptcRecord(IptcTypes.PROVINCE_STATE, "Berlin"));
+			records.add(new IptcRecord(IptcTypes.COUNTRY_PRIMARY_LOCATION_CODE, "DE"));
+			records.add(new IptcRecord(IptcTypes.COUNTRY_PRIMARY_LOCATION_NAME, "Deutschland"));
+			records.add(new IptcRecord(IptcTypes.KEYWORDS, "Ignored"));
+
+			try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(file.toFile()))) {
+				new JpegIptcRewriter().writeIPTC(TestPictures.get("img2.jpg").toFile(), os,
+						new PhotoshopApp13Data(records, Collections.<IptcBlock> emptyList()));
+			}
+
+			final JpegSegmentReader reader = new JpegSegmentReader(PictureSource.open(file).getHead());
+
+			final Geocoding expected = new Geocoding.Builder().setLocationName("Brandenburger Tor").setCity("Berlin")
+					.setSublocation("Mitte").setProvinceState("Berlin").setCountryCode("DE")
+					.setCountryName("Deutschland").build();
+			Assert.assertEquals(reader.getGeocoding(), expected);
+			Assert.assertTrue(reader.hasExif());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testNoJpeg() {
+		new JpegSegmentReader(new byte[] { 0x47, 0x49, 0x46, 0x38 });
+	}
+
+	@Test
+	public void testMalformedSegment() {
+		final byte[] head = new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1, 0x00, 0x10, 'E', 'x',
+				'i', 'f', 0, 0, 'M', 'M', 0, 42, 0x7F, 0x00, 0x00, 0x00, (byte) 0xFF, (byte) 0xDA };
+
+		final JpegSegmentReader reader = new JpegSegmentReader(head);
+
+		Assert.assertTrue(reader.hasExif());
+		Assert.assertNull(reader.getDateTimeOriginal());
+		Assert.assertNull(reader.getCoordinates());
+		Assert.assertNull(reader.getThumbnailData());
+	}
+
+	/**
+	 * Create the head of a JPEG file whose EXIF segment contains a GPS
+	 * directory and a four byte thumbnail at the given offset
+	 */
+	private static byte[] createHead(final char aLatitudeRef, final int aThumbnailStart, final int aThumbnailSize) {
+		final ByteBuffer tiff = ByteBuffer.allocate(162);
+		tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+
+		// IFD0 pointing to the GPS directory at 26 and to IFD1 at 128
+		tiff.putShort((short) 1);
+		tiff.putShort((short) 0x8825).putShort((short) 4).putInt(1).putInt(26);
+		tiff.putInt(128);
+
+		tiff.putShort((short) 4);
+		tiff.putShort((short) 1).putShort((short) 2).putInt(2).put((byte) aLatitudeRef).put(new byte[3]);
+		tiff.putShort((short) 2).putShort((short) 5).putInt(3).putInt(80);
+		tiff.putShort((short) 3).putShort((short) 2).putInt(2).put((byte) 'E').put(new byte[3]);
+		tiff.putShort((short) 4).putShort((short) 5).putInt(3).putInt(104);
+		tiff.putInt(0);
+		for (int i = 0; i < 2; i++) {
+			tiff.putInt(10).putInt(1).putInt(30).putInt(1).putInt(0).putInt(1);
+		}
+
+		tiff.putShort((short) 2);
+		tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(aThumbnailStart);
+		tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(aThumbnailSize);
+		tiff.putInt(0);
+		tiff.put(new byte[] { 1, 2, 3, 4 });
+
+		final ByteBuffer head = ByteBuffer.allocate(2 + 4 + 6 + tiff.capacity() + 2);
+		head.put((byte) 0xFF).put((byte) 0xD8).put((byte) 0xFF).put((byte) 0xE1);
+		head.putShort((short) (2 + 6 + tiff.capacity())).put("Exif\0\0".getBytes());
+		head.put(tiff.array()).put((byte) 0xFF).put((byte) 0xDA);
+		return head.array();
+	}
+
+	@Test
+	public void testSyntheticExif() {
+		final JpegSegmentReader reader = new JpegSegmentReader(createHead('N', 158, 4));
+
+		Assert.assertEquals(reader.getCoordinates().getLatitude(), 10.5, 1e-9);
+		Assert.assertEquals(reader.getCoordinates().getLongitude(), 10.5, 1e-9);
+		Assert.assertEquals(reader.getThumbnailData(), new byte[] { 1, 2, 3, 4 });
+	}
+
+	@Test
+	public void testInvalidGpsReference() {
+		final JpegSegmentReader reader = new JpegSegmentReader(createHead('X', 158, 4));
+
+		Assert.assertNull(reader.getCoordinates());
+		Assert.assertEquals(reader.getThumbnailData(), new byte[] { 1, 2, 3, 4 });
+	}
+
+	@Test
+	public void testOverflowingThumbnailOffset() {
+		final JpegSegmentReader reader = new JpegSegmentReader(createHead('N', Integer.MAX_VALUE - 1, 4));
+
+		Assert.assertNotNull(reader.getCoordinates());
+		Assert.assertNull(reader.getThumbnailData());
+	}
+}
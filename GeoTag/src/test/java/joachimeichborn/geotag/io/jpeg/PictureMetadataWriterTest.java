@@ -0,0 +1,149 @@
+package joachimeichborn.geotag.io.jpeg;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcBlock;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcRecord;
+import org.apache.commons.imaging.formats.jpeg.iptc.IptcTypes;
+import org.apache.commons.imaging.formats.jpeg.iptc.JpegIptcRewriter;
+import org.apache.commons.imaging.formats.jpeg.iptc.PhotoshopApp13Data;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.TestPictures;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Geocoding;
+import joachimeichborn.geotag.model.Picture;
+
+public class PictureMetadataWriterTest {
+	private static final Coordinates COORDINATES = new Coordinates(-22.9519, -43.2105, 710);
+	private static final Geocoding GEOCODING = new Geocoding.Builder().setLocationName("Cristo Redentor")
+			.setCity("Rio de Janeiro").setProvinceState("Rio de Janeiro").setCountryCode("BR")
+			.setCountryName("Brasil").build();
+
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("metadatawriter");
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		for (final Path file : Files.newDirectoryStream(directory)) {
+			Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	private Path createPictureWithIptc(final String aTarget) throws Exception {
+		final List<IptcRecord> records = new ArrayList<>();
+		records.add(new IptcRecord(IptcTypes.CITY, "Old city"));
+		records.add(new IptcRecord(IptcTypes.KEYWORDS, "Holiday"));
+
+		final Path file = directory.resolve(aTarget);
+		try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(file.toFile()))) {
+			new JpegIptcRewriter().writeIPTC(TestPictures.get("img1.jpg").toFile(), os,
+					new PhotoshopApp13Data(records, Collections.<IptcBlock> emptyList()));
+		}
+		return file;
+	}
+
+	private static byte[] getImageData(final Path aFile) throws Exception {
+		final byte[] content = Files.readAllBytes(aFile);
+		final int sos = findStartOfScan(content);
+		return Arrays.copyOfRange(content, sos, content.length);
+	}
+
+	private static int findStartOfScan(final byte[] aContent) {
+		int position = 2;
+		while ((aContent[position + 1] & 0xFF) != 0xDA) {
+			position += 2 + (((aContent[position + 2] & 0xFF) << 8) | (aContent[position + 3] & 0xFF));
+		}
+		return position;
+	}
+
+	@Test
+	public void testPositionAndGeocoding() throws Exception {
+		final Path combined = createPictureWithIptc("combined.jpg");
+		final Picture combinedPicture = new Picture(combined, null, COORDINATES, GEOCODING);
+		new PictureMetadataWriter(combinedPicture, "test").writePositionAndGeocodingMetadata();
+
+		final Path separate = createPictureWithIptc("separate.jpg");
+		final Picture separatePicture = new Picture(separate, null, COORDINATES, GEOCODING);
+		new PictureMetadataWriter(separatePicture, "test").writePositionMetadata();
+		new PictureMetadataWriter(separatePicture, "test").writeGeocodingMetadata();
+
+		final JpegSegmentReader reader = new JpegSegmentReader(PictureSource.open(combined).getHead());
+		Assert.assertEquals(reader.getGeocoding(), GEOCODING);
+		Assert.assertEquals(reader.getCoordinates().getLatitude(), COORDINATES.getLatitude(), 1e-6);
+		Assert.assertEquals(reader.getCoordinates().getLongitude(), COORDINATES.getLongitude(), 1e-6);
+		Assert.assertEquals(reader.getCoordinates().getAltitude(), COORDINATES.getAltitude(), 1e-6);
+
+		final JpegSegmentReader separateReader = new JpegSegmentReader(PictureSource.open(separate).getHead());
+		Assert.assertEquals(reader.getCoordinates(), separateReader.getCoordinates());
+		Assert.assertEquals(reader.getGeocoding(), separateReader.getGeocoding());
+		Assert.assertEquals(reader.getDateTimeOriginal(), separateReader.getDateTimeOriginal());
+		Assert.assertEquals(reader.getThumbnailData(), separateReader.getThumbnailData());
+
+		final JpegImageMetadata metadata = (JpegImageMetadata) Imaging.getMetadata(combined.toFile());
+		boolean keywordKept = false;
+		for (final IptcRecord record : metadata.getPhotoshop().photoshopApp13Data.getRecords()) {
+			keywordKept |= record.iptcType == IptcTypes.KEYWORDS && record.getValue().equals("Holiday");
+		}
+		Assert.assertTrue(keywordKept);
+
+		Assert.assertEquals(getImageData(combined), getImageData(TestPictures.get("img1.jpg")));
+		Assert.assertEquals(Imaging.getImageInfo(combined.toFile()).getWidth(),
+				Imaging.getImageInfo(TestPictures.get("img1.jpg").toFile()).getWidth());
+	}
+
+	@Test
+	public void testPositionAndGeocodingWithoutIptc() throws Exception {
+		final Path file = directory.resolve("noiptc.jpg");
+		TestPictures.copy("img1.jpg", file);
+		Assert.assertNull(((JpegImageMetadata) Imaging.getMetadata(file.toFile())).getPhotoshop());
+
+		new PictureMetadataWriter(new Picture(file, null, COORDINATES, GEOCODING), "test")
+				.writePositionAndGeocodingMetadata();
+
+		final JpegSegmentReader reader = new JpegSegmentReader(PictureSource.open(file).getHead());
+		Assert.assertEquals(reader.getGeocoding(), GEOCODING);
+		Assert.assertEquals(reader.getCoordinates().getLatitude(), COORDINATES.getLatitude(), 1e-6);
+		Assert.assertEquals(reader.getCoordinates().getLongitude(), COORDINATES.getLongitude(), 1e-6);
+		Assert.assertEquals(getImageData(file), getImageData(TestPictures.get("img1.jpg")));
+		Assert.assertEquals(listDirectory(), Arrays.asList(file));
+	}
+
+	@Test
+	public void testGeocoding() throws Exception {
+		final Path file = createPictureWithIptc("geocoding.jpg");
+		new PictureMetadataWriter(new Picture(file, null, null, GEOCODING), "test").writeGeocodingMetadata();
+
+		Assert.assertEquals(new JpegSegmentReader(PictureSource.open(file).getHead()).getGeocoding(), GEOCODING);
+		Assert.assertEquals(getImageData(file), getImageData(TestPictures.get("img1.jpg")));
+
+		// the temporary file is created beside the picture and replaces it
+		Assert.assertEquals(listDirectory(), Arrays.asList(file));
+	}
+
+	private List<Path> listDirectory() throws Exception {
+		final List<Path> files = new ArrayList<>();
+		for (final Path file : Files.newDirectoryStream(directory)) {
+			files.add(file);
+		}
+		return files;
+	}
+}
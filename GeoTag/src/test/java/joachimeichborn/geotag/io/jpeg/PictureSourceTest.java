@@ -0,0 +1,73 @@
+package joachimeichborn.geotag.io.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.DataProviderList;
+import joachimeichborn.geotag.TestPictures;
+import joachimeichborn.geotag.misc.PictureOrientation;
+
+public class PictureSourceTest {
+	@DataProvider
+	public Object[][] dataHead() {
+		final DataProviderList data = new DataProviderList();
+		data.add("img1.jpg", 37716 + 2);
+		data.add("img2.jpg", 42830 + 2);
+		data.add("4to5_clockwise90.jpg", 18495 + 2);
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataHead")
+	public void testHead(final String aName, final int aStartOfScanEnd) throws Exception {
+		final Path picture = TestPictures.get(aName);
+		final PictureSource source = PictureSource.open(picture);
+
+		Assert.assertEquals(source.getFile(), picture);
+		Assert.assertEquals(source.getSize(), Files.size(picture));
+		Assert.assertTrue(source.getHead().length >= aStartOfScanEnd);
+		Assert.assertTrue(source.getHead().length < source.getSize());
+	}
+
+	@Test(dataProvider = "dataHead")
+	public void testReadImage(final String aName, final int aStartOfScanEnd) throws Exception {
+		final Path picture = TestPictures.get(aName);
+		final BufferedImage expected = ImageIO.read(picture.toFile());
+		final BufferedImage image = PictureSource.open(picture).readImage();
+
+		Assert.assertEquals(image.getWidth(), expected.getWidth());
+		Assert.assertEquals(image.getHeight(), expected.getHeight());
+		for (int x = 0; x < image.getWidth(); x += 7) {
+			for (int y = 0; y < image.getHeight(); y += 7) {
+				Assert.assertEquals(image.getRGB(x, y), expected.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testMetadataFromHead() throws Exception {
+		final PictureSource source = PictureSource.open(TestPictures.get("4to5_clockwise90.jpg"));
+		final PictureMetadataReader metadata = new PictureMetadataReader(source);
+
+		Assert.assertSame(metadata.getSource(), source);
+		Assert.assertEquals(metadata.getOrientation(), PictureOrientation.ROTATE_90_CW);
+		Assert.assertNotNull(metadata.getThumbnail());
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testNoJpeg() throws IOException {
+		final File file = File.createTempFile("geotag", ".jpg");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "no jpeg".getBytes());
+
+		PictureSource.open(file.toPath());
+	}
+}
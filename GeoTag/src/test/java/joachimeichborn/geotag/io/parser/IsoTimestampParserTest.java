@@ -0,0 +1,119 @@
+package joachimeichborn.geotag.io.parser;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.DataProviderList;
+
+public class IsoTimestampParserTest {
+	private static final DateTimeFormatter JODA_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+	@DataProvider
+	public Object[][] dataTimestamps() {
+		final DataProviderList data = new DataProviderList();
+		data.add("2014-06-12T14:36:38Z");
+		data.add("2014-06-12T14:36:38.123Z");
+		data.add("2014-06-12T14:36:38.1Z");
+		data.add("2014-06-12T14:36:38,45Z");
+		data.add("2014-06-12T14:36:38.123456789Z");
+		data.add("2014-06-12T14:36:38+02:00");
+		data.add("2014-06-12T14:36:38.000-05:30");
+		data.add("2014-06-12T14:36:38+0200");
+		data.add("2014-06-12T14:36:38-03");
+		data.add("2014-06-12T14:36:38+00:00");
+		data.add("2000-02-29T23:59:59Z");
+		data.add("1969-12-31T23:59:59.999Z");
+		data.add("1900-03-01T00:00:00Z");
+		data.add("2400-02-29T12:00:00Z");
+		data.add("0001-01-01T00:00:00Z");
+		// handled by the fallback parser
+		data.add("2014-06-12T14:36Z");
+		data.add("2014-06-12T14:36:38");
+		data.add("2014-06-12");
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataTimestamps")
+	public void testParse(final String aTimestamp) {
+		final DateTime expected = JODA_PARSER.parseDateTime(aTimestamp);
+		final IsoTimestampParser parser = new IsoTimestampParser();
+
+		parser.parse(aTimestamp);
+		Assert.assertEquals(parser.getMillis(), expected.getMillis());
+		Assert.assertEquals(parser.getZone(), expected.getZone());
+		Assert.assertEquals(parser.getOffsetMillis(), expected.getZone().getOffset(expected.getMillis()));
+
+		final char[] characters = ("<time>" + aTimestamp + "</time>").toCharArray();
+		parser.parse(characters, 6, aTimestamp.length());
+		Assert.assertEquals(parser.getMillis(), expected.getMillis());
+		Assert.assertEquals(parser.getZone(), expected.getZone());
+	}
+
+	@DataProvider
+	public Object[][] dataDatesAroundYearZero() {
+		final DataProviderList data = new DataProviderList();
+		data.add(LocalDate.of(0, 1, 1));
+		data.add(LocalDate.of(0, 1, 31));
+		data.add(LocalDate.of(0, 2, 29));
+		data.add(LocalDate.of(0, 3, 1));
+		data.add(LocalDate.of(0, 12, 31));
+		data.add(LocalDate.of(1, 1, 1));
+		data.add(LocalDate.of(1, 2, 28));
+		data.add(LocalDate.of(1, 3, 1));
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataDatesAroundYearZero")
+	public void testYearZero(final LocalDate aDate) {
+		final IsoTimestampParser parser = new IsoTimestampParser();
+
+		parser.parse(aDate + "T00:00:00Z");
+		Assert.assertEquals(parser.getMillis(), aDate.toEpochDay() * 24 * 60 * 60 * 1000);
+	}
+
+	@Test
+	public void testRandomTimestamps() {
+		final Random random = new Random(42);
+		final IsoTimestampParser parser = new IsoTimestampParser();
+
+		for (int i = 0; i < 10_000; i++) {
+			final DateTimeZone zone = DateTimeZone.forOffsetMillis((random.nextInt(2 * 56) - 56) * 15 * 60 * 1000);
+			final DateTime time = new DateTime(random.nextLong() % (200L * 365 * 24 * 60 * 60 * 1000), zone);
+			final String timestamp = time.toString(random.nextBoolean() ? ISODateTimeFormat.dateTime()
+					: ISODateTimeFormat.dateTimeNoMillis());
+
+			parser.parse(timestamp);
+			Assert.assertEquals(parser.getMillis(), JODA_PARSER.parseDateTime(timestamp).getMillis(), timestamp);
+			Assert.assertEquals(parser.getZone(), zone, timestamp);
+		}
+	}
+
+	@DataProvider
+	public Object[][] dataInvalidTimestamps() {
+		final DataProviderList data = new DataProviderList();
+		data.add("2014-02-30T14:36:38Z");
+		data.add("2014-13-12T14:36:38Z");
+		data.add("2014-06-12T14:60:38Z");
+		data.add("2014-06-12T14:36:38.Z");
+		data.add("2014-06-12T14:36:38+02:0");
+		data.add("2014-06-12X14:36:38Z");
+		data.add("2014-06-12T24:00:00Z");
+		data.add("2014-06-12T14:36:38.1234567891Z");
+		data.add("20140612T143638Z");
+		data.add("");
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataInvalidTimestamps", expectedExceptions = IllegalArgumentException.class)
+	public void testParseInvalid(final String aTimestamp) {
+		new IsoTimestampParser().parse(aTimestamp);
+	}
+}
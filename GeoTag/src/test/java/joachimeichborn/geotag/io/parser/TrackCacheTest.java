@@ -0,0 +1,153 @@
+package joachimeichborn.geotag.io.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.Track;
+
+public class TrackCacheTest {
+	private static final class CountingParser implements TrackParser {
+		private final AtomicInteger calls = new AtomicInteger();
+		private final int positions;
+
+		private CountingParser(final int aPositions) {
+			positions = aPositions;
+		}
+
+		@Override
+		public Track read(final Path aFile) throws IOException {
+			calls.incrementAndGet();
+			final List<PositionData> data = new ArrayList<>();
+			for (int i = 0; i < positions; i++) {
+				data.add(new PositionData(new Coordinates(i, i, i), 1_000L * i, DateTimeZone.UTC, "p" + i, i));
+			}
+			return new Track(aFile, data);
+		}
+	}
+
+	private Path directory;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("geotag");
+	}
+
+	@AfterMethod
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	private Path createTrackFile(final String aName) throws IOException {
+		return Files.write(directory.resolve(aName), aName.getBytes());
+	}
+
+	@Test
+	public void testCacheHit() throws IOException {
+		final TrackCache cache = new TrackCache(directory.resolve("cache"), true, 1);
+		final CountingParser parser = new CountingParser(100);
+		final Path file = createTrackFile("track.gpx");
+
+		final Track parsed = cache.read(file, parser);
+		final Track cached = cache.cached(parser).read(file);
+
+		Assert.assertEquals(parser.calls.get(), 1);
+		Assert.assertEquals(cached.getFile(), file);
+		Assert.assertEquals(cached.getData(), parsed.getData());
+	}
+
+	@Test
+	public void testModifiedFileIsParsedAgain() throws IOException {
+		final TrackCache cache = new TrackCache(directory.resolve("cache"), true, 1);
+		final CountingParser parser = new CountingParser(10);
+		final Path file = createTrackFile("track.kml");
+
+		cache.read(file, parser);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 10_000));
+		cache.read(file, parser);
+		cache.read(file, parser);
+
+		Assert.assertEquals(parser.calls.get(), 2);
+	}
+
+	@Test
+	public void testDisabledCache() throws IOException {
+		final Path cacheDir = directory.resolve("cache");
+		final TrackCache cache = new TrackCache(cacheDir, false, 1);
+		final CountingParser parser = new CountingParser(10);
+		final Path file = createTrackFile("track.kml");
+
+		cache.read(file, parser);
+		cache.read(file, parser);
+
+		Assert.assertEquals(parser.calls.get(), 2);
+		Assert.assertFalse(Files.exists(cacheDir));
+	}
+
+	@Test
+	public void testCorruptEntryIsReplaced() throws IOException {
+		final Path cacheDir = directory.resolve("cache");
+		final TrackCache cache = new TrackCache(cacheDir, true, 1);
+		final CountingParser parser = new CountingParser(10);
+		final Path file = createTrackFile("track.kml");
+
+		final Track parsed = cache.read(file, parser);
+		try (final Stream<Path> entries = Files.list(cacheDir)) {
+			final Path entry = entries.findFirst().get();
+			final byte[] content = Files.readAllBytes(entry);
+			Files.write(entry, Arrays.copyOf(content, content.length / 2));
+		}
+
+		Assert.assertEquals(cache.read(file, parser).getData(), parsed.getData());
+		Assert.assertEquals(cache.read(file, parser).getData(), parsed.getData());
+		Assert.assertEquals(parser.calls.get(), 2);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+		final Path cacheDir = directory.resolve("cache");
+		final TrackCache cache = new TrackCache(cacheDir, true, 1);
+		final CountingParser parser = new CountingParser(10_000);
+
+		final Path first = createTrackFile("first.gpx");
+		final Path second = createTrackFile("second.gpx");
+		final Path third = createTrackFile("third.gpx");
+		cache.read(first, parser);
+		cache.read(second, parser);
+		try (final Stream<Path> entries = Files.list(cacheDir)) {
+			entries.forEach(entry -> {
+				try {
+					Files.setLastModifiedTime(entry, FileTime.fromMillis(0));
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		}
+		cache.read(second, parser);
+		cache.read(third, parser);
+
+		try (final Stream<Path> entries = Files.list(cacheDir)) {
+			Assert.assertEquals(entries.count(), 2);
+		}
+		cache.read(second, parser);
+		cache.read(third, parser);
+		Assert.assertEquals(parser.calls.get(), 3);
+		cache.read(first, parser);
+		Assert.assertEquals(parser.calls.get(), 4);
+	}
+}
@@ -0,0 +1,138 @@
+package joachimeichborn.geotag.io.parser.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+import joachimeichborn.geotag.io.parser.nmea.NmeaParser;
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.model.TrackData;
+
+public class CsvParserTest {
+	private static final double DELTA = 1e-9;
+
+	private Path copyResource(final String aFileName) throws IOException {
+		final File testDir = Files.createTempDir();
+		testDir.deleteOnExit();
+
+		final File file = new File(testDir, aFileName);
+		FileUtils.copyURLToFile(CsvParser.class.getResource(aFileName), file);
+		return file.toPath();
+	}
+
+	private Path writeCsv(final String aContent) throws IOException {
+		final File file = File.createTempFile("track", ".csv");
+		file.deleteOnExit();
+		FileUtils.writeStringToFile(file, aContent, "UTF-8");
+		return file.toPath();
+	}
+
+	private static long millis(final int aDay, final int aHour, final int aMinute, final int aSecond,
+			final int aMillis) {
+		return new DateTime(2015, 7, aDay, aHour, aMinute, aSecond, aMillis, DateTimeZone.UTC).getMillis();
+	}
+
+	@Test
+	public void testReadingTimestamps() throws IOException {
+		final TrackData data = new CsvParser().read(copyResource("csv1.csv")).getData();
+
+		Assert.assertEquals(data.size(), 4);
+
+		Assert.assertEquals(data.getTime(0), millis(27, 12, 9, 6, 0));
+		Assert.assertEquals(data.getLatitude(0), -56.4193075);
+		Assert.assertEquals(data.getLongitude(0), -40.4483176);
+		Assert.assertEquals(data.getAccuracy(0), 0f);
+
+		Assert.assertEquals(data.getTime(1), millis(27, 12, 10, 6, 123));
+
+		Assert.assertEquals(data.getTime(2), millis(27, 17, 8, 7, 0));
+		Assert.assertEquals(data.getZone(2), DateTimeZone.forOffsetHours(3));
+		Assert.assertEquals(data.getLatitude(2), 56.4191662);
+		Assert.assertEquals(data.getLongitude(2), 40.4483229);
+		Assert.assertEquals(data.getAltitude(2), 129.0);
+		Assert.assertEquals(data.getAccuracy(2), 12.5f);
+		Assert.assertEquals(data.getName(2), "csv1.csv");
+
+		Assert.assertEquals(data.getTime(3), millis(27, 17, 8, 36, 500));
+		Assert.assertEquals(data.getZone(3), DateTimeZone.UTC);
+		Assert.assertEquals(data.getAltitude(3), 0.0);
+		Assert.assertEquals(data.getAccuracy(3), 5f);
+	}
+
+	@Test
+	public void testReadingDateAndTimeColumns() throws IOException {
+		final TrackData data = new CsvParser().read(copyResource("csv2.csv")).getData();
+
+		Assert.assertEquals(data.size(), 2);
+
+		Assert.assertEquals(data.getTime(0), millis(27, 17, 8, 7, 0));
+		Assert.assertEquals(data.getLatitude(0), 56.419166, DELTA);
+		Assert.assertEquals(data.getLongitude(0), -40.448322, DELTA);
+		Assert.assertEquals(data.getAltitude(0), 129.0);
+		Assert.assertEquals(data.getAccuracy(0), 1.2f * NmeaParser.USER_EQUIVALENT_RANGE_ERROR);
+
+		Assert.assertEquals(data.getTime(1), millis(27, 17, 8, 36, 250));
+		Assert.assertEquals(data.getLatitude(1), -56.419307, DELTA);
+		Assert.assertEquals(data.getLongitude(1), 40.448307, DELTA);
+		Assert.assertEquals(data.getAltitude(1), -12.0);
+		Assert.assertEquals(data.getAccuracy(1), 0f);
+	}
+
+	@Test
+	public void testReadingSeparateDateFormats() throws IOException {
+		final TrackData data = new CsvParser()
+				.read(writeCsv("date\ttime\tlatitude\tlongitude\n27.07.2015\t17:08:07\t1\t2\n"
+						+ "2015-07-28\t17:08:07\t3\t4\n20150729\t170807\t5\t6\n"))
+				.getData();
+
+		Assert.assertEquals(data.size(), 3);
+		Assert.assertEquals(data.getTime(0), millis(27, 17, 8, 7, 0));
+		Assert.assertEquals(data.getTime(1), millis(28, 17, 8, 7, 0));
+		Assert.assertEquals(data.getTime(2), millis(29, 17, 8, 7, 0));
+		Assert.assertEquals(data.getLongitude(2), 6.0);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingWithoutCoordinateColumns() throws IOException {
+		new CsvParser().read(writeCsv("time,x,y\n2015-07-27T17:08:07Z,1,2\n"));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingWithoutTimeColumns() throws IOException {
+		new CsvParser().read(writeCsv("date,lat,lon\n2015-07-27,1,2\n"));
+	}
+
+	@Test
+	public void testReadingInChunks() throws IOException {
+		final File file = File.createTempFile("track", ".csv");
+		file.deleteOnExit();
+		final int rows = 20_000;
+		try (final PrintWriter writer = new PrintWriter(file, "US-ASCII")) {
+			writer.println("timestamp,latitude,longitude,hdop");
+			for (int i = 0; i < rows; i++) {
+				writer.println((1_437_998_887L + (i % 2 == 0 ? i : rows - i)) + "," + i / 1000.0 + ","
+						+ -i / 1000.0 + "," + i % 7);
+			}
+		}
+
+		final TrackData sequential = new CsvParser().read(file.toPath()).getData();
+		final ExecutionService executionService = new ExecutionService(2, 1, 1);
+		final TrackData chunked = new CsvParser(16 * 1024, 8, executionService).read(file.toPath()).getData();
+		executionService.shutdown();
+
+		Assert.assertEquals(sequential.size(), rows);
+		Assert.assertEquals(chunked, sequential);
+		for (int i = 1; i < rows; i++) {
+			Assert.assertTrue(chunked.getTime(i - 1) <= chunked.getTime(i));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package joachimeichborn.geotag.io.parser.fit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.model.TrackData;
+
+public class FitParserTest {
+	private static final double DELTA = 1e-6;
+	private static final long FIT_EPOCH_SECONDS = 631_065_600L;
+	private static final long START = new DateTime(2015, 7, 27, 17, 8, 7, DateTimeZone.UTC).getMillis() / 1000
+			- FIT_EPOCH_SECONDS;
+
+	/**
+	 * Writes the data section of a FIT file
+	 */
+	private static class FitWriter {
+		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		private FitWriter define(final int aLocalType, final ByteOrder aOrder, final int aGlobalMessage,
+				final boolean aDeveloperField, final int... aFields) {
+			data.write(0x40 | (aDeveloperField ? 0x20 : 0) | aLocalType);
+			data.write(0);
+			data.write(aOrder == ByteOrder.BIG_ENDIAN ? 1 : 0);
+			write(aOrder, 2, aGlobalMessage);
+			data.write(aFields.length / 2);
+			for (int i = 0; i < aFields.length; i += 2) {
+				data.write(aFields[i]);
+				data.write(aFields[i + 1]);
+				data.write(0);
+			}
+			if (aDeveloperField) {
+				data.write(1);
+				data.write(0);
+				data.write(3);
+				data.write(0);
+			}
+			return this;
+		}
+
+		private FitWriter message(final int aHeader, final ByteOrder aOrder, final long... aValuesAndSizes) {
+			data.write(aHeader);
+			for (int i = 0; i < aValuesAndSizes.length; i += 2) {
+				write(aOrder, (int) aValuesAndSizes[i + 1], aValuesAndSizes[i]);
+			}
+			return this;
+		}
+
+		private void write(final ByteOrder aOrder, final int aSize, final long aValue) {
+			for (int i = 0; i < aSize; i++) {
+				final int shift = aOrder == ByteOrder.LITTLE_ENDIAN ? 8 * i : 8 * (aSize - 1 - i);
+				data.write((int) (aValue >> shift) & 0xff);
+			}
+		}
+
+		private byte[] toFile() {
+			final byte[] messages = data.toByteArray();
+			final ByteBuffer file = ByteBuffer.allocate(14 + messages.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+			file.put((byte) 14).put((byte) 0x10).putShort((short) 2093).putInt(messages.length);
+			file.put(".FIT".getBytes()).putShort((short) 0);
+			file.put(messages).putShort((short) 0);
+			return file.array();
+		}
+	}
+
+	private static int semicircles(final double aDegrees) {
+		return (int) Math.round(aDegrees * (1L << 31) / 180);
+	}
+
+	private Path write(final byte[]... aFiles) throws IOException {
+		final File file = File.createTempFile("track", ".fit");
+		file.deleteOnExit();
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (final byte[] fitFile : aFiles) {
+			content.write(fitFile);
+		}
+		Files.write(file.toPath(), content.toByteArray());
+		return file.toPath();
+	}
+
+	private static byte[] createActivity() {
+		final ByteOrder le = ByteOrder.LITTLE_ENDIAN;
+		final ByteOrder be = ByteOrder.BIG_ENDIAN;
+		return new FitWriter()
+				// file_id message without positions
+				.define(0, le, 0, false, 0, 1, 4, 4).message(0, le, 4, 1, START, 4)
+				// record with timestamp, position, altitude and gps accuracy
+				.define(1, le, 20, false, 253, 4, 0, 4, 1, 4, 2, 2, 31, 1)
+				.message(1, le, START, 4, semicircles(56.4191662), 4, semicircles(40.4483229), 4,
+						(129 + 500) * 5, 2, 7, 1)
+				// record without fix is skipped
+				.message(1, le, START + 1, 4, 0x7fffffff, 4, 0x7fffffff, 4, 0xffff, 2, 0xff, 1)
+				// compressed time stamp, 31 seconds later wraps the 5 bit offset
+				.define(2, be, 20, true, 0, 4, 1, 4, 78, 4)
+				.message(0x80 | (2 << 5) | (int) ((START + 31) & 0x1f), be, semicircles(-33.5), 4,
+						semicircles(-70.25), 4, (2000 + 500) * 5, 4, 0xabcdef, 3)
+				// redefinition of local type 1 without altitude
+				.define(1, le, 20, false, 0, 4, 1, 4, 253, 4)
+				.message(1, le, semicircles(1.5), 4, semicircles(2.5), 4, START + 100, 4).toFile();
+	}
+
+	@Test
+	public void testReading() throws IOException {
+		final TrackData data = new FitParser().read(write(createActivity())).getData();
+
+		Assert.assertEquals(data.size(), 3);
+
+		final long start = (FIT_EPOCH_SECONDS + START) * 1000;
+		Assert.assertEquals(data.getTime(0), start);
+		Assert.assertEquals(data.getZone(0), DateTimeZone.UTC);
+		Assert.assertEquals(data.getLatitude(0), 56.4191662, DELTA);
+		Assert.assertEquals(data.getLongitude(0), 40.4483229, DELTA);
+		Assert.assertEquals(data.getAltitude(0), 129.0);
+		Assert.assertEquals(data.getAccuracy(0), 7f);
+
+		Assert.assertEquals(data.getTime(1), start + 31_000);
+		Assert.assertEquals(data.getLatitude(1), -33.5, DELTA);
+		Assert.assertEquals(data.getLongitude(1), -70.25, DELTA);
+		Assert.assertEquals(data.getAltitude(1), 2000.0);
+		Assert.assertEquals(data.getAccuracy(1), 0f);
+
+		Assert.assertEquals(data.getTime(2), start + 100_000);
+		Assert.assertEquals(data.getLatitude(2), 1.5, DELTA);
+		Assert.assertEquals(data.getAltitude(2), 0.0);
+	}
+
+	@Test
+	public void testReadingChainedFiles() throws IOException {
+		final TrackData data = new FitParser().read(write(createActivity(), createActivity())).getData();
+
+		Assert.assertEquals(data.size(), 6);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingTruncatedFile() throws IOException {
+		final byte[] activity = createActivity();
+		final byte[] truncated = new byte[activity.length - 10];
+		System.arraycopy(activity, 0, truncated, 0, truncated.length);
+		new FitParser().read(write(truncated));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingUndefinedMessage() throws IOException {
+		new FitParser().read(write(new FitWriter().message(3, ByteOrder.LITTLE_ENDIAN, 1, 4).toFile()));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingNoFitFile() throws IOException {
+		new FitParser().read(write("<?xml version=\"1.0\"?><gpx></gpx>".getBytes()));
+	}
+}
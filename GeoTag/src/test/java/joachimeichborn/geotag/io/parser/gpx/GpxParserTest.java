@@ -32,6 +32,20 @@ public class GpxParserTest {
 					"2015-07-27T20:09:06+03:00", "2015-07-27T20:09:06.000+03:00", 0f));
 			data.add("gpx1.gpx", expectedPositions);
 		}
+		{
+			final List<PositionData> expectedPositions = new ArrayList<>();
+			expectedPositions.add(new PositionData(new Coordinates(56.43, 40.46, 0.0), "2015-07-27T20:01:00+03:00",
+					"2015-07-27T20:01:00+03:00", 0f));
+			expectedPositions.add(new PositionData(new Coordinates(56.46, 40.49, 140.0), "2015-07-27T19:59:00.500Z",
+					"2015-07-27T19:59:00.500Z", 0f));
+			expectedPositions.add(new PositionData(new Coordinates(56.41, 40.44, 120.5), "2015-07-27T20:00:30Z",
+					"Camp", 0f));
+			expectedPositions.add(new PositionData(new Coordinates(56.44, 40.47, 130.0), "2015-07-27T20:02:00Z",
+					"2015-07-27T20:02:00Z", 0f));
+			expectedPositions.add(new PositionData(new Coordinates(56.45, 40.48, 0.0), "2015-07-27T20:03:00Z",
+					"2015-07-27T20:03:00Z", 0f));
+			data.add("gpx2.gpx", expectedPositions);
+		}
 		return data.toArray();
 	}
 
@@ -50,4 +64,29 @@ public class GpxParserTest {
 
 		Assert.assertEquals(positions, aExpectedPositions);
 	}
+
+	@DataProvider
+	public Object[][] dataDouble() {
+		final DataProviderList data = new DataProviderList();
+		data.add("129");
+		data.add(" -12.5 ");
+		data.add("+0.1");
+		data.add("56.419166212");
+		data.add("1234567.8901234567");
+		data.add("1.5e3");
+		data.add(".5");
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataDouble")
+	public void testParseDouble(final String aText) {
+		final char[] chars = ("<" + aText.trim() + ">").toCharArray();
+		Assert.assertEquals(GpxParser.parseDouble(chars, 1, chars.length - 1), Double.parseDouble(aText));
+	}
+
+	@Test(expectedExceptions = NumberFormatException.class)
+	public void testParseInvalidDouble() {
+		final char[] chars = "1.2.3".toCharArray();
+		GpxParser.parseDouble(chars, 0, chars.length);
+	}
 }
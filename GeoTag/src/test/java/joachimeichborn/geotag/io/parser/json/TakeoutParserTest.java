@@ -0,0 +1,131 @@
+package joachimeichborn.geotag.io.parser.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+import joachimeichborn.geotag.io.parser.TrackParser;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
+
+public class TakeoutParserTest {
+	private Path copyResource(final String aFileName) throws IOException {
+		final File testDir = Files.createTempDir();
+		testDir.deleteOnExit();
+
+		final File file = new File(testDir, aFileName);
+		FileUtils.copyURLToFile(TakeoutParser.class.getResource(aFileName), file);
+		return file.toPath();
+	}
+
+	private Path writeJson(final String aJson) throws IOException {
+		final File file = File.createTempFile("takeout", ".json");
+		file.deleteOnExit();
+		FileUtils.writeStringToFile(file, aJson, "UTF-8");
+		return file.toPath();
+	}
+
+	@Test
+	public void testReading() throws IOException {
+		final Path file = copyResource("takeout1.json");
+		final TrackParser parser = new TakeoutParser();
+
+		final Track track = parser.read(file);
+
+		final List<PositionData> expected = new ArrayList<>();
+		expected.add(new PositionData(new Coordinates(56.4191662, 40.4483229, 129), "2015-07-27T12:08:07Z",
+				"takeout1.json", 20f));
+		expected.add(new PositionData(new Coordinates(56.4193077, 40.4483077, 0), "2015-07-27T20:08:36.500+03:00",
+				"takeout1.json", 12.5f));
+		expected.add(new PositionData(new Coordinates(-42.245, -30, 0), "2015-07-28T09:00:00Z", "takeout1.json",
+				0f));
+		Assert.assertEquals(track.getPositions(), expected);
+		Assert.assertEquals(track.getData().getAccuracy(0), 20f);
+		Assert.assertEquals(track.getData().getAccuracy(1), 12.5f);
+		Assert.assertEquals(track.getData().getZone(1), DateTimeZone.forOffsetHours(3));
+	}
+
+	@Test
+	public void testReadingSemanticHistory() throws IOException {
+		final Path file = copyResource("semantic1.json");
+
+		final Track track = new TakeoutParser().read(file);
+
+		final Coordinates visit = new Coordinates(52.5161, 13.3777, 0);
+		final List<PositionData> expected = new ArrayList<>();
+		expected.add(new PositionData(visit, "2022-01-01T10:00:00Z", "semantic1.json", 0f));
+		expected.add(new PositionData(visit, "2022-01-01T11:30:00Z", "semantic1.json", 0f));
+		expected.add(new PositionData(visit, "2022-01-01T11:30:00Z", "semantic1.json", 0f));
+		expected.add(new PositionData(new Coordinates(52.518, 13.39, 0), "2022-01-01T11:45:00Z", "semantic1.json",
+				15f));
+		expected.add(new PositionData(new Coordinates(52.52, 13.405, 0), "2022-01-01T12:00:00Z", "semantic1.json",
+				0f));
+		Assert.assertEquals(track.getPositions(), expected);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingTruncatedFile() throws IOException {
+		new TakeoutParser().read(writeJson("{\"locations\" : [ { \"timestampMs\" : \"1437998887000\""));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testReadingUnbalancedFile() throws IOException {
+		new TakeoutParser().read(writeJson("{\"locations\" : [ } ]"));
+	}
+
+	@Test
+	public void testReadingManyRecords() throws IOException {
+		final StringBuilder json = new StringBuilder("{\"locations\":[");
+		for (int i = 0; i < 5000; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"timestampMs\":\"").append(1_000_000L * (5000 - i)).append("\",\"latitudeE7\":")
+					.append(i).append(",\"longitudeE7\":").append(-i).append(",\"accuracy\":").append(i % 100)
+					.append('}');
+		}
+		json.append("]}");
+
+		final TrackData data = new TakeoutParser().read(writeJson(json.toString())).getData();
+
+		Assert.assertEquals(data.size(), 5000);
+		for (int i = 0; i < 5000; i++) {
+			final int record = 4999 - i;
+			Assert.assertEquals(data.getTime(i), 1_000_000L * (5000 - record));
+			Assert.assertEquals(data.getLatitude(i), record / 1e7);
+			Assert.assertEquals(data.getLongitude(i), -record / 1e7);
+			Assert.assertEquals(data.getAccuracy(i), (float) (record % 100));
+		}
+	}
+
+	@Test
+	public void testSplitByTimeWindow() throws IOException {
+		final Path file = copyResource("takeout1.json");
+		final Track track = new TakeoutParser().read(file);
+
+		final List<Track> days = TakeoutParser.splitByTimeWindow(track, 24);
+		Assert.assertEquals(days.size(), 2);
+		Assert.assertEquals(days.get(0).getFile(), file.resolveSibling("takeout1_2015-07-27_00-00.json"));
+		Assert.assertEquals(days.get(0).getPositions(), track.getPositions().subList(0, 2));
+		Assert.assertEquals(days.get(1).getFile(), file.resolveSibling("takeout1_2015-07-28_00-00.json"));
+		Assert.assertEquals(days.get(1).getPositions(), track.getPositions().subList(2, 3));
+
+		final List<Track> hours = TakeoutParser.splitByTimeWindow(track, 1);
+		Assert.assertEquals(hours.size(), 3);
+		Assert.assertEquals(hours.get(1).getFile().getFileName(), Paths.get("takeout1_2015-07-27_17-00.json"));
+
+		Assert.assertEquals(TakeoutParser.splitByTimeWindow(track, 24 * 365).size(), 1);
+	}
+}
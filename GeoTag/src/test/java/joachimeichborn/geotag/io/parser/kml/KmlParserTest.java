@@ -31,6 +31,34 @@ public class KmlParserTest {
 					"2015-07-27T20:09:06+03:00", "fused3", 17f));
 			data.add("kml1.kml", expectedPositions);
 		}
+		{
+			final List<PositionData> expectedPositions = new ArrayList<>();
+			expectedPositions.add(new PositionData(new Coordinates(56.1, 40.1, 0.0), "2015-07-27T20:01:00.250+02:00",
+					"direct", 12.5f));
+			expectedPositions.add(new PositionData(new Coordinates(56.5, 40.5, 5.0), "2015-07-27T20:05:00Z",
+					"in folder", 22f));
+			data.add("kml2.kml", expectedPositions);
+		}
+		{
+			final List<PositionData> expectedPositions = new ArrayList<>();
+			expectedPositions.add(new PositionData(new Coordinates(56.1, 40.1, 100.0), "2015-07-27T20:00:00Z",
+					"track", 7f));
+			expectedPositions.add(new PositionData(new Coordinates(56.3, 40.3, 120.0), "2015-07-27T21:00:00+01:00",
+					"multi track", 0f));
+			expectedPositions.add(new PositionData(new Coordinates(56.2, 40.2, 110.0), "2015-07-27T20:00:10Z",
+					"track", 7f));
+			expectedPositions.add(new PositionData(new Coordinates(56.4, 40.4, 0.0), "2015-07-27T20:30:00Z",
+					"multi track", 0f));
+			data.add("kml3.kml", expectedPositions);
+		}
+		{
+			final List<PositionData> expectedPositions = new ArrayList<>();
+			expectedPositions.add(new PositionData(new Coordinates(56.1, 40.1, 100.0), "2015-07-27T20:00:00Z",
+					"malformed track", 0f));
+			expectedPositions.add(new PositionData(new Coordinates(56.3, 40.3, 120.0), "2015-07-27T20:00:20Z",
+					"malformed track", 0f));
+			data.add("kml4.kml", expectedPositions);
+		}
 		return data.toArray();
 	}
 
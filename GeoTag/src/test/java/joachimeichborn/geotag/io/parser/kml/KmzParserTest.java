@@ -1,9 +1,12 @@
 package joachimeichborn.geotag.io.parser.kml;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.testng.Assert;
@@ -15,9 +18,11 @@ import com.google.common.io.Files;
 import joachimeichborn.geotag.DataProviderList;
 import joachimeichborn.geotag.io.parser.TrackParser;
 import joachimeichborn.geotag.io.parser.kml.KmzParser;
+import joachimeichborn.geotag.misc.ExecutionService;
 import joachimeichborn.geotag.model.Coordinates;
 import joachimeichborn.geotag.model.PositionData;
 import joachimeichborn.geotag.model.Track;
+import joachimeichborn.geotag.model.TrackData;
 
 public class KmzParserTest {
 	@DataProvider
@@ -57,4 +62,40 @@ public class KmzParserTest {
 
 		Assert.assertEquals(positions, aExpectedPositions);
 	}
+
+	@Test
+	public void testReadingManyEntries() throws IOException {
+		final File testDir = Files.createTempDir();
+		testDir.deleteOnExit();
+
+		final File kmlFile = new File(testDir, "kml1.kml");
+		FileUtils.copyURLToFile(KmlParser.class.getResource("kml1.kml"), kmlFile);
+		final byte[] kml = FileUtils.readFileToByteArray(kmlFile);
+
+		final File kmzFile = new File(testDir, "many.kmz");
+		try (final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(kmzFile))) {
+			for (int i = 0; i < 12; i++) {
+				zip.putNextEntry(new ZipEntry("day" + i + ".kml"));
+				zip.write(kml);
+				zip.closeEntry();
+			}
+			zip.putNextEntry(new ZipEntry("images/icon.png"));
+			zip.write(new byte[] { 1, 2, 3 });
+			zip.closeEntry();
+		}
+
+		final Track singleTrack = new KmlParser().read(kmlFile.toPath());
+		final List<PositionData> expectedPositions = new ArrayList<>();
+		for (int i = 0; i < 12; i++) {
+			expectedPositions.addAll(singleTrack.getPositions());
+		}
+
+		final Track track = new KmzParser().read(kmzFile.toPath());
+		Assert.assertEquals(track.getData(), TrackData.of(expectedPositions));
+
+		final ExecutionService executionService = new ExecutionService(2, 1, 1);
+		final Track parallelTrack = new KmzParser(executionService).read(kmzFile.toPath());
+		executionService.shutdown();
+		Assert.assertEquals(parallelTrack.getData(), TrackData.of(expectedPositions));
+	}
 }
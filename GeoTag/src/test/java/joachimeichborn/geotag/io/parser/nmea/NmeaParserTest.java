@@ -0,0 +1,90 @@
+package joachimeichborn.geotag.io.parser.nmea;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.model.TrackData;
+
+public class NmeaParserTest {
+	private static final double DELTA = 1e-9;
+
+	private Path copyResource(final String aFileName) throws IOException {
+		final File testDir = Files.createTempDir();
+		testDir.deleteOnExit();
+
+		final File file = new File(testDir, aFileName);
+		FileUtils.copyURLToFile(NmeaParser.class.getResource(aFileName), file);
+		return file.toPath();
+	}
+
+	private static long millis(final int aDay, final int aHour, final int aMinute, final int aSecond,
+			final int aMillis) {
+		return new DateTime(2015, 7, aDay, aHour, aMinute, aSecond, aMillis, DateTimeZone.UTC).getMillis();
+	}
+
+	@Test
+	public void testReading() throws IOException {
+		final TrackData data = new NmeaParser().read(copyResource("nmea1.nmea")).getData();
+
+		Assert.assertEquals(data.size(), 4);
+
+		Assert.assertEquals(data.getTime(0), millis(27, 12, 0, 0, 0));
+		Assert.assertEquals(data.getZone(0), DateTimeZone.UTC);
+		Assert.assertEquals(data.getLatitude(0), 56 + 25.15 / 60, DELTA);
+		Assert.assertEquals(data.getLongitude(0), -(40 + 26.9 / 60), DELTA);
+		Assert.assertEquals(data.getAltitude(0), 129.5);
+		Assert.assertEquals(data.getAccuracy(0), 1.2f * NmeaParser.USER_EQUIVALENT_RANGE_ERROR);
+		Assert.assertEquals(data.getName(0), "nmea1.nmea");
+
+		Assert.assertEquals(data.getTime(1), millis(27, 12, 0, 1, 500));
+		Assert.assertEquals(data.getLatitude(1), 56 + 25.16 / 60, DELTA);
+		Assert.assertEquals(data.getAltitude(1), 130.0);
+		Assert.assertEquals(data.getAccuracy(1), 2.0f * NmeaParser.USER_EQUIVALENT_RANGE_ERROR);
+
+		Assert.assertEquals(data.getTime(2), millis(27, 12, 0, 2, 0));
+		Assert.assertEquals(data.getAltitude(2), 0.0);
+		Assert.assertEquals(data.getAccuracy(2), 0f);
+
+		Assert.assertEquals(data.getTime(3), millis(28, 12, 0, 3, 0));
+		Assert.assertEquals(data.getLatitude(3), -1.5, DELTA);
+		Assert.assertEquals(data.getLongitude(3), 103.0, DELTA);
+	}
+
+	@Test
+	public void testReadingInChunks() throws IOException {
+		final File file = File.createTempFile("track", ".nmea");
+		file.deleteOnExit();
+		final int fixes = 20_000;
+		try (final PrintWriter writer = new PrintWriter(file, "US-ASCII")) {
+			for (int i = 0; i < fixes; i++) {
+				final String time = String.format("%02d%02d%02d.00", i / 3600 % 24, i / 60 % 60, i % 60);
+				writer.println("$GPGGA," + time + ",5625.1500,N,04026.9000,W,1,08," + (i % 10) + ".0," + i
+						+ ",M,14.1,M,,");
+				writer.println("$GPRMC," + time + ",A,5625.1500,N,04026.9000,W,0.5,54.7,270715,,,A");
+			}
+		}
+
+		final TrackData sequential = new NmeaParser().read(file.toPath()).getData();
+		final ExecutionService executionService = new ExecutionService(2, 1, 1);
+		final TrackData chunked = new NmeaParser(64 * 1024, 8, executionService).read(file.toPath()).getData();
+		executionService.shutdown();
+
+		Assert.assertEquals(sequential.size(), fixes);
+		Assert.assertEquals(chunked, sequential);
+		for (int i = 0; i < fixes; i++) {
+			Assert.assertEquals(chunked.getAltitude(i), (double) i);
+			Assert.assertEquals(chunked.getAccuracy(i), (i % 10) * NmeaParser.USER_EQUIVALENT_RANGE_ERROR);
+		}
+	}
+}
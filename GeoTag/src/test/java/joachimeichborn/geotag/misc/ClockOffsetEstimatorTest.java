@@ -0,0 +1,158 @@
+package joachimeichborn.geotag.misc;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.Picture;
+import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.Track;
+
+public class ClockOffsetEstimatorTest {
+	private static final long MINUTE = 60_000;
+	private static final DateTime START = new DateTime(2000, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	@Test
+	public void testEstimateKnownOffsets() {
+		final Random random = new Random(42);
+		final List<PositionData> positions = new ArrayList<>();
+		final List<Long> times = new ArrayList<>();
+		long time = START.getMillis();
+		for (int i = 0; i < 200; i++) {
+			time += (5 + random.nextInt(120)) * MINUTE;
+			times.add(time);
+			positions.add(new PositionData(new Coordinates(i, i, i), new DateTime(time, DateTimeZone.UTC), "A", 10));
+		}
+		final List<Track> tracks = Lists.newArrayList(new Track(Paths.get("track1.kml"), positions));
+
+		final List<Picture> pictures = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			final long cameraA = times.get(3 * i) - 37 * MINUTE;
+			pictures.add(new Picture(Paths.get("a" + i + ".jpg"), null, cameraA, "Camera A", null, null));
+			final long cameraB = times.get(3 * i + 1) + 95 * MINUTE;
+			pictures.add(new Picture(Paths.get("b" + i + ".jpg"), null, cameraB, "Camera B", null, null));
+		}
+		pictures.add(new Picture(Paths.get("c.jpg"), "invalid", null, null));
+
+		final ClockOffsetEstimator estimator = new ClockOffsetEstimator(tracks, pictures, 0, -180 * MINUTE,
+				180 * MINUTE, MINUTE);
+		final Map<String, ClockOffsetEstimate> estimates = estimator.estimate();
+
+		Assert.assertEquals(estimates.size(), 2);
+		Assert.assertEquals(estimates.get("Camera A").getOffsetMillis(), 37 * MINUTE);
+		Assert.assertEquals(estimates.get("Camera A").getMatchCount(), 50);
+		Assert.assertEquals(estimates.get("Camera A").getPictureCount(), 50);
+		Assert.assertEquals(estimates.get("Camera A").getMeanDeltaMillis(), 0.0);
+		Assert.assertEquals(estimates.get("Camera B").getOffsetMillis(), -95 * MINUTE);
+		Assert.assertEquals(estimates.get("Camera B").getMatchCount(), 50);
+		Assert.assertEquals(estimates.get("Camera B").getMeanDeltaMillis(), 0.0);
+	}
+
+	@Test
+	public void testEstimateMatchesExhaustiveEvaluation() {
+		final Random random = new Random(7);
+		final List<PositionData> positions = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			final long time = START.getMillis() + random.nextInt(3 * 24 * 60) * MINUTE + random.nextInt(60_000);
+			positions.add(new PositionData(new Coordinates(i, i, i), new DateTime(time, DateTimeZone.UTC), "A", 10));
+		}
+		final List<Track> tracks = Lists.newArrayList(new Track(Paths.get("track1.kml"), positions));
+
+		final List<Picture> pictures = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			final long time = START.getMillis() + random.nextInt(3 * 24 * 60) * MINUTE + random.nextInt(60_000);
+			pictures.add(new Picture(Paths.get("p" + i + ".jpg"), null, time, null, null, null));
+		}
+
+		final int tolerance = 2;
+		final long minOffset = -6 * 60 * MINUTE - 123;
+		final long maxOffset = 6 * 60 * MINUTE;
+		final long step = 7_919;
+		final ClockOffsetEstimator estimator = new ClockOffsetEstimator(tracks, pictures, tolerance, minOffset,
+				maxOffset, step);
+		final ClockOffsetEstimate estimate = estimator.estimate().get(ClockOffsetEstimator.UNKNOWN_CAMERA_MODEL);
+
+		final PositionTimeIndex index = new PositionTimeIndex(tracks);
+		long bestOffset = 0;
+		int bestCount = -1;
+		double bestMean = 0;
+		for (long offset = minOffset; offset <= maxOffset; offset += step) {
+			int count = 0;
+			long sum = 0;
+			for (final Picture picture : pictures) {
+				final long time = picture.getTimeMillis() + offset;
+				final long delta = Math.abs(time - index.getMillis(index.findClosest(time)));
+				if (delta / MINUTE <= tolerance) {
+					count++;
+					sum += delta;
+				}
+			}
+			final double mean = count == 0 ? 0 : (double) sum / count;
+			if (count > bestCount || (count == bestCount && mean < bestMean)
+					|| (count == bestCount && mean == bestMean && Math.abs(offset) < Math.abs(bestOffset))) {
+				bestOffset = offset;
+				bestCount = count;
+				bestMean = mean;
+			}
+		}
+
+		Assert.assertEquals(estimate.getPictureCount(), pictures.size());
+		Assert.assertEquals(estimate.getMatchCount(), bestCount);
+		Assert.assertEquals(estimate.getMeanDeltaMillis(), bestMean, 1e-6);
+		Assert.assertEquals(estimate.getOffsetMillis(), bestOffset);
+	}
+
+	@Test
+	public void testParallelEstimate() {
+		final Random random = new Random(11);
+		final List<PositionData> positions = new ArrayList<>();
+		for (int i = 0; i < 2_000; i++) {
+			final long time = START.getMillis() + random.nextInt(7 * 24 * 60) * MINUTE;
+			positions.add(new PositionData(new Coordinates(i, i, i), new DateTime(time, DateTimeZone.UTC), "A", 10));
+		}
+		final List<Track> tracks = Lists.newArrayList(new Track(Paths.get("track1.kml"), positions));
+
+		final List<Picture> pictures = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			final long time = positions.get(random.nextInt(positions.size())).getTimeMillis() - 17 * MINUTE;
+			pictures.add(new Picture(Paths.get("p" + i + ".jpg"), null, time, i % 2 == 0 ? "Camera A" : null, null,
+					null));
+		}
+
+		final ClockOffsetEstimator sequentialEstimator = new ClockOffsetEstimator(tracks, pictures, 1, -60 * MINUTE,
+				60 * MINUTE, 30_000);
+		final Map<String, ClockOffsetEstimate> sequential = sequentialEstimator.estimate();
+
+		final ExecutionService executionService = new ExecutionService(1, 4, 1);
+		final ClockOffsetEstimator parallelEstimator = new ClockOffsetEstimator(tracks, pictures, 1, -60 * MINUTE,
+				60 * MINUTE, 30_000);
+		parallelEstimator.setExecutionService(executionService);
+		final Map<String, ClockOffsetEstimate> parallel = parallelEstimator.estimate();
+		executionService.shutdown();
+
+		Assert.assertEquals(parallel.keySet(), sequential.keySet());
+		for (final String cameraModel : sequential.keySet()) {
+			Assert.assertEquals(parallel.get(cameraModel).getOffsetMillis(),
+					sequential.get(cameraModel).getOffsetMillis());
+			Assert.assertEquals(parallel.get(cameraModel).getMatchCount(), sequential.get(cameraModel).getMatchCount());
+			Assert.assertEquals(parallel.get(cameraModel).getMeanDeltaMillis(),
+					sequential.get(cameraModel).getMeanDeltaMillis());
+		}
+		Assert.assertEquals(sequential.get("Camera A").getOffsetMillis(), 17 * MINUTE);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testInvalidOffsetRange() {
+		new ClockOffsetEstimator(new ArrayList<>(), new ArrayList<>(), 1, 10, -10, 1);
+	}
+}
@@ -0,0 +1,161 @@
+package joachimeichborn.geotag.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.misc.ExecutionService.PoolMetrics;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
+
+public class ExecutionServiceTest {
+	@Test
+	public void testThreadNames() throws Exception {
+		final ExecutionService service = new ExecutionService(1, 1, 1);
+
+		for (final PoolType type : PoolType.values()) {
+			final String name = service.getExecutor(type).submit(() -> Thread.currentThread().getName()).get();
+			Assert.assertEquals(name, "geotag-" + type.getName() + "-1");
+		}
+
+		service.shutdown();
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		final ExecutionService service = new ExecutionService(2, 1, 1);
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		for (int i = 0; i < 5; i++) {
+			service.getExecutor(PoolType.IO).execute(() -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		final PoolMetrics metrics = service.getMetrics(PoolType.IO);
+		Assert.assertEquals(metrics.getMaximumThreads(), 2);
+		Assert.assertEquals(metrics.getActiveThreads(), 2);
+		Assert.assertEquals(metrics.getQueueDepth(), 3);
+		Assert.assertEquals(service.getMetrics(PoolType.CPU).getActiveThreads(), 0);
+
+		release.countDown();
+		service.shutdown();
+	}
+
+	@Test
+	public void testShutdownCancelsQueuedTasks() throws Exception {
+		final ExecutionService service = new ExecutionService(1, 1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+
+		final Future<?> running = service.getExecutor(PoolType.CPU).submit(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		final Future<?> queued = service.getExecutor(PoolType.CPU).submit(() -> {
+		});
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		service.shutdown();
+
+		Assert.assertTrue(running.isDone());
+		Assert.assertFalse(running.isCancelled());
+		Assert.assertTrue(queued.isCancelled());
+		Assert.assertTrue(service.getExecutor(PoolType.CPU).isTerminated());
+	}
+
+	@Test
+	public void testInvokeAll() throws Exception {
+		final ExecutionService service = new ExecutionService(2, 1, 1);
+
+		final List<Callable<Integer>> tasks = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			final int value = i;
+			tasks.add(() -> value * value);
+		}
+
+		final List<Integer> results = service.invokeAll(PoolType.IO, tasks);
+
+		Assert.assertEquals(results.size(), 20);
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals(results.get(i).intValue(), i * i);
+		}
+
+		service.shutdown();
+	}
+
+	@Test(timeOut = 10_000)
+	public void testInvokeAllFromPoolThread() throws Exception {
+		final ExecutionService service = new ExecutionService(1, 1, 1);
+
+		// the only thread of the pool waits for its subtasks and has to run
+		// them itself
+		final int sum = service.getExecutor(PoolType.IO).submit(() -> {
+			final List<Callable<Integer>> tasks = new ArrayList<>();
+			for (int i = 1; i <= 4; i++) {
+				final int value = i;
+				tasks.add(() -> value);
+			}
+			int total = 0;
+			for (final int value : service.invokeAll(PoolType.IO, tasks)) {
+				total += value;
+			}
+			return total;
+		}).get();
+
+		Assert.assertEquals(sum, 10);
+		service.shutdown();
+	}
+
+	@Test(expectedExceptions = ExecutionException.class)
+	public void testInvokeAllFailure() throws Exception {
+		final ExecutionService service = new ExecutionService(2, 1, 1);
+		try {
+			final List<Callable<Integer>> tasks = new ArrayList<>();
+			tasks.add(() -> 1);
+			tasks.add(() -> {
+				throw new IllegalStateException("failed");
+			});
+			service.invokeAll(PoolType.CPU, tasks);
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void testThreadPerTask() throws Exception {
+		final ExecutionService service = new ExecutionService(1, 1, 1);
+
+		service.configureThreadPerTask(true, 7, 3);
+		Assert.assertTrue(service.getExecutor(PoolType.IO) instanceof ThreadPerTaskExecutor);
+		Assert.assertTrue(service.getExecutor(PoolType.NETWORK) instanceof ThreadPerTaskExecutor);
+		Assert.assertFalse(service.getExecutor(PoolType.CPU) instanceof ThreadPerTaskExecutor);
+		Assert.assertEquals(service.getMetrics(PoolType.IO).getMaximumThreads(), 7);
+		Assert.assertEquals(service.getMetrics(PoolType.NETWORK).getMaximumThreads(), 3);
+
+		final String name = service.getExecutor(PoolType.IO).submit(() -> Thread.currentThread().getName()).get();
+		Assert.assertTrue(name.startsWith("geotag-io-"));
+
+		service.configureThreadPerTask(false, 7, 3);
+		Assert.assertFalse(service.getExecutor(PoolType.IO) instanceof ThreadPerTaskExecutor);
+		Assert.assertEquals(service.getMetrics(PoolType.IO).getMaximumThreads(), 1);
+
+		service.shutdown();
+	}
+}
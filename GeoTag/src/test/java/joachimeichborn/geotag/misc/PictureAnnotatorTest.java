@@ -5,19 +5,38 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.Lists;
 
 import joachimeichborn.geotag.misc.PictureAnnotator;
+import joachimeichborn.geotag.misc.PictureAnnotator.MatchingStrategy;
 import joachimeichborn.geotag.model.Coordinates;
 import joachimeichborn.geotag.model.Picture;
 import joachimeichborn.geotag.model.PositionData;
 import joachimeichborn.geotag.model.Track;
 
 public class PictureAnnotatorTest {
+	private ExecutionService executionService;
+
+	@BeforeMethod
+	public void setUp() {
+		executionService = new ExecutionService(1, 4, 1);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		executionService.shutdown();
+	}
+
 	@DataProvider
 	public Object[][] testAnnotationProvider() {
 		final List<Object[]> data = new ArrayList<>();
@@ -164,4 +183,63 @@ public class PictureAnnotatorTest {
 		Assert.assertEquals(annotator.getAnnotatedPictures(), aExpectedAnnotated);
 		Assert.assertEquals(annotator.getNonAnnotatedPictures(), aExpectedNonAnnotated);
 	}
+
+	@Test(dataProvider = "testAnnotationProvider")
+	public void testAnnotationStrategies(final List<Track> aTracks, final List<Picture> aPictures,
+			final int aTolerance, final boolean aOverwrite, final List<Picture> aExpectedAnnotated,
+			final List<Picture> aExpectedNonAnnotated) {
+		for (final MatchingStrategy strategy : MatchingStrategy.values()) {
+			for (final boolean parallel : new boolean[] { false, true }) {
+				final PictureAnnotator annotator = new PictureAnnotator(aTracks, aPictures, aTolerance, aOverwrite);
+				annotator.setMatchingStrategy(strategy);
+				if (parallel) {
+					annotator.setExecutionService(executionService);
+				}
+
+				annotator.computeMatches();
+
+				final String message = strategy + ", parallel " + parallel;
+				Assert.assertEquals(annotator.getAnnotatedPictures(), aExpectedAnnotated, message);
+				Assert.assertEquals(annotator.getNonAnnotatedPictures(), aExpectedNonAnnotated, message);
+			}
+		}
+	}
+
+	@Test
+	public void testParallelAnnotationOfLargeBatch() {
+		final DateTime start = new DateTime(2000, 1, 1, 0, 0, DateTimeZone.UTC);
+		final DateTimeFormatter pictureTimeFormatter = DateTimeFormat.forPattern("yyyy:MM:dd HH:mm:ss").withZoneUTC();
+
+		final List<PositionData> positions = new ArrayList<>();
+		for (int i = 0; i < 2_000; i++) {
+			positions.add(new PositionData(new Coordinates(i, i, i), start.plusMinutes(10 * i), "A", 10));
+		}
+		final List<Track> tracks = Lists.newArrayList(new Track(Paths.get("track1.kml"), positions));
+
+		final List<Picture> pictures = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			final String time = pictureTimeFormatter.print(start.plusMinutes((i * 7919) % 40_000));
+			final Coordinates coordinates = i % 13 == 0 ? new Coordinates(-1, -1, -1) : null;
+			pictures.add(new Picture(Paths.get("pic" + i + ".jpg"), i % 97 == 0 ? "invalid" : time, coordinates, null));
+		}
+
+		final PictureAnnotator sequentialAnnotator = new PictureAnnotator(tracks, pictures, 3, false);
+		sequentialAnnotator.setMatchingStrategy(MatchingStrategy.BINARY_SEARCH);
+		sequentialAnnotator.computeMatches();
+
+		for (final MatchingStrategy strategy : MatchingStrategy.values()) {
+			final PictureAnnotator parallelAnnotator = new PictureAnnotator(tracks, pictures, 3, false);
+			parallelAnnotator.setMatchingStrategy(strategy);
+			parallelAnnotator.setExecutionService(executionService);
+			parallelAnnotator.computeMatches();
+
+			Assert.assertEquals(parallelAnnotator.getAnnotatedPictures(), sequentialAnnotator.getAnnotatedPictures());
+			Assert.assertEquals(parallelAnnotator.getNonAnnotatedPictures(),
+					sequentialAnnotator.getNonAnnotatedPictures());
+		}
+		Assert.assertEquals(
+				sequentialAnnotator.getAnnotatedPictures().size() + sequentialAnnotator.getNonAnnotatedPictures().size(),
+				pictures.size());
+		Assert.assertFalse(sequentialAnnotator.getAnnotatedPictures().isEmpty());
+	}
 }
@@ -0,0 +1,130 @@
+package joachimeichborn.geotag.misc;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import joachimeichborn.geotag.DataProviderList;
+import joachimeichborn.geotag.model.Coordinates;
+import joachimeichborn.geotag.model.PositionData;
+import joachimeichborn.geotag.model.Track;
+
+public class PositionTimeIndexTest {
+	private static final Coordinates COORD1 = new Coordinates(1.1, 1.2, 1.3);
+	private static final Coordinates COORD2 = new Coordinates(2.1, 2.2, 2.3);
+	private static final Coordinates COORD3 = new Coordinates(3.1, 3.2, 3.3);
+	private static final Coordinates COORD4 = new Coordinates(4.1, 4.2, 4.3);
+
+	private static final long MINUTE = 60_000;
+	private static final long FIVE_AM = 946_702_800_000L;
+
+	@DataProvider
+	public Object[][] dataFindClosest() {
+		final List<Track> tracks = Lists.newArrayList(
+				new Track(Paths.get("track1.kml"),
+						Lists.newArrayList(new PositionData(COORD3, "2000-01-01T07:00:00Z", "A", 10),
+								new PositionData(COORD1, "2000-01-01T05:00:00Z", "A", 25))),
+				new Track(Paths.get("track2.kml"),
+						Lists.newArrayList(new PositionData(COORD2, "2000-01-01T06:00:00Z", "A", 40))),
+				new Track(Paths.get("track3.kml"),
+						Lists.newArrayList(new PositionData(COORD4, "2000-01-01T07:30:00+02:00", "A", 5))));
+		final PositionTimeIndex index = new PositionTimeIndex(tracks);
+
+		final DataProviderList data = new DataProviderList();
+		data.add(index, FIVE_AM - 60 * MINUTE, COORD1);
+		data.add(index, FIVE_AM, COORD1);
+		data.add(index, FIVE_AM + 29 * MINUTE, COORD1);
+		data.add(index, FIVE_AM + 30 * MINUTE, COORD2);
+		data.add(index, FIVE_AM + 89 * MINUTE, COORD2);
+		data.add(index, FIVE_AM + 90 * MINUTE, COORD3);
+		data.add(index, FIVE_AM + 120 * MINUTE, COORD3);
+		data.add(index, FIVE_AM + 145 * MINUTE, COORD4);
+		data.add(index, FIVE_AM + 1000 * MINUTE, COORD4);
+		return data.toArray();
+	}
+
+	@Test(dataProvider = "dataFindClosest")
+	public void testFindClosest(final PositionTimeIndex aIndex, final long aMillis, final Coordinates aExpected) {
+		final int position = aIndex.findClosest(aMillis);
+
+		Assert.assertEquals(aIndex.getCoordinates(position), aExpected);
+	}
+
+	@Test
+	public void testFindClosestSorted() {
+		final Object[][] data = dataFindClosest();
+		final PositionTimeIndex index = (PositionTimeIndex) data[0][0];
+
+		final long[] millis = new long[data.length];
+		final int[] order = new int[data.length];
+		for (int i = 0; i < data.length; i++) {
+			millis[i] = (long) data[i][1];
+			order[i] = i;
+		}
+
+		final int[] positions = index.findClosest(millis, order);
+
+		for (int i = 0; i < data.length; i++) {
+			Assert.assertEquals(index.getCoordinates(positions[i]), data[i][2]);
+		}
+	}
+
+	@Test
+	public void testFindClosestRanges() {
+		final Object[][] data = dataFindClosest();
+		final PositionTimeIndex index = (PositionTimeIndex) data[0][0];
+
+		final long[] millis = new long[data.length];
+		final int[] order = new int[data.length];
+		for (int i = 0; i < data.length; i++) {
+			millis[i] = (long) data[i][1];
+			order[i] = i;
+		}
+
+		final int[] positions = new int[data.length];
+		final int middle = data.length / 2;
+		index.findClosest(millis, order, middle, data.length, positions);
+		index.findClosest(millis, order, 0, middle, positions);
+
+		for (int i = 0; i < data.length; i++) {
+			Assert.assertEquals(index.getCoordinates(positions[i]), data[i][2]);
+		}
+	}
+
+	@Test
+	public void testOrdering() {
+		final List<Track> tracks = Lists.newArrayList(
+				new Track(Paths.get("track1.kml"),
+						Lists.newArrayList(new PositionData(COORD1, "2000-01-01T05:00:00Z", "A", 25),
+								new PositionData(COORD4, "2000-01-01T07:30:00+02:00", "A", 5))),
+				new Track(Paths.get("track2.kml"),
+						Lists.newArrayList(new PositionData(COORD2, "2000-01-01T06:00:00Z", "A", 40))));
+		final PositionTimeIndex index = new PositionTimeIndex(tracks);
+
+		Assert.assertEquals(index.size(), 3);
+		Assert.assertEquals(index.getMillis(0), FIVE_AM);
+		Assert.assertEquals(index.getCoordinates(0), COORD1);
+		Assert.assertEquals(index.getAccuracy(0), 25f);
+		Assert.assertEquals(index.getMillis(1), FIVE_AM + 60 * MINUTE);
+		Assert.assertEquals(index.getCoordinates(1), COORD2);
+		Assert.assertEquals(index.getAccuracy(1), 40f);
+		Assert.assertEquals(index.getMillis(2), FIVE_AM + 150 * MINUTE);
+		Assert.assertEquals(index.getCoordinates(2), COORD4);
+		Assert.assertEquals(index.getAccuracy(2), 5f);
+	}
+
+	@Test
+	public void testEmptyIndex() {
+		final PositionTimeIndex index = new PositionTimeIndex(Collections.emptyList());
+
+		Assert.assertEquals(index.size(), 0);
+		Assert.assertEquals(index.findClosest(FIVE_AM), -1);
+		Assert.assertEquals(index.findClosest(new long[] { FIVE_AM }, new int[] { 0 }), new int[] { -1 });
+	}
+}
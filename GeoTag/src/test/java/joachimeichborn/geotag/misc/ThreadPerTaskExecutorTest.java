@@ -0,0 +1,103 @@
+package joachimeichborn.geotag.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ThreadPerTaskExecutorTest {
+	@Test
+	public void testConcurrencyLimit() throws Exception {
+		final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test", 3);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			futures.add(executor.submit(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+			}));
+		}
+
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		for (final Future<?> future : futures) {
+			Assert.assertTrue(future.isDone());
+		}
+		Assert.assertTrue(maxRunning.get() <= 3);
+		Assert.assertEquals(executor.getCompletedTaskCount(), 50);
+		Assert.assertEquals(executor.getActiveCount(), 0);
+		Assert.assertEquals(executor.getQueueDepth(), 0);
+	}
+
+	@Test
+	public void testQueueDepth() throws Exception {
+		final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test", 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		executor.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		final Future<String> name = executor.submit(() -> Thread.currentThread().getName());
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(executor.getActiveCount(), 1);
+		Assert.assertEquals(executor.getQueueDepth(), 1);
+
+		release.countDown();
+		Assert.assertTrue(name.get(10, TimeUnit.SECONDS).startsWith("test-"));
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test", 1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		executor.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		final Future<?> queued = executor.submit(() -> {
+		});
+
+		executor.shutdown();
+		Assert.assertTrue(executor.isShutdown());
+		Assert.assertFalse(executor.isTerminated());
+		Assert.assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertTrue(queued.isDone());
+		Assert.assertFalse(queued.isCancelled());
+	}
+
+	@Test(expectedExceptions = RejectedExecutionException.class)
+	public void testRejectAfterShutdown() {
+		final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test", 1);
+		executor.shutdown();
+		executor.execute(() -> {
+		});
+	}
+}
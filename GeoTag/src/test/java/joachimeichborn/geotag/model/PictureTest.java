@@ -36,5 +36,16 @@ public class PictureTest {
 		Assert.assertEquals(pic.getTime(), time);
 		Assert.assertEquals(pic.getCoordinates(), coord);
 		Assert.assertEquals(pic.getGeocoding(), geocoding);
+		Assert.assertEquals(pic.getTimeMillis(), 1_325_413_353_000L);
+	}
+
+	@Test
+	public void testParseTime() {
+		Assert.assertEquals(Picture.parseTime("2012:01:01 10:22:33"), 1_325_413_353_000L);
+		Assert.assertEquals(Picture.parseTime("2012-01-01 10:22:33"), Picture.UNPARSEABLE_TIME);
+		Assert.assertEquals(Picture.parseTime(""), Picture.UNPARSEABLE_TIME);
+		Assert.assertEquals(Picture.parseTime(null), Picture.UNPARSEABLE_TIME);
+		Assert.assertEquals(new Picture(Paths.get("pic1.jpg"), null, null, null).getTimeMillis(),
+				Picture.UNPARSEABLE_TIME);
 	}
 }
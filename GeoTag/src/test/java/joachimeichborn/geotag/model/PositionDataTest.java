@@ -32,6 +32,33 @@ public class PositionDataTest {
 		}
 	}
 
+	@Test
+	public void testMillisConstructor() {
+		final DateTimeZone zone = DateTimeZone.forOffsetHours(-5);
+		final DateTime withTimeZone = new DateTime(2013, 9, 5, 10, 26, 28, 750, zone);
+		final PositionData data = new PositionData(new Coordinates(113.123, 24.21, 4.3), withTimeZone.getMillis(), zone,
+				"a", 1f);
+
+		Assert.assertEquals(data.getTimeMillis(), withTimeZone.getMillis());
+		Assert.assertEquals(data.getTimeZone(), zone);
+		Assert.assertEquals(data.getTimeStamp(), withTimeZone);
+		Assert.assertEquals(data.getTimeMillisWithoutTimeZone(),
+				new DateTime(2013, 9, 5, 10, 26, 28, 0, DateTimeZone.UTC).getMillis());
+		Assert.assertEquals(data.getTimeStampWithoutTimeZone(), new DateTime(2013, 9, 5, 10, 26, 28, 0, DateTimeZone.UTC));
+		Assert.assertEquals(data, new PositionData(new Coordinates(113.123, 24.21, 4.3), withTimeZone, "a", 1f));
+		Assert.assertEquals(data.hashCode(),
+				new PositionData(new Coordinates(113.123, 24.21, 4.3), withTimeZone.withZone(DateTimeZone.UTC), "a", 1f)
+						.hashCode());
+	}
+
+	@Test
+	public void testStripTimeZoneInformation() {
+		final DateTimeZone zone = DateTimeZone.forOffsetHoursMinutes(5, 30);
+		final long millis = new DateTime(1969, 12, 31, 23, 59, 59, 500, zone).getMillis();
+		Assert.assertEquals(PositionData.stripTimeZoneInformation(millis, zone),
+				new DateTime(1969, 12, 31, 23, 59, 59, 0, DateTimeZone.UTC).getMillis());
+	}
+
 	@DataProvider
 	public Object[][] dataEquals() {
 		final List<Object[]> input = new ArrayList<Object[]>();
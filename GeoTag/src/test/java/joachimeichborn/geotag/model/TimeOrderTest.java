@@ -0,0 +1,25 @@
+package joachimeichborn.geotag.model;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TimeOrderTest {
+	@Test
+	public void testSortByTime() {
+		final long[] millis = new long[] { 5, 3, 9, 3, -1, 7, 5 };
+		final int[] order = new int[] { 0, 1, 2, 3, 4, 5, 6 };
+
+		TimeOrder.sortByTime(order, millis);
+
+		Assert.assertEquals(order, new int[] { 4, 1, 3, 0, 6, 5, 2 });
+	}
+
+	@Test
+	public void testSortEmpty() {
+		final int[] order = new int[0];
+
+		TimeOrder.sortByTime(order, new long[0]);
+
+		Assert.assertEquals(order.length, 0);
+	}
+}
@@ -0,0 +1,146 @@
+package joachimeichborn.geotag.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TrackDataTest {
+	private List<PositionData> createPositions() {
+		final List<PositionData> positions = new ArrayList<>();
+		positions.add(new PositionData(new Coordinates(50.1, 8.6, 110), "2014-06-12T14:36:38.123+02:00", "a", 10f));
+		positions.add(new PositionData(new Coordinates(50.2, 8.7, 120), "2014-06-12T11:30:00-05:00", "b", 20f));
+		positions.add(new PositionData(new Coordinates(50.3, 8.8, 130), "2014-06-12T10:00:00Z", "a", 30f));
+		positions.add(new PositionData(new Coordinates(50.4, 8.9, 140), "2014-06-12T10:00:00Z", null, 40f));
+		return positions;
+	}
+
+	@Test
+	public void testPositionsAreSortedByTime() {
+		final List<PositionData> positions = createPositions();
+		final TrackData data = TrackData.of(positions);
+
+		Assert.assertEquals(data.size(), 4);
+		Assert.assertEquals(data.getPosition(0), positions.get(2));
+		Assert.assertEquals(data.getPosition(1), positions.get(3));
+		Assert.assertEquals(data.getPosition(2), positions.get(0));
+		Assert.assertEquals(data.getPosition(3), positions.get(1));
+	}
+
+	@Test
+	public void testColumns() {
+		final List<PositionData> positions = createPositions();
+		final TrackData data = TrackData.of(positions);
+
+		for (int i = 0; i < data.size(); i++) {
+			final PositionData position = data.getPosition(i);
+			final PositionData original = positions.get(positions.indexOf(position));
+			Assert.assertEquals(data.getTime(i), original.getTimeStamp().getMillis());
+			Assert.assertEquals(data.getTimeWithoutTimeZone(i), original.getTimeStampWithoutTimeZone().getMillis());
+			Assert.assertEquals(data.getZone(i), original.getTimeStamp().getZone());
+			Assert.assertEquals(data.getLatitude(i), original.getCoordinates().getLatitude());
+			Assert.assertEquals(data.getLongitude(i), original.getCoordinates().getLongitude());
+			Assert.assertEquals(data.getAltitude(i), original.getCoordinates().getAltitude());
+			Assert.assertEquals(data.getAccuracy(i), original.getAccuracy());
+			Assert.assertEquals(data.getName(i), original.getName());
+			Assert.assertEquals(position.getTimeStamp(), original.getTimeStamp());
+		}
+	}
+
+	@Test
+	public void testBuilder() {
+		final TrackData data = new TrackData.Builder()
+				.add(new DateTime(2014, 6, 12, 12, 0, DateTimeZone.UTC).getMillis(), DateTimeZone.UTC, 1, 2, 3, "x", 5f)
+				.add(new DateTime(2014, 6, 12, 11, 0, DateTimeZone.UTC).getMillis(), DateTimeZone.forOffsetHours(2), 4, 5,
+						6, "x", 7f)
+				.build();
+
+		Assert.assertEquals(data.size(), 2);
+		Assert.assertEquals(data.getLatitude(0), 4.0);
+		Assert.assertEquals(data.getTimeWithoutTimeZone(0),
+				new DateTime(2014, 6, 12, 13, 0, DateTimeZone.UTC).getMillis());
+		Assert.assertEquals(data.getLatitude(1), 1.0);
+		Assert.assertEquals(data.getName(0), "x");
+		Assert.assertEquals(data.getName(1), "x");
+	}
+
+	@Test
+	public void testDistinctNames() {
+		final TrackData.Builder builder = new TrackData.Builder(16);
+		for (int i = 0; i < 3000; i++) {
+			builder.add(3000 - i, DateTimeZone.UTC, i, i, i, i % 2 == 0 ? "name" + i : null, 0f);
+		}
+		final TrackData data = builder.build();
+
+		Assert.assertEquals(data.size(), 3000);
+		for (int i = 0; i < 3000; i++) {
+			final int original = 2999 - i;
+			Assert.assertEquals(data.getLatitude(i), (double) original);
+			Assert.assertEquals(data.getName(i), original % 2 == 0 ? "name" + original : null);
+		}
+		Assert.assertEquals(data, TrackData.of(data.asList()));
+	}
+
+	@Test
+	public void testListView() {
+		final List<PositionData> positions = createPositions();
+		final TrackData data = TrackData.of(positions);
+		final List<PositionData> view = data.asList();
+
+		Assert.assertEquals(view.size(), positions.size());
+		Assert.assertTrue(view.containsAll(positions));
+		Assert.assertEquals(data, TrackData.of(view));
+		Assert.assertEquals(data.hashCode(), TrackData.of(view).hashCode());
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testListViewIsReadOnly() {
+		TrackData.of(createPositions()).asList().clear();
+	}
+
+	@Test
+	public void testEquals() {
+		final List<PositionData> positions = createPositions();
+		Assert.assertEquals(TrackData.of(positions), TrackData.of(positions));
+		Assert.assertNotEquals(TrackData.of(positions), TrackData.of(positions.subList(0, 3)));
+		Assert.assertEquals(TrackData.of(new ArrayList<>()).size(), 0);
+	}
+
+	@Test
+	public void testSerialization() throws IOException {
+		final TrackData.Builder builder = new TrackData.Builder();
+		for (int i = 0; i < 3000; i++) {
+			builder.add(i, DateTimeZone.forOffsetHours(i % 3), i, -i, i / 2.0, i % 2 == 0 ? "name" + i : null, i);
+		}
+
+		for (final TrackData data : new TrackData[] { TrackData.of(createPositions()), builder.build(),
+				TrackData.of(new ArrayList<>()) }) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (final DataOutputStream output = new DataOutputStream(bytes)) {
+				data.write(output);
+			}
+			final TrackData read = TrackData.read(ByteBuffer.wrap(bytes.toByteArray()));
+
+			Assert.assertEquals(read, data);
+			for (int i = 0; i < data.size(); i++) {
+				Assert.assertEquals(read.getZone(i), data.getZone(i));
+			}
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testReadingTruncatedData() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream output = new DataOutputStream(bytes)) {
+			TrackData.of(createPositions()).write(output);
+		}
+		TrackData.read(ByteBuffer.wrap(bytes.toByteArray(), 0, bytes.size() - 1));
+	}
+}
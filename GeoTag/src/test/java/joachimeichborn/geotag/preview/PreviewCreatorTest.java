@@ -3,12 +3,15 @@ package joachimeichborn.geotag.preview;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
+import javax.imageio.ImageIO;
+
 import org.apache.commons.io.FileUtils;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -16,6 +19,8 @@ import org.testng.annotations.Test;
 
 import com.google.common.io.Files;
 
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.PictureOrientation;
 import joachimeichborn.geotag.preview.PreviewCreator.Worker;
 
 public class PreviewCreatorTest {
@@ -29,7 +34,7 @@ public class PreviewCreatorTest {
 		FileUtils.copyURLToFile(PreviewCreator.class.getResource("img1.jpg"), new File(testDir, "img3.jpg"));
 		FileUtils.copyURLToFile(PreviewCreator.class.getResource("img2.jpg"), new File(testDir, "img4.jpg"));
 
-		final Set<PreviewKey> unprocessedKeys = new HashSet<>();
+		final Set<PreviewKey> unprocessedKeys = Collections.synchronizedSet(new HashSet<>());
 		final CountDownLatch allProcessedLatch = new CountDownLatch(1);
 
 		final PreviewKey key1 = new PreviewKey(new File(testDir, "img1.jpg").getAbsolutePath(), 200, 100);
@@ -64,16 +69,16 @@ public class PreviewCreatorTest {
 			}
 		};
 
-		final PreviewCreator creator = new PreviewCreator(consumer);
+		final PreviewCreator creator = new PreviewCreator(consumer, new PreviewScheduler(new ExecutionService()));
 
-		creator.requestPreview(key1, false);
 		unprocessedKeys.add(key1);
-		creator.requestPreview(key2, false);
+		creator.requestPreview(key1, false, PreviewPriority.BACKGROUND);
 		unprocessedKeys.add(key2);
-		creator.requestPreview(key3, true);
+		creator.requestPreview(key2, false, PreviewPriority.BACKGROUND);
 		unprocessedKeys.add(key3);
-		creator.requestPreview(key4, true);
+		creator.requestPreview(key3, true, PreviewPriority.BACKGROUND);
 		unprocessedKeys.add(key4);
+		creator.requestPreview(key4, true, PreviewPriority.BACKGROUND);
 
 		allProcessedLatch.await();
 	}
@@ -138,4 +143,41 @@ public class PreviewCreatorTest {
 
 		Assert.assertEquals(consumerInvocations.size(), 2);
 	}
+
+	@Test
+	public void testNonJpegPicture() throws IOException {
+		final File testDir = Files.createTempDir();
+		testDir.deleteOnExit();
+
+		final File testPicture = new File(testDir, "picture.png");
+		ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), "png", testPicture);
+		testPicture.deleteOnExit();
+
+		final PreviewKey key = new PreviewKey(testPicture.getAbsolutePath(), 200, 100);
+		final List<BufferedImage> previews = new LinkedList<>();
+		new Worker(key, false, (aKey, aImage) -> previews.add(aImage)).run();
+
+		Assert.assertEquals(previews.size(), 1);
+		Assert.assertEquals(previews.get(0).getWidth(), 133);
+		Assert.assertEquals(previews.get(0).getHeight(), 100);
+	}
+
+	@Test
+	public void testPreviewFromGivenThumbnail() {
+		// the file does not exist, so the preview can only come from the thumbnail
+		final PreviewKey key = new PreviewKey("/nonexistent/picture.jpg", 160, 120);
+		final List<BufferedImage> previews = new LinkedList<>();
+		final PreviewCreator creator = new PreviewCreator((aKey, aImage) -> previews.add(aImage), null);
+
+		Assert.assertFalse(creator.createPreview(key, true, new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB),
+				PictureOrientation.HORIZONTAL_NORMAL));
+		Assert.assertFalse(creator.createPreview(key, true, null, PictureOrientation.HORIZONTAL_NORMAL));
+		Assert.assertTrue(previews.isEmpty());
+
+		Assert.assertTrue(creator.createPreview(key, true, new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB),
+				PictureOrientation.HORIZONTAL_NORMAL));
+		Assert.assertEquals(previews.size(), 1);
+		Assert.assertEquals(previews.get(0).getWidth(), 160);
+		Assert.assertEquals(previews.get(0).getHeight(), 120);
+	}
 }
@@ -13,7 +13,9 @@ import org.testng.annotations.Test;
 
 import com.google.common.io.Files;
 
+import joachimeichborn.geotag.io.database.CatalogEntry;
 import joachimeichborn.geotag.io.database.DatabaseAccess;
+import joachimeichborn.geotag.misc.ExecutionService;
 import joachimeichborn.geotag.preview.PreviewConsumer;
 import joachimeichborn.geotag.preview.PreviewCreator;
 import joachimeichborn.geotag.preview.PreviewKey;
@@ -76,9 +78,19 @@ public class PreviewRepoTest {
 				// TODO Auto-generated method stub
 				return false;
 			}
+
+			@Override
+			public void saveCatalogEntry(final CatalogEntry aEntry) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public CatalogEntry getCatalogEntry(final String aFile, final long aSize, final long aLastModified) {
+				throw new UnsupportedOperationException();
+			}
 		};
 
-		final PreviewRepo repo = new PreviewRepo(database);
+		final PreviewRepo repo = new PreviewRepo(database, new PreviewScheduler(new ExecutionService()));
 
 		// using the return value, we can see if an existing preview has been
 		// used (in that case an image not equal to the placeholder is returned)
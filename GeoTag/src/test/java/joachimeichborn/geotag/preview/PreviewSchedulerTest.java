@@ -0,0 +1,134 @@
+package joachimeichborn.geotag.preview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import joachimeichborn.geotag.preview.PreviewCreator.Worker;
+
+public class PreviewSchedulerTest {
+	private static class RecordingWorker extends Worker {
+		private final List<String> order;
+		private final CountDownLatch release;
+		private final CountDownLatch done;
+
+		public RecordingWorker(final String aName, final PreviewConsumer aConsumer, final List<String> aOrder,
+				final CountDownLatch aRelease, final CountDownLatch aDone) {
+			super(new PreviewKey(aName, 1, 1), false, aConsumer);
+			order = aOrder;
+			release = aRelease;
+			done = aDone;
+		}
+
+		@Override
+		public void run() {
+			order.add(getCacheKey().getFile());
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			done.countDown();
+		}
+	}
+
+	private static final PreviewConsumer CONSUMER = (aKey, aImage) -> {
+	};
+
+	@Test
+	public void testPriorityOrder() throws InterruptedException {
+		final ExecutorService threadPool = Executors.newSingleThreadExecutor();
+		final PreviewScheduler scheduler = new PreviewScheduler(threadPool, 1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(7);
+
+		scheduler.schedule(new RecordingWorker("blocker", CONSUMER, order, release, done), PreviewPriority.BACKGROUND);
+		scheduler.schedule(new RecordingWorker("background1", CONSUMER, order, release, done),
+				PreviewPriority.BACKGROUND);
+		scheduler.schedule(new RecordingWorker("background2", CONSUMER, order, release, done),
+				PreviewPriority.BACKGROUND);
+		scheduler.schedule(new RecordingWorker("prefetch1", CONSUMER, order, release, done),
+				PreviewPriority.VISIBLE_PREFETCH);
+		scheduler.schedule(new RecordingWorker("interactive1", CONSUMER, order, release, done),
+				PreviewPriority.INTERACTIVE);
+		scheduler.schedule(new RecordingWorker("prefetch2", CONSUMER, order, release, done),
+				PreviewPriority.VISIBLE_PREFETCH);
+		scheduler.schedule(new RecordingWorker("interactive2", CONSUMER, order, release, done),
+				PreviewPriority.INTERACTIVE);
+
+		Assert.assertEquals(scheduler.getPendingCount(PreviewPriority.BACKGROUND), 2);
+		Assert.assertEquals(scheduler.getPendingCount(PreviewPriority.VISIBLE_PREFETCH), 2);
+		Assert.assertEquals(scheduler.getPendingCount(PreviewPriority.INTERACTIVE), 2);
+
+		release.countDown();
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		threadPool.shutdown();
+
+		Assert.assertEquals(order, Arrays.asList("blocker", "interactive2", "interactive1", "prefetch2",
+				"prefetch1", "background2", "background1"));
+	}
+
+	@Test
+	public void testBackgroundThrottling() throws InterruptedException {
+		final ExecutorService threadPool = Executors.newFixedThreadPool(4);
+		final PreviewScheduler scheduler = new PreviewScheduler(threadPool, 4);
+		final List<String> order = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(5);
+
+		for (int i = 0; i < 4; i++) {
+			scheduler.schedule(new RecordingWorker("background" + i, CONSUMER, order, release, done),
+					PreviewPriority.BACKGROUND);
+		}
+
+		// only half of the slots may be used for background work
+		Assert.assertEquals(scheduler.getPendingCount(PreviewPriority.BACKGROUND), 2);
+
+		scheduler.schedule(new RecordingWorker("interactive", CONSUMER, order, release, done),
+				PreviewPriority.INTERACTIVE);
+		Assert.assertEquals(scheduler.getPendingCount(PreviewPriority.INTERACTIVE), 0);
+
+		release.countDown();
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		threadPool.shutdown();
+	}
+
+	@Test
+	public void testPromote() throws InterruptedException {
+		final ExecutorService threadPool = Executors.newSingleThreadExecutor();
+		final PreviewScheduler scheduler = new PreviewScheduler(threadPool, 1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(4);
+		final PreviewConsumer otherConsumer = (aKey, aImage) -> {
+		};
+
+		scheduler.schedule(new RecordingWorker("blocker", CONSUMER, order, release, done), PreviewPriority.BACKGROUND);
+		scheduler.schedule(new RecordingWorker("selected", CONSUMER, order, release, done),
+				PreviewPriority.BACKGROUND);
+		scheduler.schedule(new RecordingWorker("other", otherConsumer, order, release, done),
+				PreviewPriority.BACKGROUND);
+		scheduler.schedule(new RecordingWorker("prefetch", CONSUMER, order, release, done),
+				PreviewPriority.VISIBLE_PREFETCH);
+
+		scheduler.promote(new PreviewKey("selected", 1, 1), CONSUMER, PreviewPriority.INTERACTIVE);
+		scheduler.promote(new PreviewKey("other", 1, 1), CONSUMER, PreviewPriority.INTERACTIVE);
+
+		Assert.assertEquals(scheduler.getPendingCount(PreviewPriority.INTERACTIVE), 1);
+
+		release.countDown();
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		threadPool.shutdown();
+
+		Assert.assertEquals(order, Arrays.asList("blocker", "selected", "prefetch", "other"));
+	}
+}
@@ -2,7 +2,10 @@ package joachimeichborn.geotag.refinetracks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+import joachimeichborn.geotag.misc.ExecutionService;
+import joachimeichborn.geotag.misc.ExecutionService.PoolType;
 import joachimeichborn.geotag.model.Coordinates;
 import joachimeichborn.geotag.model.PositionData;
 import joachimeichborn.geotag.refinetracks.ImproveTrackOptions.ImproveTrackOptionsBuilder;
@@ -12,6 +15,8 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 public class ReplacePositionsByAccuracyComparisonTaskTest {
+	private static final ExecutorService THREAD_POOL = new ExecutionService().getExecutor(PoolType.CPU);
+
 	@DataProvider
 	public Object[][] dataEnabled() {
 		final List<Object[]> data = new ArrayList<>();
@@ -30,7 +35,7 @@ public class ReplacePositionsByAccuracyComparisonTaskTest {
 
 	@Test(dataProvider = "dataEnabled")
 	public void testEnabled(final ImproveTrackOptions aOptions, final boolean aEnabled) {
-		final TrackImprovementTask task = new ReplacePositionsByAccuracyComparisonTask(aOptions);
+		final TrackImprovementTask task = new ReplacePositionsByAccuracyComparisonTask(aOptions, THREAD_POOL);
 		Assert.assertEquals(task.isEnabled(), aEnabled);
 	}
 
@@ -141,7 +146,7 @@ public class ReplacePositionsByAccuracyComparisonTaskTest {
 	@Test(dataProvider = "dataFilterPositions")
 	public void testFilterPositions(final List<PositionData> aPositions, final List<PositionData> aExpectedPositions,
 			final ImproveTrackOptions aOptions) {
-		final TrackImprovementTask task = new ReplacePositionsByAccuracyComparisonTask(aOptions);
+		final TrackImprovementTask task = new ReplacePositionsByAccuracyComparisonTask(aOptions, THREAD_POOL);
 		task.execute(aPositions);
 		Assert.assertEquals(aPositions, aExpectedPositions);
 	}